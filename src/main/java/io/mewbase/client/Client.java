@@ -31,6 +31,10 @@ public interface Client {
     int ERR_NO_SUCH_CHANNEL = 3;
     int ERR_NO_SUCH_BINDER = 4;
     int ERR_NO_SUCH_QUERY = 5;
+    int ERR_TX_IN_PROGRESS = 6;
+    int ERR_NO_TX_IN_PROGRESS = 7;
+    int ERR_COMMAND_FAILED = 8;
+    int ERR_NO_SUCH_CURSOR = 9;
 
     int ERR_SERVER_ERROR = 100;
 
@@ -44,6 +48,21 @@ public interface Client {
     void executeQuery(String queryName, BsonObject params,
                       Consumer<QueryResult> resultHandler, Consumer<Throwable> exceptionHandler);
 
+    /**
+     * Execute a query a page at a time. At most limit results are returned - if there are more, the last result of the
+     * page has a cursor which can be passed to a later call to get the next page. Each page is read separately, so
+     * nothing is held open on the server between pages, but cursors expire if they're not used for a while.
+     *
+     * @param queryName the name of the query
+     * @param params the query params, ignored if a cursor is given as the cursor remembers them
+     * @param limit the maximum number of results to return
+     * @param cursor the cursor from the previous page, or null to get the first page
+     * @param resultHandler called with each result
+     * @param exceptionHandler called if the query fails, e.g. because the cursor expired
+     */
+    void executeQuery(String queryName, BsonObject params, int limit, String cursor,
+                      Consumer<QueryResult> resultHandler, Consumer<Throwable> exceptionHandler);
+
     CompletableFuture<BsonArray> listBinders();
 
     CompletableFuture<Boolean> createBinder(String binderName);
@@ -52,6 +71,16 @@ public interface Client {
 
     CompletableFuture<Subscription> subscribe(SubDescriptor subDescriptor, Consumer<ClientDelivery> handler);
 
+    /**
+     * Subscribe without a handler - events are pulled with {@link Subscription#receive(long)} or
+     * {@link Subscription#receiveBatch(int, long)} instead. Up to prefetchSize unacknowledged events are sent to the
+     * client, and the server sends more as the application acknowledges them.
+     *
+     * @param subDescriptor the subscription descriptor
+     * @return a future which completes with the subscription
+     */
+    CompletableFuture<Subscription> subscribe(SubDescriptor subDescriptor);
+
     Producer createProducer(String channel);
 
     CompletableFuture<Void> publish(String channel, BsonObject event);
@@ -62,10 +91,23 @@ public interface Client {
 
     CompletableFuture<Boolean> createChannel(String binderName);
 
+    CompletableFuture<Boolean> createChannel(String channelName, int partitions);
+
     // Command related operations
 
     CompletableFuture<Void> sendCommand(String commandName, BsonObject command);
 
+    /**
+     * Send a command which can safely be retried. If a command with the same name and ID has already completed
+     * successfully the server doesn't run it again, and just responds with success.
+     *
+     * @param commandName the name of the command
+     * @param command the command
+     * @param commandID the ID of the command, unique for each command sent
+     * @return a future which completes when the command has completed
+     */
+    CompletableFuture<Void> sendCommand(String commandName, BsonObject command, String commandID);
+
     // Admin operations
 
     CompletableFuture<Void> close();
@@ -10,11 +10,35 @@ public class ClientOptions {
 
     public static final String DEFAULT_HOST = "localhost";
     public static final int DEFAULT_PORT = 7451;
+    public static final int DEFAULT_MAX_PUBLISHES_IN_FLIGHT = 1000;
+    public static final int DEFAULT_MAX_PUBLISH_BYTES_IN_FLIGHT = 4 * 1024 * 1024;
+    public static final long DEFAULT_PUBLISH_LINGER_MS = 0;
+    public static final int DEFAULT_MAX_PUBLISH_BATCH_BYTES = 64 * 1024;
+    public static final int DEFAULT_CONNECTION_POOL_SIZE = 1;
+    public static final boolean DEFAULT_CHANNEL_AFFINITY = false;
+    public static final int DEFAULT_PREFETCH_SIZE = 1000;
+    public static final int DEFAULT_SUBSCRIPTION_WINDOW_BYTES = 0;
+    public static final int DEFAULT_QUERY_WINDOW_BYTES = 0;
+    public static final String DEFAULT_PROTOCOL_VERSION = "0.2";
+    public static final String DEFAULT_IN_VM_NAME = null;
+    public static final String DEFAULT_DOMAIN_SOCKET_PATH = null;
 
     private String host = DEFAULT_HOST;
     private int port = DEFAULT_PORT;
     private NetClientOptions netClientOptions = new NetClientOptions();
     private BsonObject authInfo;
+    private int maxPublishesInFlight = DEFAULT_MAX_PUBLISHES_IN_FLIGHT;
+    private int maxPublishBytesInFlight = DEFAULT_MAX_PUBLISH_BYTES_IN_FLIGHT;
+    private long publishLingerMs = DEFAULT_PUBLISH_LINGER_MS;
+    private int maxPublishBatchBytes = DEFAULT_MAX_PUBLISH_BATCH_BYTES;
+    private int connectionPoolSize = DEFAULT_CONNECTION_POOL_SIZE;
+    private boolean channelAffinity = DEFAULT_CHANNEL_AFFINITY;
+    private int prefetchSize = DEFAULT_PREFETCH_SIZE;
+    private int subscriptionWindowBytes = DEFAULT_SUBSCRIPTION_WINDOW_BYTES;
+    private int queryWindowBytes = DEFAULT_QUERY_WINDOW_BYTES;
+    private String protocolVersion = DEFAULT_PROTOCOL_VERSION;
+    private String inVMName = DEFAULT_IN_VM_NAME;
+    private String domainSocketPath = DEFAULT_DOMAIN_SOCKET_PATH;
 
     public String getHost() {
         return host;
@@ -53,6 +77,114 @@ public class ClientOptions {
         return this;
     }
 
+    public int getMaxPublishesInFlight() {
+        return maxPublishesInFlight;
+    }
+
+    public ClientOptions setMaxPublishesInFlight(int maxPublishesInFlight) {
+        this.maxPublishesInFlight = maxPublishesInFlight;
+        return this;
+    }
+
+    public int getMaxPublishBytesInFlight() {
+        return maxPublishBytesInFlight;
+    }
+
+    public ClientOptions setMaxPublishBytesInFlight(int maxPublishBytesInFlight) {
+        this.maxPublishBytesInFlight = maxPublishBytesInFlight;
+        return this;
+    }
+
+    public long getPublishLingerMs() {
+        return publishLingerMs;
+    }
+
+    public ClientOptions setPublishLingerMs(long publishLingerMs) {
+        this.publishLingerMs = publishLingerMs;
+        return this;
+    }
+
+    public int getMaxPublishBatchBytes() {
+        return maxPublishBatchBytes;
+    }
+
+    public ClientOptions setMaxPublishBatchBytes(int maxPublishBatchBytes) {
+        this.maxPublishBatchBytes = maxPublishBatchBytes;
+        return this;
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public ClientOptions setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+        return this;
+    }
+
+    public boolean isChannelAffinity() {
+        return channelAffinity;
+    }
+
+    public ClientOptions setChannelAffinity(boolean channelAffinity) {
+        this.channelAffinity = channelAffinity;
+        return this;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    public ClientOptions setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+        return this;
+    }
+
+    public int getSubscriptionWindowBytes() {
+        return subscriptionWindowBytes;
+    }
+
+    public ClientOptions setSubscriptionWindowBytes(int subscriptionWindowBytes) {
+        this.subscriptionWindowBytes = subscriptionWindowBytes;
+        return this;
+    }
+
+    public int getQueryWindowBytes() {
+        return queryWindowBytes;
+    }
+
+    public ClientOptions setQueryWindowBytes(int queryWindowBytes) {
+        this.queryWindowBytes = queryWindowBytes;
+        return this;
+    }
+
+    public String getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public ClientOptions setProtocolVersion(String protocolVersion) {
+        this.protocolVersion = protocolVersion;
+        return this;
+    }
+
+    public String getInVMName() {
+        return inVMName;
+    }
+
+    public ClientOptions setInVMName(String inVMName) {
+        this.inVMName = inVMName;
+        return this;
+    }
+
+    public String getDomainSocketPath() {
+        return domainSocketPath;
+    }
+
+    public ClientOptions setDomainSocketPath(String domainSocketPath) {
+        this.domainSocketPath = domainSocketPath;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -61,6 +193,19 @@ public class ClientOptions {
         ClientOptions that = (ClientOptions)o;
 
         if (port != that.port) return false;
+        if (maxPublishesInFlight != that.maxPublishesInFlight) return false;
+        if (maxPublishBytesInFlight != that.maxPublishBytesInFlight) return false;
+        if (publishLingerMs != that.publishLingerMs) return false;
+        if (maxPublishBatchBytes != that.maxPublishBatchBytes) return false;
+        if (connectionPoolSize != that.connectionPoolSize) return false;
+        if (channelAffinity != that.channelAffinity) return false;
+        if (prefetchSize != that.prefetchSize) return false;
+        if (subscriptionWindowBytes != that.subscriptionWindowBytes) return false;
+        if (queryWindowBytes != that.queryWindowBytes) return false;
+        if (inVMName != null ? !inVMName.equals(that.inVMName) : that.inVMName != null) return false;
+        if (domainSocketPath != null ? !domainSocketPath.equals(that.domainSocketPath) : that.domainSocketPath != null)
+            return false;
+        if (protocolVersion != null ? !protocolVersion.equals(that.protocolVersion) : that.protocolVersion != null) return false;
         if (netClientOptions != null && !netClientOptions.equals(that.getNetClientOptions())) return false;
 
         return host != null ? host.equals(that.host) : that.host == null;
@@ -71,6 +216,18 @@ public class ClientOptions {
     public int hashCode() {
         int result = host != null ? host.hashCode() : 0;
         result = 31 * result + port;
+        result = 31 * result + maxPublishesInFlight;
+        result = 31 * result + maxPublishBytesInFlight;
+        result = 31 * result + (int)(publishLingerMs ^ (publishLingerMs >>> 32));
+        result = 31 * result + maxPublishBatchBytes;
+        result = 31 * result + connectionPoolSize;
+        result = 31 * result + (channelAffinity ? 1 : 0);
+        result = 31 * result + prefetchSize;
+        result = 31 * result + subscriptionWindowBytes;
+        result = 31 * result + queryWindowBytes;
+        result = 31 * result + (protocolVersion != null ? protocolVersion.hashCode() : 0);
+        result = 31 * result + (inVMName != null ? inVMName.hashCode() : 0);
+        result = 31 * result + (domainSocketPath != null ? domainSocketPath.hashCode() : 0);
         return result;
     }
 
@@ -12,10 +12,21 @@ import java.util.concurrent.CompletableFuture;
  */
 public interface Producer extends Transactional {
 
+    /**
+     * Publishes are pipelined - this returns straight away and the future completes when the event has been
+     * persisted. Once the in flight window is full further events are queued in the producer until the window has
+     * room for them, so callers should stop publishing while {@link #publishQueueFull()} and carry on from the
+     * {@link #drainHandler(Runnable) drain handler}.
+     * <p>
+     * Between {@link #startTx()} and {@link #commitTx()} the future doesn't complete until the transaction has been
+     * committed, and fails if it is aborted.
+     */
     CompletableFuture<Void> publish(BsonObject event);
 
-    void close();
+    boolean publishQueueFull();
+
+    Producer drainHandler(Runnable handler);
 
-    // TODO should also support flow control on publish. WriteStream? Reactive Streams?
+    void close();
 
 }
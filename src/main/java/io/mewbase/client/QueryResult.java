@@ -12,4 +12,10 @@ public interface QueryResult {
     void acknowledge();
 
     boolean isLast();
+
+    /**
+     * @return the cursor to get the next page with, if this is the last result of a page and there are more results,
+     * otherwise null
+     */
+    String cursor();
 }
@@ -1,6 +1,6 @@
 package io.mewbase.client;
 
-import io.mewbase.bson.BsonObject;
+import java.util.List;
 
 /**
  * Created by tim on 22/09/16.
@@ -25,7 +25,29 @@ public interface Subscription {
      */
     void close();
 
-    // Blocking yuck!
+    /**
+     * Receive the next event of a subscription created without a handler, blocking until there is one. The event
+     * must be acknowledged once it's been processed - the server won't send more than the window of events ahead of
+     * the acknowledgements.
+     * <p>
+     * Receiving an event doesn't give its credit back to the server, only {@link ClientDelivery#acknowledge()} does.
+     * Once a window of events has been received without being acknowledged, no more are sent.
+     *
+     * @param timeout the maximum time to wait in ms
+     * @return the event, or null if there was none before the timeout
+     */
+    ClientDelivery receive(long timeout);
 
-    BsonObject receive(long timeout);
+    /**
+     * Receive up to max events of a subscription created without a handler, blocking until there is at least one.
+     * Each event must be acknowledged once it's been processed.
+     * <p>
+     * As with {@link #receive(long)}, credit only goes back to the server as each event is acknowledged, so a batch
+     * can never be bigger than the window, and receiving it doesn't make room for more.
+     *
+     * @param max the maximum number of events to receive
+     * @param timeout the maximum time to wait in ms
+     * @return the events, empty if there were none before the timeout
+     */
+    List<ClientDelivery> receiveBatch(int max, long timeout);
 }
@@ -0,0 +1,373 @@
+package io.mewbase.client.impl;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.MewException;
+import io.mewbase.server.impl.FrameTransportConnection;
+import io.mewbase.server.impl.Protocol;
+import io.mewbase.server.impl.TransportConnection;
+import io.mewbase.server.impl.transport.epoll.DomainSocketTransport;
+import io.mewbase.server.impl.transport.invm.InVMTransport;
+import io.mewbase.server.impl.transport.net.NetTransportConnection;
+import io.mewbase.util.AsyncResCF;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * One of the connections in a client's pool.
+ * <p>
+ * Frames are encoded by the thread writing them, without holding any lock, and added to a lock free queue which is
+ * drained by a task on the socket's context. Only one drain task is scheduled at a time, so frames are written in the
+ * order they were queued, and many frames queued together are written by one task.
+ * <p>
+ * Frames written before we've connected are encoded with the protocol version we're asking for, and encoded again
+ * when they're written if the server doesn't agree to it. If the connect fails, every frame queued by then fails with
+ * it.
+ * <p>
+ * If the client has an in-VM name, the connection is to a server in the same JVM and frames are passed across as
+ * they are, without being encoded. If it has a domain socket path, the connection is over that Unix domain socket
+ * rather than TCP.
+ * <p>
+ * Subscriptions live on the connection they were created on, as the server's subscription ids are only unique per
+ * connection.
+ */
+public class ClientConnection implements ClientFrameHandler {
+
+    private final ClientImpl client;
+    private final NetClient netClient;
+    private final ClientOptions clientOptions;
+    private final Map<Integer, SubscriptionImpl> subscriptionMap = new ConcurrentHashMap<>();
+    private final Protocol protocol = new Protocol(this);
+    // Frames waiting to be written - Buffers, or PendingFrames if written before we connected or in-VM. Many
+    // producers, drained by the socket's context
+    private final Queue<Object> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private volatile boolean connected;
+    // The client's end of a TCP or domain socket connection
+    private TransportConnection socket;
+    private FrameTransportConnection frameConnection;
+    private Context socketContext;
+    private boolean connecting;
+    private Consumer<BsonObject> connectResponse;
+
+    ClientConnection(ClientImpl client, NetClient netClient, ClientOptions clientOptions) {
+        this.client = client;
+        this.netClient = netClient;
+        this.clientOptions = clientOptions;
+    }
+
+    /*
+    Returns the size of the encoded frame
+     */
+    protected int write(CompletableFuture cf, String frameType, BsonObject frame, Consumer<BsonObject> respHandler) {
+        client.addResponseHandler(frame, respHandler);
+        int size;
+        if (clientOptions.getInVMName() != null) {
+            PendingFrame pending = new PendingFrame(cf, frameType, frame, null, false);
+            writeQueue.add(pending);
+            size = pending.size;
+        } else if (connected) {
+            Buffer buff = protocol.encode(frameType, frame);
+            writeQueue.add(buff);
+            size = buff.length();
+        } else {
+            boolean version2 = Protocol.VERSION_2.equals(clientOptions.getProtocolVersion());
+            Buffer buff = version2 ? Protocol.encodeFrameV2(frameType, frame) : Protocol.encodeFrame(frameType, frame);
+            writeQueue.add(new PendingFrame(cf, frameType, frame, buff, version2));
+            size = buff.length();
+        }
+        if (connected) {
+            scheduleDrain();
+        } else {
+            // Written once we've connected
+            connect(cf);
+        }
+        return size;
+    }
+
+    /*
+    Write a frame which has no response
+     */
+    protected void write(String frameType, BsonObject frame) {
+        if (!connected) {
+            throw new MewException("Not connected");
+        }
+        if (frameConnection != null) {
+            writeQueue.add(new PendingFrame(null, frameType, frame, null, false));
+        } else {
+            writeQueue.add(protocol.encode(frameType, frame));
+        }
+        scheduleDrain();
+    }
+
+    protected synchronized void close() {
+        // Net sockets are closed along with the net client too
+        if (frameConnection != null) {
+            frameConnection.close();
+        } else if (socket != null) {
+            socket.close();
+        }
+    }
+
+    protected void addSubscription(SubscriptionImpl sub) {
+        subscriptionMap.put(sub.getID(), sub);
+    }
+
+    protected void doUnsubscribe(int subID) {
+        subscriptionMap.remove(subID);
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.UNSUBSCRIBE_SUBID, subID);
+        write(new CompletableFuture(), Protocol.UNSUBSCRIBE_FRAME, frame, fr -> {
+        });
+    }
+
+    protected void doSubClose(int subID) {
+        subscriptionMap.remove(subID);
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.SUBCLOSE_SUBID, subID);
+        write(new CompletableFuture(), Protocol.SUBCLOSE_FRAME, frame, fr -> {
+        });
+    }
+
+    protected void doAckEv(int subID, long pos, int sizeBytes) {
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.ACKEV_SUBID, subID);
+        frame.put(Protocol.ACKEV_POS, pos);
+        frame.put(Protocol.ACKEV_BYTES, sizeBytes);
+        write(Protocol.ACKEV_FRAME, frame);
+    }
+
+    protected void doQueryAck(int queryID, int bytes) {
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.QUERYACK_QUERYID, queryID);
+        frame.put(Protocol.QUERYACK_BYTES, bytes);
+        write(Protocol.QUERYACK_FRAME, frame);
+    }
+
+    // FrameHandler
+
+    @Override
+    public void handleQueryResult(int size, BsonObject resp) {
+        client.handleQueryResult(this, size, resp);
+    }
+
+    @Override
+    public void handleRecev(int size, BsonObject frame) {
+        int subID = frame.getInteger(Protocol.RECEV_SUBID);
+        SubscriptionImpl sub = subscriptionMap.get(subID);
+        if (sub == null) {
+            // No subscription for this - maybe closed - ignore
+        } else {
+            sub.handleRecevFrame(size, frame);
+        }
+    }
+
+    @Override
+    public void handlePing(BsonObject frame) {
+    }
+
+    @Override
+    public void handleSubResponse(BsonObject frame) {
+        handleResponse(frame);
+    }
+
+    @Override
+    public void handlePubAck(BsonObject frame) {
+        client.handlePubAck(frame);
+    }
+
+    @Override
+    public void handleResponse(BsonObject frame) {
+        Consumer<BsonObject> connectResp;
+        synchronized (this) {
+            connectResp = connecting ? connectResponse : null;
+        }
+        if (connectResp != null) {
+            connectResp.accept(frame);
+        } else {
+            client.handleResponse(frame);
+        }
+    }
+
+    private synchronized void connect(CompletableFuture cfConnect) {
+        if (connecting || connected) {
+            return;
+        }
+        connecting = true;
+        String inVMName = clientOptions.getInVMName();
+        if (inVMName != null) {
+            connectInVM(cfConnect, inVMName);
+            return;
+        }
+        String domainSocketPath = clientOptions.getDomainSocketPath();
+        if (domainSocketPath != null) {
+            connectDomainSocket(cfConnect, domainSocketPath);
+            return;
+        }
+        AsyncResCF<NetSocket> cf = new AsyncResCF<>();
+        netClient.connect(clientOptions.getPort(), clientOptions.getHost(), cf);
+        cf.thenAccept(ns -> {
+            // The connect handler is called on the socket's context
+            Context ctx = Vertx.currentContext();
+            sendSocketConnect(cfConnect, ctx != null ? ctx : client.vertx().getOrCreateContext(),
+                    new NetTransportConnection(ns));
+        }).exceptionally(t -> {
+            connectFailed(cfConnect, t);
+            return null;
+        });
+    }
+
+    private void connectDomainSocket(CompletableFuture cfConnect, String path) {
+        Context ctx = client.vertx().getOrCreateContext();
+        DomainSocketTransport.connect(client.domainSocketEventLoops(), path, ctx)
+                .thenAccept(conn -> sendSocketConnect(cfConnect, ctx, conn)).exceptionally(t -> {
+                    connectFailed(cfConnect, t);
+                    return null;
+                });
+    }
+
+    private void connectInVM(CompletableFuture cfConnect, String inVMName) {
+        InVMTransport transport = InVMTransport.lookup(inVMName);
+        if (transport == null) {
+            connectFailed(cfConnect, new MewException("No server in this JVM with in-VM name " + inVMName));
+            return;
+        }
+        Context ctx = client.vertx().getOrCreateContext();
+        transport.connect(ctx).thenAccept(conn -> sendConnect(cfConnect, ctx, conn));
+    }
+
+    private synchronized void sendConnect(CompletableFuture cfConnect, Context ctx, FrameTransportConnection conn) {
+        frameConnection = conn;
+        socketContext = ctx;
+        conn.frameHandler(protocol::handleFrame);
+        BsonObject frame = connectFrame();
+        connectResponse = resp -> connected(cfConnect, resp);
+        conn.writeFrame(Protocol.CONNECT_FRAME, frame, Protocol.estimateSize(frame));
+    }
+
+    private synchronized void sendSocketConnect(CompletableFuture cfConnect, Context ctx, TransportConnection conn) {
+        socket = conn;
+        socketContext = ctx;
+        socket.handler(protocol.recordParser()::handle);
+
+        // Send the CONNECT frame, always with version 1 as we don't know what the server supports yet
+        Buffer buffer = Protocol.encodeFrame(Protocol.CONNECT_FRAME, connectFrame());
+        connectResponse = resp -> connected(cfConnect, resp);
+        socket.write(buffer);
+    }
+
+    private BsonObject connectFrame() {
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.CONNECT_VERSION, clientOptions.getProtocolVersion());
+        frame.put(Protocol.CONNECT_AUTH_INFO, clientOptions.getAuthInfo());
+        return frame;
+    }
+
+    private void connected(CompletableFuture cfConnect, BsonObject resp) {
+        boolean ok = resp.getBoolean(Protocol.RESPONSE_OK);
+        if (ok) {
+            if (Protocol.VERSION_2.equals(resp.getString(Protocol.CONNECTRESPONSE_VERSION))) {
+                protocol.useVersion2();
+            }
+            // Both at once, so a writer can't see neither set and open another socket
+            synchronized (this) {
+                connected = true;
+                connecting = false;
+            }
+            // Anything queued while we were connecting is written now
+            scheduleDrain();
+        } else {
+            connectFailed(cfConnect, new MewException(resp.getString(Protocol.RESPONSE_ERRMSG),
+                    resp.getInteger(Protocol.RESPONSE_ERRCODE)));
+        }
+    }
+
+    /*
+    Everything queued while we were connecting fails, not just the write which started the connect. Anything written
+    after this starts a new connect
+     */
+    private void connectFailed(CompletableFuture cfConnect, Throwable t) {
+        List<PendingFrame> failed = new ArrayList<>();
+        synchronized (this) {
+            connecting = false;
+            Object queued;
+            while ((queued = writeQueue.poll()) != null) {
+                failed.add((PendingFrame)queued);
+            }
+        }
+        cfConnect.completeExceptionally(t);
+        for (PendingFrame pending : failed) {
+            Integer requestID = pending.frame.getInteger(Protocol.REQUEST_REQUEST_ID);
+            if (requestID != null) {
+                client.removeResponseHandler(requestID);
+            }
+            if (pending.cf != null) {
+                pending.cf.completeExceptionally(t);
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            socketContext.runOnContext(v -> drain());
+        }
+    }
+
+    /*
+    Anything queued after we clear the flag schedules another drain, so nothing is left behind
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        while (true) {
+            Object queued = writeQueue.poll();
+            if (queued == null) {
+                break;
+            }
+            if (frameConnection != null) {
+                PendingFrame pending = (PendingFrame)queued;
+                frameConnection.writeFrame(pending.frameType, pending.frame, pending.size);
+            } else {
+                socket.write(queued instanceof PendingFrame ? ((PendingFrame)queued).encoded() : (Buffer)queued);
+            }
+        }
+    }
+
+    private class PendingFrame {
+        final CompletableFuture cf;
+        final String frameType;
+        final BsonObject frame;
+        final Buffer buff;
+        final boolean version2;
+        final int size;
+
+        /*
+        The buffer is null for frames which are passed across in-VM without being encoded
+         */
+        PendingFrame(CompletableFuture cf, String frameType, BsonObject frame, Buffer buff, boolean version2) {
+            this.cf = cf;
+            this.frameType = frameType;
+            this.frame = frame;
+            this.buff = buff;
+            this.version2 = version2;
+            this.size = buff != null ? buff.length() : Protocol.estimateSize(frame);
+        }
+
+        Buffer encoded() {
+            return version2 == protocol.isVersion2() ? buff : protocol.encode(frameType, frame);
+        }
+    }
+}
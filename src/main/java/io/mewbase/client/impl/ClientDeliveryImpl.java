@@ -5,6 +5,8 @@ import io.mewbase.client.ClientDelivery;
 import io.mewbase.client.Subscription;
 import io.mewbase.common.impl.DeliveryImpl;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Created by tim on 04/11/16.
  */
@@ -12,6 +14,8 @@ public class ClientDeliveryImpl extends DeliveryImpl implements ClientDelivery {
 
     protected final SubscriptionImpl sub;
     protected final int sizeBytes;
+    // Acking twice would give the server back the window twice
+    private final AtomicBoolean acked = new AtomicBoolean();
 
     public ClientDeliveryImpl(String channel, long timestamp, long sequenceNumber, BsonObject event, SubscriptionImpl sub, int sizeBytes) {
         super(channel, timestamp, sequenceNumber, event);
@@ -21,7 +25,9 @@ public class ClientDeliveryImpl extends DeliveryImpl implements ClientDelivery {
 
     @Override
     public void acknowledge() {
-        sub.acknowledge(channelPos, sizeBytes);
+        if (acked.compareAndSet(false, true)) {
+            sub.acknowledge(channelPos, sizeBytes);
+        }
     }
 
     @Override
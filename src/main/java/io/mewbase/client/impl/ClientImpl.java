@@ -4,20 +4,18 @@ import io.mewbase.bson.BsonArray;
 import io.mewbase.bson.BsonObject;
 import io.mewbase.common.SubDescriptor;
 import io.mewbase.server.impl.Protocol;
+import io.mewbase.server.impl.transport.epoll.EpollTransport;
 import io.mewbase.util.AsyncResCF;
 import io.mewbase.client.*;
+import io.netty.channel.EventLoopGroup;
 import io.vertx.core.Vertx;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetClient;
-import io.vertx.core.net.NetSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -25,25 +23,24 @@ import java.util.function.Function;
 /**
  * Created by tim on 22/09/16.
  */
-public class ClientImpl implements Client, ClientFrameHandler {
+public class ClientImpl implements Client {
 
     private final static Logger logger = LoggerFactory.getLogger(ClientImpl.class);
 
     private final AtomicInteger sessionSeq = new AtomicInteger();
     private final AtomicInteger requestIDSequence = new AtomicInteger();
     private final Map<Integer, ProducerImpl> producerMap = new ConcurrentHashMap<>();
-    private final Map<Integer, SubscriptionImpl> subscriptionMap = new ConcurrentHashMap<>();
     private final Map<Integer, Consumer<BsonObject>> responseHandlers = new ConcurrentHashMap<>();
     private final Map<Integer, Consumer<QueryResult>> queryResultHandlers = new ConcurrentHashMap<>();
+    private final Map<Integer, Consumer<Throwable>> queryExceptionHandlers = new ConcurrentHashMap<>();
     private final Vertx vertx;
     private final NetClient netClient;
     private final ClientOptions clientOptions;
     private final boolean ownVertx;
-
-    private NetSocket netSocket;
-    private boolean connecting;
-    private Queue<Buffer> bufferedWrites = new ConcurrentLinkedQueue<>();
-    private Consumer<BsonObject> connectResponse;
+    private final ClientConnection[] connections;
+    // Only if connecting over a domain socket
+    private final EventLoopGroup domainSocketEventLoops;
+    private final AtomicInteger nextConnection = new AtomicInteger();
 
     ClientImpl(ClientOptions clientOptions) {
         this(Vertx.vertx(), clientOptions, true);
@@ -58,18 +55,48 @@ public class ClientImpl implements Client, ClientFrameHandler {
         this.netClient = vertx.createNetClient(clientOptions.getNetClientOptions());
         this.clientOptions = clientOptions;
         this.ownVertx = ownVertx;
+        if (clientOptions.getConnectionPoolSize() < 1) {
+            throw new IllegalArgumentException("connectionPoolSize must be > 0");
+        }
+        this.domainSocketEventLoops = clientOptions.getDomainSocketPath() == null ? null :
+                EpollTransport.createEventLoopGroup(1);
+        // Each connection connects the first time it's used
+        this.connections = new ClientConnection[clientOptions.getConnectionPoolSize()];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new ClientConnection(this, netClient, clientOptions);
+        }
     }
 
     @Override
     public Producer createProducer(String channel) {
         int id = sessionSeq.getAndIncrement();
-        ProducerImpl prod = new ProducerImpl(this, channel, id);
+        ProducerImpl prod = new ProducerImpl(this, connectionFor(channel), channel, id, clientOptions);
         producerMap.put(id, prod);
         return prod;
     }
 
     @Override
     public CompletableFuture<Subscription> subscribe(SubDescriptor descriptor, Consumer<ClientDelivery> handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("No handler");
+        }
+        return doSubscribe(descriptor, handler);
+    }
+
+    @Override
+    public CompletableFuture<Subscription> subscribe(SubDescriptor descriptor) {
+        if (clientOptions.getPrefetchSize() < 1) {
+            throw new IllegalArgumentException("prefetchSize must be > 0");
+        }
+        return doSubscribe(descriptor, null);
+    }
+
+    /*
+    Subscriptions without a handler buffer events for the application to receive, and ask the server to only send a
+    window of prefetchSize events ahead of the acks, so the buffer is bounded. The server tells us the window it
+    actually granted
+     */
+    private CompletableFuture<Subscription> doSubscribe(SubDescriptor descriptor, Consumer<ClientDelivery> handler) {
         CompletableFuture<Subscription> cf = new CompletableFuture<>();
         BsonObject frame = new BsonObject();
         if (descriptor.getChannel() == null) {
@@ -80,12 +107,22 @@ public class ClientImpl implements Client, ClientFrameHandler {
         frame.put(Protocol.SUBSCRIBE_STARTTIMESTAMP, descriptor.getStartTimestamp());
         frame.put(Protocol.SUBSCRIBE_DURABLEID, descriptor.getDurableID());
         frame.put(Protocol.SUBSCRIBE_MATCHER, descriptor.getMatcher());
-        write(cf, Protocol.SUBSCRIBE_FRAME, frame, resp -> {
+        frame.put(Protocol.SUBSCRIBE_GROUP, descriptor.getGroup());
+        if (handler == null) {
+            frame.put(Protocol.SUBSCRIBE_WINDOW, clientOptions.getPrefetchSize());
+        }
+        if (clientOptions.getSubscriptionWindowBytes() > 0) {
+            frame.put(Protocol.SUBSCRIBE_WINDOW_BYTES, clientOptions.getSubscriptionWindowBytes());
+        }
+        ClientConnection connection = connectionFor(descriptor.getChannel());
+        connection.write(cf, Protocol.SUBSCRIBE_FRAME, frame, resp -> {
             boolean ok = resp.getBoolean(Protocol.RESPONSE_OK);
             if (ok) {
                 int subID = resp.getInteger(Protocol.SUBRESPONSE_SUBID);
-                SubscriptionImpl sub = new SubscriptionImpl(subID, descriptor.getChannel(), this, handler);
-                subscriptionMap.put(subID, sub);
+                SubscriptionImpl sub = new SubscriptionImpl(subID, descriptor.getChannel(), connection, handler,
+                        resp.getInteger(Protocol.SUBRESPONSE_WINDOW, 0),
+                        resp.getInteger(Protocol.SUBRESPONSE_WINDOW_BYTES, 0));
+                connection.addSubscription(sub);
                 cf.complete(sub);
             } else {
                 cf.completeExceptionally(responseToException(resp));
@@ -102,8 +139,7 @@ public class ClientImpl implements Client, ClientFrameHandler {
 
     @Override
     public CompletableFuture<Void> publish(String channel, BsonObject event, Function<BsonObject, String> partitionFunc) {
-        // TODO partitions
-        return doPublish(channel, -1, event);
+        return doPublish(channel, -1, event, partitionFunc.apply(event));
     }
 
     @Override
@@ -124,17 +160,16 @@ public class ClientImpl implements Client, ClientFrameHandler {
         return cf;
     }
 
-    private void writeQuery(BsonObject frame, Consumer<QueryResult> resultHandler, CompletableFuture cf) {
-        int queryID = requestIDSequence.getAndIncrement();
-        frame.put(Protocol.QUERY_QUERYID, queryID);
-        queryResultHandlers.put(queryID, resultHandler);
-        write(cf, Protocol.QUERY_FRAME, frame);
-    }
-
 
     @Override
     public void executeQuery(String queryName, BsonObject params, Consumer<QueryResult> resultHandler,
                              Consumer<Throwable> exceptionHandler) {
+        executeQuery(queryName, params, 0, null, resultHandler, exceptionHandler);
+    }
+
+    @Override
+    public void executeQuery(String queryName, BsonObject params, int limit, String cursor,
+                             Consumer<QueryResult> resultHandler, Consumer<Throwable> exceptionHandler) {
         CompletableFuture<Void> cf = new CompletableFuture<>();
         if (exceptionHandler != null) {
             cf.exceptionally(t -> {
@@ -145,9 +180,21 @@ public class ClientImpl implements Client, ClientFrameHandler {
         BsonObject frame = new BsonObject();
         frame.put(Protocol.QUERY_NAME, queryName);
         frame.put(Protocol.QUERY_PARAMS, params);
+        if (limit > 0) {
+            frame.put(Protocol.QUERY_LIMIT, limit);
+        }
+        if (cursor != null) {
+            frame.put(Protocol.QUERY_CURSOR, cursor);
+        }
+        if (clientOptions.getQueryWindowBytes() > 0) {
+            frame.put(Protocol.QUERY_WINDOW_BYTES, clientOptions.getQueryWindowBytes());
+        }
         int queryID = requestIDSequence.getAndIncrement();
         frame.put(Protocol.QUERY_QUERYID, queryID);
         queryResultHandlers.put(queryID, resultHandler);
+        if (exceptionHandler != null) {
+            queryExceptionHandlers.put(queryID, exceptionHandler);
+        }
         write(cf, Protocol.QUERY_FRAME, frame);
     }
 
@@ -204,9 +251,15 @@ public class ClientImpl implements Client, ClientFrameHandler {
 
     @Override
     public CompletableFuture<Boolean> createChannel(String channelName) {
+        return createChannel(channelName, 1);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> createChannel(String channelName, int partitions) {
         CompletableFuture<Boolean> cf = new CompletableFuture<>();
         BsonObject frame = new BsonObject();
         frame.put(Protocol.CREATECHANNEL_NAME, channelName);
+        frame.put(Protocol.CREATECHANNEL_PARTITIONS, partitions);
         write(cf, Protocol.CREATE_CHANNEL_FRAME, frame, resp -> {
             boolean ok = resp.getBoolean(Protocol.RESPONSE_OK);
             boolean exists = resp.getBoolean(Protocol.CREATECHANNEL_RESPONSE_EXISTS);
@@ -221,10 +274,18 @@ public class ClientImpl implements Client, ClientFrameHandler {
 
     @Override
     public CompletableFuture<Void> sendCommand(String commandName, BsonObject command) {
+        return sendCommand(commandName, command, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendCommand(String commandName, BsonObject command, String commandID) {
         CompletableFuture<Void> cf = new CompletableFuture<>();
         BsonObject frame = new BsonObject();
         frame.put(Protocol.COMMAND_NAME, commandName);
         frame.put(Protocol.COMMAND_COMMAND, command);
+        if (commandID != null) {
+            frame.put(Protocol.COMMAND_ID, commandID);
+        }
         write(cf, Protocol.COMMAND_FRAME, frame, resp -> {
             boolean ok = resp.getBoolean(Protocol.RESPONSE_OK);
             if (ok) {
@@ -238,7 +299,13 @@ public class ClientImpl implements Client, ClientFrameHandler {
 
     @Override
     public CompletableFuture<Void> close() {
+        for (ClientConnection connection : connections) {
+            connection.close();
+        }
         netClient.close();
+        if (domainSocketEventLoops != null) {
+            domainSocketEventLoops.shutdownGracefully();
+        }
         if (ownVertx) {
             AsyncResCF<Void> cf = new AsyncResCF<>();
             vertx.close(cf);
@@ -248,19 +315,25 @@ public class ClientImpl implements Client, ClientFrameHandler {
         }
     }
 
-    // FrameHandler
+    // Called by the connections
 
-    @Override
-    public void handleQueryResult(int size, BsonObject resp) {
+    protected void handleQueryResult(ClientConnection connection, int size, BsonObject resp) {
         Integer rQueryID = resp.getInteger(Protocol.QUERYRESULT_QUERYID);
         Consumer<QueryResult> qrh = queryResultHandlers.get(rQueryID);
         if (qrh == null) {
             throw new IllegalStateException("Can't find query result handler");
         }
-        // FIXME - what to do with this?
         boolean ok = resp.getBoolean(Protocol.QUERYRESULT_OK);
         boolean last = resp.getBoolean(Protocol.QUERYRESULT_LAST);
-        QueryResult qr = new QueryResultImpl(resp.getBsonObject(Protocol.QUERYRESULT_RESULT), size, last, rQueryID);
+        Consumer<Throwable> exceptionHandler = last ? queryExceptionHandlers.remove(rQueryID) :
+                queryExceptionHandlers.get(rQueryID);
+        if (!ok && exceptionHandler != null) {
+            queryResultHandlers.remove(rQueryID);
+            exceptionHandler.accept(responseToException(resp));
+            return;
+        }
+        QueryResult qr = new QueryResultImpl(resp.getBsonObject(Protocol.QUERYRESULT_RESULT), size, last,
+                resp.getString(Protocol.QUERYRESULT_CURSOR), rQueryID, connection);
         try {
             qrh.accept(qr);
         } finally {
@@ -270,123 +343,73 @@ public class ClientImpl implements Client, ClientFrameHandler {
         }
     }
 
-    @Override
-    public void handleRecev(int size, BsonObject frame) {
-        int subID = frame.getInteger(Protocol.RECEV_SUBID);
-        SubscriptionImpl sub = subscriptionMap.get(subID);
-        if (sub == null) {
-            // No subscription for this - maybe closed - ignore
-        } else {
-            sub.handleRecevFrame(size, frame);
+    protected void handlePubAck(BsonObject frame) {
+        int producerID = frame.getInteger(Protocol.PUBACK_SESSID);
+        ProducerImpl producer = producerMap.get(producerID);
+        if (producer != null) {
+            producer.handleAck(frame.getInteger(Protocol.PUBACK_REQUEST_ID));
         }
     }
 
-    @Override
-    public void handlePing(BsonObject frame) {
-    }
-
-    @Override
-    public void handleSubResponse(BsonObject frame) {
-        handleResponse(frame);
-    }
-
-    @Override
-    public void handleResponse(BsonObject frame) {
-        if (connecting) {
-            connectResponse.accept(frame);
-        } else {
-            Integer requestID = frame.getInteger(Protocol.RESPONSE_REQUEST_ID);
-            if (requestID == null) {
-                throw new IllegalStateException("No request id in response: " + frame);
-            }
-            Consumer<BsonObject> respHandler = responseHandlers.remove(requestID);
-            if (respHandler == null) {
-                throw new IllegalStateException("Unexpected response");
-            }
-            respHandler.accept(frame);
-        }
-    }
-
-    protected synchronized void write(CompletableFuture cf, String frameType, BsonObject frame) {
-        write(cf, frameType, frame, fr -> {
-        });
-    }
-
-    protected synchronized void write(CompletableFuture cf, String frameType, BsonObject frame,
-                                      Consumer<BsonObject> respHandler) {
-        if (respHandler != null) {
-            Integer requestID = requestIDSequence.getAndIncrement();
-            frame.put(Protocol.RESPONSE_REQUEST_ID, requestID);
-            responseHandlers.put(requestID, respHandler);
+    protected void handleResponse(BsonObject frame) {
+        Integer requestID = frame.getInteger(Protocol.RESPONSE_REQUEST_ID);
+        if (requestID == null) {
+            throw new IllegalStateException("No request id in response: " + frame);
         }
-        Buffer buff = Protocol.encodeFrame(frameType, frame);
-        if (connecting || netSocket == null) {
-            if (!connecting) {
-                connect(cf);
-            }
-            bufferedWrites.add(buff);
-        } else {
-            netSocket.write(buff);
+        Consumer<BsonObject> respHandler = responseHandlers.remove(requestID);
+        if (respHandler == null) {
+            throw new IllegalStateException("Unexpected response");
         }
+        respHandler.accept(frame);
     }
 
-    protected void write(Buffer buff) {
-        if (netSocket == null) {
-            throw new MewException("Not connected");
-        }
-        netSocket.write(buff);
+    protected void addResponseHandler(BsonObject frame, Consumer<BsonObject> respHandler) {
+        Integer requestID = requestIDSequence.getAndIncrement();
+        frame.put(Protocol.RESPONSE_REQUEST_ID, requestID);
+        responseHandlers.put(requestID, respHandler);
     }
 
-    private void connect(CompletableFuture cfConnect) {
-        AsyncResCF<NetSocket> cf = new AsyncResCF<>();
-        netClient.connect(clientOptions.getPort(), clientOptions.getHost(), cf);
-        connecting = true;
-        cf.thenAccept(ns -> sendConnect(cfConnect, ns)).exceptionally(t -> {
-            cfConnect.completeExceptionally(t);
-            return null;
+    protected int write(CompletableFuture cf, String frameType, BsonObject frame) {
+        return write(cf, frameType, frame, fr -> {
         });
     }
 
-    protected void doUnsubscribe(int subID) {
-        subscriptionMap.remove(subID);
-        BsonObject frame = new BsonObject();
-        frame.put(Protocol.UNSUBSCRIBE_SUBID, subID);
-        CompletableFuture cf = new CompletableFuture();
-        write(cf, Protocol.UNSUBSCRIBE_FRAME, frame);
+    /*
+    Requests which aren't for a channel go on each connection in turn
+     */
+    protected int write(CompletableFuture cf, String frameType, BsonObject frame, Consumer<BsonObject> respHandler) {
+        return nextConnection().write(cf, frameType, frame, respHandler);
     }
 
-    protected void doSubClose(int subID) {
-        subscriptionMap.remove(subID);
-        BsonObject frame = new BsonObject();
-        frame.put(Protocol.SUBCLOSE_SUBID, subID);
-        CompletableFuture cf = new CompletableFuture();
-        write(cf, Protocol.SUBCLOSE_FRAME, frame);
+    /*
+    Round robin, unless we have channel affinity, in which case everything for a channel goes on the same connection
+     */
+    protected ClientConnection connectionFor(String channel) {
+        if (clientOptions.isChannelAffinity()) {
+            return connections[(channel.hashCode() & 0x7fffffff) % connections.length];
+        } else {
+            return nextConnection();
+        }
     }
 
-    protected void doAckEv(int subID, long pos, int sizeBytes) {
-        BsonObject frame = new BsonObject();
-        frame.put(Protocol.ACKEV_SUBID, subID);
-        frame.put(Protocol.ACKEV_POS, pos);
-        frame.put(Protocol.ACKEV_BYTES, sizeBytes);
-        Buffer buffer = Protocol.encodeFrame(Protocol.ACKEV_FRAME, frame);
-        write(buffer);
+    private ClientConnection nextConnection() {
+        return connections[(nextConnection.getAndIncrement() & 0x7fffffff) % connections.length];
     }
 
-    protected void doQueryAck(int queryID, int bytes) {
-        BsonObject frame = new BsonObject();
-        frame.put(Protocol.QUERYACK_QUERYID, queryID);
-        frame.put(Protocol.QUERYACK_BYTES, bytes);
-        Buffer buffer = Protocol.encodeFrame(Protocol.QUERYACK_FRAME, frame);
-        write(buffer);
+    protected CompletableFuture<Void> doPublish(String channel, int producerID, BsonObject event) {
+        return doPublish(channel, producerID, event, null);
     }
 
-    protected CompletableFuture<Void> doPublish(String channel, int producerID, BsonObject event) {
+    protected CompletableFuture<Void> doPublish(String channel, int producerID, BsonObject event, String partitionKey) {
         CompletableFuture<Void> cf = new CompletableFuture<>();
         BsonObject frame = new BsonObject();
         frame.put(Protocol.PUBLISH_CHANNEL, channel);
         frame.put(Protocol.PUBLISH_SESSID, producerID);
         frame.put(Protocol.PUBLISH_EVENT, event);
-        write(cf, Protocol.PUBLISH_FRAME, frame, resp -> {
+        if (partitionKey != null) {
+            frame.put(Protocol.PUBLISH_PARTITION_KEY, partitionKey);
+        }
+        connectionFor(channel).write(cf, Protocol.PUBLISH_FRAME, frame, resp -> {
             boolean ok = resp.getBoolean(Protocol.RESPONSE_OK);
             if (ok) {
                 cf.complete(null);
@@ -401,42 +424,21 @@ public class ClientImpl implements Client, ClientFrameHandler {
         producerMap.remove(producerID);
     }
 
-    private MewException responseToException(BsonObject resp) {
-        return new MewException(resp.getString(Protocol.RESPONSE_ERRMSG),
-                resp.getInteger(Protocol.RESPONSE_ERRCODE));
+    protected Vertx vertx() {
+        return vertx;
     }
 
-    private synchronized void sendConnect(CompletableFuture cfConnect, NetSocket ns) {
-        netSocket = ns;
-        netSocket.handler(new Protocol(this).recordParser());
+    protected EventLoopGroup domainSocketEventLoops() {
+        return domainSocketEventLoops;
+    }
 
-        BsonObject authInfo = clientOptions.getAuthInfo();
+    protected void removeResponseHandler(int requestID) {
+        responseHandlers.remove(requestID);
+    }
 
-        // Send the CONNECT frame
-        BsonObject frame = new BsonObject();
-        frame.put(Protocol.CONNECT_VERSION, "0.1");
-        frame.put(Protocol.CONNECT_AUTH_INFO, authInfo);
-
-        Buffer buffer = Protocol.encodeFrame(Protocol.CONNECT_FRAME, frame);
-        connectResponse = resp -> connected(cfConnect, resp);
-        netSocket.write(buffer);
-    }
-
-    private synchronized void connected(CompletableFuture cfConnect, BsonObject resp) {
-        connecting = false;
-        boolean ok = resp.getBoolean(Protocol.RESPONSE_OK);
-        if (ok) {
-            while (true) {
-                Buffer buff = bufferedWrites.poll();
-                if (buff == null) {
-                    break;
-                }
-                netSocket.write(buff);
-            }
-        } else {
-            cfConnect.completeExceptionally(new MewException(resp.getString(Protocol.RESPONSE_ERRMSG),
-                    resp.getInteger(Protocol.RESPONSE_ERRCODE)));
-        }
+    protected MewException responseToException(BsonObject resp) {
+        return new MewException(resp.getString(Protocol.RESPONSE_ERRMSG),
+                resp.getInteger(Protocol.RESPONSE_ERRCODE));
     }
 
     private class QueryResultImpl implements QueryResult {
@@ -444,13 +446,18 @@ public class ClientImpl implements Client, ClientFrameHandler {
         private final BsonObject document;
         private final int bytes;
         private final boolean last;
+        private final String cursor;
         private final int queryID;
+        private final ClientConnection connection;
 
-        public QueryResultImpl(BsonObject document, int bytes, boolean last, int queryID) {
+        public QueryResultImpl(BsonObject document, int bytes, boolean last, String cursor, int queryID,
+                               ClientConnection connection) {
             this.document = document;
             this.bytes = bytes;
             this.last = last;
+            this.cursor = cursor;
             this.queryID = queryID;
+            this.connection = connection;
         }
 
         @Override
@@ -460,7 +467,7 @@ public class ClientImpl implements Client, ClientFrameHandler {
 
         @Override
         public void acknowledge() {
-            doQueryAck(queryID, bytes);
+            connection.doQueryAck(queryID, bytes);
         }
 
         @Override
@@ -468,6 +475,11 @@ public class ClientImpl implements Client, ClientFrameHandler {
             return last;
         }
 
+        @Override
+        public String cursor() {
+            return cursor;
+        }
+
     }
 
 }
@@ -1,47 +1,389 @@
 package io.mewbase.client.impl;
 
+import io.mewbase.bson.BsonArray;
 import io.mewbase.bson.BsonObject;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.MewException;
 import io.mewbase.client.Producer;
+import io.mewbase.server.impl.Protocol;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
+ * Pipelines publishes - up to maxInFlight events, or maxInFlightBytes of frames, are sent without waiting for them to
+ * be acked. The server acks cumulatively, so one PUBACK completes all the in flight publishes up to its request id.
+ * <p>
+ * If a linger time is configured, publishes are batched - events are held for up to the linger time, or until they
+ * reach the max batch size, and then sent together in a single PUB frame, which the server appends in one go.
+ * <p>
+ * Events published in a transaction are held by the server until the transaction commits, when they're appended in
+ * one go, so their futures don't complete until the commit does.
+ * <p>
  * Created by tim on 24/09/16.
  */
 public class ProducerImpl implements Producer {
 
     private final ClientImpl client;
+    // All of a producer's frames go on the same connection, so they arrive in order
+    private final ClientConnection connection;
     private final String channel;
     private final int id;
+    private final int maxInFlight;
+    private final int maxInFlightBytes;
+    private final long lingerMs;
+    private final int maxBatchBytes;
+    // In request id order
+    private final ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Queued> queued = new ArrayDeque<>();
+    // The events published in the current transaction, null if there isn't one
+    private List<CompletableFuture<Void>> txCFs;
+    private int inFlightEvents;
+    private int inFlightBytes;
+    private boolean full;
+    private Runnable drainHandler;
+    private Queued batch;
+    private int batchBytes;
+    private long lingerTimerID = -1;
 
-    public ProducerImpl(ClientImpl client, String channel, int id) {
+    public ProducerImpl(ClientImpl client, ClientConnection connection, String channel, int id,
+                        ClientOptions options) {
+        if (options.getMaxPublishesInFlight() < 1) {
+            throw new IllegalArgumentException("maxPublishesInFlight must be > 0");
+        }
+        if (options.getMaxPublishBytesInFlight() < 1) {
+            throw new IllegalArgumentException("maxPublishBytesInFlight must be > 0");
+        }
+        if (options.getMaxPublishBatchBytes() < 1) {
+            throw new IllegalArgumentException("maxPublishBatchBytes must be > 0");
+        }
         this.client = client;
+        this.connection = connection;
         this.channel = channel;
         this.id = id;
+        this.maxInFlight = options.getMaxPublishesInFlight();
+        this.maxInFlightBytes = options.getMaxPublishBytesInFlight();
+        this.lingerMs = options.getPublishLingerMs();
+        this.maxBatchBytes = options.getMaxPublishBatchBytes();
     }
 
     @Override
-    public boolean startTx() {
-        return false;
+    public synchronized boolean startTx() {
+        if (txCFs != null) {
+            return false;
+        }
+        // Anything lingering was published before the transaction started
+        flushBatch();
+        txCFs = new ArrayList<>();
+        enqueue(new Queued(Protocol.STARTTX_FRAME, null));
+        return true;
     }
 
     @Override
-    public CompletableFuture<Boolean> commitTx() {
-        return null;
+    public synchronized CompletableFuture<Boolean> commitTx() {
+        return endTx(Protocol.COMMITTX_FRAME);
     }
 
     @Override
-    public CompletableFuture<Boolean> abortTx() {
-        return null;
+    public synchronized CompletableFuture<Boolean> abortTx() {
+        return endTx(Protocol.ABORTTX_FRAME);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> publish(BsonObject event) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        if (txCFs != null) {
+            // The server holds on to it until the transaction ends
+            txCFs.add(cf);
+            Queued q = new Queued(event, cf);
+            q.tx = true;
+            enqueue(q);
+        } else if (lingerMs > 0) {
+            addToBatch(event, cf);
+        } else {
+            enqueue(new Queued(event, cf));
+        }
+        return cf;
+    }
+
+    @Override
+    public synchronized boolean publishQueueFull() {
+        if (windowFull() || !queued.isEmpty()) {
+            full = true;
+        }
+        return full;
     }
 
     @Override
-    public CompletableFuture<Void> publish(BsonObject event) {
-        return client.doPublish(channel, id, event);
+    public synchronized Producer drainHandler(Runnable handler) {
+        this.drainHandler = handler;
+        return this;
     }
 
     @Override
     public void close() {
+        synchronized (this) {
+            // Don't lose anything that's lingering
+            flushBatch();
+        }
         client.removeProducer(id);
     }
+
+    /*
+    Everything up to and including requestID has been persisted
+     */
+    protected void handleAck(int requestID) {
+        List<CompletableFuture<Void>> acked = new ArrayList<>();
+        Runnable drain;
+        synchronized (this) {
+            while (!inFlight.isEmpty() && inFlight.peek().requestID <= requestID) {
+                InFlight pub = inFlight.poll();
+                removed(pub);
+                client.removeResponseHandler(pub.requestID);
+                acked.addAll(pub.cfs);
+            }
+            drain = afterRemove();
+        }
+        // Complete outside the lock
+        for (CompletableFuture<Void> cf : acked) {
+            cf.complete(null);
+        }
+        if (drain != null) {
+            drain.run();
+        }
+    }
+
+    private void handleResponse(int requestID, BsonObject resp) {
+        if (resp.getBoolean(Protocol.RESPONSE_OK)) {
+            // Server doesn't do cumulative acks
+            handleAck(requestID);
+            return;
+        }
+        List<CompletableFuture<Void>> failed = new ArrayList<>();
+        Runnable drain;
+        synchronized (this) {
+            Iterator<InFlight> iter = inFlight.iterator();
+            while (iter.hasNext()) {
+                InFlight pub = iter.next();
+                if (pub.requestID == requestID) {
+                    iter.remove();
+                    removed(pub);
+                    failed.addAll(pub.cfs);
+                    break;
+                }
+            }
+            drain = afterRemove();
+        }
+        // A batch fails as a whole
+        for (CompletableFuture<Void> cf : failed) {
+            cf.completeExceptionally(client.responseToException(resp));
+        }
+        if (drain != null) {
+            drain.run();
+        }
+    }
+
+    private CompletableFuture<Boolean> endTx(String frameType) {
+        if (txCFs == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Queued q = new Queued(frameType, txCFs);
+        txCFs = null;
+        enqueue(q);
+        return q.txResult;
+    }
+
+    private void addToBatch(BsonObject event, CompletableFuture<Void> cf) {
+        if (batch == null) {
+            batch = new Queued();
+            lingerTimerID = client.vertx().setTimer(lingerMs, tid -> lingerExpired(tid));
+        }
+        batch.add(event, cf);
+        // Estimated, so the event is only encoded once, when the batch is sent
+        batchBytes += Protocol.estimateSize(event);
+        if (batchBytes >= maxBatchBytes) {
+            flushBatch();
+        }
+    }
+
+    private synchronized void lingerExpired(long timerID) {
+        // The batch the timer was for might have been flushed already
+        if (timerID == lingerTimerID) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (batch != null) {
+            client.vertx().cancelTimer(lingerTimerID);
+            lingerTimerID = -1;
+            Queued b = batch;
+            batch = null;
+            batchBytes = 0;
+            enqueue(b);
+        }
+    }
+
+    private void enqueue(Queued q) {
+        if (!queued.isEmpty() || (!q.bypassesWindow() && windowFull())) {
+            full = true;
+            queued.add(q);
+        } else {
+            send(q);
+        }
+    }
+
+    private void send(Queued q) {
+        if (q.txFrameType != null) {
+            sendTxFrame(q);
+            return;
+        }
+        if (q.tx) {
+            sendTxPublish(q);
+            return;
+        }
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.PUBLISH_CHANNEL, channel);
+        frame.put(Protocol.PUBLISH_SESSID, id);
+        if (q.events.size() == 1) {
+            frame.put(Protocol.PUBLISH_EVENT, q.events.get(0));
+        } else {
+            frame.put(Protocol.PUBLISH_EVENTS, new BsonArray(q.events));
+        }
+        frame.put(Protocol.PUBLISH_PIPELINED, true);
+        // The response handler is only called for failures, unless the server doesn't support pipelining
+        // Fails everything in the batch if we can't connect
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        cf.exceptionally(t -> {
+            for (CompletableFuture<Void> eventCF : q.cfs) {
+                eventCF.completeExceptionally(t);
+            }
+            return null;
+        });
+        int bytes = connection.write(cf, Protocol.PUBLISH_FRAME, frame,
+                resp -> handleResponse(frame.getInteger(Protocol.REQUEST_REQUEST_ID), resp));
+        inFlight.add(new InFlight(frame.getInteger(Protocol.REQUEST_REQUEST_ID), bytes, q.cfs));
+        inFlightEvents += q.cfs.size();
+        inFlightBytes += bytes;
+    }
+
+    /*
+    Transactional publishes don't take up room in the window - nothing is persisted until the commit
+     */
+    private void sendTxPublish(Queued q) {
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.PUBLISH_CHANNEL, channel);
+        frame.put(Protocol.PUBLISH_SESSID, id);
+        frame.put(Protocol.PUBLISH_EVENT, q.events.get(0));
+        CompletableFuture<Void> cf = q.cfs.get(0);
+        connection.write(cf, Protocol.PUBLISH_FRAME, frame, resp -> {
+            if (!resp.getBoolean(Protocol.RESPONSE_OK)) {
+                cf.completeExceptionally(client.responseToException(resp));
+            }
+        });
+    }
+
+    private void sendTxFrame(Queued q) {
+        BsonObject frame = new BsonObject();
+        frame.put(Protocol.STARTTX_SESSID, id);
+        connection.write(q.txResult, q.txFrameType, frame, resp -> {
+            if (resp.getBoolean(Protocol.RESPONSE_OK)) {
+                if (Protocol.COMMITTX_FRAME.equals(q.txFrameType)) {
+                    for (CompletableFuture<Void> cf : q.cfs) {
+                        cf.complete(null);
+                    }
+                } else if (Protocol.ABORTTX_FRAME.equals(q.txFrameType)) {
+                    for (CompletableFuture<Void> cf : q.cfs) {
+                        cf.completeExceptionally(new MewException("Transaction aborted"));
+                    }
+                }
+                q.txResult.complete(true);
+            } else {
+                MewException e = client.responseToException(resp);
+                for (CompletableFuture<Void> cf : q.cfs) {
+                    cf.completeExceptionally(e);
+                }
+                q.txResult.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void removed(InFlight pub) {
+        inFlightEvents -= pub.cfs.size();
+        inFlightBytes -= pub.bytes;
+    }
+
+    /*
+    Send what's queued now there's room, and return the drain handler if it should be called
+     */
+    private Runnable afterRemove() {
+        while (!queued.isEmpty() && (queued.peek().bypassesWindow() || !windowFull())) {
+            send(queued.poll());
+        }
+        // Low watermark so we don't call the drain handler for every ack
+        if (full && queued.isEmpty() && inFlightEvents <= maxInFlight / 2 && inFlightBytes <= maxInFlightBytes / 2) {
+            full = false;
+            return drainHandler;
+        }
+        return null;
+    }
+
+    private boolean windowFull() {
+        return inFlightEvents >= maxInFlight || inFlightBytes >= maxInFlightBytes;
+    }
+
+    private static final class InFlight {
+        final int requestID;
+        final int bytes;
+        final List<CompletableFuture<Void>> cfs;
+
+        InFlight(int requestID, int bytes, List<CompletableFuture<Void>> cfs) {
+            this.requestID = requestID;
+            this.bytes = bytes;
+            this.cfs = cfs;
+        }
+    }
+
+    private static final class Queued {
+        final List<BsonObject> events = new ArrayList<>();
+        final List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        // Set for STARTTX, COMMITTX and ABORTTX
+        final String txFrameType;
+        final CompletableFuture<Boolean> txResult;
+        boolean tx;
+
+        Queued() {
+            this.txFrameType = null;
+            this.txResult = null;
+        }
+
+        Queued(BsonObject event, CompletableFuture<Void> cf) {
+            this();
+            add(event, cf);
+        }
+
+        Queued(String txFrameType, List<CompletableFuture<Void>> txCFs) {
+            this.txFrameType = txFrameType;
+            this.txResult = new CompletableFuture<>();
+            if (txCFs != null) {
+                cfs.addAll(txCFs);
+            }
+        }
+
+        /*
+        Transaction frames and publishes don't need room in the window, but still wait behind anything already queued
+        so everything is sent in order
+         */
+        boolean bypassesWindow() {
+            return tx || txFrameType != null;
+        }
+
+        void add(BsonObject event, CompletableFuture<Void> cf) {
+            events.add(event);
+            cfs.add(cf);
+        }
+    }
 }
@@ -9,11 +9,23 @@ import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
+ * A subscription either has a handler which events are pushed to, or buffers events in a prefetch queue for the
+ * application to receive. The server only sends a window of events ahead of the acks, so the prefetch queue never
+ * holds more than the window. Received events aren't acked until the application has processed them and acks them
+ * itself. That's what lets the server send more, and a durable subscription resumes from the last event the
+ * application actually processed.
+ * <p>
  * Created by tim on 24/09/16.
  */
 public class SubscriptionImpl implements Subscription {
@@ -22,24 +34,38 @@ public class SubscriptionImpl implements Subscription {
 
     private final int id;
     private final String channel;
-    private final ClientImpl client;
+    private final ClientConnection connection;
     private final Consumer<ClientDelivery> handler;
     private final Context ctx;
     private final Queue<ClientDelivery> buffered = new LinkedList<>();
+    // Only used if there's no handler
+    private final BlockingQueue<ClientDelivery> prefetched;
+    // The window the server granted
+    private final int window;
+    private final int windowBytes;
     private boolean closed;
     private boolean paused;
 
-    public SubscriptionImpl(int id, String channel, ClientImpl client, Consumer<ClientDelivery> handler) {
+    public SubscriptionImpl(int id, String channel, ClientConnection connection, Consumer<ClientDelivery> handler,
+                            int window, int windowBytes) {
         this.id = id;
         this.channel = channel;
-        this.client = client;
+        this.connection = connection;
         this.handler = handler;
         this.ctx = Vertx.currentContext();
+        // The server always grants a window to a subscription without a handler
+        this.prefetched = handler == null ? new ArrayBlockingQueue<>(window) : null;
+        this.window = window;
+        this.windowBytes = windowBytes;
+    }
+
+    public int getID() {
+        return id;
     }
 
     @Override
     public void unsubscribe() {
-        client.doUnsubscribe(id);  // Outside sync block to prevent deadlock
+        connection.doUnsubscribe(id);  // Outside sync block to prevent deadlock
         synchronized (this) {
             closed = true;
         }
@@ -47,7 +73,7 @@ public class SubscriptionImpl implements Subscription {
 
     @Override
     public void close() {
-        client.doSubClose(id); // Outside sync block to prevent deadlock
+        connection.doSubClose(id); // Outside sync block to prevent deadlock
         synchronized (this) {
             closed = true;
         }
@@ -73,26 +99,80 @@ public class SubscriptionImpl implements Subscription {
     }
 
     @Override
-    public BsonObject receive(long timeout) {
-        return null;
+    public ClientDelivery receive(long timeout) {
+        checkPull();
+        try {
+            return prefetched.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public List<ClientDelivery> receiveBatch(int max, long timeout) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be > 0");
+        }
+        ClientDelivery first = receive(timeout);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<ClientDelivery> deliveries = new ArrayList<>(Math.min(max, 64));
+        deliveries.add(first);
+        prefetched.drainTo(deliveries, max - 1);
+        return deliveries;
+    }
+
+    public int getWindow() {
+        return window;
     }
 
-    protected synchronized void handleRecevFrame(int size, BsonObject frame) {
+    public int getWindowBytes() {
+        return windowBytes;
+    }
+
+    public int getPrefetchedCount() {
+        return prefetched == null ? 0 : prefetched.size();
+    }
+
+    protected void handleRecevFrame(int size, BsonObject frame) {
+        if (!handleRecevFrame0(size, frame)) {
+            // The server broke the flow control contract, so nothing more it sends can be trusted to fit. This is
+            // called on the connection's event loop, so there's no caller to throw to
+            logger.error("Server sent more than the window of {} events to subscription {}, closing it", window, id);
+            close(); // Outside sync block to prevent deadlock
+        }
+    }
+
+    /*
+    Returns false if the event didn't fit in the prefetch queue
+     */
+    private synchronized boolean handleRecevFrame0(int size, BsonObject frame) {
         if (closed) {
-            return;
+            return true;
         }
         checkContext();
         ClientDelivery delivery = new ClientDeliveryImpl(channel, frame.getLong(Protocol.RECEV_TIMESTAMP),
                 frame.getLong(Protocol.RECEV_POS), frame.getBsonObject(Protocol.RECEV_EVENT), this, size);
-        if (!paused) {
+        if (handler == null) {
+            return prefetched.offer(delivery);
+        } else if (!paused) {
             handler.accept(delivery);
         } else {
             buffered.add(delivery);
         }
+        return true;
     }
 
     protected void acknowledge(long pos, int sizeBytes) {
-        client.doAckEv(id, pos, sizeBytes);
+        connection.doAckEv(id, pos, sizeBytes);
+    }
+
+    private void checkPull() {
+        if (handler != null) {
+            throw new IllegalStateException("Subscription has a handler");
+        }
     }
 
     // Sanity check - this should always be executed using the connection's context
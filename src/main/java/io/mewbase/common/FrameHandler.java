@@ -13,6 +13,8 @@ public interface FrameHandler {
 
     void handlePublish(BsonObject frame);
 
+    void handlePubAck(BsonObject frame);
+
     void handleStartTx(BsonObject frame);
 
     void handleCommitTx(BsonObject frame);
@@ -66,8 +66,9 @@ public class SubDescriptor {
         return group;
     }
 
-    public void setGroup(String group) {
+    public SubDescriptor setGroup(String group) {
         this.group = group;
+        return this;
     }
 
     @Override
@@ -21,6 +21,15 @@ public interface Binder {
      */
     DocReadStream getMatching(Function<BsonObject, Boolean> matcher);
 
+    /**
+     * Get the documents matching the filter whose ids come after the given id, in id order. The id doesn't have to be
+     * of a document which still exists.
+     *
+     * @param matcher matching projection for documents
+     * @param startAfterID the id to start after, or null to start at the beginning
+     */
+    DocReadStream getMatching(Function<BsonObject, Boolean> matcher, String startAfterID);
+
     /**
      * Get a document  with the given id
      *
@@ -46,6 +55,14 @@ public interface Binder {
      */
     CompletableFuture<Boolean> delete(String id);
 
+    /**
+     * Get the version of the binder. The version is incremented after every put and delete has been written, so
+     * anything read from the binder while the version didn't change is still current.
+     *
+     * @return the version
+     */
+    long getVersion();
+
     CompletableFuture<Void> close();
 
     CompletableFuture<Void> start();
@@ -29,5 +29,18 @@ public interface CommandHandlerBuilder {
 
     CommandHandlerBuilder emittingTo(String channelName);
 
+    /**
+     * Commands with the same aggregate key are handled one at a time, in the order they were received, each one
+     * starting only once the events of the one before have been persisted. Commands with different keys can be
+     * handled in parallel. If there's no key function commands aren't ordered.
+     * <p>
+     * The events a command publishes get the aggregate key (as a string) as their partition key, so on a partitioned
+     * channel they all go to the same partition and are appended together.
+     *
+     * @param keyFunction returns the aggregate key for a command
+     * @return this builder
+     */
+    CommandHandlerBuilder aggregateKey(Function<BsonObject, ?> keyFunction);
+
     CommandHandler create();
 }
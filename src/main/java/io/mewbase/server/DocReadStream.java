@@ -22,4 +22,9 @@ public interface DocReadStream {
     void close();
 
     boolean hasMore();
+
+    /**
+     * @return the id of the document most recently passed to the handler, or null if the stream doesn't know it
+     */
+    String currentID();
 }
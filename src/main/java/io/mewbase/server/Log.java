@@ -3,6 +3,7 @@ package io.mewbase.server;
 import io.mewbase.bson.BsonObject;
 import io.mewbase.common.SubDescriptor;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -14,6 +15,15 @@ public interface Log {
 
     CompletableFuture<Long> append(BsonObject obj);
 
+    /**
+     * Append several records as one contiguous write. The records are either all persisted or none are - for a
+     * partitioned log that's only true if they're all for the same partition.
+     *
+     * @param objs the records
+     * @return a CompletableFuture of the positions of the records, in the same order as the records
+     */
+    CompletableFuture<List<Long>> appendBatch(List<BsonObject> objs);
+
     CompletableFuture<Void> start();
 
     CompletableFuture<Void> close();
@@ -23,6 +23,8 @@ public interface Mewbase {
 
     CompletableFuture<Boolean> createChannel(String channelName);
 
+    CompletableFuture<Boolean> createChannel(String channelName, int partitions);
+
     Channel getChannel(String channelName);
 
     List<String> listChannels();
@@ -16,5 +16,32 @@ public interface QueryBuilder {
     // (params, context) -> boolean
     QueryBuilder documentFilter(BiFunction<BsonObject, QueryContext, Boolean> documentFilter);
 
+    /**
+     * Make the query a point lookup of a single document, instead of a filter of every document in the binder
+     *
+     * @param idSelector selects the id of the document from the query params
+     * @return a reference to this, so the API can be used fluently
+     */
+    QueryBuilder idSelector(Function<BsonObject, String> idSelector);
+
+    /**
+     * Cache the results of the query by its params. Cached results are used until the binder is next written to. Up
+     * to 10000 documents are cached in all.
+     *
+     * @param maxEntries the maximum number of sets of params to cache results for
+     * @return a reference to this, so the API can be used fluently
+     */
+    QueryBuilder cacheResults(int maxEntries);
+
+    /**
+     * Cache the results of the query by its params. Cached results are used until the binder is next written to.
+     * Results with more than maxDocs documents aren't cached.
+     *
+     * @param maxEntries the maximum number of sets of params to cache results for
+     * @param maxDocs the maximum number of documents to cache, over all the sets of params
+     * @return a reference to this, so the API can be used fluently
+     */
+    QueryBuilder cacheResults(int maxEntries, int maxDocs);
+
     Query create();
 }
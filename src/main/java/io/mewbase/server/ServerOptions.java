@@ -1,6 +1,7 @@
 package io.mewbase.server;
 
 import io.mewbase.server.impl.auth.NoAuthAuthProvider;
+import io.vertx.core.VertxOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.net.NetServerOptions;
 
@@ -16,7 +17,34 @@ public class ServerOptions {
     public static final int DEFAULT_MAX_LOG_CHUNK_SIZE = 4 * 10 * 1024 * 1024;
     public static final int DEFAULT_PREALLOCATE_SIZE = 0;
     public static final int DEFAULT_MAX_RECORD_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_TRANSACTION_BYTES = 16 * 1024 * 1024;
     public static final int DEFAULT_READ_BUFFER_SIZE = 4 * 1024;
+    public static final int DEFAULT_MAX_READ_BUFFER_SIZE = 512 * 1024;
+    public static final int DEFAULT_SHARED_READ_WINDOW = 4 * 1024 * 1024;
+    public static final int DEFAULT_TAIL_CACHE_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_OPEN_CHUNK_HANDLES = 32;
+    public static final boolean DEFAULT_COMPRESS_SEALED_CHUNKS = false;
+    public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_GROUP_PARTITIONS = 16;
+    public static final int DEFAULT_COMMAND_EXECUTOR_THREADS = 4;
+    public static final int DEFAULT_COMMAND_EXECUTOR_STRIPES = 64;
+    public static final int DEFAULT_MAX_QUEUED_COMMANDS_PER_STRIPE = 1000;
+    public static final long DEFAULT_COMMAND_TIMEOUT_MS = 30 * 1000L;
+    public static final int DEFAULT_MAX_CACHED_COMMAND_IDS = 10000;
+    public static final long DEFAULT_COMMAND_ID_RETENTION_MS = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_COMMAND_ID_SWEEP_INTERVAL_MS = 60 * 60 * 1000L;
+    public static final long DEFAULT_QUERY_CURSOR_TIMEOUT_MS = 5 * 60 * 1000L;
+    public static final int DEFAULT_WINDOW_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_WINDOW_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_PROJECTION_WINDOW = 1000;
+    public static final int DEFAULT_MAX_WRITE_BATCH_BYTES = 64 * 1024;
+    public static final int DEFAULT_WRITE_QUEUE_MAX_SIZE = 1024 * 1024;
+    public static final int DEFAULT_ACCEPTORS = Runtime.getRuntime().availableProcessors();
+    public static final boolean DEFAULT_NATIVE_TRANSPORT = false;
+    public static final int DEFAULT_EVENT_LOOP_POOL_SIZE = VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE;
+    public static final int DEFAULT_WORKER_POOL_SIZE = VertxOptions.DEFAULT_WORKER_POOL_SIZE;
+    public static final String DEFAULT_IN_VM_NAME = null;
+    public static final String DEFAULT_DOMAIN_SOCKET_PATH = null;
 
     private NetServerOptions netServerOptions = new NetServerOptions().setPort(DEFAULT_PORT).setHost(DEFAULT_HOST);
     private String docsDir = DEFAULT_DOCS_DIR;
@@ -25,7 +53,34 @@ public class ServerOptions {
     private int maxLogChunkSize = DEFAULT_MAX_LOG_CHUNK_SIZE;
     private int preallocateSize = DEFAULT_PREALLOCATE_SIZE;
     private int maxRecordSize = DEFAULT_MAX_RECORD_SIZE;
+    private int maxTransactionBytes = DEFAULT_MAX_TRANSACTION_BYTES;
     private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+    private int maxReadBufferSize = DEFAULT_MAX_READ_BUFFER_SIZE;
+    private int sharedReadWindow = DEFAULT_SHARED_READ_WINDOW;
+    private int tailCacheSize = DEFAULT_TAIL_CACHE_SIZE;
+    private int maxOpenChunkHandles = DEFAULT_MAX_OPEN_CHUNK_HANDLES;
+    private boolean compressSealedChunks = DEFAULT_COMPRESS_SEALED_CHUNKS;
+    private int compressionBlockSize = DEFAULT_COMPRESSION_BLOCK_SIZE;
+    private int groupPartitions = DEFAULT_GROUP_PARTITIONS;
+    private int commandExecutorThreads = DEFAULT_COMMAND_EXECUTOR_THREADS;
+    private int commandExecutorStripes = DEFAULT_COMMAND_EXECUTOR_STRIPES;
+    private int maxQueuedCommandsPerStripe = DEFAULT_MAX_QUEUED_COMMANDS_PER_STRIPE;
+    private long commandTimeoutMs = DEFAULT_COMMAND_TIMEOUT_MS;
+    private int maxCachedCommandIDs = DEFAULT_MAX_CACHED_COMMAND_IDS;
+    private long commandIDRetentionMs = DEFAULT_COMMAND_ID_RETENTION_MS;
+    private long commandIDSweepIntervalMs = DEFAULT_COMMAND_ID_SWEEP_INTERVAL_MS;
+    private long queryCursorTimeoutMs = DEFAULT_QUERY_CURSOR_TIMEOUT_MS;
+    private int defaultWindowBytes = DEFAULT_WINDOW_BYTES;
+    private int maxWindowBytes = DEFAULT_MAX_WINDOW_BYTES;
+    private int projectionWindow = DEFAULT_PROJECTION_WINDOW;
+    private int maxWriteBatchBytes = DEFAULT_MAX_WRITE_BATCH_BYTES;
+    private int writeQueueMaxSize = DEFAULT_WRITE_QUEUE_MAX_SIZE;
+    private int acceptors = DEFAULT_ACCEPTORS;
+    private boolean nativeTransport = DEFAULT_NATIVE_TRANSPORT;
+    private int eventLoopPoolSize = DEFAULT_EVENT_LOOP_POOL_SIZE;
+    private int workerPoolSize = DEFAULT_WORKER_POOL_SIZE;
+    private String inVMName = DEFAULT_IN_VM_NAME;
+    private String domainSocketPath = DEFAULT_DOMAIN_SOCKET_PATH;
 
     public ServerOptions() {
     }
@@ -38,7 +93,34 @@ public class ServerOptions {
         this.maxLogChunkSize = jsonObject.getInteger("maxLogChunkSize", DEFAULT_MAX_LOG_CHUNK_SIZE);
         this.preallocateSize = jsonObject.getInteger("preallocateSize", DEFAULT_PREALLOCATE_SIZE);
         this.maxRecordSize = jsonObject.getInteger("maxRecordSize", DEFAULT_MAX_RECORD_SIZE);
+        this.maxTransactionBytes = jsonObject.getInteger("maxTransactionBytes", DEFAULT_MAX_TRANSACTION_BYTES);
         this.readBufferSize = jsonObject.getInteger("readBufferSize", DEFAULT_READ_BUFFER_SIZE);
+        this.maxReadBufferSize = jsonObject.getInteger("maxReadBufferSize", DEFAULT_MAX_READ_BUFFER_SIZE);
+        this.sharedReadWindow = jsonObject.getInteger("sharedReadWindow", DEFAULT_SHARED_READ_WINDOW);
+        this.tailCacheSize = jsonObject.getInteger("tailCacheSize", DEFAULT_TAIL_CACHE_SIZE);
+        this.maxOpenChunkHandles = jsonObject.getInteger("maxOpenChunkHandles", DEFAULT_MAX_OPEN_CHUNK_HANDLES);
+        this.compressSealedChunks = jsonObject.getBoolean("compressSealedChunks", DEFAULT_COMPRESS_SEALED_CHUNKS);
+        this.compressionBlockSize = jsonObject.getInteger("compressionBlockSize", DEFAULT_COMPRESSION_BLOCK_SIZE);
+        this.groupPartitions = jsonObject.getInteger("groupPartitions", DEFAULT_GROUP_PARTITIONS);
+        this.commandExecutorThreads = jsonObject.getInteger("commandExecutorThreads", DEFAULT_COMMAND_EXECUTOR_THREADS);
+        this.commandExecutorStripes = jsonObject.getInteger("commandExecutorStripes", DEFAULT_COMMAND_EXECUTOR_STRIPES);
+        this.maxQueuedCommandsPerStripe = jsonObject.getInteger("maxQueuedCommandsPerStripe", DEFAULT_MAX_QUEUED_COMMANDS_PER_STRIPE);
+        this.commandTimeoutMs = jsonObject.getLong("commandTimeoutMs", DEFAULT_COMMAND_TIMEOUT_MS);
+        this.maxCachedCommandIDs = jsonObject.getInteger("maxCachedCommandIDs", DEFAULT_MAX_CACHED_COMMAND_IDS);
+        this.commandIDRetentionMs = jsonObject.getLong("commandIDRetentionMs", DEFAULT_COMMAND_ID_RETENTION_MS);
+        this.commandIDSweepIntervalMs = jsonObject.getLong("commandIDSweepIntervalMs", DEFAULT_COMMAND_ID_SWEEP_INTERVAL_MS);
+        this.queryCursorTimeoutMs = jsonObject.getLong("queryCursorTimeoutMs", DEFAULT_QUERY_CURSOR_TIMEOUT_MS);
+        this.defaultWindowBytes = jsonObject.getInteger("defaultWindowBytes", DEFAULT_WINDOW_BYTES);
+        this.maxWindowBytes = jsonObject.getInteger("maxWindowBytes", DEFAULT_MAX_WINDOW_BYTES);
+        this.projectionWindow = jsonObject.getInteger("projectionWindow", DEFAULT_PROJECTION_WINDOW);
+        this.maxWriteBatchBytes = jsonObject.getInteger("maxWriteBatchBytes", DEFAULT_MAX_WRITE_BATCH_BYTES);
+        this.writeQueueMaxSize = jsonObject.getInteger("writeQueueMaxSize", DEFAULT_WRITE_QUEUE_MAX_SIZE);
+        this.acceptors = jsonObject.getInteger("acceptors", DEFAULT_ACCEPTORS);
+        this.nativeTransport = jsonObject.getBoolean("nativeTransport", DEFAULT_NATIVE_TRANSPORT);
+        this.eventLoopPoolSize = jsonObject.getInteger("eventLoopPoolSize", DEFAULT_EVENT_LOOP_POOL_SIZE);
+        this.workerPoolSize = jsonObject.getInteger("workerPoolSize", DEFAULT_WORKER_POOL_SIZE);
+        this.inVMName = jsonObject.getString("inVMName", DEFAULT_IN_VM_NAME);
+        this.domainSocketPath = jsonObject.getString("domainSocketPath", DEFAULT_DOMAIN_SOCKET_PATH);
     }
 
     public NetServerOptions getNetServerOptions() {
@@ -95,6 +177,15 @@ public class ServerOptions {
         return this;
     }
 
+    public int getMaxTransactionBytes() {
+        return maxTransactionBytes;
+    }
+
+    public ServerOptions setMaxTransactionBytes(int maxTransactionBytes) {
+        this.maxTransactionBytes = maxTransactionBytes;
+        return this;
+    }
+
     public int getPreallocateSize() {
         return preallocateSize;
     }
@@ -113,6 +204,240 @@ public class ServerOptions {
         return this;
     }
 
+    public int getMaxReadBufferSize() {
+        return maxReadBufferSize;
+    }
+
+    public ServerOptions setMaxReadBufferSize(int maxReadBufferSize) {
+        this.maxReadBufferSize = maxReadBufferSize;
+        return this;
+    }
+
+    public int getSharedReadWindow() {
+        return sharedReadWindow;
+    }
+
+    public ServerOptions setSharedReadWindow(int sharedReadWindow) {
+        this.sharedReadWindow = sharedReadWindow;
+        return this;
+    }
+
+    public int getTailCacheSize() {
+        return tailCacheSize;
+    }
+
+    public ServerOptions setTailCacheSize(int tailCacheSize) {
+        this.tailCacheSize = tailCacheSize;
+        return this;
+    }
+
+    public int getMaxOpenChunkHandles() {
+        return maxOpenChunkHandles;
+    }
+
+    public ServerOptions setMaxOpenChunkHandles(int maxOpenChunkHandles) {
+        this.maxOpenChunkHandles = maxOpenChunkHandles;
+        return this;
+    }
+
+    public boolean isCompressSealedChunks() {
+        return compressSealedChunks;
+    }
+
+    public ServerOptions setCompressSealedChunks(boolean compressSealedChunks) {
+        this.compressSealedChunks = compressSealedChunks;
+        return this;
+    }
+
+    public int getCompressionBlockSize() {
+        return compressionBlockSize;
+    }
+
+    public ServerOptions setCompressionBlockSize(int compressionBlockSize) {
+        this.compressionBlockSize = compressionBlockSize;
+        return this;
+    }
+
+    public int getGroupPartitions() {
+        return groupPartitions;
+    }
+
+    public ServerOptions setGroupPartitions(int groupPartitions) {
+        this.groupPartitions = groupPartitions;
+        return this;
+    }
+
+    public int getCommandExecutorThreads() {
+        return commandExecutorThreads;
+    }
+
+    public ServerOptions setCommandExecutorThreads(int commandExecutorThreads) {
+        this.commandExecutorThreads = commandExecutorThreads;
+        return this;
+    }
+
+    public int getCommandExecutorStripes() {
+        return commandExecutorStripes;
+    }
+
+    public ServerOptions setCommandExecutorStripes(int commandExecutorStripes) {
+        this.commandExecutorStripes = commandExecutorStripes;
+        return this;
+    }
+
+    public int getMaxQueuedCommandsPerStripe() {
+        return maxQueuedCommandsPerStripe;
+    }
+
+    public ServerOptions setMaxQueuedCommandsPerStripe(int maxQueuedCommandsPerStripe) {
+        this.maxQueuedCommandsPerStripe = maxQueuedCommandsPerStripe;
+        return this;
+    }
+
+    public long getCommandTimeoutMs() {
+        return commandTimeoutMs;
+    }
+
+    public ServerOptions setCommandTimeoutMs(long commandTimeoutMs) {
+        this.commandTimeoutMs = commandTimeoutMs;
+        return this;
+    }
+
+    public int getMaxCachedCommandIDs() {
+        return maxCachedCommandIDs;
+    }
+
+    public ServerOptions setMaxCachedCommandIDs(int maxCachedCommandIDs) {
+        this.maxCachedCommandIDs = maxCachedCommandIDs;
+        return this;
+    }
+
+    public long getCommandIDRetentionMs() {
+        return commandIDRetentionMs;
+    }
+
+    public ServerOptions setCommandIDRetentionMs(long commandIDRetentionMs) {
+        this.commandIDRetentionMs = commandIDRetentionMs;
+        return this;
+    }
+
+    public long getCommandIDSweepIntervalMs() {
+        return commandIDSweepIntervalMs;
+    }
+
+    public ServerOptions setCommandIDSweepIntervalMs(long commandIDSweepIntervalMs) {
+        this.commandIDSweepIntervalMs = commandIDSweepIntervalMs;
+        return this;
+    }
+
+    public long getQueryCursorTimeoutMs() {
+        return queryCursorTimeoutMs;
+    }
+
+    public ServerOptions setQueryCursorTimeoutMs(long queryCursorTimeoutMs) {
+        this.queryCursorTimeoutMs = queryCursorTimeoutMs;
+        return this;
+    }
+
+    public int getDefaultWindowBytes() {
+        return defaultWindowBytes;
+    }
+
+    public ServerOptions setDefaultWindowBytes(int defaultWindowBytes) {
+        this.defaultWindowBytes = defaultWindowBytes;
+        return this;
+    }
+
+    public int getMaxWindowBytes() {
+        return maxWindowBytes;
+    }
+
+    public ServerOptions setMaxWindowBytes(int maxWindowBytes) {
+        this.maxWindowBytes = maxWindowBytes;
+        return this;
+    }
+
+    public int getProjectionWindow() {
+        return projectionWindow;
+    }
+
+    public ServerOptions setProjectionWindow(int projectionWindow) {
+        this.projectionWindow = projectionWindow;
+        return this;
+    }
+
+    public int getMaxWriteBatchBytes() {
+        return maxWriteBatchBytes;
+    }
+
+    public ServerOptions setMaxWriteBatchBytes(int maxWriteBatchBytes) {
+        this.maxWriteBatchBytes = maxWriteBatchBytes;
+        return this;
+    }
+
+    public int getWriteQueueMaxSize() {
+        return writeQueueMaxSize;
+    }
+
+    public ServerOptions setWriteQueueMaxSize(int writeQueueMaxSize) {
+        this.writeQueueMaxSize = writeQueueMaxSize;
+        return this;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public ServerOptions setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    public ServerOptions setNativeTransport(boolean nativeTransport) {
+        this.nativeTransport = nativeTransport;
+        return this;
+    }
+
+    public int getEventLoopPoolSize() {
+        return eventLoopPoolSize;
+    }
+
+    public ServerOptions setEventLoopPoolSize(int eventLoopPoolSize) {
+        this.eventLoopPoolSize = eventLoopPoolSize;
+        return this;
+    }
+
+    public int getWorkerPoolSize() {
+        return workerPoolSize;
+    }
+
+    public ServerOptions setWorkerPoolSize(int workerPoolSize) {
+        this.workerPoolSize = workerPoolSize;
+        return this;
+    }
+
+    public String getInVMName() {
+        return inVMName;
+    }
+
+    public ServerOptions setInVMName(String inVMName) {
+        this.inVMName = inVMName;
+        return this;
+    }
+
+    public String getDomainSocketPath() {
+        return domainSocketPath;
+    }
+
+    public ServerOptions setDomainSocketPath(String domainSocketPath) {
+        this.domainSocketPath = domainSocketPath;
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -123,7 +448,35 @@ public class ServerOptions {
         if (maxLogChunkSize != that.maxLogChunkSize) return false;
         if (preallocateSize != that.preallocateSize) return false;
         if (maxRecordSize != that.maxRecordSize) return false;
+        if (maxTransactionBytes != that.maxTransactionBytes) return false;
         if (readBufferSize != that.readBufferSize) return false;
+        if (maxReadBufferSize != that.maxReadBufferSize) return false;
+        if (sharedReadWindow != that.sharedReadWindow) return false;
+        if (tailCacheSize != that.tailCacheSize) return false;
+        if (maxOpenChunkHandles != that.maxOpenChunkHandles) return false;
+        if (compressSealedChunks != that.compressSealedChunks) return false;
+        if (compressionBlockSize != that.compressionBlockSize) return false;
+        if (groupPartitions != that.groupPartitions) return false;
+        if (commandExecutorThreads != that.commandExecutorThreads) return false;
+        if (commandExecutorStripes != that.commandExecutorStripes) return false;
+        if (maxQueuedCommandsPerStripe != that.maxQueuedCommandsPerStripe) return false;
+        if (commandTimeoutMs != that.commandTimeoutMs) return false;
+        if (maxCachedCommandIDs != that.maxCachedCommandIDs) return false;
+        if (commandIDRetentionMs != that.commandIDRetentionMs) return false;
+        if (commandIDSweepIntervalMs != that.commandIDSweepIntervalMs) return false;
+        if (queryCursorTimeoutMs != that.queryCursorTimeoutMs) return false;
+        if (defaultWindowBytes != that.defaultWindowBytes) return false;
+        if (maxWindowBytes != that.maxWindowBytes) return false;
+        if (projectionWindow != that.projectionWindow) return false;
+        if (maxWriteBatchBytes != that.maxWriteBatchBytes) return false;
+        if (writeQueueMaxSize != that.writeQueueMaxSize) return false;
+        if (acceptors != that.acceptors) return false;
+        if (nativeTransport != that.nativeTransport) return false;
+        if (eventLoopPoolSize != that.eventLoopPoolSize) return false;
+        if (workerPoolSize != that.workerPoolSize) return false;
+        if (inVMName != null ? !inVMName.equals(that.inVMName) : that.inVMName != null) return false;
+        if (domainSocketPath != null ? !domainSocketPath.equals(that.domainSocketPath) : that.domainSocketPath != null)
+            return false;
         if (netServerOptions != null ? !netServerOptions.equals(that.netServerOptions) : that.netServerOptions != null)
             return false;
         if (docsDir != null ? !docsDir.equals(that.docsDir) : that.docsDir != null) return false;
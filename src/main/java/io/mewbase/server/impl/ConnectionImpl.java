@@ -4,8 +4,11 @@ import io.mewbase.server.*;
 import io.mewbase.bson.BsonArray;
 import io.mewbase.bson.BsonObject;
 import io.mewbase.client.Client;
+import io.mewbase.client.MewException;
 import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.impl.cqrs.QueryCursors;
 import io.mewbase.server.impl.cqrs.QueryImpl;
+import io.mewbase.server.impl.log.PartitionedLog;
 import io.vertx.core.Context;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
@@ -13,9 +16,17 @@ import io.vertx.core.parsetools.RecordParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by tim on 23/09/16.
@@ -26,25 +37,52 @@ public class ConnectionImpl implements ServerFrameHandler {
 
     private final ServerImpl server;
     private final TransportConnection transportConnection;
+    private final FrameTransportConnection frameConnection;
     private final Context context;
+    private final Protocol protocol;
     private final Map<Integer, SubscriptionImpl> subscriptionMap = new HashMap<>();
     private final Map<Integer, QueryExecution> queryStates = new HashMap<>();
+    // Pipelined publishes of each producer session that haven't been acked yet
+    private final Map<Integer, PipelinedSession> pipelinedSessions = new HashMap<>();
+    // Frames written since the last flush are gathered up and written together, see writeResponse
+    private final Object writeLock = new Object();
+    private final ArrayDeque<Buffer> fullBatches = new ArrayDeque<>();
+    private final int maxWriteBatchBytes;
+    private final int maxTransactionBytes;
+    private Buffer writeBatch;
+    private boolean flushScheduled;
+    private volatile boolean writesPaused;
+    private long framesWritten;
+    private volatile long batchesWritten;
+    // Open transactions by session id
+    private final Map<Integer, Transaction> transactions = new HashMap<>();
 
     private boolean closed;
     private MewbaseAuthProvider authProvider;
     private boolean authenticated;
     private int subSeq;
+    private boolean pubAckFlushScheduled;
 
     public ConnectionImpl(ServerImpl server, TransportConnection transportConnection, Context context,
                           MewbaseAuthProvider authProvider) {
-        Protocol protocol = new Protocol(this);
-        RecordParser recordParser = protocol.recordParser();
-        transportConnection.handler(recordParser::handle);
+        this.protocol = new Protocol(this);
+        if (transportConnection instanceof FrameTransportConnection) {
+            // Frames are passed across as they are, there's nothing to encode or decode
+            frameConnection = (FrameTransportConnection)transportConnection;
+            frameConnection.frameHandler(protocol::handleFrame);
+        } else {
+            frameConnection = null;
+            RecordParser recordParser = protocol.recordParser();
+            transportConnection.handler(recordParser::handle);
+        }
         this.server = server;
         this.transportConnection = transportConnection;
         this.context = context;
         this.authProvider = authProvider;
+        this.maxWriteBatchBytes = server.getServerOptions().getMaxWriteBatchBytes();
+        this.maxTransactionBytes = server.getServerOptions().getMaxTransactionBytes();
         transportConnection.closeHandler(this::close);
+        transportConnection.drainHandler(this::resumeWrites);
     }
 
     @Override
@@ -65,7 +103,16 @@ public class ConnectionImpl implements ServerFrameHandler {
                 if (user != null) {
                     authenticated = true;
                     response.put(Protocol.RESPONSE_OK, true);
+                    // Older clients don't know about version 2 so we carry on with version 1
+                    boolean version2 = Protocol.VERSION_2.equals(frame.getString(Protocol.CONNECT_VERSION));
+                    if (version2) {
+                        response.put(Protocol.CONNECTRESPONSE_VERSION, Protocol.VERSION_2);
+                    }
+                    // The response is the last frame in version 1, the client doesn't send anything until it has it
                     writeResponse(Protocol.RESPONSE_FRAME, response);
+                    if (version2) {
+                        protocol.useVersion2();
+                    }
                 } else {
                     String nullUserMsg = "AuthProvider returned a null user";
                     logAndClose(nullUserMsg);
@@ -74,7 +121,6 @@ public class ConnectionImpl implements ServerFrameHandler {
             }
             return null;
         });
-        // TODO version checking
     }
 
     @Override
@@ -86,14 +132,17 @@ public class ConnectionImpl implements ServerFrameHandler {
 
         String channel = frame.getString(Protocol.PUBLISH_CHANNEL);
         BsonObject event = frame.getBsonObject(Protocol.PUBLISH_EVENT);
+        BsonArray events = frame.getBsonArray(Protocol.PUBLISH_EVENTS);
         Integer sessID = frame.getInteger(Protocol.PUBLISH_SESSID);
+        String partitionKey = frame.getString(Protocol.PUBLISH_PARTITION_KEY);
+        Boolean pipelined = frame.getBoolean(Protocol.PUBLISH_PIPELINED);
         Integer requestID = frame.getInteger(Protocol.REQUEST_REQUEST_ID);
 
         if (channel == null) {
             missingField(Protocol.PUBLISH_CHANNEL, Protocol.PUBLISH_FRAME);
             return;
         }
-        if (event == null) {
+        if (event == null && events == null) {
             missingField(Protocol.PUBLISH_EVENT, Protocol.PUBLISH_FRAME);
             return;
         }
@@ -106,10 +155,54 @@ public class ConnectionImpl implements ServerFrameHandler {
             sendErrorResponse(Client.ERR_NO_SUCH_CHANNEL, "no such channel " + channel, requestID);
             return;
         }
-        CompletableFuture<Long> cf = server.publishEvent(log, event);
+        Transaction tx = sessID == null ? null : transactions.get(sessID);
+        if (tx != null) {
+            if (tx.failure != null) {
+                // Kept until the commit or abort, so the rest of the transaction isn't persisted on its own
+                sendErrorResponse(Client.ERR_SERVER_ERROR, "transaction failed: " + tx.failure, requestID);
+                return;
+            }
+            String rejected = tx.add(channel, log, event, events, partitionKey, maxTransactionBytes);
+            if (rejected != null) {
+                // The rest of the transaction can't be committed without these events
+                tx.fail(rejected);
+                sendErrorResponse(Client.ERR_SERVER_ERROR, rejected, requestID);
+                return;
+            }
+            // Nothing is persisted until the transaction commits
+            BsonObject resp = new BsonObject();
+            resp.put(Protocol.RESPONSE_REQUEST_ID, requestID);
+            resp.put(Protocol.RESPONSE_OK, true);
+            writeResponse(Protocol.RESPONSE_FRAME, resp);
+            return;
+        }
+        CompletableFuture<?> cf;
+        try {
+            if (events != null) {
+                // A batch is appended in one go and gets a single response
+                List<BsonObject> eventList = new ArrayList<>(events.size());
+                for (int i = 0; i < events.size(); i++) {
+                    eventList.add(events.getBsonObject(i));
+                }
+                cf = server.publishEvents(log, eventList, partitionKey);
+            } else {
+                cf = server.publishEvent(log, event, partitionKey);
+            }
+        } catch (MewException e) {
+            // e.g. the record or batch is too long for the log
+            sendErrorResponse(Client.ERR_SERVER_ERROR, e.getMessage(), requestID);
+            return;
+        }
+        boolean ackCumulatively = pipelined != null && pipelined && sessID != null;
+        if (ackCumulatively) {
+            // The completion is handled on this context, so it can't get there before this
+            pipelinedSessions.computeIfAbsent(sessID, id -> new PipelinedSession()).outstanding.add(requestID);
+        }
 
         cf.handle((v, ex) -> {
-            if (ex == null) {
+            if (ackCumulatively) {
+                context.runOnContext(v2 -> pipelinedPublishCompleted(sessID, requestID, ex == null));
+            } else if (ex == null) {
                 BsonObject resp = new BsonObject();
                 resp.put(Protocol.RESPONSE_REQUEST_ID, requestID);
                 resp.put(Protocol.RESPONSE_OK, true);
@@ -122,6 +215,49 @@ public class ConnectionImpl implements ServerFrameHandler {
         });
     }
 
+    /*
+    Publishes from a pipelined producer are acked cumulatively - one PUBACK acks all the producer's publishes up to
+    and including the request id. Appends can complete in any order, so a PUBACK only covers publishes which have all
+    completed, and a failure is sent as an error response as soon as it happens, before any PUBACK which covers it
+     */
+    private void pipelinedPublishCompleted(int sessID, int requestID, boolean ok) {
+        PipelinedSession session = pipelinedSessions.get(sessID);
+        session.outstanding.remove(requestID);
+        if (ok) {
+            session.succeeded.add(requestID);
+        } else {
+            sendErrorResponse(Client.ERR_SERVER_ERROR, "failed to persist", requestID);
+        }
+        if (!pubAckFlushScheduled && session.ackableID() != -1) {
+            // Let any other appends that have completed add their acks first
+            pubAckFlushScheduled = true;
+            context.runOnContext(v -> flushPubAcks());
+        }
+    }
+
+    private void flushPubAcks() {
+        pubAckFlushScheduled = false;
+        if (closed) {
+            return;
+        }
+        Iterator<Map.Entry<Integer, PipelinedSession>> iter = pipelinedSessions.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Integer, PipelinedSession> entry = iter.next();
+            PipelinedSession session = entry.getValue();
+            int ackableID = session.ackableID();
+            if (ackableID != -1) {
+                BsonObject ack = new BsonObject();
+                ack.put(Protocol.PUBACK_SESSID, entry.getKey());
+                ack.put(Protocol.PUBACK_REQUEST_ID, ackableID);
+                writeResponse(Protocol.PUBACK_FRAME, ack);
+                session.succeeded.headSet(ackableID, true).clear();
+            }
+            if (session.outstanding.isEmpty() && session.succeeded.isEmpty()) {
+                iter.remove();
+            }
+        }
+    }
+
     @Override
     public void handleStartTx(BsonObject frame) {
         checkContext();
@@ -129,8 +265,25 @@ public class ConnectionImpl implements ServerFrameHandler {
         if (!checkAuthenticated()) {
             return;
         }
+        Integer sessID = frame.getInteger(Protocol.STARTTX_SESSID);
+        Integer requestID = frame.getInteger(Protocol.REQUEST_REQUEST_ID);
+        if (!checkTxFields(sessID, requestID, Protocol.STARTTX_FRAME)) {
+            return;
+        }
+        if (transactions.containsKey(sessID)) {
+            sendErrorResponse(Client.ERR_TX_IN_PROGRESS, "transaction already in progress for session " + sessID,
+                    requestID);
+            return;
+        }
+        transactions.put(sessID, new Transaction());
+        sendOKResponse(requestID);
     }
 
+    /*
+    The events published in the transaction are appended to the log as a single batch, so subscribers see all of them
+    or none of them. On a partitioned channel that's only true because they all have the same partition key, see
+    Transaction.add
+     */
     @Override
     public void handleCommitTx(BsonObject frame) {
         checkContext();
@@ -138,6 +291,40 @@ public class ConnectionImpl implements ServerFrameHandler {
         if (!checkAuthenticated()) {
             return;
         }
+        Integer sessID = frame.getInteger(Protocol.COMMITTX_SESSID);
+        Integer requestID = frame.getInteger(Protocol.REQUEST_REQUEST_ID);
+        if (!checkTxFields(sessID, requestID, Protocol.COMMITTX_FRAME)) {
+            return;
+        }
+        Transaction tx = transactions.remove(sessID);
+        if (tx == null) {
+            sendErrorResponse(Client.ERR_NO_TX_IN_PROGRESS, "no transaction in progress for session " + sessID,
+                    requestID);
+            return;
+        }
+        if (tx.failure != null) {
+            sendErrorResponse(Client.ERR_SERVER_ERROR, "transaction failed: " + tx.failure, requestID);
+            return;
+        }
+        if (tx.events.isEmpty()) {
+            sendOKResponse(requestID);
+            return;
+        }
+        CompletableFuture<List<Long>> cf;
+        try {
+            cf = server.publishEvents(tx.log, tx.events, tx.partitionKeys);
+        } catch (MewException e) {
+            sendErrorResponse(Client.ERR_SERVER_ERROR, e.getMessage(), requestID);
+            return;
+        }
+        cf.handle((v, ex) -> {
+            if (ex == null) {
+                sendOKResponse(requestID);
+            } else {
+                sendErrorResponse(Client.ERR_SERVER_ERROR, "failed to persist", requestID);
+            }
+            return null;
+        });
     }
 
     @Override
@@ -147,6 +334,36 @@ public class ConnectionImpl implements ServerFrameHandler {
         if (!checkAuthenticated()) {
             return;
         }
+        Integer sessID = frame.getInteger(Protocol.ABORTTX_SESSID);
+        Integer requestID = frame.getInteger(Protocol.REQUEST_REQUEST_ID);
+        if (!checkTxFields(sessID, requestID, Protocol.ABORTTX_FRAME)) {
+            return;
+        }
+        if (transactions.remove(sessID) == null) {
+            sendErrorResponse(Client.ERR_NO_TX_IN_PROGRESS, "no transaction in progress for session " + sessID,
+                    requestID);
+            return;
+        }
+        sendOKResponse(requestID);
+    }
+
+    private boolean checkTxFields(Integer sessID, Integer requestID, String frameType) {
+        if (sessID == null) {
+            missingField(Protocol.STARTTX_SESSID, frameType);
+            return false;
+        }
+        if (requestID == null) {
+            missingField(Protocol.REQUEST_REQUEST_ID, frameType);
+            return false;
+        }
+        return true;
+    }
+
+    private void sendOKResponse(int requestID) {
+        BsonObject resp = new BsonObject();
+        resp.put(Protocol.RESPONSE_REQUEST_ID, requestID);
+        resp.put(Protocol.RESPONSE_OK, true);
+        writeResponse(Protocol.RESPONSE_FRAME, resp);
     }
 
     @Override
@@ -171,8 +388,19 @@ public class ConnectionImpl implements ServerFrameHandler {
         Long startTimestamp = frame.getLong(Protocol.SUBSCRIBE_STARTTIMESTAMP);
         String durableID = frame.getString(Protocol.SUBSCRIBE_DURABLEID);
         BsonObject matcher = frame.getBsonObject(Protocol.SUBSCRIBE_MATCHER);
+        String group = frame.getString(Protocol.SUBSCRIBE_GROUP);
+        Integer window = frame.getInteger(Protocol.SUBSCRIBE_WINDOW);
+        if (window != null && window < 1) {
+            invalidField(Protocol.SUBSCRIBE_WINDOW, Protocol.SUBSCRIBE_FRAME);
+            return;
+        }
+        Integer windowBytes = frame.getInteger(Protocol.SUBSCRIBE_WINDOW_BYTES);
+        if (windowBytes != null && windowBytes < 1) {
+            invalidField(Protocol.SUBSCRIBE_WINDOW_BYTES, Protocol.SUBSCRIBE_FRAME);
+            return;
+        }
         SubDescriptor subDescriptor = new SubDescriptor().setStartPos(startSeq == null ? -1 : startSeq).setStartTimestamp(startTimestamp)
-                .setMatcher(matcher).setDurableID(durableID).setChannel(channel);
+                .setMatcher(matcher).setDurableID(durableID).setChannel(channel).setGroup(group);
         int subID = subSeq++;
         checkWrap(subSeq);
         Log log = server.getLog(channel);
@@ -180,12 +408,17 @@ public class ConnectionImpl implements ServerFrameHandler {
             sendErrorResponse(Client.ERR_NO_SUCH_CHANNEL, "no such channel " + channel, requestID);
             return;
         }
-        SubscriptionImpl subscription = new SubscriptionImpl(this, subID, subDescriptor);
+        CreditWindow credit = new CreditWindow(window == null ? 0 : window, grantWindowBytes(windowBytes));
+        SubscriptionImpl subscription = new SubscriptionImpl(this, subID, subDescriptor, credit);
         subscriptionMap.put(subID, subscription);
         BsonObject resp = new BsonObject();
         resp.put(Protocol.RESPONSE_REQUEST_ID, requestID);
         resp.put(Protocol.RESPONSE_OK, true);
         resp.put(Protocol.SUBRESPONSE_SUBID, subID);
+        if (window != null) {
+            resp.put(Protocol.SUBRESPONSE_WINDOW, window);
+        }
+        resp.put(Protocol.SUBRESPONSE_WINDOW_BYTES, credit.getMaxBytes());
         writeResponse(Protocol.SUBRESPONSE_FRAME, resp);
         logger.trace("Subscribed channel: {} startSeq {}", channel, startSeq);
     }
@@ -301,11 +534,28 @@ public class ConnectionImpl implements ServerFrameHandler {
         QueryImpl query = server.getCqrsManager().getQuery(queryName);
         if (query == null) {
             writeQueryError(Client.ERR_NO_SUCH_QUERY, "No such query " + queryName, queryID);
-        } else {
-            QueryExecution qe = new ConnectionQueryExecution(this, queryID, query, params);
-            queryStates.put(queryID, qe);
-            qe.start();
+            return;
         }
+        Integer limit = frame.getInteger(Protocol.QUERY_LIMIT);
+        String token = frame.getString(Protocol.QUERY_CURSOR);
+        QueryCursors cursors = server.getCqrsManager().getQueryCursors();
+        QueryCursors.Cursor cursor = null;
+        if (token != null) {
+            cursor = cursors.getCursor(token, queryName);
+            if (cursor == null) {
+                writeQueryError(Client.ERR_NO_SUCH_CURSOR, "No such cursor, or it has expired", queryID);
+                return;
+            }
+        }
+        Integer windowBytes = frame.getInteger(Protocol.QUERY_WINDOW_BYTES);
+        if (windowBytes != null && windowBytes < 1) {
+            invalidField(Protocol.QUERY_WINDOW_BYTES, Protocol.QUERY_FRAME);
+            return;
+        }
+        QueryExecution qe = new ConnectionQueryExecution(this, queryID, query, params, limit == null ? 0 : limit,
+                cursors, cursor, new CreditWindow(0, grantWindowBytes(windowBytes)));
+        queryStates.put(queryID, qe);
+        qe.start();
     }
 
 
@@ -396,11 +646,13 @@ public class ConnectionImpl implements ServerFrameHandler {
             missingField(Protocol.REQUEST_REQUEST_ID, Protocol.UNSUBSCRIBE_FRAME);
             return;
         }
-        CompletableFuture<Void> cf = server.getCqrsManager().callCommandHandler(commandName, command);
+        String commandID = frame.getString(Protocol.COMMAND_ID);
+        CompletableFuture<Void> cf = server.getCqrsManager().callCommandHandler(commandName, command, commandID);
         cf.handle((res, t) -> {
             if (t != null) {
-                // TODO what error to send?
-                //sendErrorResponse(Client.ERR_SERVER_ERROR, "failed to create binder", requestID);
+                // The client needs to know it failed so it can retry
+                Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                sendErrorResponse(Client.ERR_COMMAND_FAILED, "command failed: " + cause.getMessage(), requestID);
             } else {
                 BsonObject resp = new BsonObject();
                 resp.put(Protocol.RESPONSE_REQUEST_ID, requestID);
@@ -498,7 +750,8 @@ public class ConnectionImpl implements ServerFrameHandler {
             missingField(Protocol.CREATECHANNEL_NAME, Protocol.CREATE_CHANNEL_FRAME);
             return;
         }
-        CompletableFuture<Boolean> cf = server.createChannel(channelName);
+        Integer partitions = frame.getInteger(Protocol.CREATECHANNEL_PARTITIONS);
+        CompletableFuture<Boolean> cf = server.createChannel(channelName, partitions == null ? 1 : partitions);
         cf.handle((res, t) -> {
             if (t != null) {
                 sendErrorResponse(Client.ERR_SERVER_ERROR, "failed to create channel", requestID);
@@ -513,16 +766,19 @@ public class ConnectionImpl implements ServerFrameHandler {
         });
     }
 
-    protected Buffer writeQueryResult(BsonObject doc, int queryID, boolean last) {
+    protected int writeQueryResult(BsonObject doc, int queryID, boolean last, String cursor) {
         BsonObject res = new BsonObject();
         res.put(Protocol.QUERYRESULT_OK, true);
         res.put(Protocol.QUERYRESULT_QUERYID, queryID);
         res.put(Protocol.QUERYRESULT_RESULT, doc);
         res.put(Protocol.QUERYRESULT_LAST, last);
+        if (cursor != null) {
+            res.put(Protocol.QUERYRESULT_CURSOR, cursor);
+        }
         return writeResponse(Protocol.QUERYRESULT_FRAME, res);
     }
 
-    protected Buffer writeQueryError(int errCode, String errMsg, int queryID) {
+    protected int writeQueryError(int errCode, String errMsg, int queryID) {
         BsonObject res = new BsonObject();
         res.put(Protocol.QUERYRESULT_OK, false);
         res.put(Protocol.QUERYRESULT_QUERYID, queryID);
@@ -532,16 +788,122 @@ public class ConnectionImpl implements ServerFrameHandler {
         return writeResponse(Protocol.QUERYRESULT_FRAME, res);
     }
 
-    protected Buffer writeResponse(String frameName, BsonObject frame) {
-        Buffer buff = Protocol.encodeFrame(frameName, frame);
-        // TODO compare performance of writing directly in all cases and via context
-        Context curr = Vertx.currentContext();
-        if (curr != context) {
-            context.runOnContext(v -> transportConnection.write(buff));
-        } else {
-            transportConnection.write(buff);
+    /*
+    Frames aren't written to the transport one by one - they're added to a batch which is written in one go at the
+    end of the current event loop tick, so fanning out events to many subscriptions doesn't cost a write each. Batches
+    are cut at maxWriteBatchBytes so they don't grow without bound. This can be called on any thread, the transport is
+    only ever written to on the connection's context so the frames stay in order.
+    Frames to a peer in the same JVM aren't encoded, the transport connection queues them itself.
+    Returns the size of the frame, which is what it counts as for flow control.
+     */
+    protected int writeResponse(String frameName, BsonObject frame) {
+        if (frameConnection != null) {
+            int size = Protocol.estimateSize(frame);
+            frameConnection.writeFrame(frameName, frame, size);
+            // Still check the write queue once per tick
+            scheduleFlush(size, null);
+            return size;
+        }
+        Buffer buff = protocol.encode(frameName, frame);
+        scheduleFlush(buff.length(), buff);
+        return buff.length();
+    }
+
+    private void scheduleFlush(int size, Buffer buff) {
+        boolean schedule = false;
+        boolean flushNow = false;
+        synchronized (writeLock) {
+            framesWritten++;
+            if (buff != null) {
+                if (writeBatch == null) {
+                    writeBatch = Buffer.buffer(Math.min(size * 2, maxWriteBatchBytes));
+                }
+                writeBatch.appendBuffer(buff);
+                if (writeBatch.length() >= maxWriteBatchBytes) {
+                    fullBatches.add(writeBatch);
+                    writeBatch = null;
+                    flushNow = true;
+                }
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (flushNow && Vertx.currentContext() == context) {
+            flushWrites();
+        } else if (schedule) {
+            context.runOnContext(v -> flushWrites());
+        }
+    }
+
+    private void flushWrites() {
+        checkContext();
+        List<Buffer> batches;
+        synchronized (writeLock) {
+            flushScheduled = false;
+            if (writeBatch != null) {
+                fullBatches.add(writeBatch);
+                writeBatch = null;
+            }
+            batches = new ArrayList<>(fullBatches);
+            fullBatches.clear();
+        }
+        if (closed) {
+            return;
+        }
+        for (Buffer batch : batches) {
+            transportConnection.write(batch);
+            batchesWritten++;
+        }
+        if (!writesPaused && transportConnection.writeQueueFull()) {
+            pauseWrites();
+        }
+    }
+
+    /*
+    The transport's write queue is over its high water mark, so stop reading any more events or query results to
+    send until it has drained. This way a slow client backs up into the log and binders rather than server memory
+     */
+    private void pauseWrites() {
+        logger.trace("Write queue full, pausing subscriptions and queries");
+        writesPaused = true;
+        for (SubscriptionImpl subscription : subscriptionMap.values()) {
+            subscription.pauseWrites();
+        }
+        for (QueryExecution queryState : queryStates.values()) {
+            queryState.pauseWrites();
+        }
+    }
+
+    private void resumeWrites() {
+        checkContext();
+        if (!writesPaused) {
+            return;
+        }
+        logger.trace("Write queue drained, resuming subscriptions and queries");
+        writesPaused = false;
+        for (SubscriptionImpl subscription : subscriptionMap.values()) {
+            subscription.resumeWrites();
+        }
+        // Resuming can end a query, which removes it from the map
+        for (QueryExecution queryState : new ArrayList<>(queryStates.values())) {
+            queryState.resumeWrites();
+        }
+    }
+
+    public boolean isWritesPaused() {
+        return writesPaused;
+    }
+
+    public long getFramesWritten() {
+        synchronized (writeLock) {
+            return framesWritten;
         }
-        return buff;
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten;
     }
 
     protected void checkWrap(int i) {
@@ -568,6 +930,15 @@ public class ConnectionImpl implements ServerFrameHandler {
         return authenticated;
     }
 
+    /*
+    Clients can ask for a bigger window than the default, e.g. so they aren't throttled on a low latency link, up to
+    the server's max
+     */
+    private int grantWindowBytes(Integer requested) {
+        ServerOptions options = server.getServerOptions();
+        return requested == null ? options.getDefaultWindowBytes() : Math.min(requested, options.getMaxWindowBytes());
+    }
+
     protected void missingField(String fieldName, String frameType) {
         logger.warn("protocol error: missing {} in {}. connection will be closed", fieldName, frameType);
         close();
@@ -617,11 +988,21 @@ public class ConnectionImpl implements ServerFrameHandler {
             return;
         }
         authenticated = false;
+        // Uncommitted transactions are lost
+        transactions.clear();
         for (QueryExecution queryState : queryStates.values()) {
             queryState.close();
         }
         queryStates.clear();
+        // Closing the subscriptions also takes them out of any consumer groups so their partitions get reassigned
+        for (SubscriptionImpl subscription : subscriptionMap.values()) {
+            subscription.close();
+        }
+        subscriptionMap.clear();
+        // Anything already written still goes out before the close
+        flushWrites();
         closed = true;
+        server.connectionClosed(this);
         transportConnection.close();
     }
 
@@ -629,4 +1010,75 @@ public class ConnectionImpl implements ServerFrameHandler {
         return server;
     }
 
+
+    private static final class PipelinedSession {
+        // Request ids of the publishes which haven't completed yet
+        final TreeSet<Integer> outstanding = new TreeSet<>();
+        // Request ids of the publishes which have been persisted but not acked yet
+        final TreeSet<Integer> succeeded = new TreeSet<>();
+
+        /*
+        The highest persisted request id with every publish before it completed, or -1 if there isn't one
+         */
+        int ackableID() {
+            SortedSet<Integer> ackable = outstanding.isEmpty() ? succeeded : succeeded.headSet(outstanding.first());
+            return ackable.isEmpty() ? -1 : ackable.last();
+        }
+    }
+
+    private static final class Transaction {
+        final List<BsonObject> events = new ArrayList<>();
+        final List<String> partitionKeys = new ArrayList<>();
+        Log log;
+        String channel;
+        int bytes;
+        // Why an event was rejected, after which nothing more is added and the commit fails
+        String failure;
+
+        /*
+        Returns why the events can't be added to the transaction, or null if they were added.
+
+        A partitioned log only appends a batch in one go if all its records go to the same partition, so all the
+        events of a transaction on a partitioned channel must have the same partition key
+         */
+        String add(String channel, Log log, BsonObject event, BsonArray batch, String partitionKey, int maxBytes) {
+            if (this.channel == null) {
+                this.channel = channel;
+                this.log = log;
+            } else if (!this.channel.equals(channel)) {
+                return "transaction is for channel " + this.channel;
+            }
+            if (log instanceof PartitionedLog && !partitionKeys.isEmpty()
+                    && !Objects.equals(partitionKeys.get(0), partitionKey)) {
+                return "all the events of a transaction on a partitioned channel must have the same partition key";
+            }
+            List<BsonObject> added = new ArrayList<>();
+            if (batch != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    added.add(batch.getBsonObject(i));
+                }
+            } else {
+                added.add(event);
+            }
+            int addedBytes = 0;
+            for (BsonObject ev : added) {
+                addedBytes += Protocol.estimateSize(ev);
+            }
+            if (bytes + addedBytes > maxBytes) {
+                return "transaction is larger than " + maxBytes + " bytes";
+            }
+            bytes += addedBytes;
+            for (BsonObject ev : added) {
+                events.add(ev);
+                partitionKeys.add(partitionKey);
+            }
+            return null;
+        }
+
+        void fail(String reason) {
+            failure = reason;
+            events.clear();
+            partitionKeys.clear();
+        }
+    }
 }
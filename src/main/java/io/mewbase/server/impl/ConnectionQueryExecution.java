@@ -1,9 +1,10 @@
 package io.mewbase.server.impl;
 
 import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.server.impl.cqrs.QueryCursors;
 import io.mewbase.server.impl.cqrs.QueryImpl;
 import io.vertx.core.Context;
-import io.vertx.core.buffer.Buffer;
 
 /**
  * Created by tim on 12/01/17.
@@ -14,15 +15,26 @@ public class ConnectionQueryExecution extends QueryExecution {
     private final int queryID;
 
     public ConnectionQueryExecution(ConnectionImpl connection, int queryID, QueryImpl query,
-                                    BsonObject params) {
-        super(query, params);
+                                    BsonObject params, int limit, QueryCursors cursors, QueryCursors.Cursor cursor,
+                                    CreditWindow window) {
+        super(query, params, limit, cursors, cursor, window);
         this.connection = connection;
         this.queryID = queryID;
     }
 
     @Override
-    protected Buffer writeQueryResult(BsonObject doc, boolean last) {
-        return connection.writeQueryResult(doc, queryID, last);
+    protected int writeQueryResult(BsonObject doc, boolean last, String cursor) {
+        return connection.writeQueryResult(doc, queryID, last, cursor);
+    }
+
+    @Override
+    protected void writeQueryFailure() {
+        connection.writeQueryError(Client.ERR_SERVER_ERROR, "Failed to execute query", queryID);
+    }
+
+    @Override
+    protected boolean writesPaused() {
+        return connection.isWritesPaused();
     }
 
     @Override
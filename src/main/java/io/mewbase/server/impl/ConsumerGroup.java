@@ -0,0 +1,210 @@
+package io.mewbase.server.impl;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.server.Binder;
+import io.mewbase.server.impl.log.PartitionedLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A named group of subscriptions to a channel which share the work of consuming it.
+ * <p>
+ * Records are divided into a fixed number of partitions by the hash of the partition key given when the event was
+ * published, so all the events for a key are received, in order, by the same member. Events published without a key
+ * are spread over the partitions by position. Each member is assigned a disjoint set of partitions, and the
+ * partitions are reassigned whenever a member joins or leaves.
+ * <p>
+ * For a partitioned channel the partitions of the group are the partitions of the channel, so members only read the
+ * partitions they've been given.
+ * <p>
+ * For any other channel every member reads the whole channel and skips the records of partitions it hasn't been
+ * given, so adding members spreads the work of handling the events but not the work of reading them.
+ * <p>
+ * The last acknowledged position of each partition is stored in the durable subscriptions binder, so a member which
+ * takes over a partition carries on from where the previous owner left off, even across restarts. The new owner
+ * starts from the positions acknowledged when the partitions were reassigned - anything the previous owner
+ * acknowledges after that is delivered again, so members must cope with receiving an event more than once.
+ */
+public class ConsumerGroup {
+
+    private final static Logger logger = LoggerFactory.getLogger(ConsumerGroup.class);
+
+    private static final String GROUP_DOC_ID_PREFIX = "_group.";
+    private static final String GROUP_DOC_OFFSETS_FIELD = "offsets";
+
+    private final Binder binder;
+    private final String docID;
+    private final int numPartitions;
+    private final boolean channelPartitions;
+    private final List<SubscriptionBase> members = new ArrayList<>();
+    private final Map<SubscriptionBase, Set<Integer>> assignments = new HashMap<>();
+    private final Map<Integer, Long> offsets = new HashMap<>();
+    private final CompletableFuture<Void> loadCF;
+    private boolean storing;
+    private boolean offsetsChanged;
+
+    ConsumerGroup(Binder binder, String channel, String name, int numPartitions, boolean channelPartitions) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("groupPartitions must be > 0");
+        }
+        this.binder = binder;
+        this.docID = GROUP_DOC_ID_PREFIX + channel + "." + name;
+        this.numPartitions = numPartitions;
+        this.channelPartitions = channelPartitions;
+        this.loadCF = binder.get(docID).thenAccept(this::loadOffsets);
+    }
+
+    public int partition(long pos, BsonObject record) {
+        if (channelPartitions) {
+            return PartitionedLog.partitionOf(pos);
+        }
+        String key = record.getString(Protocol.RECEV_PARTITION_KEY);
+        int hash = key != null ? key.hashCode() : Long.hashCode(pos);
+        return (hash & 0x7fffffff) % numPartitions;
+    }
+
+    public synchronized Map<Integer, Long> getOffsets() {
+        return new HashMap<>(offsets);
+    }
+
+    void join(SubscriptionBase member) {
+        loadCF.thenRun(() -> {
+            synchronized (this) {
+                members.add(member);
+                rebalance();
+            }
+        }).exceptionally(t -> {
+            logger.error("Failed to load consumer group " + docID, t);
+            return null;
+        });
+    }
+
+    void leave(SubscriptionBase member) {
+        // Even if the offsets couldn't be loaded, the partitions of the member must go to the members that are left
+        loadCF.handle((v, t) -> {
+            synchronized (this) {
+                if (members.remove(member)) {
+                    assignments.remove(member);
+                    rebalance();
+                }
+            }
+            return null;
+        }).exceptionally(t -> {
+            logger.error("Failed to leave consumer group " + docID, t);
+            return null;
+        });
+    }
+
+    synchronized void acknowledge(int partition, long pos) {
+        Long prev = offsets.get(partition);
+        if (prev == null || pos > prev) {
+            offsets.put(partition, pos);
+            offsetsChanged = true;
+            if (!storing) {
+                storeOffsets();
+            }
+        }
+    }
+
+    /*
+    Only one write of the offsets is in progress at a time. All the acks that arrive while it is are stored together by
+    the next write, so a busy group doesn't write the offsets once per ack
+     */
+    private void storeOffsets() {
+        storing = true;
+        offsetsChanged = false;
+        binder.put(docID, offsetsDoc()).whenComplete((v, t) -> {
+            if (t != null) {
+                logger.error("Failed to store offsets of consumer group " + docID, t);
+            }
+            synchronized (this) {
+                storing = false;
+                if (offsetsChanged) {
+                    storeOffsets();
+                }
+            }
+        });
+    }
+
+    /*
+    Each member gets numPartitions / numMembers partitions, and the first numPartitions % numMembers members in join
+    order get one more. Members keep the partitions they already have, up to their share, so only the partitions of a
+    member that left, or that a member now has too many of, move. Only members whose partitions changed are told
+     */
+    private void rebalance() {
+        int numMembers = members.size();
+        Map<SubscriptionBase, Set<Integer>> newAssignments = new HashMap<>();
+        Set<Integer> kept = new HashSet<>();
+        for (int i = 0; i < numMembers; i++) {
+            SubscriptionBase member = members.get(i);
+            int share = share(i, numMembers);
+            Set<Integer> partitions = new HashSet<>();
+            Set<Integer> prev = assignments.get(member);
+            if (prev != null) {
+                for (Integer p : new TreeSet<>(prev)) {
+                    if (partitions.size() == share) {
+                        break;
+                    }
+                    partitions.add(p);
+                }
+            }
+            kept.addAll(partitions);
+            newAssignments.put(member, partitions);
+        }
+        int next = 0;
+        for (int i = 0; i < numMembers; i++) {
+            Set<Integer> partitions = newAssignments.get(members.get(i));
+            int share = share(i, numMembers);
+            while (partitions.size() < share) {
+                if (!kept.contains(next)) {
+                    partitions.add(next);
+                }
+                next++;
+            }
+        }
+        for (SubscriptionBase member : members) {
+            Set<Integer> partitions = newAssignments.get(member);
+            if (!partitions.equals(assignments.get(member))) {
+                assignments.put(member, partitions);
+                try {
+                    member.assignPartitions(partitions, new HashMap<>(offsets));
+                } catch (Throwable t) {
+                    // Don't stop the other members getting their partitions
+                    logger.error("Failed to assign partitions to member of consumer group " + docID, t);
+                }
+            }
+        }
+    }
+
+    private int share(int memberIndex, int numMembers) {
+        return numPartitions / numMembers + (memberIndex < numPartitions % numMembers ? 1 : 0);
+    }
+
+    private void loadOffsets(BsonObject doc) {
+        if (doc != null) {
+            BsonObject offs = doc.getBsonObject(GROUP_DOC_OFFSETS_FIELD);
+            synchronized (this) {
+                for (String partition : offs.fieldNames()) {
+                    offsets.put(Integer.valueOf(partition), offs.getLong(partition));
+                }
+            }
+        }
+    }
+
+    private BsonObject offsetsDoc() {
+        BsonObject offs = new BsonObject();
+        for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+            offs.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return new BsonObject().put(GROUP_DOC_OFFSETS_FIELD, offs);
+    }
+}
@@ -0,0 +1,74 @@
+package io.mewbase.server.impl;
+
+/**
+ * Credit based flow control for messages sent to a consumer - subscription events, query results or events being
+ * projected.
+ * <p>
+ * The consumer is granted a window of credit, in messages and/or bytes. Each message sent uses up credit, and the
+ * consumer gives it back by acknowledging what it has processed, so the acks carry the credit. Once the credit has
+ * run out the sender stops until at least half the window has been given back, so it isn't stopped and started for
+ * every ack. A limit of 0 means that dimension isn't limited.
+ * <p>
+ * Not thread safe - it's used on the context of the stream it controls.
+ */
+public class CreditWindow {
+
+    private final int maxMessages;
+    private final int maxBytes;
+    private int messages;
+    private int bytes;
+
+    public CreditWindow(int maxMessages, int maxBytes) {
+        if (maxMessages < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Window must be >= 0");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Use up the credit for a message which has been sent
+     *
+     * @param size the size of the message in bytes
+     * @return true if there's still credit to send more
+     */
+    public boolean sent(int size) {
+        messages++;
+        bytes += size;
+        return hasCredit();
+    }
+
+    /**
+     * Give back the credit of messages which have been acknowledged
+     *
+     * @param ackedMessages the number of messages acknowledged
+     * @param ackedBytes the size of the messages acknowledged in bytes
+     * @return true if enough credit has been given back to carry on sending
+     */
+    public boolean acked(int ackedMessages, int ackedBytes) {
+        messages -= ackedMessages;
+        bytes -= ackedBytes;
+        // Low watermarks to prevent thrashing
+        return (maxMessages == 0 || messages <= maxMessages / 2) && (maxBytes == 0 || bytes < maxBytes / 2);
+    }
+
+    public boolean hasCredit() {
+        return (maxMessages == 0 || messages < maxMessages) && (maxBytes == 0 || bytes <= maxBytes);
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getUnackedMessages() {
+        return messages;
+    }
+
+    public int getUnackedBytes() {
+        return bytes;
+    }
+}
@@ -12,6 +12,10 @@ public interface FileAccess {
 
     CompletableFuture<BasicFile> openBasicFile(File file);
 
+    CompletableFuture<BasicFile> openReadOnlyBasicFile(File file);
+
+    CompletableFuture<BasicFile> openCompressedBasicFile(File file);
+
     void scheduleOp(Runnable runner);
 
 }
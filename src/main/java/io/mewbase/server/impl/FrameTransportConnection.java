@@ -0,0 +1,28 @@
+package io.mewbase.server.impl;
+
+import io.mewbase.bson.BsonObject;
+
+/**
+ * A transport connection which passes frames across as they are, without encoding them. Only possible when both ends
+ * are in the same JVM.
+ * <p>
+ * Frames are passed by reference, so neither end may change a frame, or anything in it, once it has been written.
+ */
+public interface FrameTransportConnection extends TransportConnection {
+
+    /**
+     * Write a frame
+     *
+     * @param frameType the type of the frame
+     * @param frame the frame
+     * @param size the size the frame counts as for flow control, see {@link Protocol#estimateSize(BsonObject)}
+     */
+    void writeFrame(String frameType, BsonObject frame, int size);
+
+    void frameHandler(FrameReceiver handler);
+
+    interface FrameReceiver {
+
+        void handleFrame(String frameType, int size, BsonObject frame);
+    }
+}
@@ -1,5 +1,6 @@
 package io.mewbase.server.impl;
 
+import io.mewbase.bson.BsonArray;
 import io.mewbase.bson.BsonObject;
 import io.mewbase.common.FrameHandler;
 import io.vertx.core.Handler;
@@ -8,10 +9,22 @@ import io.vertx.core.parsetools.RecordParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
+ * Encodes and decodes the frames of a connection.
+ * <p>
+ * Version 1 of the protocol wraps each frame in a BSON envelope with the frame type as a string. Version 2 replaces
+ * the envelope with a fixed binary header - length, frame type code, flags and request ID - followed by the frame
+ * itself as BSON, so a frame is dispatched with a table lookup on the type code and only the frame is decoded.
+ * Connections start with version 1, and switch to version 2 once the CONNECT has negotiated it.
+ * <p>
  * TODO we should write our own BSON parser and only decode fields when needed.
- * BSON is ordered and `type` should be the first field - we only need to decode that in order to know what to do
- * with the frame - in the case of a PUB we should be able to pass the buffer direct to subscribers without
+ * In the case of a PUB we should be able to pass the buffer direct to subscribers without
  * further decoding of the event, also to storage. I.e. we want to avoid decoding the entire frame in all cases
  * <p>
  * Created by tim on 23/09/16.
@@ -21,11 +34,25 @@ public class Protocol {
     public static final String FRAME_TYPE_FIELD = "type";
     public static final String FRAME_FRAME_FIELD = "frame";
 
+    // Versions
+
+    public static final String VERSION_1 = "0.1";
+    public static final String VERSION_2 = "0.2";
+
+    // Version 2 header - length (int32), frame type code (byte), flags (byte), request ID (int32)
+
+    public static final int HEADER_SIZE = 10;
+    // The request ID in the header is set
+    public static final byte FLAG_REQUEST_ID = 0x01;
+    // There's no BSON after the header
+    public static final byte FLAG_NO_FRAME = 0x02;
+
     // Frame types
 
     public static final String RESPONSE_FRAME = "RESPONSE";
     public static final String CONNECT_FRAME = "CONNECT";
     public static final String PUBLISH_FRAME = "PUB";
+    public static final String PUBACK_FRAME = "PUBACK";
     public static final String STARTTX_FRAME = "STARTTX";
     public static final String COMMITTX_FRAME = "COMMITTX";
     public static final String ABORTTX_FRAME = "ABORTTX";
@@ -56,13 +83,23 @@ public class Protocol {
     public static final String RESPONSE_ERRCODE = "errCode";
 
     public static final String SUBRESPONSE_SUBID = "subID";
+    public static final String SUBRESPONSE_WINDOW = "window";
+    public static final String SUBRESPONSE_WINDOW_BYTES = "windowBytes";
 
     public static final String CONNECT_AUTH_INFO = "authInfo";
     public static final String CONNECT_VERSION = "version";
 
+    public static final String CONNECTRESPONSE_VERSION = "version";
+
     public static final String PUBLISH_CHANNEL = "channel";
     public static final String PUBLISH_EVENT = "event";
+    public static final String PUBLISH_EVENTS = "events";
     public static final String PUBLISH_SESSID = "sessID";
+    public static final String PUBLISH_PARTITION_KEY = "partitionKey";
+    public static final String PUBLISH_PIPELINED = "pipelined";
+
+    public static final String PUBACK_SESSID = "sessID";
+    public static final String PUBACK_REQUEST_ID = "rID";
 
     public static final String STARTTX_SESSID = "sessID";
 
@@ -75,6 +112,9 @@ public class Protocol {
     public static final String SUBSCRIBE_STARTTIMESTAMP = "startTimestamp";
     public static final String SUBSCRIBE_DURABLEID = "durableID";
     public static final String SUBSCRIBE_MATCHER = "matcher";
+    public static final String SUBSCRIBE_GROUP = "group";
+    public static final String SUBSCRIBE_WINDOW = "window";
+    public static final String SUBSCRIBE_WINDOW_BYTES = "windowBytes";
 
     public static final String UNSUBSCRIBE_SUBID = "subID";
 
@@ -84,6 +124,7 @@ public class Protocol {
     public static final String RECEV_TIMESTAMP = "timestamp";
     public static final String RECEV_POS = "pos";
     public static final String RECEV_EVENT = "event";
+    public static final String RECEV_PARTITION_KEY = "partitionKey";
 
     public static final String ACKEV_SUBID = "subID";
     public static final String ACKEV_BYTES = "bytes";
@@ -97,11 +138,15 @@ public class Protocol {
     public static final String QUERY_QUERYID = "queryID";
     public static final String QUERY_NAME = "name";
     public static final String QUERY_PARAMS = "params";
+    public static final String QUERY_LIMIT = "limit";
+    public static final String QUERY_CURSOR = "cursor";
+    public static final String QUERY_WINDOW_BYTES = "windowBytes";
 
     public static final String QUERYRESULT_OK = "ok";
     public static final String QUERYRESULT_QUERYID = "queryID";
     public static final String QUERYRESULT_RESULT = "result";
     public static final String QUERYRESULT_LAST = "last";
+    public static final String QUERYRESULT_CURSOR = "cursor";
 
     public static final String QUERYACK_QUERYID = "queryID";
     public static final String QUERYACK_BYTES = "bytes";
@@ -114,17 +159,62 @@ public class Protocol {
 
     public static final String LISTCHANNELS_CHANNELS = "channels";
     public static final String CREATECHANNEL_NAME = "name";
+    public static final String CREATECHANNEL_PARTITIONS = "partitions";
     public static final String CREATECHANNEL_RESPONSE_EXISTS = "exists";
 
     // Command fields
     public static final String COMMAND_NAME = "name";
     public static final String COMMAND_COMMAND = "command";
+    public static final String COMMAND_ID = "cmdID";
 
 
     private final static Logger logger = LoggerFactory.getLogger(Protocol.class);
 
+    // The code of a frame type in the version 2 header is its index
+    private static final String[] FRAME_TYPES = {RESPONSE_FRAME, CONNECT_FRAME, PUBLISH_FRAME, PUBACK_FRAME,
+            STARTTX_FRAME, COMMITTX_FRAME, ABORTTX_FRAME, SUBSCRIBE_FRAME, UNSUBSCRIBE_FRAME, SUBCLOSE_FRAME,
+            SUBRESPONSE_FRAME, RECEV_FRAME, ACKEV_FRAME, FINDBYID_FRAME, QUERY_FRAME, QUERYRESULT_FRAME,
+            QUERYACK_FRAME, PING_FRAME, LIST_BINDERS_FRAME, CREATE_BINDER_FRAME, LIST_CHANNELS_FRAME,
+            CREATE_CHANNEL_FRAME, COMMAND_FRAME};
+
+    private static final FrameDispatcher[] DISPATCHERS = {
+            (h, size, frame) -> h.handleResponse(frame),
+            (h, size, frame) -> h.handleConnect(frame),
+            (h, size, frame) -> h.handlePublish(frame),
+            (h, size, frame) -> h.handlePubAck(frame),
+            (h, size, frame) -> h.handleStartTx(frame),
+            (h, size, frame) -> h.handleCommitTx(frame),
+            (h, size, frame) -> h.handleAbortTx(frame),
+            (h, size, frame) -> h.handleSubscribe(frame),
+            (h, size, frame) -> h.handleUnsubscribe(frame),
+            (h, size, frame) -> h.handleSubClose(frame),
+            (h, size, frame) -> h.handleSubResponse(frame),
+            FrameHandler::handleRecev,
+            (h, size, frame) -> h.handleAckEv(frame),
+            (h, size, frame) -> h.handleFindByID(frame),
+            (h, size, frame) -> h.handleQuery(frame),
+            FrameHandler::handleQueryResult,
+            (h, size, frame) -> h.handleQueryAck(frame),
+            (h, size, frame) -> h.handlePing(frame),
+            (h, size, frame) -> h.handleListBinders(frame),
+            (h, size, frame) -> h.handleCreateBinder(frame),
+            (h, size, frame) -> h.handleListChannels(frame),
+            (h, size, frame) -> h.handleCreateChannel(frame),
+            (h, size, frame) -> h.handleCommand(frame)
+    };
+
+    private static final Map<String, Integer> FRAME_TYPE_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < FRAME_TYPES.length; i++) {
+            FRAME_TYPE_CODES.put(FRAME_TYPES[i], i);
+        }
+    }
+
     private final FrameHandler frameHandler;
     private final RecordParser parser;
+    // Written on the connection's context, but frames can be encoded on any thread
+    private volatile boolean version2;
 
     public Protocol(FrameHandler frameHandler) {
         this.frameHandler = frameHandler;
@@ -150,87 +240,78 @@ public class Protocol {
         return parser;
     }
 
+    /**
+     * Switch to version 2. The length prefix is the same in both versions, so this can be done between any two frames.
+     */
+    public void useVersion2() {
+        version2 = true;
+    }
+
+    public boolean isVersion2() {
+        return version2;
+    }
+
+    /**
+     * Encode a frame with the version in use on the connection
+     *
+     * @param frameType the type of the frame
+     * @param frame the frame
+     * @return the encoded frame
+     */
+    public Buffer encode(String frameType, BsonObject frame) {
+        return version2 ? encodeFrameV2(frameType, frame) : encodeFrame(frameType, frame);
+    }
+
+    /**
+     * Handle a frame which hasn't been encoded, e.g. one passed across from a peer in the same JVM
+     *
+     * @param frameType the type of the frame
+     * @param size the size the frame counts as for flow control
+     * @param frame the frame
+     */
+    public void handleFrame(String frameType, int size, BsonObject frame) {
+        Integer code = FRAME_TYPE_CODES.get(frameType);
+        if (code == null) {
+            logger.error("Invalid frame type: " + frameType);
+            return;
+        }
+        DISPATCHERS[code].dispatch(frameHandler, size, frame);
+    }
+
     private void handleFrame(int size, Buffer buffer) {
+        if (version2) {
+            handleFrameV2(size, buffer);
+            return;
+        }
         // TODO bit clunky - need to add size back in so it can be decoded, improve this!
         Buffer buff2 = Buffer.buffer(buffer.length() + 4);
         buff2.appendIntLE(size + 4).appendBuffer(buffer);
         BsonObject bson = new BsonObject(buff2);
-        handleBson(size, bson);
+        String type = bson.getString(FRAME_TYPE_FIELD);
+        Integer code = FRAME_TYPE_CODES.get(type);
+        if (code == null) {
+            logger.error("Invalid frame type: " + type);
+            return;
+        }
+        DISPATCHERS[code].dispatch(frameHandler, size, bson.getBsonObject(FRAME_FRAME_FIELD));
     }
 
-    private void handleBson(int size, BsonObject bson) {
-        String type = bson.getString(FRAME_TYPE_FIELD);
-        BsonObject frame = bson.getBsonObject(FRAME_FRAME_FIELD);
-        switch (type) {
-            case RESPONSE_FRAME:
-                frameHandler.handleResponse(frame);
-                break;
-            case CONNECT_FRAME:
-                frameHandler.handleConnect(frame);
-                break;
-            case PUBLISH_FRAME:
-                frameHandler.handlePublish(frame);
-                break;
-            case STARTTX_FRAME:
-                frameHandler.handleStartTx(frame);
-                break;
-            case COMMITTX_FRAME:
-                frameHandler.handleCommitTx(frame);
-                break;
-            case ABORTTX_FRAME:
-                frameHandler.handleAbortTx(frame);
-                break;
-            case SUBSCRIBE_FRAME:
-                frameHandler.handleSubscribe(frame);
-                break;
-            case SUBCLOSE_FRAME:
-                frameHandler.handleSubClose(frame);
-                break;
-            case UNSUBSCRIBE_FRAME:
-                frameHandler.handleUnsubscribe(frame);
-                break;
-            case SUBRESPONSE_FRAME:
-                frameHandler.handleSubResponse(frame);
-                break;
-            case RECEV_FRAME:
-                frameHandler.handleRecev(size, frame);
-                break;
-            case ACKEV_FRAME:
-                frameHandler.handleAckEv(frame);
-                break;
-            case FINDBYID_FRAME:
-                frameHandler.handleFindByID(frame);
-                break;
-            case QUERY_FRAME:
-                frameHandler.handleQuery(frame);
-                break;
-            case QUERYRESULT_FRAME:
-                frameHandler.handleQueryResult(size, frame);
-                break;
-            case QUERYACK_FRAME:
-                frameHandler.handleQueryAck(frame);
-                break;
-            case PING_FRAME:
-                frameHandler.handlePing(frame);
-                break;
-            case LIST_BINDERS_FRAME:
-                frameHandler.handleListBinders(frame);
-                break;
-            case CREATE_BINDER_FRAME:
-                frameHandler.handleCreateBinder(frame);
-                break;
-            case LIST_CHANNELS_FRAME:
-                frameHandler.handleListChannels(frame);
-                break;
-            case CREATE_CHANNEL_FRAME:
-                frameHandler.handleCreateChannel(frame);
-                break;
-            case COMMAND_FRAME:
-                frameHandler.handleCommand(frame);
-                break;
-            default:
-                logger.error("Invalid frame type: " + type);
+    /*
+    The buffer is everything after the length
+     */
+    private void handleFrameV2(int size, Buffer buffer) {
+        int code = buffer.getByte(0) & 0xFF;
+        if (code >= DISPATCHERS.length) {
+            logger.error("Invalid frame type code: " + code);
+            return;
+        }
+        byte flags = buffer.getByte(1);
+        BsonObject frame = (flags & FLAG_NO_FRAME) != 0 ? new BsonObject() :
+                new BsonObject(buffer.slice(HEADER_SIZE - 4, buffer.length()));
+        if ((flags & FLAG_REQUEST_ID) != 0) {
+            frame.put(REQUEST_REQUEST_ID, buffer.getIntLE(2));
         }
+        DISPATCHERS[code].dispatch(frameHandler, size, frame);
     }
 
     public static Buffer encodeFrame(String frameType, BsonObject frame) {
@@ -238,6 +319,87 @@ public class Protocol {
         env.put(FRAME_TYPE_FIELD, frameType).put(FRAME_FRAME_FIELD, frame);
         return env.encode();
     }
-}
 
+    /*
+    The request ID goes in the header rather than the BSON, and a frame with nothing else in it has no BSON at all.
+    The frame itself isn't changed, as it may be shared with other threads, so the BSON is encoded from a shallow copy
+    without the request ID
+     */
+    public static Buffer encodeFrameV2(String frameType, BsonObject frame) {
+        Integer code = FRAME_TYPE_CODES.get(frameType);
+        if (code == null) {
+            throw new IllegalArgumentException("Invalid frame type: " + frameType);
+        }
+        Integer requestID = frame.getInteger(REQUEST_REQUEST_ID);
+        byte flags = 0;
+        BsonObject body = frame;
+        if (requestID != null) {
+            flags |= FLAG_REQUEST_ID;
+            Map<String, Object> fields = new LinkedHashMap<>(frame.getMap());
+            fields.remove(REQUEST_REQUEST_ID);
+            body = new BsonObject(fields);
+        }
+        Buffer bson = null;
+        if (body.isEmpty()) {
+            flags |= FLAG_NO_FRAME;
+        } else {
+            bson = body.encode();
+        }
+        int length = HEADER_SIZE + (bson == null ? 0 : bson.length());
+        Buffer buff = Buffer.buffer(length);
+        buff.appendIntLE(length).appendByte(code.byteValue()).appendByte(flags)
+                .appendIntLE(requestID == null ? 0 : requestID);
+        if (bson != null) {
+            buff.appendBuffer(bson);
+        }
+        return buff;
+    }
+
+    /**
+     * Estimate the encoded size of a frame without encoding it. Frames which are passed across without being encoded
+     * count as this for flow control, so the windows mean roughly the same as they do for encoded frames.
+     *
+     * @param frame the frame
+     * @return the estimated size in bytes
+     */
+    public static int estimateSize(BsonObject frame) {
+        return HEADER_SIZE + estimateSize(frame.getMap());
+    }
+
+    private static int estimateSize(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof Integer || value instanceof Float) {
+            return 4;
+        } else if (value instanceof Number || value instanceof Instant) {
+            return 8;
+        } else if (value instanceof byte[]) {
+            return 5 + ((byte[])value).length;
+        } else if (value instanceof BsonObject) {
+            return estimateSize(((BsonObject)value).getMap());
+        } else if (value instanceof BsonArray) {
+            return estimateSize(((BsonArray)value).getList());
+        } else if (value instanceof Map) {
+            int size = 5;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                size += 2 + entry.getKey().toString().length() + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof List) {
+            int size = 5;
+            int index = 0;
+            for (Object element : (List<?>)value) {
+                // Array elements are keyed by their index
+                size += 2 + String.valueOf(index++).length() + estimateSize(element);
+            }
+            return size;
+        } else {
+            return 5 + value.toString().length();
+        }
+    }
 
+    @FunctionalInterface
+    private interface FrameDispatcher {
+        void dispatch(FrameHandler handler, int size, BsonObject frame);
+    }
+}
@@ -4,13 +4,20 @@ import io.mewbase.bson.BsonObject;
 import io.mewbase.server.Binder;
 import io.mewbase.server.DocReadStream;
 import io.mewbase.server.QueryContext;
+import io.mewbase.server.impl.cqrs.QueryCursors;
 import io.mewbase.server.impl.cqrs.QueryImpl;
+import io.mewbase.server.impl.cqrs.QueryResultCache;
+import io.mewbase.server.impl.doc.ListDocReadStream;
 import io.vertx.core.Context;
 import io.vertx.core.Vertx;
-import io.vertx.core.buffer.Buffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Created by tim on 17/11/16.
  */
@@ -18,22 +25,72 @@ public abstract class QueryExecution {
 
     private final static Logger logger = LoggerFactory.getLogger(QueryExecution.class);
 
-    private static final int MAX_UNACKED_BYTES = 4 * 1024 * 1024; // TODO make configurable
-
     private final DocReadStream readStream;
-    private int unackedBytes;
+    private final QueryImpl query;
+    private final QueryResultCache resultCache;
+    private final BsonObject params;
+    private final long binderVersion;
+    private final int limit;
+    private final QueryCursors cursors;
+    private final String cursorID;
+    private final CreditWindow window;
+    // The results so far, if they're to be cached
+    private List<BsonObject> results;
+    // Held back until we know whether it's the last one
+    private BsonObject pending;
+    private String pendingID;
+    private int sent;
+    private boolean ended;
     protected Context context;
 
-    public QueryExecution(QueryImpl query, BsonObject params) {
+    public QueryExecution(QueryImpl query, BsonObject params, CreditWindow window) {
+        this(query, params, 0, null, null, window);
+    }
+
+    /**
+     * Execute a page of a query
+     *
+     * @param query the query
+     * @param params the query params, unless a cursor is given
+     * @param limit the maximum number of results in the page, or 0 for no limit
+     * @param cursors the cursors to create the cursor for the next page in
+     * @param cursor the cursor to carry on from, or null for the first page
+     * @param window the credit the results can use up before they must be acked
+     */
+    public QueryExecution(QueryImpl query, BsonObject params, int limit, QueryCursors cursors,
+                          QueryCursors.Cursor cursor, CreditWindow window) {
         Binder binder = query.getBinder();
-        readStream = binder.getMatching(doc -> true);
-        QueryContext qc = new QueryContext(params);
-        readStream.handler(doc -> {
-            boolean accepted = query.getDocumentFilter().apply(doc, qc);
-            if (accepted) {
-                handle(doc, !readStream.hasMore() || qc.isComplete());
+        this.query = query;
+        this.params = cursor != null ? cursor.getParams() : params;
+        this.limit = limit;
+        this.cursors = cursors;
+        this.cursorID = cursor != null ? cursor.getID() : null;
+        this.window = window;
+        // Pages start part way through, so aren't cached
+        this.resultCache = limit > 0 || cursor != null ? null : query.getResultCache();
+        // Read before the binder is, so results we cache are never newer than their version
+        this.binderVersion = binder.getVersion();
+        List<BsonObject> cached = resultCache == null ? null : resultCache.get(this.params, binderVersion);
+        if (cached != null) {
+            readStream = new ListDocReadStream(cached);
+            readStream.handler(doc -> handleDoc(doc, doc != null, false));
+        } else {
+            if (resultCache != null) {
+                results = new ArrayList<>();
             }
-        });
+            if (query.getIdSelector() != null) {
+                // A point lookup - just get the doc, there's no need to open a cursor
+                readStream = new ListDocReadStream(lookup(binder, query.getIdSelector().apply(this.params)));
+                readStream.handler(doc -> handleDoc(doc, doc != null, false));
+            } else {
+                // Each page has its own read transaction, starting after the last doc of the previous page
+                readStream = binder.getMatching(doc -> true, cursor != null ? cursor.getLastDocID() : null);
+                QueryContext qc = new QueryContext(this.params);
+                readStream.handler(doc -> handleDoc(doc, doc != null && query.getDocumentFilter().apply(doc, qc),
+                        qc.isComplete()));
+            }
+        }
+        readStream.exceptionHandler(this::handleFailure);
     }
 
     public void start() {
@@ -42,18 +99,25 @@ public abstract class QueryExecution {
 
     void handleAck(int bytes) {
         checkContext();
-        unackedBytes -= bytes;
-        // Low watermark to prevent thrashing
-        if (unackedBytes < MAX_UNACKED_BYTES / 2) {
+        if (window.acked(0, bytes) && !writesPaused()) {
             readStream.resume();
         }
     }
 
-    public void handle(BsonObject doc, boolean last) {
+    void pauseWrites() {
+        readStream.pause();
+    }
+
+    void resumeWrites() {
+        if (window.hasCredit() && !writesPaused()) {
+            readStream.resume();
+        }
+    }
+
+    public void handle(BsonObject doc, boolean last, String cursor) {
         checkContext();
-        Buffer buff = writeQueryResult(doc, last);
-        unackedBytes += buff.length();
-        if (unackedBytes > MAX_UNACKED_BYTES) {
+        int size = writeQueryResult(doc, last, cursor);
+        if (!window.sent(size) || writesPaused()) {
             readStream.pause();
         }
         if (last) {
@@ -65,7 +129,72 @@ public abstract class QueryExecution {
         readStream.close();
     }
 
-    protected abstract Buffer writeQueryResult(BsonObject document, boolean last);
+    private CompletableFuture<List<BsonObject>> lookup(Binder binder, String id) {
+        if (id == null) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        return binder.get(id).thenApply(doc -> doc == null ? Collections.emptyList() : Collections.singletonList(doc));
+    }
+
+    private void handleFailure(Throwable t) {
+        logger.error("Failed to execute query " + query.getName(), t);
+        if (!ended) {
+            ended = true;
+            // Not what we have so far, that would look like the whole result set
+            writeQueryFailure();
+            close();
+        }
+    }
+
+    /*
+    A null doc means there were no docs at all. We only know a result is the last one once we've seen the next
+    accepted doc, or reached the end of the stream, so each result is held back until then
+     */
+    private void handleDoc(BsonObject doc, boolean accepted, boolean complete) {
+        if (ended) {
+            return;
+        }
+        if (accepted) {
+            if (pending != null) {
+                if (sent == limit - 1) {
+                    // There are more results than fit in the page, so it ends here
+                    ended = true;
+                    handle(pending, true, cursors.nextPageToken(cursorID, query.getName(), params, pendingID));
+                    return;
+                }
+                sent++;
+                handle(pending, false, null);
+            }
+            pending = doc;
+            pendingID = readStream.currentID();
+            if (results != null) {
+                if (resultCache.fits(results.size() + 1)) {
+                    results.add(doc);
+                } else {
+                    // Too many to cache, so don't hold on to them
+                    results = null;
+                }
+            }
+        }
+        if (doc == null || !readStream.hasMore() || complete) {
+            ended = true;
+            if (results != null) {
+                resultCache.put(params, binderVersion, results);
+            }
+            // A null result means there weren't any
+            handle(pending, true, null);
+        }
+    }
+
+    protected abstract int writeQueryResult(BsonObject document, boolean last, String cursor);
+
+    // Tell whoever the results are written to that the query failed part way through
+    protected abstract void writeQueryFailure();
+
+    // Whether whatever the results are written to has more than it can take for now
+    protected boolean writesPaused() {
+        return false;
+    }
 
     protected void checkContext() {
         if (context == null) {
@@ -3,6 +3,7 @@ package io.mewbase.server.impl;
 import io.mewbase.bson.BsonObject;
 import io.mewbase.server.Binder;
 import io.mewbase.server.impl.cqrs.CQRSManager;
+import io.mewbase.server.impl.cqrs.QueryCursors;
 import io.mewbase.server.impl.cqrs.QueryImpl;
 import io.mewbase.util.AsyncResCF;
 import io.vertx.core.buffer.Buffer;
@@ -26,6 +27,12 @@ import java.util.concurrent.CompletableFuture;
 public class RESTServiceAdaptor {
 
     private final static Logger logger = LoggerFactory.getLogger(RESTServiceAdaptor.class);
+
+    private static final String QUERY_LIMIT_PARAM = "limit";
+    private static final String QUERY_CURSOR_PARAM = "cursor";
+    private static final String PAGE_RESULTS_FIELD = "results";
+    private static final String PAGE_CURSOR_FIELD = "cursor";
+
     private String host = "0.0.0.0";
     private int port = 8080;
 
@@ -68,7 +75,30 @@ public class RESTServiceAdaptor {
 
         router.route(HttpMethod.GET, uri).handler(rc -> {
             BsonObject params = new BsonObject(rc.pathParams());
-            RESTServiceAdaptorQueryExecution qe = new RESTServiceAdaptorQueryExecution(query, params, rc.response());
+            // Paged if there's a limit or cursor in the query string
+            int limit = 0;
+            String sLimit = rc.request().getParam(QUERY_LIMIT_PARAM);
+            if (sLimit != null) {
+                try {
+                    limit = Integer.parseInt(sLimit);
+                } catch (NumberFormatException e) {
+                    rc.response().setStatusCode(400).end();
+                    return;
+                }
+            }
+            String token = rc.request().getParam(QUERY_CURSOR_PARAM);
+            QueryCursors cursors = cqrsManager.getQueryCursors();
+            QueryCursors.Cursor cursor = null;
+            if (token != null) {
+                cursor = cursors.getCursor(token, queryName);
+                if (cursor == null) {
+                    // Expired
+                    rc.response().setStatusCode(410).end();
+                    return;
+                }
+            }
+            RESTServiceAdaptorQueryExecution qe = new RESTServiceAdaptorQueryExecution(query, params, limit, cursors,
+                    cursor, new CreditWindow(0, server.getServerOptions().getDefaultWindowBytes()), rc.response());
             rc.response().closeHandler(v -> qe.close());
             qe.start();
         });
@@ -113,29 +143,37 @@ public class RESTServiceAdaptor {
     private class RESTServiceAdaptorQueryExecution extends QueryExecution {
 
         private final HttpServerResponse response;
+        private final boolean paged;
 
-        public RESTServiceAdaptorQueryExecution(QueryImpl query, BsonObject params,
+        public RESTServiceAdaptorQueryExecution(QueryImpl query, BsonObject params, int limit, QueryCursors cursors,
+                                                QueryCursors.Cursor cursor, CreditWindow window,
                                                 HttpServerResponse response) {
-            super(query, params);
+            super(query, params, limit, cursors, cursor, window);
             response.setChunked(true);
             this.response = response;
-            response.write("[");
+            // A page is wrapped in an object so it can carry the cursor for the next page
+            this.paged = limit > 0 || cursor != null;
         }
 
         private int toAckBytes;
+        private boolean started;
 
         @Override
-        protected Buffer writeQueryResult(BsonObject document, boolean last) {
+        protected int writeQueryResult(BsonObject document, boolean last, String cursor) {
             checkContext();
+            startResults();
+            if (document == null) {
+                // No results
+                endResults(null);
+                return 0;
+            }
             Buffer buff = Buffer.buffer(document.encodeToString());
             response.write(buff);
             if (!last) {
                 response.write(",");
-            } else {
-                response.write("]");
             }
             if (last) {
-                response.end();
+                endResults(cursor);
             } else {
                 if (!response.writeQueueFull()) {
                     sendAck(buff.length());
@@ -147,7 +185,35 @@ public class RESTServiceAdaptor {
                     });
                 }
             }
-            return buff;
+            return buff.length();
+        }
+
+        @Override
+        protected void writeQueryFailure() {
+            if (!started) {
+                response.setStatusCode(500).end();
+            } else {
+                // Too late for a status code, so break the response off rather than let it look complete
+                response.close();
+            }
+        }
+
+        // Written with the first result, so a query which fails before then can still get an error status
+        private void startResults() {
+            if (!started) {
+                started = true;
+                response.write(paged ? "{\"" + PAGE_RESULTS_FIELD + "\":[" : "[");
+            }
+        }
+
+        private void endResults(String cursor) {
+            if (!paged) {
+                response.end("]");
+            } else if (cursor == null) {
+                response.end("]}");
+            } else {
+                response.end("],\"" + PAGE_CURSOR_FIELD + "\":\"" + cursor + "\"}");
+            }
         }
 
         // TODO better flow control
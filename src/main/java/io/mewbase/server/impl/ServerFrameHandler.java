@@ -13,6 +13,11 @@ public interface ServerFrameHandler extends FrameHandler {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    default void handlePubAck(BsonObject frame) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     default void handleSubResponse(BsonObject frame) {
         throw new UnsupportedOperationException();
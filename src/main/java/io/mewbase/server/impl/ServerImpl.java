@@ -9,10 +9,15 @@ import io.mewbase.server.impl.doc.lmdb.LmdbBinderFactory;
 import io.mewbase.server.impl.file.af.AFFileAccess;
 import io.mewbase.server.*;
 import io.mewbase.server.impl.log.LogImpl;
+import io.mewbase.server.impl.log.PartitionedLog;
 import io.mewbase.server.impl.proj.ProjectionManager;
+import io.mewbase.server.impl.transport.epoll.DomainSocketTransport;
+import io.mewbase.server.impl.transport.epoll.EpollNetTransport;
+import io.mewbase.server.impl.transport.invm.InVMTransport;
 import io.mewbase.server.impl.transport.net.NetTransport;
 import io.mewbase.util.AsyncResCF;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.impl.ConcurrentHashSet;
 import org.slf4j.Logger;
@@ -20,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,7 +43,9 @@ public class ServerImpl implements Server {
 
     public static final String BINDERS_BINDER_NAME = "_mb.binders";
     public static final String CHANNELS_BINDER_NAME = "_mb.channels";
+    private static final String CHANNELS_BINDER_PARTITIONS_FIELD = "partitions";
     public static final String DURABLE_SUBS_BINDER_NAME = "_mb.durableSubs";
+    public static final String COMMAND_IDS_BINDER_NAME = "_mb.commandIDs";
 
     private final ServerOptions serverOptions;
     private final boolean ownVertx;
@@ -45,6 +53,7 @@ public class ServerImpl implements Server {
     private final ProjectionManager projectionManager;
     private final CQRSManager cqrsManager;
     private final Set<Transport> transports = new ConcurrentHashSet<>();
+    private final Set<ConnectionImpl> connections = new ConcurrentHashSet<>();
 
     private final ConcurrentMap<String, CompletableFuture<Boolean>> startingBinders = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, Binder> binders = new ConcurrentHashMap<>();
@@ -53,6 +62,7 @@ public class ServerImpl implements Server {
     private final FileAccess faf;
     private final ConcurrentMap<String, CompletableFuture<Boolean>> startingLogs = new ConcurrentHashMap<>();
     private final Map<String, Log> logs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConsumerGroup> consumerGroups = new ConcurrentHashMap<>();
 
     private final RESTServiceAdaptor restServiceAdaptor;
 
@@ -60,6 +70,7 @@ public class ServerImpl implements Server {
     private Binder bindersBinder;
     private Binder channelsBinder;
     private Binder durableSubsBinder;
+    private Binder commandIDsBinder;
 
     ServerImpl(Vertx vertx, boolean ownVertx, ServerOptions serverOptions) {
         this.vertx = vertx;
@@ -77,7 +88,9 @@ public class ServerImpl implements Server {
     }
 
     ServerImpl(ServerOptions serverOptions) {
-        this(Vertx.vertx(), true, serverOptions);
+        // The pool sizes only apply to a Vert.x instance of our own, a Vert.x passed in is already sized
+        this(Vertx.vertx(new VertxOptions().setEventLoopPoolSize(serverOptions.getEventLoopPoolSize())
+                .setWorkerPoolSize(serverOptions.getWorkerPoolSize())), true, serverOptions);
     }
 
     @Override
@@ -90,6 +103,7 @@ public class ServerImpl implements Server {
     public synchronized CompletableFuture<Void> stop() {
         CompletableFuture<Void> cf = restServiceAdaptor.stop().thenCompose(v -> stopTransports())
                 .thenCompose(v -> stopBinders()).thenCompose(v -> stopLogs());
+        cf = cf.thenRun(cqrsManager::close);
         if (ownVertx) {
             cf = cf.thenCompose(v -> {
                 AsyncResCF<Void> cfCloseVertx = new AsyncResCF<>();
@@ -157,11 +171,35 @@ public class ServerImpl implements Server {
         return durableSubsBinder;
     }
 
+    public Binder getCommandIDsBinder() {
+        return commandIDsBinder;
+    }
+
+    ConsumerGroup getConsumerGroup(String channel, String group) {
+        return consumerGroups.computeIfAbsent(channel + "." + group, k -> {
+            Log log = getLog(channel);
+            if (log instanceof PartitionedLog) {
+                int partitions = ((PartitionedLog)log).getNumPartitions();
+                return new ConsumerGroup(durableSubsBinder, channel, group, partitions, true);
+            } else {
+                return new ConsumerGroup(durableSubsBinder, channel, group, serverOptions.getGroupPartitions(), false);
+            }
+        });
+    }
+
     // Channel related API
 
+    @Override
+    public CompletableFuture<Boolean> createChannel(String channel) {
+        return createChannel(channel, 1);
+    }
+
     @Override
     // Must be synchronized to prevent race
-    public synchronized CompletableFuture<Boolean> createChannel(String channel) {
+    public synchronized CompletableFuture<Boolean> createChannel(String channel, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be > 0");
+        }
         Log log = logs.get(channel);
         if (log != null) {
             return CompletableFuture.completedFuture(false);
@@ -173,8 +211,8 @@ public class ServerImpl implements Server {
             if (cfPrev != null) {
                 return cfPrev;
             } else {
-                final Log thelog = new LogImpl(vertx, faf, serverOptions, channel);
-                thelog.start().thenCompose(v -> insertLog(channel)).thenAccept(v -> {
+                final Log thelog = createLog(channel, partitions);
+                thelog.start().thenCompose(v -> insertLog(channel, partitions)).thenAccept(v -> {
                     // Must be synchronized to prevent race
                     synchronized (ServerImpl.this) {
                         logs.put(channel, thelog);
@@ -277,10 +315,37 @@ public class ServerImpl implements Server {
     }
 
     public CompletableFuture<Long> publishEvent(Log log, BsonObject event) {
+        return publishEvent(log, event, null);
+    }
+
+    public CompletableFuture<Long> publishEvent(Log log, BsonObject event, String partitionKey) {
+        return log.append(createRecord(event, System.currentTimeMillis(), partitionKey));
+    }
+
+    public CompletableFuture<List<Long>> publishEvents(Log log, List<BsonObject> events, String partitionKey) {
+        return publishEvents(log, events, Collections.nCopies(events.size(), partitionKey));
+    }
+
+    /*
+    Publish the events as a batch - they're appended to the log in one go, and all get the same timestamp
+     */
+    public CompletableFuture<List<Long>> publishEvents(Log log, List<BsonObject> events, List<String> partitionKeys) {
+        long timestamp = System.currentTimeMillis();
+        List<BsonObject> records = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            records.add(createRecord(events.get(i), timestamp, partitionKeys.get(i)));
+        }
+        return log.appendBatch(records);
+    }
+
+    private BsonObject createRecord(BsonObject event, long timestamp, String partitionKey) {
         BsonObject record = new BsonObject();
-        record.put(Protocol.RECEV_TIMESTAMP, System.currentTimeMillis());
+        record.put(Protocol.RECEV_TIMESTAMP, timestamp);
         record.put(Protocol.RECEV_EVENT, event);
-        return log.append(record);
+        if (partitionKey != null) {
+            record.put(Protocol.RECEV_PARTITION_KEY, partitionKey);
+        }
+        return record;
     }
 
     private CompletableFuture<Void> startBinders() {
@@ -306,7 +371,9 @@ public class ServerImpl implements Server {
         bindersBinder = loadBinder(BINDERS_BINDER_NAME);
         channelsBinder = loadBinder(CHANNELS_BINDER_NAME);
         durableSubsBinder = loadBinder(DURABLE_SUBS_BINDER_NAME);
-        return CompletableFuture.allOf(bindersBinder.start(), channelsBinder.start(), durableSubsBinder.start());
+        commandIDsBinder = loadBinder(COMMAND_IDS_BINDER_NAME);
+        return CompletableFuture.allOf(bindersBinder.start(), channelsBinder.start(), durableSubsBinder.start(),
+                commandIDsBinder.start());
     }
 
     private Binder loadBinder(String binderName) {
@@ -362,10 +429,7 @@ public class ServerImpl implements Server {
         }
 
         CompletableFuture<List<BsonObject>> docsCf = listBinder(channelsBinder);
-        return docsCf.thenCompose(list -> {
-            List<String> ids = list.stream().map(doc -> doc.getString(Binder.ID_FIELD)).collect(Collectors.toList());
-            return startLogs(ids);
-        });
+        return docsCf.thenCompose(this::startLogs);
     }
 
     private CompletableFuture<Void> stopLogs() {
@@ -377,32 +441,69 @@ public class ServerImpl implements Server {
         return CompletableFuture.allOf(arr);
     }
 
-    private CompletableFuture<Void> startLogs(List<String> logNames) {
-        CompletableFuture[] arr = new CompletableFuture[logNames.size()];
+    private CompletableFuture<Void> startLogs(List<BsonObject> logDocs) {
+        CompletableFuture[] arr = new CompletableFuture[logDocs.size()];
         int i = 0;
-        for (String logName : logNames) {
-            LogImpl log = new LogImpl(vertx, faf, serverOptions, logName);
+        for (BsonObject logDoc : logDocs) {
+            String logName = logDoc.getString(Binder.ID_FIELD);
+            Log log = createLog(logName, logDoc.getInteger(CHANNELS_BINDER_PARTITIONS_FIELD, 1));
             logs.put(logName, log);
             arr[i++] = log.start();
         }
         return CompletableFuture.allOf(arr);
     }
 
-    private CompletableFuture<Void> insertLog(String logName) {
+    private Log createLog(String logName, int partitions) {
+        if (partitions == 1) {
+            return new LogImpl(vertx, faf, serverOptions, logName);
+        } else {
+            return new PartitionedLog(vertx, faf, serverOptions, logName, partitions);
+        }
+    }
+
+    private CompletableFuture<Void> insertLog(String logName, int partitions) {
         // TODO bit weird having the id in the object too??
-        return channelsBinder.put(logName, new BsonObject().put(Binder.ID_FIELD, logName));
+        BsonObject logDoc = new BsonObject().put(Binder.ID_FIELD, logName);
+        if (partitions != 1) {
+            logDoc.put(CHANNELS_BINDER_PARTITIONS_FIELD, partitions);
+        }
+        return channelsBinder.put(logName, logDoc);
     }
 
     private CompletableFuture<Void> startTransports() {
-        // For now just net transport
-        Transport transport = new NetTransport(vertx, serverOptions);
-        transports.add(transport);
-        transport.connectHandler(this::connectHandler);
-        return transport.start();
+        List<Transport> toStart = new ArrayList<>();
+        if (serverOptions.isNativeTransport()) {
+            toStart.add(new EpollNetTransport(vertx, serverOptions));
+        } else {
+            toStart.add(new NetTransport(vertx, serverOptions));
+        }
+        if (serverOptions.getInVMName() != null) {
+            toStart.add(new InVMTransport(vertx, serverOptions));
+        }
+        if (serverOptions.getDomainSocketPath() != null) {
+            toStart.add(new DomainSocketTransport(vertx, serverOptions));
+        }
+        CompletableFuture[] all = new CompletableFuture[toStart.size()];
+        int i = 0;
+        for (Transport transport : toStart) {
+            transports.add(transport);
+            transport.connectHandler(this::connectHandler);
+            all[i++] = transport.start();
+        }
+        return CompletableFuture.allOf(all);
     }
 
     private void connectHandler(TransportConnection transportConnection) {
-        new ConnectionImpl(this, transportConnection, Vertx.currentContext(), serverOptions.getAuthProvider());
+        connections.add(new ConnectionImpl(this, transportConnection, Vertx.currentContext(),
+                serverOptions.getAuthProvider()));
+    }
+
+    void connectionClosed(ConnectionImpl connection) {
+        connections.remove(connection);
+    }
+
+    public Set<ConnectionImpl> getConnections() {
+        return Collections.unmodifiableSet(connections);
     }
 
     private CompletableFuture<Void> stopTransports() {
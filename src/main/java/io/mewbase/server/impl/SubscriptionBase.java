@@ -5,11 +5,16 @@ import io.mewbase.common.SubDescriptor;
 import io.mewbase.server.Binder;
 import io.mewbase.server.Log;
 import io.mewbase.server.LogReadStream;
+import io.mewbase.server.impl.log.PartitionedLog;
 import io.vertx.core.Context;
 import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -20,23 +25,62 @@ public abstract class SubscriptionBase {
     private final static Logger logger = LoggerFactory.getLogger(SubscriptionImpl.class);
 
     private static final String DURABLE_SUBS_BINDER_LAST_ACKED_FIELD = "lastAcked";
+    private static final String DURABLE_SUBS_BINDER_PARTITIONS_FIELD = "partitions";
 
     private final ServerImpl server;
     private final SubDescriptor subDescriptor;
     private final Context ctx;
+    private final ConsumerGroup group;
     protected LogReadStream readStream;
     private boolean ignoreFirst;
+    private boolean closed;
+    private Set<Integer> partitions = Collections.emptySet();
+    private Map<Integer, Long> partitionOffsets = Collections.emptyMap();
+    // Partition of each delivered but unacknowledged record, so acks can be stored against the right partition
+    private final Map<Long, Integer> unackedPartitions = new HashMap<>();
+    // Last acked position of each partition of a durable sub to a partitioned channel
+    private final Map<Integer, Long> ackedPartitions = new HashMap<>();
 
     public SubscriptionBase(ServerImpl server,
                             SubDescriptor subDescriptor) {
         this.server = server;
         this.subDescriptor = subDescriptor;
         this.ctx = Vertx.currentContext();
+        if (subDescriptor.getGroup() != null) {
+            // The read stream is started when the group assigns us some partitions
+            group = server.getConsumerGroup(subDescriptor.getChannel(), subDescriptor.getGroup());
+            group.join(this);
+            return;
+        }
+        group = null;
         if (subDescriptor.getDurableID() != null) {
             Binder binder = server.getDurableSubsBinder();
             CompletableFuture<BsonObject> cf = binder.get(subDescriptor.getDurableID());
             cf.handle((doc, t) -> {
                 if (t == null) {
+                    BsonObject acked = doc == null ? null : doc.getBsonObject(DURABLE_SUBS_BINDER_PARTITIONS_FIELD);
+                    Log channelLog = server.getLog(subDescriptor.getChannel());
+                    if (acked != null && !(channelLog instanceof PartitionedLog)) {
+                        // Stored by a partitioned channel of the same name which has since been replaced
+                        logger.warn("Ignoring partition positions of durable sub {} as channel {} isn't partitioned",
+                                subDescriptor.getDurableID(), subDescriptor.getChannel());
+                        startReadStream();
+                        return null;
+                    }
+                    if (acked != null) {
+                        // Each partition carries on from its own last acked position
+                        for (String partition : acked.fieldNames()) {
+                            ackedPartitions.put(Integer.valueOf(partition), acked.getLong(partition));
+                        }
+                        logger.trace("Restarting durable sub from (not including) {}", ackedPartitions);
+                        PartitionedLog log = (PartitionedLog)channelLog;
+                        Map<Integer, Long> offsets = new HashMap<>();
+                        for (int i = 0; i < log.getNumPartitions(); i++) {
+                            offsets.put(i, ackedPartitions.get(i));
+                        }
+                        restartPartitions(offsets);
+                        return null;
+                    }
                     if (doc != null) {
                         Long lastAcked = doc.getLong(DURABLE_SUBS_BINDER_LAST_ACKED_FIELD);
                         logger.trace("Restarting durable sub from (not including) {}", lastAcked);
@@ -63,15 +107,101 @@ public abstract class SubscriptionBase {
     }
 
     private void startReadStream() {
-        Log log = server.getLog(subDescriptor.getChannel());
-        readStream = log.subscribe(subDescriptor);
-        readStream.handler(this::handleEvent0);
-        readStream.start();
+        startReadStream(subDescriptor);
+    }
+
+    private void startReadStream(SubDescriptor descriptor) {
+        startReadStream(server.getLog(subDescriptor.getChannel()).subscribe(descriptor));
+    }
+
+    private void startReadStream(LogReadStream stream) {
+        synchronized (this) {
+            readStream = stream;
+        }
+        stream.handler((pos, frame) -> handleEvent0(stream, pos, frame));
+        stream.start();
     }
 
     public void close() {
         checkContext();
-        readStream.close();
+        closed = true;
+        if (group != null) {
+            group.leave(this);
+        }
+        if (readStream != null) {
+            readStream.close();
+        }
+    }
+
+    /*
+    Called by the group when our partitions change. The stream is restarted from the earliest position any of the
+    partitions needs - records of partitions that got further are skipped as they come through
+     */
+    void assignPartitions(Set<Integer> assigned, Map<Integer, Long> offsets) {
+        ctx.runOnContext(v -> {
+            if (closed) {
+                return;
+            }
+            LogReadStream prev;
+            synchronized (this) {
+                partitions = assigned;
+                partitionOffsets = offsets;
+                prev = readStream;
+                readStream = null;
+            }
+            if (prev != null) {
+                prev.close();
+            }
+            if (assigned.isEmpty()) {
+                return;
+            }
+            if (server.getLog(subDescriptor.getChannel()) instanceof PartitionedLog) {
+                // Just read the partitions we've been given
+                Map<Integer, Long> assignedOffsets = new HashMap<>();
+                for (Integer partition : assigned) {
+                    assignedOffsets.put(partition, offsets.get(partition));
+                }
+                restartPartitions(assignedOffsets);
+                return;
+            }
+            long startPos = subDescriptor.getStartPos();
+            Long minOffset = null;
+            for (Integer partition : assigned) {
+                Long offset = offsets.get(partition);
+                if (offset == null) {
+                    if (startPos != SubDescriptor.DEFAULT_START_POS) {
+                        minOffset = minOffset == null ? startPos : Math.min(minOffset, startPos);
+                    }
+                } else {
+                    minOffset = minOffset == null ? offset : Math.min(minOffset, offset);
+                }
+            }
+            logger.trace("Assigned partitions {} of group {} starting from {}", assigned, subDescriptor.getGroup(),
+                    minOffset);
+            startReadStream(new SubDescriptor().setChannel(subDescriptor.getChannel())
+                    .setStartPos(minOffset == null ? SubDescriptor.DEFAULT_START_POS : minOffset)
+                    .setStartTimestamp(subDescriptor.getStartTimestamp()).setMatcher(subDescriptor.getMatcher()));
+        });
+    }
+
+    /*
+    Read each of the given partitions of a partitioned channel from after its offset, or from the start position of
+    the subscription if it has none
+     */
+    private void restartPartitions(Map<Integer, Long> offsets) {
+        PartitionedLog log = (PartitionedLog)server.getLog(subDescriptor.getChannel());
+        Map<Integer, Long> startPositions = new HashMap<>();
+        for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+            int partition = entry.getKey();
+            Long offset = entry.getValue();
+            // The record at the offset is skipped by handleEvent0
+            startPositions.put(partition, offset != null ? PartitionedLog.localPos(offset)
+                    : log.startPosFor(partition, subDescriptor.getStartPos()));
+        }
+        synchronized (this) {
+            partitionOffsets = offsets;
+        }
+        startReadStream(log.subscribe(subDescriptor, startPositions));
     }
 
     // Unsubscribe deletes the durable subscription
@@ -82,20 +212,58 @@ public abstract class SubscriptionBase {
     }
 
     // This can be called on different threads depending on whether the frame is coming from file or direct
-    private synchronized void handleEvent0(long pos, BsonObject frame) {
+    private synchronized void handleEvent0(LogReadStream stream, long pos, BsonObject frame) {
+        if (stream != readStream) {
+            // Left over from a stream we've since replaced
+            return;
+        }
         if (ignoreFirst) {
             ignoreFirst = false;
             return;
         }
+        int partition;
+        if (group != null) {
+            partition = group.partition(pos, frame);
+            if (!partitions.contains(partition)) {
+                return;
+            }
+        } else {
+            partition = PartitionedLog.partitionOf(pos);
+        }
+        Long offset = partitionOffsets.get(partition);
+        if (offset != null && pos <= offset) {
+            // Already acknowledged
+            return;
+        }
+        if (group != null) {
+            unackedPartitions.put(pos, partition);
+        }
         onReceiveFrame(pos, frame);
     }
 
     protected abstract void onReceiveFrame(long pos, BsonObject frame);
 
     protected void afterAcknowledge(long pos) {
-        // Store durable sub last acked position
-        if (subDescriptor.getDurableID() != null) {
+        if (group != null) {
+            Integer partition;
+            synchronized (this) {
+                partition = unackedPartitions.remove(pos);
+            }
+            if (partition != null) {
+                group.acknowledge(partition, pos);
+            }
+        } else if (subDescriptor.getDurableID() != null) {
+            // Store durable sub last acked position
             BsonObject ackedDoc = new BsonObject().put(DURABLE_SUBS_BINDER_LAST_ACKED_FIELD, pos);
+            if (server.getLog(subDescriptor.getChannel()) instanceof PartitionedLog) {
+                // Positions in different partitions can't be compared, so keep the last acked of each one
+                ackedPartitions.merge(PartitionedLog.partitionOf(pos), pos, Math::max);
+                BsonObject acked = new BsonObject();
+                for (Map.Entry<Integer, Long> entry : ackedPartitions.entrySet()) {
+                    acked.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+                ackedDoc.put(DURABLE_SUBS_BINDER_PARTITIONS_FIELD, acked);
+            }
             server.getDurableSubsBinder().put(subDescriptor.getDurableID(), ackedDoc);
         }
     }
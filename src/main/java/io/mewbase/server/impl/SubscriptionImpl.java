@@ -2,7 +2,6 @@ package io.mewbase.server.impl;
 
 import io.mewbase.bson.BsonObject;
 import io.mewbase.common.SubDescriptor;
-import io.vertx.core.buffer.Buffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,16 +12,15 @@ public class SubscriptionImpl extends SubscriptionBase {
 
     private final static Logger logger = LoggerFactory.getLogger(SubscriptionImpl.class);
 
-    private static final int MAX_UNACKED_BYTES = 4 * 1024 * 1024; // TODO make configurable
-
     private final ConnectionImpl connection;
     private final int id;
-    private int unackedBytes;
+    private final CreditWindow window;
 
-    public SubscriptionImpl(ConnectionImpl connection, int id, SubDescriptor subDescriptor) {
+    public SubscriptionImpl(ConnectionImpl connection, int id, SubDescriptor subDescriptor, CreditWindow window) {
         super(connection.server(), subDescriptor);
         this.id = id;
         this.connection = connection;
+        this.window = window;
     }
 
     @Override
@@ -30,22 +28,37 @@ public class SubscriptionImpl extends SubscriptionBase {
         frame = frame.copy();
         frame.put(Protocol.RECEV_SUBID, id);
         frame.put(Protocol.RECEV_POS, pos);
-        Buffer buff = connection.writeResponse(Protocol.RECEV_FRAME, frame);
-        unackedBytes += buff.length();
-        if (unackedBytes > MAX_UNACKED_BYTES) {
+        int size = connection.writeResponse(Protocol.RECEV_FRAME, frame);
+        // A stream that starts while the connection is paused gets paused here on its first event
+        if ((!window.sent(size) || connection.isWritesPaused()) && readStream != null) {
             readStream.pause();
         }
     }
 
     protected void handleAckEv(long pos, int bytes) {
         checkContext();
-        unackedBytes -= bytes;
-        // Low watermark to prevent thrashing
-        if (unackedBytes < MAX_UNACKED_BYTES / 2) {
+        if (window.acked(1, bytes) && !connection.isWritesPaused() && readStream != null) {
             readStream.resume();
         }
         afterAcknowledge(pos);
     }
 
+    /*
+    Not synchronized - these are called on the connection's context, as handleAckEv is, and the read stream delivers
+    events to handleEvent0 holding its own lock then ours, so taking ours first here could deadlock
+     */
+    void pauseWrites() {
+        checkContext();
+        if (readStream != null) {
+            readStream.pause();
+        }
+    }
+
+    void resumeWrites() {
+        checkContext();
+        if (window.hasCredit() && !connection.isWritesPaused() && readStream != null) {
+            readStream.resume();
+        }
+    }
 
 }
@@ -11,6 +11,10 @@ public interface TransportConnection {
 
     void write(Buffer buffer);
 
+    boolean writeQueueFull();
+
+    void drainHandler(Runnable handler);
+
     void handler(Consumer<Buffer> handler);
 
     void close();
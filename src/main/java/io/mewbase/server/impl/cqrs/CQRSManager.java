@@ -6,6 +6,7 @@ import io.mewbase.server.Binder;
 import io.mewbase.server.CommandContext;
 import io.mewbase.server.CommandHandlerBuilder;
 import io.mewbase.server.Log;
+import io.mewbase.server.ServerOptions;
 import io.mewbase.server.impl.ServerImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +16,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Created by tim on 10/01/17.
@@ -27,9 +30,25 @@ public class CQRSManager {
     private final ServerImpl server;
     private final Map<String, CommandHandlerImpl> commandHandlers = new ConcurrentHashMap<>();
     private final Map<String, QueryImpl> queries = new ConcurrentHashMap<>();
+    private final CommandExecutor commandExecutor;
+    private final CommandIDCache commandIDCache;
+    private final QueryCursors queryCursors;
+    private final long sweepTimerID;
 
     public CQRSManager(ServerImpl server) {
         this.server = server;
+        ServerOptions options = server.getServerOptions();
+        this.commandExecutor = new CommandExecutor(server.getVertx(), options.getCommandExecutorThreads(),
+                options.getCommandExecutorStripes(), options.getMaxQueuedCommandsPerStripe(),
+                options.getCommandTimeoutMs());
+        this.commandIDCache = new CommandIDCache(server::getCommandIDsBinder, options.getMaxCachedCommandIDs(),
+                options.getCommandIDRetentionMs());
+        this.queryCursors = new QueryCursors(options.getQueryCursorTimeoutMs());
+        this.sweepTimerID = server.getVertx().setPeriodic(options.getCommandIDSweepIntervalMs(), tid ->
+                commandIDCache.sweep().exceptionally(t -> {
+                    logger.error("Failed to sweep command IDs", t);
+                    return null;
+                }));
     }
 
     public CommandHandlerBuilder buildCommandHandler(String commandName) {
@@ -49,52 +68,116 @@ public class CQRSManager {
     }
 
     public CompletableFuture<Void> callCommandHandler(String commandName, BsonObject commandBson) {
+        return callCommandHandler(commandName, commandBson, null);
+    }
 
-        CompletableFuture<Void> cfCommand = new CompletableFuture<>();
+    /**
+     * Call the command handler, unless a command with the same ID has already completed successfully, in which case
+     * the command isn't run again and the returned future completes straight away
+     *
+     * @param commandName the name of the command
+     * @param commandBson the command
+     * @param commandID the ID of the command, or null if the command shouldn't be deduplicated
+     * @return a future which completes when the command has completed
+     */
+    public CompletableFuture<Void> callCommandHandler(String commandName, BsonObject commandBson, String commandID) {
 
         CommandHandlerImpl commandHandler = commandHandlers.get(commandName);
         if (commandHandler == null) {
             String msg = "Command received but no handler for " + commandName;
             logger.trace(msg);
+            CompletableFuture<Void> cfCommand = new CompletableFuture<>();
             cfCommand.completeExceptionally(new MewException(msg));
-        } else {
+            return cfCommand;
+        }
+        Function<BsonObject, ?> keyFunction = commandHandler.getAggregateKeyFunction();
+        Object aggregateKey;
+        try {
+            aggregateKey = keyFunction == null ? null : keyFunction.apply(commandBson);
+        } catch (Throwable t) {
+            CompletableFuture<Void> cfCommand = new CompletableFuture<>();
+            cfCommand.completeExceptionally(t);
+            return cfCommand;
+        }
+        Supplier<CompletableFuture<Void>> command = () -> commandExecutor.execute(aggregateKey,
+                () -> runCommandHandler(commandHandler, commandBson, aggregateKey));
+        if (commandID == null) {
+            return command.get();
+        }
+        // IDs only need to be unique per command
+        return commandIDCache.execute(commandName + "." + commandID, command);
+    }
+
+    public CommandExecutor getCommandExecutor() {
+        return commandExecutor;
+    }
+
+    public CommandIDCache getCommandIDCache() {
+        return commandIDCache;
+    }
 
-            // TODO do command handlers need idempotency built in?
+    public void close() {
+        server.getVertx().cancelTimer(sweepTimerID);
+        commandExecutor.close();
+    }
+
+    /*
+    Runs on the command executor. The returned future must always complete, or the commands behind it would never run
+     */
+    private CompletableFuture<Void> runCommandHandler(CommandHandlerImpl commandHandler, BsonObject commandBson,
+                                                      Object aggregateKey) {
 
-            // 1. TODO verify fields of command
+        CompletableFuture<Void> cfCommand = new CompletableFuture<>();
 
-            // 2. call handler
+        // 1. TODO verify fields of command
 
-            CommandContextImpl context = new CommandContextImpl();
+        // 2. call handler
 
-            context.whenComplete((v, t) -> {
-                if (t != null) {
-                    logger.trace("Failure in command processing", t);
-                } else {
-                    // 3. Actually publish the events
-                    // TODO this should be in a transaction
-                    CompletableFuture[] cfArr = new CompletableFuture[context.eventsToPublish.size()];
-                    int i = 0;
-                    for (BsonObject event : context.eventsToPublish) {
-                        CompletableFuture<Long> cfPub = server.publishEvent(commandHandler.getLog(), event);
-                        cfArr[i++] = cfPub;
+        CommandContextImpl context = new CommandContextImpl();
+
+        context.whenComplete((v, t) -> {
+            if (cfCommand.isDone()) {
+                // It timed out, so it's too late to publish anything
+                logger.warn("Command handler completed after the command timed out");
+                return;
+            }
+            if (t != null) {
+                logger.trace("Failure in command processing", t);
+                cfCommand.completeExceptionally(t);
+            } else {
+                // 3. Actually publish the events - in one batch so they're persisted atomically, with one write. They
+                // all have the aggregate key as their partition key (or none), so on a partitioned channel they all
+                // go to the same partition, and the events of an aggregate stay in order
+                CompletableFuture<?> all;
+                List<BsonObject> events = context.eventsToPublish;
+                String partitionKey = aggregateKey == null ? null : aggregateKey.toString();
+                try {
+                    if (events.isEmpty()) {
+                        all = CompletableFuture.completedFuture(null);
+                    } else if (events.size() == 1) {
+                        all = server.publishEvent(commandHandler.getLog(), events.get(0), partitionKey);
+                    } else {
+                        all = server.publishEvents(commandHandler.getLog(), events, partitionKey);
                     }
-                    CompletableFuture<Void> all = CompletableFuture.allOf(cfArr);
-                    all.whenComplete((v2, t2) -> {
-                        if (t2 != null) {
-                            cfCommand.completeExceptionally(t2);
-                        } else {
-                            cfCommand.complete(null);
-                        }
-                    });
+                } catch (MewException e) {
+                    cfCommand.completeExceptionally(e);
+                    return;
                 }
-            });
-
-            try {
-                commandHandler.getHandler().accept(commandBson, context);
-            } catch (Throwable t) {
-                logger.trace("Failure in command handler", t);
+                all.whenComplete((v2, t2) -> {
+                    if (t2 != null) {
+                        cfCommand.completeExceptionally(t2);
+                    } else {
+                        cfCommand.complete(null);
+                    }
+                });
             }
+        });
+
+        try {
+            commandHandler.getHandler().accept(commandBson, context);
+        } catch (Throwable t) {
+            logger.trace("Failure in command handler", t);
+            cfCommand.completeExceptionally(t);
         }
 
         return cfCommand;
@@ -128,4 +211,8 @@ public class CQRSManager {
         return queries.get(queryName);
     }
 
+    public QueryCursors getQueryCursors() {
+        return queryCursors;
+    }
+
 }
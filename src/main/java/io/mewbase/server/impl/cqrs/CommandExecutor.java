@@ -0,0 +1,184 @@
+package io.mewbase.server.impl.cqrs;
+
+import io.mewbase.client.MewException;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs command handlers on a worker pool instead of the event loop which received the command.
+ * <p>
+ * Commands are routed by their aggregate key onto a fixed set of stripes. Each stripe runs one command at a time, in
+ * the order they were submitted, and doesn't start the next until the previous one has completed - i.e. its events
+ * have been persisted - so commands for the same aggregate are linearizable, while commands for aggregates on
+ * different stripes run in parallel. Commands without a key are spread over the stripes round robin.
+ * <p>
+ * Each stripe has a bounded queue - commands submitted to a full stripe are rejected.
+ * <p>
+ * A command which hasn't completed within the timeout is failed, and the stripe moves on to the next command, so a
+ * handler which never completes only holds up its stripe for the timeout. A command which times out while its events
+ * are being appended can still have them persisted, so the timeout should be well above the time an append takes.
+ */
+public class CommandExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(CommandExecutor.class);
+
+    private static final String COMMAND_POOL_NAME = "mewbase.commandpool";
+
+    private final Vertx vertx;
+    private final WorkerExecutor exec;
+    private final Stripe[] stripes;
+    private final int maxQueued;
+    private final long timeoutMs;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    public CommandExecutor(Vertx vertx, int threads, int numStripes, int maxQueued, long timeoutMs) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("commandExecutorThreads must be > 0");
+        }
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("commandExecutorStripes must be > 0");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueuedCommandsPerStripe must be >= 0");
+        }
+        if (timeoutMs < 1) {
+            throw new IllegalArgumentException("commandTimeoutMs must be > 0");
+        }
+        this.vertx = vertx;
+        this.exec = vertx.createSharedWorkerExecutor(COMMAND_POOL_NAME, threads);
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.maxQueued = maxQueued;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Run the command on the stripe for the aggregate key
+     *
+     * @param aggregateKey the key, or null if the command doesn't need ordering
+     * @param command runs the command handler, and returns a future which completes when the command has completed.
+     *                If the command times out the future is failed, so the command can tell it's too late to carry on
+     * @return a future which completes when the command has completed, or fails if the command was rejected
+     */
+    public CompletableFuture<Void> execute(Object aggregateKey, Supplier<CompletableFuture<Void>> command) {
+        int hash = aggregateKey != null ? aggregateKey.hashCode() : nextStripe.getAndIncrement();
+        Stripe stripe = stripes[(hash & 0x7fffffff) % stripes.length];
+        Task task = new Task(command);
+        if (!stripe.submit(task)) {
+            rejected.incrementAndGet();
+            task.cf.completeExceptionally(new MewException("Too many commands queued"));
+        }
+        return task.cf;
+    }
+
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public int getQueuedCount() {
+        int queued = 0;
+        for (Stripe stripe : stripes) {
+            queued += stripe.queuedCount();
+        }
+        return queued;
+    }
+
+    public void close() {
+        exec.close();
+    }
+
+    private static final class Task {
+        final Supplier<CompletableFuture<Void>> command;
+        final CompletableFuture<Void> cf = new CompletableFuture<>();
+
+        Task(Supplier<CompletableFuture<Void>> command) {
+            this.command = command;
+        }
+    }
+
+    private final class Stripe {
+
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private boolean running;
+
+        synchronized boolean submit(Task task) {
+            if (!running) {
+                running = true;
+                run(task);
+            } else if (queue.size() < maxQueued) {
+                queue.add(task);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        synchronized int queuedCount() {
+            return queue.size();
+        }
+
+        private void run(Task task) {
+            exec.executeBlocking(fut -> {
+                CompletableFuture<Void> cfCommand;
+                try {
+                    cfCommand = task.command.get();
+                } catch (Throwable t) {
+                    cfCommand = new CompletableFuture<>();
+                    cfCommand.completeExceptionally(t);
+                }
+                CompletableFuture<Void> theCommand = cfCommand;
+                long timerID = vertx.setTimer(timeoutMs, tid -> {
+                    if (theCommand.completeExceptionally(new MewException("Command timed out after " + timeoutMs +
+                            " ms"))) {
+                        timedOut.incrementAndGet();
+                    }
+                });
+                cfCommand.whenComplete((v, t) -> {
+                    vertx.cancelTimer(timerID);
+                    executed.incrementAndGet();
+                    if (t != null) {
+                        task.cf.completeExceptionally(t);
+                    } else {
+                        task.cf.complete(null);
+                    }
+                    runNext();
+                });
+                fut.complete(null);
+            }, false, res -> {
+                if (res.failed()) {
+                    logger.error("Failed to run command", res.cause());
+                }
+            });
+        }
+
+        private synchronized void runNext() {
+            Task next = queue.poll();
+            if (next == null) {
+                running = false;
+            } else {
+                run(next);
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import io.mewbase.server.CommandHandler;
 import io.mewbase.server.CommandHandlerBuilder;
 
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Created by tim on 10/01/17.
@@ -62,6 +63,12 @@ public class CommandHandlerBuilderImpl implements CommandHandlerBuilder {
         return this;
     }
 
+    @Override
+    public CommandHandlerBuilder aggregateKey(Function<BsonObject, ?> keyFunction) {
+        commandHandler.setAggregateKeyFunction(keyFunction);
+        return this;
+    }
+
     @Override
     public CommandHandler create() {
         if (commandHandler.getChannelName() == null) {
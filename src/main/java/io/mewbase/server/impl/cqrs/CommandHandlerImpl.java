@@ -7,6 +7,7 @@ import io.mewbase.server.Log;
 import io.mewbase.server.impl.ServerImpl;
 
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Created by tim on 10/01/17.
@@ -16,6 +17,7 @@ public class CommandHandlerImpl implements CommandHandler {
     private final String name;
     private String channelName;
     private BiConsumer<BsonObject, CommandContext> handler;
+    private Function<BsonObject, ?> aggregateKeyFunction;
     private Log log;
 
     public CommandHandlerImpl(String name) {
@@ -38,6 +40,14 @@ public class CommandHandlerImpl implements CommandHandler {
         this.handler = handler;
     }
 
+    public Function<BsonObject, ?> getAggregateKeyFunction() {
+        return aggregateKeyFunction;
+    }
+
+    public void setAggregateKeyFunction(Function<BsonObject, ?> aggregateKeyFunction) {
+        this.aggregateKeyFunction = aggregateKeyFunction;
+    }
+
     @Override
     public String getName() {
         return name;
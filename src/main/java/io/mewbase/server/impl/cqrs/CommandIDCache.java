@@ -0,0 +1,205 @@
+package io.mewbase.server.impl.cqrs;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.server.Binder;
+import io.mewbase.server.DocReadStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the IDs of commands which have completed, so a command which is retried - e.g. because the client timed
+ * out waiting for the response - isn't run again and doesn't publish its events a second time.
+ * <p>
+ * The most recently completed IDs are held in memory, up to maxEntries, and every ID is also stored in a binder so
+ * duplicates are still detected once they've been evicted from memory, or after a restart. IDs are forgotten once
+ * they're older than the retention time - they're deleted from the binder as they expire from memory, and the IDs which
+ * weren't in memory when they expired are deleted by {@link #sweep()}, which should be called periodically.
+ * <p>
+ * Only successful outcomes are remembered. A failed command hasn't published anything, so it's safe to run it again.
+ * A duplicate which arrives while the original is still running gets the outcome of the original.
+ */
+public class CommandIDCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(CommandIDCache.class);
+
+    private static final String COMPLETED_FIELD = "completed";
+
+    private final Supplier<Binder> binderSupplier;
+    private final int maxEntries;
+    private final long retentionMs;
+    // Completion time by ID, in completion order
+    private final LinkedHashMap<String, Long> completed = new LinkedHashMap<>();
+    private final Map<String, CompletableFuture<Void>> inProgress = new HashMap<>();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public CommandIDCache(Supplier<Binder> binderSupplier, int maxEntries, long retentionMs) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxCachedCommandIDs must be >= 0");
+        }
+        if (retentionMs < 1) {
+            throw new IllegalArgumentException("commandIDRetentionMs must be > 0");
+        }
+        this.binderSupplier = binderSupplier;
+        this.maxEntries = maxEntries;
+        this.retentionMs = retentionMs;
+    }
+
+    /**
+     * Run the command unless a command with the same ID has already completed
+     *
+     * @param commandID the ID of the command
+     * @param command runs the command, and returns a future which completes when the command has completed
+     * @return a future which completes when the command, or the one it duplicates, has completed
+     */
+    public CompletableFuture<Void> execute(String commandID, Supplier<CompletableFuture<Void>> command) {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Void> cf;
+        synchronized (this) {
+            evictExpired(now);
+            CompletableFuture<Void> running = inProgress.get(commandID);
+            if (running != null) {
+                duplicates.incrementAndGet();
+                return running;
+            }
+            Long completedTime = completed.get(commandID);
+            if (completedTime != null && completedTime > now - retentionMs) {
+                duplicates.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            cf = new CompletableFuture<>();
+            inProgress.put(commandID, cf);
+        }
+        Binder binder = binderSupplier.get();
+        binder.get(commandID).thenCompose(doc -> {
+            if (doc != null) {
+                long completedTime = doc.getLong(COMPLETED_FIELD);
+                if (completedTime > now - retentionMs) {
+                    duplicates.incrementAndGet();
+                    remember(commandID, completedTime);
+                    return CompletableFuture.completedFuture(null);
+                }
+                binder.delete(commandID);
+            }
+            return runCommand(command).thenAccept(v -> {
+                long completedTime = System.currentTimeMillis();
+                remember(commandID, completedTime);
+                binder.put(commandID, new BsonObject().put(COMPLETED_FIELD, completedTime)).exceptionally(t -> {
+                    logger.error("Failed to store command ID " + commandID, t);
+                    return null;
+                });
+            });
+        }).whenComplete((v, t) -> {
+            synchronized (this) {
+                inProgress.remove(commandID);
+            }
+            if (t != null) {
+                cf.completeExceptionally(t);
+            } else {
+                cf.complete(null);
+            }
+        });
+        return cf;
+    }
+
+    /**
+     * Delete the expired IDs from the binder
+     *
+     * @return a future which completes with the number of IDs deleted
+     */
+    public CompletableFuture<Integer> sweep() {
+        CompletableFuture<Integer> cf = new CompletableFuture<>();
+        Binder binder = binderSupplier.get();
+        if (binder == null) {
+            cf.complete(0);
+            return cf;
+        }
+        long expiredBefore = System.currentTimeMillis() - retentionMs;
+        List<String> expired = new ArrayList<>();
+        // Match everything, as the stream only tells us it's finished after a document it's passed to the handler
+        DocReadStream stream = binder.getMatching(doc -> true);
+        stream.exceptionHandler(cf::completeExceptionally);
+        stream.handler(doc -> {
+            if (doc != null && doc.getLong(COMPLETED_FIELD) <= expiredBefore) {
+                expired.add(stream.currentID());
+            }
+            if (doc == null || !stream.hasMore()) {
+                cf.complete(deleteExpired(binder, expired));
+            }
+        });
+        stream.start();
+        return cf;
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public synchronized int getCachedCount() {
+        return completed.size();
+    }
+
+    private CompletableFuture<Void> runCommand(Supplier<CompletableFuture<Void>> command) {
+        try {
+            return command.get();
+        } catch (Throwable t) {
+            CompletableFuture<Void> cf = new CompletableFuture<>();
+            cf.completeExceptionally(t);
+            return cf;
+        }
+    }
+
+    private synchronized void remember(String commandID, long completedTime) {
+        if (maxEntries == 0) {
+            return;
+        }
+        completed.put(commandID, completedTime);
+        // Evicted IDs are still in the binder
+        Iterator<String> iter = completed.keySet().iterator();
+        while (completed.size() > maxEntries) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /*
+    An ID which has been run again since the sweep read it isn't expired any more, so it's left alone
+     */
+    private synchronized int deleteExpired(Binder binder, List<String> expired) {
+        int deleted = 0;
+        for (String commandID : expired) {
+            if (!inProgress.containsKey(commandID) && !completed.containsKey(commandID)) {
+                binder.delete(commandID);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            logger.debug("Deleted {} expired command IDs", deleted);
+        }
+        return deleted;
+    }
+
+    /*
+    IDs are in completion order so we can stop at the first one which hasn't expired
+     */
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Long>> iter = completed.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            if (entry.getValue() > now - retentionMs) {
+                break;
+            }
+            iter.remove();
+            binderSupplier.get().delete(entry.getKey());
+        }
+    }
+}
@@ -33,6 +33,24 @@ public class QueryBuilderImpl implements QueryBuilder {
         return this;
     }
 
+    @Override
+    public QueryBuilder idSelector(Function<BsonObject, String> idSelector) {
+        query.setIdSelector(idSelector);
+        return this;
+    }
+
+    @Override
+    public QueryBuilder cacheResults(int maxEntries) {
+        query.setResultCache(new QueryResultCache(maxEntries));
+        return this;
+    }
+
+    @Override
+    public QueryBuilder cacheResults(int maxEntries, int maxDocs) {
+        query.setResultCache(new QueryResultCache(maxEntries, maxDocs));
+        return this;
+    }
+
     @Override
     public Query create() {
         if (query.getBinderName() == null) {
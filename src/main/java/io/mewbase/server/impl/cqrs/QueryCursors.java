@@ -0,0 +1,137 @@
+package io.mewbase.server.impl.cqrs;
+
+import io.mewbase.bson.BsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The cursors of paged queries.
+ * <p>
+ * A cursor remembers the query and params a paged query was started with. The token handed to the client for the
+ * next page is the cursor id plus the id of the last document in the page, so each page is read with a new read
+ * transaction that starts straight after the previous page, and nothing is held open between pages. Any token from
+ * a cursor can be used again, e.g. to retry a page which failed.
+ * <p>
+ * Cursors expire if they're not used for the timeout.
+ */
+public class QueryCursors {
+
+    private static final char SEPARATOR = ':';
+
+    private final long timeoutMs;
+    // In least recently used order
+    private final LinkedHashMap<String, Cursor> cursors = new LinkedHashMap<>(16, 0.75f, true);
+
+    public QueryCursors(long timeoutMs) {
+        if (timeoutMs < 1) {
+            throw new IllegalArgumentException("queryCursorTimeoutMs must be > 0");
+        }
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Create the token for the next page
+     *
+     * @param cursorID the id of the cursor, or null to create a new cursor
+     * @param queryName the name of the query
+     * @param params the query params
+     * @param lastDocID the id of the last document in the page
+     * @return the token
+     */
+    public synchronized String nextPageToken(String cursorID, String queryName, BsonObject params,
+                                             String lastDocID) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        Cursor cursor = cursorID == null ? null : cursors.get(cursorID);
+        if (cursor == null) {
+            cursorID = UUID.randomUUID().toString();
+            cursor = new Cursor(queryName, params);
+            cursors.put(cursorID, cursor);
+        }
+        cursor.lastUsed = now;
+        return cursorID + SEPARATOR + Base64.getUrlEncoder().encodeToString(lastDocID.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Look up the cursor for a token
+     *
+     * @param token the token
+     * @param queryName the name of the query the token is being used for
+     * @return the cursor, or null if there isn't one, it expired, or it's for a different query
+     */
+    public synchronized Cursor getCursor(String token, String queryName) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        int sep = token.indexOf(SEPARATOR);
+        if (sep == -1) {
+            return null;
+        }
+        String cursorID = token.substring(0, sep);
+        Cursor cursor = cursors.get(cursorID);
+        if (cursor == null || !cursor.queryName.equals(queryName)) {
+            return null;
+        }
+        String lastDocID;
+        try {
+            lastDocID = new String(Base64.getUrlDecoder().decode(token.substring(sep + 1)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        cursor.lastUsed = now;
+        return new Cursor(cursorID, cursor.queryName, cursor.params, lastDocID);
+    }
+
+    public synchronized int getCursorCount() {
+        return cursors.size();
+    }
+
+    /*
+    Cursors are in least recently used order so we can stop at the first one which hasn't expired
+     */
+    private void expire(long now) {
+        Iterator<Cursor> iter = cursors.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().lastUsed > now - timeoutMs) {
+                break;
+            }
+            iter.remove();
+        }
+    }
+
+    public static final class Cursor {
+
+        private final String id;
+        private final String queryName;
+        private final BsonObject params;
+        private final String lastDocID;
+        private long lastUsed;
+
+        Cursor(String queryName, BsonObject params) {
+            this(null, queryName, params.copy(), null);
+        }
+
+        Cursor(String id, String queryName, BsonObject params, String lastDocID) {
+            this.id = id;
+            this.queryName = queryName;
+            this.params = params;
+            this.lastDocID = lastDocID;
+        }
+
+        public String getID() {
+            return id;
+        }
+
+        public BsonObject getParams() {
+            return params;
+        }
+
+        public String getLastDocID() {
+            return lastDocID;
+        }
+    }
+}
@@ -20,6 +20,7 @@ public class QueryImpl implements Query {
 
     private BiFunction<BsonObject, QueryContext, Boolean> documentFilter;
     private Function<BsonObject, String> idSelector;
+    private QueryResultCache resultCache;
 
     public QueryImpl(String name) {
         this.name = name;
@@ -53,6 +54,14 @@ public class QueryImpl implements Query {
         this.idSelector = idSelector;
     }
 
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
     public Binder getBinder() {
         return binder;
     }
@@ -0,0 +1,132 @@
+package io.mewbase.server.impl.cqrs;
+
+import io.mewbase.bson.BsonObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of a query by the params it was executed with.
+ * <p>
+ * Each entry remembers the version of the binder when the query that produced it started, and is only used while the
+ * binder is still at that version, so any put or delete on the binder invalidates it. Up to maxEntries sets of
+ * results, and maxDocs documents in all, are held, the least recently used being evicted first. A set of results with
+ * more than maxDocs documents isn't cached at all.
+ */
+public class QueryResultCache {
+
+    public static final int DEFAULT_MAX_DOCS = 10000;
+
+    private final int maxEntries;
+    private final int maxDocs;
+    private final LinkedHashMap<BsonObject, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int numDocs;
+
+    public QueryResultCache(int maxEntries) {
+        this(maxEntries, DEFAULT_MAX_DOCS);
+    }
+
+    public QueryResultCache(int maxEntries, int maxDocs) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        if (maxDocs < 1) {
+            throw new IllegalArgumentException("maxDocs must be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.maxDocs = maxDocs;
+    }
+
+    /**
+     * Get the cached results
+     *
+     * @param params the query params
+     * @param binderVersion the current version of the binder
+     * @return the results, or null if there are none for the params, or the binder has changed since they were cached
+     */
+    public synchronized List<BsonObject> get(BsonObject params, long binderVersion) {
+        Entry entry = entries.get(params);
+        if (entry != null && entry.binderVersion != binderVersion) {
+            entries.remove(params);
+            numDocs -= entry.results.size();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.results;
+    }
+
+    /**
+     * Whether a set of results could be cached
+     *
+     * @param numResults the number of results
+     * @return true if there are few enough of them
+     */
+    public boolean fits(int numResults) {
+        return numResults <= maxDocs;
+    }
+
+    /**
+     * Cache results, unless there are too many of them
+     *
+     * @param params the query params
+     * @param binderVersion the version of the binder before the query started reading it
+     * @param results the results
+     */
+    public synchronized void put(BsonObject params, long binderVersion, List<BsonObject> results) {
+        if (!fits(results.size())) {
+            return;
+        }
+        Entry prev = entries.put(params.copy(), new Entry(binderVersion, Collections.unmodifiableList(results)));
+        if (prev != null) {
+            numDocs -= prev.results.size();
+        }
+        numDocs += results.size();
+        // Least recently used first
+        Iterator<Entry> iter = entries.values().iterator();
+        while (entries.size() > maxEntries || numDocs > maxDocs) {
+            numDocs -= iter.next().results.size();
+            iter.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized int getNumDocs() {
+        return numDocs;
+    }
+
+    private static final class Entry {
+        final long binderVersion;
+        final List<BsonObject> results;
+
+        Entry(long binderVersion, List<BsonObject> results) {
+            this.binderVersion = binderVersion;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.mewbase.server.impl.doc;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.server.DocReadStream;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A DocReadStream over a list of documents, e.g. cached query results, or the documents from a point lookup.
+ * <p>
+ * Like the LMDB read stream, documents are delivered in batches on the context the stream was started on, and an
+ * empty list is delivered as a single null document.
+ */
+public class ListDocReadStream implements DocReadStream {
+
+    private static final int MAX_DELIVER_BATCH = 100;
+
+    private final CompletableFuture<List<BsonObject>> docsFuture;
+    private List<BsonObject> docs;
+    private Consumer<BsonObject> handler;
+    private Consumer<Throwable> exceptionHandler;
+    private Context context;
+    private int pos;
+    private boolean paused;
+    private boolean closed;
+
+    public ListDocReadStream(List<BsonObject> docs) {
+        this(CompletableFuture.completedFuture(docs));
+    }
+
+    /**
+     * Create a stream of documents which are still being fetched, e.g. from a binder
+     *
+     * @param docsFuture completes with the documents when they've been fetched
+     */
+    public ListDocReadStream(CompletableFuture<List<BsonObject>> docsFuture) {
+        this.docsFuture = docsFuture;
+    }
+
+    @Override
+    public synchronized void exceptionHandler(Consumer<Throwable> handler) {
+        this.exceptionHandler = handler;
+    }
+
+    @Override
+    public void handler(Consumer<BsonObject> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public synchronized void start() {
+        context = Vertx.currentContext();
+        if (context == null) {
+            throw new IllegalStateException("Not on context!");
+        }
+        docsFuture.whenComplete((d, t) -> {
+            if (t != null) {
+                context.runOnContext(v -> handleFailure(t));
+            } else {
+                setDocs(d);
+                deliverAsync();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    @Override
+    public synchronized void resume() {
+        if (paused) {
+            paused = false;
+            // Otherwise we'll deliver once we have them
+            if (docs != null) {
+                deliverAsync();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    @Override
+    public synchronized boolean hasMore() {
+        return docs == null || pos < docs.size();
+    }
+
+    @Override
+    public String currentID() {
+        return null;
+    }
+
+    private synchronized void setDocs(List<BsonObject> docs) {
+        this.docs = docs;
+    }
+
+    private synchronized void handleFailure(Throwable t) {
+        if (!closed) {
+            closed = true;
+            if (exceptionHandler != null) {
+                exceptionHandler.accept(t);
+            }
+        }
+    }
+
+    private synchronized void deliver() {
+        if (paused || closed) {
+            return;
+        }
+        if (docs.isEmpty()) {
+            handler.accept(null);
+            closed = true;
+            return;
+        }
+        for (int i = 0; i < MAX_DELIVER_BATCH; i++) {
+            if (pos == docs.size()) {
+                closed = true;
+                return;
+            }
+            handler.accept(docs.get(pos++));
+            if (paused || closed) {
+                return;
+            }
+        }
+        deliverAsync();
+    }
+
+    private void deliverAsync() {
+        context.runOnContext(v -> deliver());
+    }
+}
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -22,6 +23,7 @@ public class LmdbBinder implements Binder {
 
     private final LmdbBinderFactory binderFactory;
     private final String name;
+    private final AtomicLong version = new AtomicLong();
     private Database db;
     private AsyncResCF<Void> startRes;
 
@@ -32,7 +34,12 @@ public class LmdbBinder implements Binder {
 
     @Override
     public DocReadStream getMatching(Function<BsonObject, Boolean> matcher) {
-        return new LmdbReadStream(binderFactory, db, matcher);
+        return getMatching(matcher, null);
+    }
+
+    @Override
+    public DocReadStream getMatching(Function<BsonObject, Boolean> matcher, String startAfterID) {
+        return new LmdbReadStream(binderFactory, db, matcher, startAfterID == null ? null : getKey(startAfterID));
     }
 
     @Override
@@ -58,6 +65,7 @@ public class LmdbBinder implements Binder {
             byte[] key = getKey(id);
             byte[] val = doc.encode().getBytes();
             db.put(key, val);
+            version.incrementAndGet();
             fut.complete(null);
         }, res);
         return res;
@@ -69,11 +77,19 @@ public class LmdbBinder implements Binder {
         binderFactory.getExec().executeBlocking(fut -> {
             byte[] key = getKey(id);
             boolean deleted = db.delete(key);
+            if (deleted) {
+                version.incrementAndGet();
+            }
             fut.complete(deleted);
         }, res);
         return res;
     }
 
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
     @Override
     public CompletableFuture<Void> close() {
         AsyncResCF<Void> res = new AsyncResCF<>();
@@ -10,6 +10,8 @@ import org.fusesource.lmdbjni.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -27,17 +29,22 @@ public class LmdbReadStream implements DocReadStream {
     private final Transaction tx;
     private final EntryIterator iter;
     private final Function<BsonObject, Boolean> matcher;
+    private byte[] startAfterKey;
+    private String currentID;
     private Consumer<BsonObject> handler;
     private boolean paused;
     private boolean hasMore;
     private boolean handledOne;
     private boolean closed;
 
-    LmdbReadStream(LmdbBinderFactory binderFactory, Database db, Function<BsonObject, Boolean> matcher) {
+    LmdbReadStream(LmdbBinderFactory binderFactory, Database db, Function<BsonObject, Boolean> matcher,
+                   byte[] startAfterKey) {
         this.binderFactory = binderFactory;
         this.tx = binderFactory.getEnv().createReadTransaction();
-        this.iter = db.iterate(tx);
+        // Seek goes to the first key >= the one given
+        this.iter = startAfterKey == null ? db.iterate(tx) : db.seek(tx, startAfterKey);
         this.matcher = matcher;
+        this.startAfterKey = startAfterKey;
         this.hasMore = iter.hasNext();
     }
 
@@ -85,6 +92,11 @@ public class LmdbReadStream implements DocReadStream {
         return hasMore;
     }
 
+    @Override
+    public synchronized String currentID() {
+        return currentID;
+    }
+
     private void printThread() {
         //logger.trace("Thread is {}", Thread.currentThread());
     }
@@ -98,14 +110,24 @@ public class LmdbReadStream implements DocReadStream {
         for (int i = 0; i < MAX_DELIVER_BATCH; i++) {
             if (iter.hasNext()) {
                 Entry entry = iter.next();
+                if (startAfterKey != null) {
+                    boolean skip = Arrays.equals(startAfterKey, entry.getKey());
+                    startAfterKey = null;
+                    if (skip) {
+                        hasMore = iter.hasNext();
+                        continue;
+                    }
+                }
 
                 byte[] val = entry.getValue();
                 BsonObject doc = new BsonObject(Buffer.buffer(val));
                 if (handler != null && matcher.apply(doc)) {
                     hasMore = iter.hasNext();
+                    currentID = new String(entry.getKey(), StandardCharsets.UTF_8);
                     handler.accept(doc);
                     handledOne = true;
-                    if (paused) {
+                    // The handler might have closed us
+                    if (paused || closed) {
                         return;
                     }
                 }
@@ -2,6 +2,7 @@ package io.mewbase.server.impl.file.af;
 
 import io.mewbase.server.impl.BasicFile;
 import io.mewbase.server.impl.FileAccess;
+import io.mewbase.server.impl.file.lz4.LZ4BasicFile;
 import io.vertx.core.Vertx;
 import io.vertx.core.file.OpenOptions;
 import org.slf4j.Logger;
@@ -26,8 +27,27 @@ public class AFFileAccess implements FileAccess {
 
     @Override
     public CompletableFuture<BasicFile> openBasicFile(File file) {
+        return open(file, new OpenOptions().setWrite(true));
+    }
+
+    @Override
+    public CompletableFuture<BasicFile> openReadOnlyBasicFile(File file) {
+        return open(file, new OpenOptions().setWrite(false).setCreate(false));
+    }
+
+    @Override
+    public CompletableFuture<BasicFile> openCompressedBasicFile(File file) {
+        return LZ4BasicFile.open(vertx, file);
+    }
+
+    @Override
+    public void scheduleOp(Runnable runner) {
+        vertx.runOnContext(v -> runner.run());
+    }
+
+    private CompletableFuture<BasicFile> open(File file, OpenOptions openOptions) {
         CompletableFuture<BasicFile> cf = new CompletableFuture<>();
-        vertx.fileSystem().open(file.getPath(), new OpenOptions().setWrite(true), ar -> {
+        vertx.fileSystem().open(file.getPath(), openOptions, ar -> {
             if (ar.succeeded()) {
                 if (ar.result() == null) {
                     logger.error("Succeeded in opening file but result is null!");
@@ -40,10 +60,4 @@ public class AFFileAccess implements FileAccess {
         return cf;
     }
 
-    @Override
-    public void scheduleOp(Runnable runner) {
-        vertx.runOnContext(v -> runner.run());
-    }
-
-
 }
@@ -0,0 +1,168 @@
+package io.mewbase.server.impl.file.lz4;
+
+import io.mewbase.client.MewException;
+import io.mewbase.server.impl.BasicFile;
+import io.mewbase.util.AsyncResCF;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Read only BasicFile over a log chunk compressed by {@link LZ4ChunkCompressor}.
+ * <p>
+ * Reads return exactly the bytes the uncompressed chunk would have returned, so readers don't need to know the chunk
+ * is compressed. The last decompressed block is kept so sequential reads smaller than the block size only
+ * decompress each block once.
+ */
+public class LZ4BasicFile implements BasicFile {
+
+    private final static Logger logger = LoggerFactory.getLogger(LZ4BasicFile.class);
+
+    private static final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final Vertx vertx;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final int numBlocks;
+    private final int blockSize;
+    private final int uncompressedLength;
+    private final int[] blockOffsets;
+    private final int[] blockLengths;
+    private int cachedBlockNumber = -1;
+    private byte[] cachedBlock;
+    private byte[] compressedBuff = new byte[0];
+
+    public static CompletableFuture<BasicFile> open(Vertx vertx, File file) {
+        AsyncResCF<BasicFile> cf = new AsyncResCF<>();
+        vertx.executeBlocking(fut -> fut.complete(new LZ4BasicFile(vertx, file)), false, cf);
+        return cf;
+    }
+
+    private LZ4BasicFile(Vertx vertx, File file) {
+        this.vertx = vertx;
+        this.file = file;
+        try {
+            this.raf = new RandomAccessFile(file, "r");
+            this.ch = raf.getChannel();
+            long size = ch.size();
+            if (size < LZ4ChunkCompressor.FOOTER_SIZE) {
+                throw new MewException("Invalid compressed log chunk " + file);
+            }
+            ByteBuffer footer = readFully(size - LZ4ChunkCompressor.FOOTER_SIZE, LZ4ChunkCompressor.FOOTER_SIZE);
+            int indexOffset = footer.getInt();
+            this.numBlocks = footer.getInt();
+            this.blockSize = footer.getInt();
+            this.uncompressedLength = footer.getInt();
+            if (footer.getInt() != LZ4ChunkCompressor.MAGIC) {
+                throw new MewException("Invalid compressed log chunk, bad magic number " + file);
+            }
+            ByteBuffer index = readFully(indexOffset, numBlocks * LZ4ChunkCompressor.INDEX_ENTRY_SIZE);
+            this.blockOffsets = new int[numBlocks];
+            this.blockLengths = new int[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                blockOffsets[i] = index.getInt();
+                blockLengths[i] = index.getInt();
+            }
+        } catch (IOException e) {
+            throw new MewException("Failed to open compressed log chunk " + file, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> append(Buffer buffer, int writePos) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        cf.completeExceptionally(new UnsupportedOperationException("Compressed log chunks are read only"));
+        return cf;
+    }
+
+    @Override
+    public CompletableFuture<Void> read(Buffer buffer, int length, int readPos) {
+        AsyncResCF<Void> cf = new AsyncResCF<>();
+        vertx.executeBlocking(fut -> {
+            readBlocking(buffer, length, readPos);
+            fut.complete(null);
+        }, false, cf);
+        return cf;
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        AsyncResCF<Void> cf = new AsyncResCF<>();
+        vertx.executeBlocking(fut -> {
+            try {
+                raf.close();
+                fut.complete(null);
+            } catch (IOException e) {
+                fut.fail(e);
+            }
+        }, false, cf);
+        return cf;
+    }
+
+    private synchronized void readBlocking(Buffer buffer, int length, int readPos) {
+        int end = Math.min(readPos + length, uncompressedLength);
+        int pos = readPos;
+        while (pos < end) {
+            int blockNumber = pos / blockSize;
+            byte[] block = getBlock(blockNumber);
+            int blockStart = blockNumber * blockSize;
+            int from = pos - blockStart;
+            int to = Math.min(end - blockStart, block.length);
+            buffer.appendBytes(block, from, to - from);
+            pos = blockStart + to;
+        }
+    }
+
+    private byte[] getBlock(int blockNumber) {
+        if (blockNumber == cachedBlockNumber) {
+            return cachedBlock;
+        }
+        if (blockNumber >= numBlocks) {
+            throw new MewException("Invalid block " + blockNumber + " in compressed log chunk " + file);
+        }
+        int compressedLength = blockLengths[blockNumber];
+        if (compressedBuff.length < compressedLength) {
+            compressedBuff = new byte[compressedLength];
+        }
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(compressedBuff, 0, compressedLength);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, blockOffsets[blockNumber] + bb.position()) == -1) {
+                    throw new MewException("Unexpected end of compressed log chunk " + file);
+                }
+            }
+        } catch (IOException e) {
+            throw new MewException("Failed to read compressed log chunk " + file, e);
+        }
+        int blockLength = Math.min(blockSize, uncompressedLength - blockNumber * blockSize);
+        cachedBlockNumber = -1;
+        if (cachedBlock == null || cachedBlock.length != blockLength) {
+            cachedBlock = new byte[blockLength];
+        }
+        decompressor.decompress(compressedBuff, 0, cachedBlock, 0, blockLength);
+        cachedBlockNumber = blockNumber;
+        return cachedBlock;
+    }
+
+    private ByteBuffer readFully(long pos, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) == -1) {
+                throw new MewException("Unexpected end of compressed log chunk " + file);
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+}
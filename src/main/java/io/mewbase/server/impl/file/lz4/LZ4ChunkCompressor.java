@@ -0,0 +1,103 @@
+package io.mewbase.server.impl.file.lz4;
+
+import io.mewbase.client.MewException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Compresses a sealed log chunk into a file made of independently compressed LZ4 blocks.
+ * <p>
+ * Layout of a compressed chunk:
+ * <pre>
+ * [block 0][block 1]...[block n-1][index][footer]
+ * </pre>
+ * The index holds (compressedOffset, compressedLength) for each block, and the footer holds the index offset,
+ * the number of blocks, the (uncompressed) block size, the uncompressed length and a magic number. As every block
+ * covers a fixed range of the uncompressed chunk, a read at any position only needs to decompress the blocks
+ * covering it.
+ */
+public class LZ4ChunkCompressor {
+
+    private final static Logger logger = LoggerFactory.getLogger(LZ4ChunkCompressor.class);
+
+    public static final int MAGIC = 0x4d574c5a; // "MWLZ"
+    public static final int INDEX_ENTRY_SIZE = 8;
+    public static final int FOOTER_SIZE = 20;
+    public static final String TMP_FILE_TAIL = ".tmp";
+
+    private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+
+    public static void compressBlocking(File source, File dest, int blockSize) {
+        logger.trace("Compressing log chunk {} to {}", source, dest);
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be > 0");
+        }
+        LZ4Compressor compressor = factory.fastCompressor();
+        File tmp = new File(dest.getPath() + TMP_FILE_TAIL);
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            FileChannel inCh = in.getChannel();
+            FileChannel outCh = out.getChannel();
+            long length = inCh.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new MewException("Log chunk too large to compress " + source);
+            }
+            int numBlocks = (int)((length + blockSize - 1) / blockSize);
+            ByteBuffer index = ByteBuffer.allocate(numBlocks * INDEX_ENTRY_SIZE);
+            ByteBuffer src = ByteBuffer.allocate(blockSize);
+            ByteBuffer dst = ByteBuffer.allocate(compressor.maxCompressedLength(blockSize));
+            int outPos = 0;
+            long inPos = 0;
+            for (int i = 0; i < numBlocks; i++) {
+                src.clear();
+                src.limit((int)Math.min(blockSize, length - inPos));
+                while (src.hasRemaining()) {
+                    if (inCh.read(src, inPos + src.position()) == -1) {
+                        throw new MewException("Unexpected end of log chunk " + source);
+                    }
+                }
+                src.flip();
+                dst.clear();
+                compressor.compress(src, dst);
+                dst.flip();
+                int compressedLength = dst.remaining();
+                writeFully(outCh, dst);
+                index.putInt(outPos).putInt(compressedLength);
+                outPos += compressedLength;
+                inPos += src.limit();
+            }
+            index.flip();
+            writeFully(outCh, index);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putInt(outPos).putInt(numBlocks).putInt(blockSize).putInt((int)length).putInt(MAGIC);
+            footer.flip();
+            writeFully(outCh, footer);
+            outCh.force(true);
+        } catch (IOException e) {
+            throw new MewException("Failed to compress log chunk " + source, e);
+        }
+        try {
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new MewException("Failed to move compressed log chunk to " + dest, e);
+        }
+        logger.trace("Compressed log chunk {}, {} bytes to {} bytes", source, source.length(), dest.length());
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buff) throws IOException {
+        while (buff.hasRemaining()) {
+            ch.write(buff);
+        }
+    }
+}
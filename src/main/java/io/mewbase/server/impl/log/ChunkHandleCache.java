@@ -0,0 +1,179 @@
+package io.mewbase.server.impl.log;
+
+import io.mewbase.server.impl.BasicFile;
+import io.vertx.core.buffer.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * Reference counted cache of read only log chunk handles, shared by all the read streams of a log.
+ * <p>
+ * Closing a handle obtained from the cache just releases it. Unreferenced handles are kept open, and the least
+ * recently used ones are closed when there are more than maxSize handles open. Handles which are still referenced
+ * are never closed, so the cache can temporarily hold more than maxSize.
+ */
+public class ChunkHandleCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(ChunkHandleCache.class);
+
+    private final IntFunction<CompletableFuture<BasicFile>> opener;
+    private final int maxSize;
+    // Access ordered, so iteration starts with the least recently used
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long opens;
+
+    public ChunkHandleCache(IntFunction<CompletableFuture<BasicFile>> opener, int maxSize) {
+        this.opener = opener;
+        this.maxSize = maxSize;
+    }
+
+    public CompletableFuture<BasicFile> acquire(int fileNumber) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(fileNumber);
+            if (entry == null) {
+                opens++;
+                entry = new Entry(fileNumber, opener.apply(fileNumber));
+                entries.put(fileNumber, entry);
+            }
+            entry.refs++;
+            evict();
+        }
+        Entry theEntry = entry;
+        CompletableFuture<BasicFile> cf = new CompletableFuture<>();
+        entry.cf.handle((bf, t) -> {
+            if (t == null) {
+                cf.complete(new CachedHandle(theEntry, bf));
+            } else {
+                synchronized (this) {
+                    theEntry.refs--;
+                    if (entries.get(theEntry.fileNumber) == theEntry) {
+                        // So the next acquire tries again
+                        entries.remove(theEntry.fileNumber);
+                    }
+                }
+                cf.completeExceptionally(t);
+            }
+            return null;
+        });
+        return cf;
+    }
+
+    /*
+    The chunk has changed on disk (e.g. been compressed), so the next acquire must open it again. Current users can
+    carry on using the old handle
+     */
+    public synchronized void invalidate(int fileNumber) {
+        Entry entry = entries.remove(fileNumber);
+        if (entry != null) {
+            entry.removed = true;
+            if (entry.refs == 0) {
+                entry.close();
+            }
+        }
+    }
+
+    public synchronized CompletableFuture<Void> close() {
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            entry.removed = true;
+            if (entry.refs == 0) {
+                cfs.add(entry.close());
+            }
+        }
+        entries.clear();
+        return CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()]));
+    }
+
+    public synchronized int getOpenHandles() {
+        return entries.size();
+    }
+
+    public synchronized long getOpens() {
+        return opens;
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.refs--;
+        if (entry.refs == 0 && entry.removed) {
+            entry.close();
+        } else {
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (entries.size() > maxSize && iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.refs == 0) {
+                iter.remove();
+                entry.removed = true;
+                entry.close();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final int fileNumber;
+        final CompletableFuture<BasicFile> cf;
+        int refs;
+        boolean removed;
+
+        Entry(int fileNumber, CompletableFuture<BasicFile> cf) {
+            this.fileNumber = fileNumber;
+            this.cf = cf;
+        }
+
+        CompletableFuture<Void> close() {
+            return cf.thenCompose(BasicFile::close).exceptionally(t -> {
+                logger.warn("Failed to close log chunk handle " + fileNumber, t);
+                return null;
+            });
+        }
+    }
+
+    private final class CachedHandle implements BasicFile {
+
+        private final Entry entry;
+        private final BasicFile bf;
+        private boolean released;
+
+        CachedHandle(Entry entry, BasicFile bf) {
+            this.entry = entry;
+            this.bf = bf;
+        }
+
+        @Override
+        public CompletableFuture<Void> append(Buffer buffer, int writePos) {
+            CompletableFuture<Void> cf = new CompletableFuture<>();
+            cf.completeExceptionally(new UnsupportedOperationException("Cached log chunk handles are read only"));
+            return cf;
+        }
+
+        @Override
+        public CompletableFuture<Void> read(Buffer buffer, int length, int readPos) {
+            return bf.read(buffer, length, readPos);
+        }
+
+        @Override
+        public CompletableFuture<Void> close() {
+            synchronized (this) {
+                if (released) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                released = true;
+            }
+            release(entry);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
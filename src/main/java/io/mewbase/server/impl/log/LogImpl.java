@@ -7,6 +7,7 @@ import io.mewbase.server.Log;
 import io.mewbase.server.ServerOptions;
 import io.mewbase.server.impl.BasicFile;
 import io.mewbase.server.impl.FileAccess;
+import io.mewbase.server.impl.file.lz4.LZ4ChunkCompressor;
 import io.mewbase.server.LogReadStream;
 import io.mewbase.util.AsyncResCF;
 import io.vertx.core.Vertx;
@@ -42,12 +43,18 @@ public class LogImpl implements Log {
 
     private static final int MAX_CREATE_BUFF_SIZE = 10 * 1024 * 1024;
     private static final String LOG_INFO_FILE_TAIL = "-log-info.dat";
+    private static final String LOG_FILE_TAIL = ".log";
+    private static final String COMPRESSED_LOG_FILE_TAIL = ".lz4";
 
     private final Vertx vertx;
     private final FileAccess faf;
+    private final File logDir;
     private final String channel;
     private final ServerOptions options;
     private final Set<LogReadStreamImpl> fileLogStreams = new ConcurrentHashSet<>();
+    private final List<SharedCatchUpReader> sharedReaders = new ArrayList<>();
+    private final TailCache tailCache;
+    private final ChunkHandleCache chunkHandleCache;
 
     private BasicFile currWriteFile;
     private BasicFile nextWriteFile;
@@ -55,13 +62,30 @@ public class LogImpl implements Log {
     private int filePos;    // Position of head in head file
     private long headPos;   // Overall position of head in log
     private AtomicLong lastWrittenPos = new AtomicLong();  // Position of beginning of last safely written record
+    private AtomicLong writtenEndPos = new AtomicLong();   // Position of end of last safely written record
     private CompletableFuture<Void> nextFileCF;
     private long writeSequence;
     private long expectedSeq;
     private final PriorityQueue<WriteHolder> pq = new PriorityQueue<>();
+    private final List<Runnable> writeWaiters = new ArrayList<>();
+    private CompletableFuture<Void> sealCF = CompletableFuture.completedFuture(null);
 
     public LogImpl(Vertx vertx, FileAccess faf, ServerOptions options, String channel) {
+        this(vertx, faf, options, new File(options.getLogsDir()), channel);
+    }
+
+    public LogImpl(Vertx vertx, FileAccess faf, ServerOptions options, File logDir, String channel) {
+        this(vertx, faf, options, logDir, channel, options.getTailCacheSize(), options.getMaxOpenChunkHandles());
+    }
+
+    /*
+    The caches are sized separately from the options so that logs sharing a budget, like the partitions of a channel,
+    can each take a part of it
+     */
+    LogImpl(Vertx vertx, FileAccess faf, ServerOptions options, File logDir, String channel, int tailCacheSize,
+            int maxOpenChunkHandles) {
         this.vertx = vertx;
+        this.logDir = logDir;
         this.channel = channel;
         this.options = options;
         this.faf = faf;
@@ -80,6 +104,14 @@ public class LogImpl implements Log {
         if (options.getPreallocateSize() > options.getMaxLogChunkSize()) {
             throw new IllegalArgumentException("preallocateSize must be <= maxLogChunkSize");
         }
+        if (tailCacheSize < 0) {
+            throw new IllegalArgumentException("tailCacheSize must be >= 0");
+        }
+        this.tailCache = tailCacheSize == 0 ? null : new TailCache(tailCacheSize);
+        if (maxOpenChunkHandles < 1) {
+            throw new IllegalArgumentException("maxOpenChunkHandles must be > 0");
+        }
+        this.chunkHandleCache = new ChunkHandleCache(this::openChunk, maxOpenChunkHandles);
     }
 
     private CompletableFuture<Void> startRes;
@@ -91,6 +123,17 @@ public class LogImpl implements Log {
         }
         loadInfo();
         checkAndLoadFiles();
+        // Everything written before the log was started is safely written
+        writtenEndPos.set(headPos);
+        if (options.isCompressSealedChunks()) {
+            // Compress any sealed chunks that weren't compressed before the last shutdown
+            for (int i = 0; i < fileNumber; i++) {
+                if (!getCompressedFile(i).exists()) {
+                    int sealedFileNumber = i;
+                    sealCF = sealCF.thenCompose(v -> compressFile(sealedFileNumber));
+                }
+            }
+        }
         File currFile = getFile(fileNumber);
         CompletableFuture<Void> cfCreate = null;
         if (!currFile.exists()) {
@@ -127,8 +170,36 @@ public class LogImpl implements Log {
         if (subDescriptor.getStartPos() > getLastWrittenPos()) {
             throw new IllegalArgumentException("startPos cannot be past head");
         }
+        return createReadStream(subDescriptor, true);
+    }
+
+    LogReadStreamImpl createReadStream(SubDescriptor subDescriptor, boolean shareable) {
         return new LogReadStreamImpl(this, subDescriptor,
-                options.getReadBufferSize(), options.getMaxLogChunkSize());
+                options.getReadBufferSize(), options.getMaxReadBufferSize(), options.getMaxLogChunkSize(),
+                shareable ? options.getSharedReadWindow() : 0);
+    }
+
+    /*
+    Find a shared reader that a stream starting at pos can attach to, or create a new one
+     */
+    SharedCatchUpReader getSharedReader(long pos) {
+        synchronized (sharedReaders) {
+            for (SharedCatchUpReader reader : sharedReaders) {
+                if (reader.canAttach(pos)) {
+                    return reader;
+                }
+            }
+            SharedCatchUpReader reader = new SharedCatchUpReader(this, vertx.getOrCreateContext(), channel, pos,
+                    options.getSharedReadWindow());
+            sharedReaders.add(reader);
+            return reader;
+        }
+    }
+
+    void removeSharedReader(SharedCatchUpReader reader) {
+        synchronized (sharedReaders) {
+            sharedReaders.remove(reader);
+        }
     }
 
     @Override
@@ -140,10 +211,76 @@ public class LogImpl implements Log {
             throw new MewException("Record too long " + len + " max " + options.getMaxRecordSize());
         }
 
-        CompletableFuture<Long> cf;
+        if (!moveToSpace(len)) {
+            // Next file creation is in progress, just wait for it and call append again
+            return nextFileCF.thenCompose(v -> append(obj));
+        }
+
+        long seq = writeSequence++;
+        CompletableFuture<Long> cf = append0(len, record);
+        cf.thenApply(pos -> {
+            sendToSubsOrdered(seq, pos, len, obj);
+            return pos;
+        });
+        checkCreateNextFile();
+        return cf;
+    }
 
+    /*
+    The records are written contiguously with a single write, so they're either all persisted or none are, and are
+    delivered to subscribers one after the other with nothing in between
+     */
+    @Override
+    public synchronized CompletableFuture<List<Long>> appendBatch(List<BsonObject> objs) {
+
+        int[] lens = new int[objs.size()];
+        Buffer batch = Buffer.buffer();
+        for (int i = 0; i < lens.length; i++) {
+            Buffer record = objs.get(i).encode();
+            lens[i] = record.length();
+            if (lens[i] > options.getMaxRecordSize()) {
+                throw new MewException("Record too long " + lens[i] + " max " + options.getMaxRecordSize());
+            }
+            batch.appendBuffer(record);
+        }
+        int len = batch.length();
+        if (len > options.getMaxLogChunkSize()) {
+            throw new MewException("Batch too long " + len + " max " + options.getMaxLogChunkSize());
+        }
+
+        if (!moveToSpace(len)) {
+            return nextFileCF.thenCompose(v -> appendBatch(objs));
+        }
+
+        long firstSeq = writeSequence;
+        writeSequence += lens.length;
+        CompletableFuture<List<Long>> cf = append0(len, batch).thenApply(firstPos -> {
+            List<Long> positions = new ArrayList<>(lens.length);
+            long pos = firstPos;
+            for (int recordLen : lens) {
+                positions.add(pos);
+                pos += recordLen;
+            }
+            return positions;
+        });
+        cf.thenAccept(positions -> {
+            synchronized (this) {
+                for (int i = 0; i < lens.length; i++) {
+                    sendToSubsOrdered(firstSeq + i, positions.get(i), lens[i], objs.get(i));
+                }
+            }
+        });
+        checkCreateNextFile();
+        return cf;
+    }
+
+    /*
+    Make sure there's room for len bytes in the current file, moving to the next file if there isn't. Returns false
+    if the next file isn't ready yet
+     */
+    private boolean moveToSpace(int len) {
         int remainingSpace = options.getMaxLogChunkSize() - filePos;
-        if (record.length() > remainingSpace) {
+        if (len > remainingSpace) {
             if (remainingSpace > 0) {
                 // Write into the remaining space so all log chunk files are same size
                 Buffer buffer = Buffer.buffer(new byte[remainingSpace]);
@@ -152,6 +289,7 @@ public class LogImpl implements Log {
             // Move to next file
             if (nextWriteFile != null) {
                 logger.trace("Moving to next log file");
+                sealFile(currWriteFile, fileNumber);
                 currWriteFile = nextWriteFile;
                 filePos = 0;
                 fileNumber++;
@@ -159,48 +297,26 @@ public class LogImpl implements Log {
             } else {
                 logger.warn("Eager create of next file too slow, nextFileCF {}", nextFileCF);
                 checkCreateNextFile();
-                // Next file creation is in progress, just wait for it
-                cf = new CompletableFuture<>();
-                nextFileCF.thenAccept(v -> {
-                    // When complete just call append again
-                    CompletableFuture<Long> again = append(obj);
-                    again.handle((pos, t) -> {
-                        if (t != null) {
-                            cf.completeExceptionally(t);
-                        } else {
-                            cf.complete(pos);
-                        }
-                        return null;
-                    });
-                });
-                return cf;
+                return false;
             }
         }
-
-        long seq = writeSequence++;
-        cf = append0(len, record);
-        cf.thenApply(pos -> {
-            sendToSubsOrdered(seq, pos, obj);
-            return pos;
-        });
-        checkCreateNextFile();
-        return cf;
+        return true;
     }
 
-    protected synchronized void sendToSubsOrdered(long seq, long pos, BsonObject obj) {
+    protected synchronized void sendToSubsOrdered(long seq, long pos, int len, BsonObject obj) {
         // Writes can complete in a different order to which they were submitted, we we need to reorder to ensure
         // records are delivered in the correct order
         if (seq == expectedSeq) {
-            sendToSubs(pos, obj);
+            sendToSubs(pos, len, obj);
         } else {
             // Out of order
-            pq.add(new WriteHolder(seq, pos, obj));
+            pq.add(new WriteHolder(seq, pos, len, obj));
         }
         while (true) {
             WriteHolder head = pq.peek();
             if (head != null && head.seq == expectedSeq) {
                 pq.poll();
-                sendToSubs(head.pos, head.obj);
+                sendToSubs(head.pos, head.len, head.obj);
             } else {
                 break;
             }
@@ -223,6 +339,8 @@ public class LogImpl implements Log {
             CompletableFuture<Void> ncf = nextFileCF;
             ret = ret.thenCompose(v -> ncf);
         }
+        CompletableFuture<Void> scf = sealCF;
+        ret = ret.thenCompose(v -> scf).thenCompose(v -> chunkHandleCache.close());
         return ret;
     }
 
@@ -249,30 +367,114 @@ public class LogImpl implements Log {
         fileLogStreams.add(stream);
     }
 
+    /*
+    If the record at pos and all those after it are in the tail cache, readd the stream and return them. This is done
+    with the log locked so no records can be missed between the cached ones and the ones delivered live. The log
+    calls into live streams with the log locked, so the stream mustn't be locked when this is called.
+     */
+    synchronized List<TailCache.Entry> readdFromTailCache(LogReadStreamImpl stream, long pos) {
+        if (tailCache == null) {
+            return null;
+        }
+        List<TailCache.Entry> entries = tailCache.getFrom(pos);
+        if (entries != null) {
+            fileLogStreams.add(stream);
+        }
+        return entries;
+    }
+
+    public long getTailCacheHits() {
+        return tailCache == null ? 0 : tailCache.getHits();
+    }
+
+    public long getTailCacheMisses() {
+        return tailCache == null ? 0 : tailCache.getMisses();
+    }
+
     public long getLastWrittenPos() {
         return lastWrittenPos.get();
     }
 
-    long getLastWrittenEndPos() {
-        return lastWrittenPos.get();
+    /*
+    Writes can complete out of order, so there can be gaps in the log after this position which haven't been written
+    yet. Readers must not read past it
+     */
+    long getWrittenEndPos() {
+        return writtenEndPos.get();
     }
 
     FileCoord getCoord(long pos) {
         return new FileCoord(pos, options.getMaxLogChunkSize());
     }
 
+    /*
+    Returns a read only handle for the chunk, shared with other streams. Closing it releases it back to the cache
+     */
     CompletableFuture<BasicFile> openFile(int fileNumber) {
-        File file = new File(options.getLogsDir(), getFileName(fileNumber));
-        return faf.openBasicFile(file);
+        return chunkHandleCache.acquire(fileNumber);
+    }
+
+    public ChunkHandleCache getChunkHandleCache() {
+        return chunkHandleCache;
+    }
+
+    private CompletableFuture<BasicFile> openChunk(int fileNumber) {
+        File compressed = getCompressedFile(fileNumber);
+        if (compressed.exists()) {
+            return faf.openCompressedBasicFile(compressed);
+        }
+        CompletableFuture<BasicFile> cf = new CompletableFuture<>();
+        faf.openReadOnlyBasicFile(getFile(fileNumber)).handle((bf, t) -> {
+            if (t == null) {
+                cf.complete(bf);
+            } else if (compressed.exists()) {
+                // The chunk was compressed and the uncompressed file removed while we were opening it
+                faf.openCompressedBasicFile(compressed).handle((cbf, t2) -> {
+                    if (t2 == null) {
+                        cf.complete(cbf);
+                    } else {
+                        cf.completeExceptionally(t2);
+                    }
+                    return null;
+                });
+            } else {
+                cf.completeExceptionally(t);
+            }
+            return null;
+        });
+        return cf;
     }
 
     void scheduleOp(Runnable runner) {
         faf.scheduleOp(runner);
     }
 
-    private synchronized void sendToSubs(long pos, BsonObject bsonObject) {
+    /*
+    Schedule the op once the log has been written past pos - straight away if it already has been
+     */
+    void scheduleOpWhenWrittenPast(long pos, Runnable runner) {
+        synchronized (this) {
+            if (writtenEndPos.get() <= pos) {
+                writeWaiters.add(runner);
+                return;
+            }
+        }
+        scheduleOp(runner);
+    }
+
+    private synchronized void sendToSubs(long pos, int len, BsonObject bsonObject) {
         expectedSeq++;
         lastWrittenPos.set(pos);
+        writtenEndPos.set(pos + len);
+        if (!writeWaiters.isEmpty()) {
+            for (Runnable waiter : writeWaiters) {
+                scheduleOp(waiter);
+            }
+            writeWaiters.clear();
+        }
+        if (tailCache != null) {
+            tailCache.add(pos, len, bsonObject);
+        }
         for (LogReadStreamImpl stream : fileLogStreams) {
             if (stream.matches(bsonObject)) {
                 try {
@@ -292,6 +494,47 @@ public class LogImpl implements Log {
         return currWriteFile.append(record, writePos).thenApply(v -> overallWritePos);
     }
 
+    /*
+    A chunk is sealed once the head has moved past it - it will never be written again. We close its write handle
+    (which waits for any outstanding writes) and, if configured, compress it in the background
+     */
+    private void sealFile(BasicFile sealedFile, int sealedFileNumber) {
+        CompletableFuture<Void> cfClose = sealedFile.close();
+        CompletableFuture<Void> prev = sealCF;
+        sealCF = prev.thenCompose(v -> cfClose).thenCompose(v -> {
+            if (options.isCompressSealedChunks()) {
+                return compressFile(sealedFileNumber);
+            } else {
+                return CompletableFuture.completedFuture(null);
+            }
+        }).exceptionally(t -> {
+            logger.error("Failed to seal log file " + sealedFileNumber, t);
+            return null;
+        });
+    }
+
+    private CompletableFuture<Void> compressFile(int sealedFileNumber) {
+        AsyncResCF<Void> cf = new AsyncResCF<>();
+        File file = getFile(sealedFileNumber);
+        File compressed = getCompressedFile(sealedFileNumber);
+        vertx.executeBlocking(fut -> {
+            if (!compressed.exists()) {
+                LZ4ChunkCompressor.compressBlocking(file, compressed, options.getCompressionBlockSize());
+            }
+            // Readers that already have the uncompressed file open can carry on reading it
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete log file {} after compressing it", file);
+            }
+            // New readers must open the compressed file
+            chunkHandleCache.invalidate(sealedFileNumber);
+            fut.complete(null);
+        }, false, cf);
+        return cf.exceptionally(t -> {
+            logger.error("Failed to compress log file " + file, t);
+            return null;
+        });
+    }
+
     private void saveInfo(boolean shutdown) {
         BsonObject info = new BsonObject();
         info.put("fileNumber", fileNumber);
@@ -349,7 +592,7 @@ public class LogImpl implements Log {
     }
 
     private BsonObject loadFileInfo() {
-        File f = new File(options.getLogsDir(), getLogInfoFileName());
+        File f = new File(logDir, getLogInfoFileName());
         if (!f.exists()) {
             return null;
         } else {
@@ -365,7 +608,7 @@ public class LogImpl implements Log {
 
     private void saveFileInfo(BsonObject info) {
         Buffer buff = info.encode();
-        File f = new File(options.getLogsDir(), getLogInfoFileName());
+        File f = new File(logDir, getLogInfoFileName());
         try {
             if (!f.exists()) {
                 if (!f.createNewFile()) {
@@ -379,7 +622,11 @@ public class LogImpl implements Log {
     }
 
     private File getFile(int fileNumber) {
-        return new File(options.getLogsDir(), getFileName(fileNumber));
+        return new File(logDir, getFileName(fileNumber));
+    }
+
+    private File getCompressedFile(int fileNumber) {
+        return new File(logDir, getCompressedFileName(fileNumber));
     }
 
     private synchronized void checkCreateNextFile() {
@@ -415,7 +662,7 @@ public class LogImpl implements Log {
 
     private CompletableFuture<Void> createAndFillFile(String fileName) {
         AsyncResCF<Void> cf = new AsyncResCF<>();
-        File next = new File(options.getLogsDir(), fileName);
+        File next = new File(logDir, fileName);
         vertx.executeBlocking(fut -> {
             createAndFillFileBlocking(next, options.getPreallocateSize());
             fut.complete(null);
@@ -452,13 +699,24 @@ public class LogImpl implements Log {
      */
     private void checkAndLoadFiles() {
         Map<Integer, File> fileMap = new HashMap<>();
-        File logDir = new File(options.getLogsDir());
         File[] files = logDir.listFiles(file -> {
+            if (file.isDirectory()) {
+                // e.g. the partitions of a partitioned channel
+                return false;
+            }
             String name = file.getName();
             int lpos = name.lastIndexOf("-");
             if (name.endsWith(LOG_INFO_FILE_TAIL)) {
                 return false;
             }
+            if (name.endsWith(LZ4ChunkCompressor.TMP_FILE_TAIL)) {
+                // Left over from a compression that didn't complete - but only delete our own, another channel's
+                // name can start with ours
+                if (lpos != -1 && name.substring(0, lpos).equals(channel) && !file.delete()) {
+                    logger.warn("Failed to delete temporary file " + file);
+                }
+                return false;
+            }
             if (lpos == -1) {
                 logger.warn("Unexpected file in log dir: " + file);
                 return false;
@@ -467,7 +725,11 @@ public class LogImpl implements Log {
                 int num = Integer.valueOf(name.substring(lpos + 1, name.length() - 4));
                 boolean matches = chName.equals(channel);
                 if (matches) {
-                    fileMap.put(num, file);
+                    // If a chunk is there both compressed and uncompressed we just take the compressed one
+                    File prev = fileMap.put(num, file);
+                    if (prev != null && prev.getName().endsWith(COMPRESSED_LOG_FILE_TAIL)) {
+                        fileMap.put(num, prev);
+                    }
                 }
                 return matches;
             }
@@ -476,12 +738,13 @@ public class LogImpl implements Log {
             throw new MewException("Failed to list files in dir " + logDir.toString());
         }
 
-        Arrays.sort(files, (f1, f2) -> f1.compareTo(f2));
-        // All files before the head file must be right size
+        // All files before the head file must be right size, unless they have been compressed
         // TODO test this
-        for (int i = 0; i < files.length; i++) {
-            if (i < fileNumber && options.getMaxLogChunkSize() != files[i].length()) {
-                throw new MewException("File unexpected size: " + files[i]);
+        for (Map.Entry<Integer, File> entry : fileMap.entrySet()) {
+            File file = entry.getValue();
+            if (entry.getKey() < fileNumber && !file.getName().endsWith(COMPRESSED_LOG_FILE_TAIL)
+                    && options.getMaxLogChunkSize() != file.length()) {
+                throw new MewException("File unexpected size: " + file);
             }
         }
 
@@ -497,7 +760,11 @@ public class LogImpl implements Log {
     }
 
     private String getFileName(int i) {
-        return channel + "-" + i + ".log";
+        return channel + "-" + i + LOG_FILE_TAIL;
+    }
+
+    private String getCompressedFileName(int i) {
+        return channel + "-" + i + COMPRESSED_LOG_FILE_TAIL;
     }
 
     private String getLogInfoFileName() {
@@ -522,11 +789,13 @@ public class LogImpl implements Log {
         final long seq;
 
         final long pos;
+        final int len;
         final BsonObject obj;
 
-        public WriteHolder(long seq, long pos, BsonObject obj) {
+        public WriteHolder(long seq, long pos, int len, BsonObject obj) {
             this.seq = seq;
             this.pos = pos;
+            this.len = len;
             this.obj = obj;
         }
 
@@ -11,7 +11,9 @@ import io.vertx.core.parsetools.RecordParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.RejectedExecutionException;
@@ -23,6 +25,17 @@ import java.util.function.Consumer;
  * <p>
  * Package protected methods accessed from event loop of publisher
  * <p>
+ * When streaming from file the read size starts at readBufferSize and doubles with every full read, up to
+ * maxReadBufferSize, while the stream is retro and not paused. While one block is being parsed the next one is
+ * already being read (as long as it has been completely written), so a subscriber catching up doesn't wait for a
+ * read between blocks.
+ * <p>
+ * Streams that go retro from a position still held in the log's {@link TailCache} are caught up from memory and go
+ * straight back to live.
+ * <p>
+ * A shareable stream that goes retro first tries to attach to a {@link SharedCatchUpReader} reading the same region
+ * of the log, and only reads the log itself if it can't, or if it gets too far behind the shared reader.
+ * <p>
  * Created by tim on 22/10/16.
  */
 public class LogReadStreamImpl implements LogReadStream {
@@ -33,11 +46,13 @@ public class LogReadStreamImpl implements LogReadStream {
     private final SubDescriptor subDescriptor;
     private final Context context;
     private final int readBufferSize;
+    private final int maxReadBufferSize;
     private final Queue<BufferedRecord> buffered = new LinkedList<>();
     private BiConsumer<Long, BsonObject> handler;
     private Consumer<Throwable> exceptionHandler;
 
     private boolean paused;
+    private boolean catchingUp;
     private boolean closed;
     private long deliveredPos = -1;
     private boolean retro;
@@ -49,14 +64,25 @@ public class LogReadStreamImpl implements LogReadStream {
     private int fileSize;
     private RecordParser parser;
     private int recordSize = -1;
+    private int readSize;
+    private boolean reading;
+    private FileRead prefetched;
+    private final int sharedReadWindow;
+    private SharedCatchUpReader sharedReader;
+    private long sharedResumePos;
+    private boolean sharedResumeIgnoreFirst;
+    private Runnable headHandler;
 
     public LogReadStreamImpl(LogImpl fileLog, SubDescriptor subDescriptor, int readBufferSize,
-                             int fileSize) {
+                             int maxReadBufferSize, int fileSize, int sharedReadWindow) {
         this.fileLog = fileLog;
         this.subDescriptor = subDescriptor;
         this.context = Vertx.currentContext();
         this.readBufferSize = readBufferSize;
+        this.maxReadBufferSize = Math.max(readBufferSize, maxReadBufferSize);
+        this.readSize = readBufferSize;
         this.fileSize = fileSize;
+        this.sharedReadWindow = sharedReadWindow;
         resetParser();
     }
 
@@ -70,6 +96,13 @@ public class LogReadStreamImpl implements LogReadStream {
         this.handler = handler;
     }
 
+    /*
+    Called instead of readding the stream to the log when it gets to the head
+     */
+    void headHandler(Runnable headHandler) {
+        this.headHandler = headHandler;
+    }
+
     @Override
     public synchronized void start() {
         checkContext();
@@ -83,36 +116,105 @@ public class LogReadStreamImpl implements LogReadStream {
     @Override
     public synchronized void pause() {
         paused = true;
+        readSize = readBufferSize;
+        if (sharedReader != null) {
+            sharedReader.memberFlowChanged();
+        }
     }
 
     @Override
-    public synchronized void resume() {
-        if (!paused) {
-            return;
-        }
-        paused = false;
-        if (!buffered.isEmpty()) {
-            while (true) {
-                BufferedRecord br = buffered.poll();
-                if (br == null) {
-                    break;
-                }
-                handle0(br.pos, br.bson);
-                if (paused) {
-                    return;
+    public void resume() {
+        long catchUpPos;
+        synchronized (this) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+            if (catchingUp || !deliverBuffered()) {
+                return;
+            }
+            if (sharedReader != null) {
+                sharedReader.memberFlowChanged();
+                return;
+            } else if (retro) {
+                if (streamFile != null && !reading) {
+                    // Reading stopped while we were paused
+                    scheduleRead();
                 }
+                return;
+            } else if (fileLog.getLastWrittenPos() <= deliveredPos) {
+                return;
             }
-        }
-        if (!retro && fileLog.getLastWrittenPos() > deliveredPos) {
             // Missed message(s)
-            goRetro(true, deliveredPos);
+            fileLog.removeSubHolder(this);
+            catchingUp = true;
+            catchUpPos = deliveredPos;
+        }
+        catchUp(catchUpPos);
+    }
+
+    /*
+    Returns false if the stream was paused before all the buffered records were delivered
+     */
+    private boolean deliverBuffered() {
+        while (true) {
+            BufferedRecord br = buffered.poll();
+            if (br == null) {
+                return true;
+            }
+            handle0(br.pos, br.bson);
+            if (paused) {
+                return false;
+            }
+        }
+    }
+
+    /*
+    If the records after pos are still in the tail cache we go straight back to live and deliver them from there.
+
+    The stream is readded with the log locked, and the log calls into its live streams with the log locked, so this
+    must be called without the stream locked. Records delivered live before the cached ones have been handled are
+    buffered behind them.
+     */
+    private void catchUp(long pos) {
+        List<TailCache.Entry> cached = fileLog.readdFromTailCache(this, pos);
+        synchronized (this) {
+            catchingUp = false;
+            if (closed) {
+                fileLog.removeSubHolder(this);
+                return;
+            }
+            if (cached == null) {
+                // Anything delivered live meanwhile will be read again from the log
+                buffered.clear();
+                goRetro(true, pos);
+                return;
+            }
+            List<BufferedRecord> live = new ArrayList<>(buffered);
+            buffered.clear();
+            for (TailCache.Entry entry : cached) {
+                if (entry.pos != pos) {
+                    buffered.add(new BufferedRecord(entry.pos, entry.bson));
+                }
+            }
+            buffered.addAll(live);
+            if (!paused) {
+                deliverBuffered();
+            }
         }
     }
 
     private void goRetro(boolean ignoreFirst, long pos) {
         fileLog.removeSubHolder(this);
         retro = true;
-        openFileStream(pos, ignoreFirst);
+        if (sharedReadWindow > 0) {
+            sharedReader = fileLog.getSharedReader(pos);
+            sharedResumePos = pos;
+            sharedResumeIgnoreFirst = ignoreFirst;
+            sharedReader.attach(this, ignoreFirst ? pos + 1 : pos);
+        } else {
+            openFileStream(pos, ignoreFirst);
+        }
     }
 
     @Override
@@ -124,7 +226,11 @@ public class LogReadStreamImpl implements LogReadStream {
         closed = true;
         fileLog.removeSubHolder(this);
         if (streamFile != null) {
-            streamFile.close();
+            closeStreamFile();
+        }
+        if (sharedReader != null) {
+            sharedReader.detach(this);
+            sharedReader = null;
         }
     }
 
@@ -132,11 +238,109 @@ public class LogReadStreamImpl implements LogReadStream {
         return retro;
     }
 
+    synchronized boolean isPaused() {
+        return paused;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /*
+    The shared reader calls these on its own context. They're passed on to ours, in order, so our handler is never
+    called on another stream's context and the reader never calls into us while holding anything
+     */
+
+    void sharedRecord(SharedCatchUpReader reader, long pos, BsonObject bsonObject) {
+        runOnStreamContext(() -> handleShared(reader, pos, bsonObject));
+    }
+
+    void sharedReaderDetached(SharedCatchUpReader reader) {
+        runOnStreamContext(() -> sharedReaderDetached0(reader));
+    }
+
+    void sharedReaderAtHead(SharedCatchUpReader reader) {
+        runOnStreamContext(() -> sharedReaderAtHead0(reader));
+    }
+
+    private void runOnStreamContext(Runnable action) {
+        if (context != null) {
+            context.runOnContext(v -> action.run());
+        } else {
+            // Created off a Vert.x thread, so there's no context to hand over to
+            action.run();
+        }
+    }
+
+    private synchronized void handleShared(SharedCatchUpReader reader, long pos, BsonObject bsonObject) {
+        if (closed || sharedReader != reader) {
+            return;
+        }
+        if (pos < (sharedResumeIgnoreFirst ? sharedResumePos + 1 : sharedResumePos)) {
+            // The shared reader hasn't got to our position yet
+            return;
+        }
+        sharedResumePos = pos;
+        sharedResumeIgnoreFirst = true;
+        if (paused) {
+            buffered.add(new BufferedRecord(pos, bsonObject));
+            if (pos - buffered.peek().pos > sharedReadWindow) {
+                // Too far behind, carry on reading on our own
+                logger.trace("Stream too far behind shared reader, detaching at {}", pos);
+                sharedReader = null;
+                reader.detach(this);
+                openFileStream(pos, true);
+            }
+        } else {
+            handle0(pos, bsonObject);
+        }
+    }
+
+    /*
+    The shared reader couldn't attach us or failed - read on our own from where we got to
+     */
+    private synchronized void sharedReaderDetached0(SharedCatchUpReader reader) {
+        if (closed || sharedReader != reader) {
+            return;
+        }
+        sharedReader = null;
+        openFileStream(sharedResumePos, sharedResumeIgnoreFirst);
+    }
+
+    /*
+    The shared reader got to the head, but we haven't necessarily - it can get there while it's paused, without
+    handing on the records it has buffered. So we carry on from the last record we were given, the same way a live
+    stream that missed records does
+     */
+    private void sharedReaderAtHead0(SharedCatchUpReader reader) {
+        long catchUpPos;
+        synchronized (this) {
+            if (closed || sharedReader != reader) {
+                return;
+            }
+            sharedReader = null;
+            if (paused || !sharedResumeIgnoreFirst) {
+                // Read on our own, resume carries on once the buffered records have been delivered
+                openFileStream(sharedResumePos, sharedResumeIgnoreFirst);
+                return;
+            }
+            retro = false;
+            catchingUp = true;
+            catchUpPos = sharedResumePos;
+        }
+        catchUp(catchUpPos);
+    }
+
     boolean matches(BsonObject bsonObject) {
         return true;
     }
 
     synchronized void handle(long pos, BsonObject bsonObject) {
+        if (catchingUp) {
+            // Delivered after the records we're catching up with from the tail cache
+            buffered.add(new BufferedRecord(pos, bsonObject));
+            return;
+        }
         if (paused) {
             return;
         }
@@ -164,6 +368,7 @@ public class LogReadStreamImpl implements LogReadStream {
     private void openFileStream(long pos, boolean ignoreFirst) {
         this.ignoreFirst = ignoreFirst;
         this.fileStreamPos = pos;
+        this.readSize = readBufferSize;
         // Open a file
         LogImpl.FileCoord coord = fileLog.getCoord(pos);
         fileLog.openFile(coord.fileNumber).handle((bf, t) -> {
@@ -209,8 +414,8 @@ public class LogReadStreamImpl implements LogReadStream {
         if (ignoreFirst) {
             ignoreFirst = false;
         } else {
-            long lwep = fileLog.getLastWrittenEndPos();
-            if (fileStreamPos <= lwep) {
+            long lwp = fileLog.getLastWrittenPos();
+            if (fileStreamPos <= lwp) {
                 if (paused) {
                     buffered.add(new BufferedRecord(fileStreamPos, bson));
                 } else {
@@ -221,17 +426,19 @@ public class LogReadStreamImpl implements LogReadStream {
                     }
                 }
             }
-            if (fileStreamPos == lwep) {
+            if (fileStreamPos == lwp) {
                 // Need to lock to prevent messages sneaking in before we readd the stream
                 synchronized (fileLog) {
-                    lwep = fileLog.getLastWrittenEndPos();
-                    if (fileStreamPos == lwep) {
+                    lwp = fileLog.getLastWrittenPos();
+                    if (fileStreamPos == lwp) {
                         // We've got to the head
                         retro = false;
-                        streamFile.close();
-                        streamFile = null;
-                        resetParser();
-                        fileLog.readdSubHolder(this);
+                        closeStreamFile();
+                        if (headHandler != null) {
+                            headHandler.run();
+                        } else {
+                            fileLog.readdSubHolder(this);
+                        }
                     }
                 }
             }
@@ -247,28 +454,19 @@ public class LogReadStreamImpl implements LogReadStream {
         }
     }
 
-    private void doRead() {
+    private synchronized void doRead() {
         try {
-            if (streamFile != null) {
-                // Could have been set to null if previous read gets the head
-                Buffer readBuff = Buffer.buffer(readBufferSize);
-                CompletableFuture<Void> cf = streamFile.read(readBuff, readBufferSize, fileReadPos);
-                cf.handle((v, t) -> {
-                    if (t == null) {
-                        boolean endOfFile = readBuff.length() < readBufferSize;
-                        if (readBuff.length() > 0) {
-                            parser.handle(readBuff);
-                        }
-                        fileReadPos += readBuff.length();
-                        if (streamFile != null && endOfFile && fileReadPos == fileSize) {
-                            // We read a whole file
-                            moveToNextFile();
-                        } else if (!paused) {
-                            scheduleRead();
-                        }
-                    } else {
-                        handleException(t);
-                    }
+            // Could have been set to null if previous read gets the head
+            if (streamFile != null && !reading) {
+                FileRead read = prefetched;
+                prefetched = null;
+                if (read == null || read.file != streamFile || read.readPos != fileReadPos) {
+                    read = startRead(fileReadPos);
+                }
+                reading = true;
+                FileRead theRead = read;
+                read.cf.handle((v, t) -> {
+                    handleRead(theRead, t);
                     return null;
                 });
             }
@@ -278,13 +476,68 @@ public class LogReadStreamImpl implements LogReadStream {
         }
     }
 
-    private void moveToNextFile() {
-        if (closed) {
+    private FileRead startRead(int readPos) {
+        int length = Math.min(readSize, fileSize - readPos);
+        // Reading into a gap left by a write that hasn't completed yet would look like padding and lose our place
+        long unwritten = fileLog.getWrittenEndPos() - ((long)fileNumber * fileSize + readPos);
+        length = (int)Math.max(0, Math.min(length, unwritten));
+        return new FileRead(streamFile, readPos, length);
+    }
+
+    private synchronized void handleRead(FileRead read, Throwable t) {
+        reading = false;
+        if (read.file != streamFile) {
+            // File was closed while the read was in progress
+            return;
+        }
+        if (t != null) {
+            handleException(t);
             return;
         }
+        Buffer readBuff = read.buff;
+        int nextReadPos = fileReadPos + readBuff.length();
+        long fileStart = (long)fileNumber * fileSize;
+        if (readBuff.length() > 0 && readBuff.length() == read.length && retro && !paused) {
+            readSize = Math.min(readSize * 2, maxReadBufferSize);
+            // Only prefetch data that has already been written, or we could read a block before it's filled
+            int length = Math.min(readSize, fileSize - nextReadPos);
+            if (length > 0 && fileStart + nextReadPos + length <= fileLog.getWrittenEndPos()) {
+                try {
+                    prefetched = startRead(nextReadPos);
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Read rejected as pool being shutdown", e);
+                }
+            }
+        }
+        if (readBuff.length() > 0) {
+            parser.handle(readBuff);
+        }
+        fileReadPos = nextReadPos;
+        if (streamFile != null && fileReadPos == fileSize) {
+            // We read a whole file
+            moveToNextFile();
+        } else if (!paused && streamFile != null) {
+            if (read.length == 0) {
+                // Nothing has been written past here yet - wait for the next write rather than spin on empty reads
+                fileLog.scheduleOpWhenWrittenPast(fileStart + fileReadPos, this::doRead);
+            } else {
+                scheduleRead();
+            }
+        }
+    }
+
+    private void closeStreamFile() {
         streamFile.close();
         streamFile = null;
+        prefetched = null;
         resetParser();
+    }
+
+    private void moveToNextFile() {
+        if (closed) {
+            return;
+        }
+        closeStreamFile();
         int headFileNumber = fileLog.getFileNumber();
         if (headFileNumber < fileNumber) {
             logger.warn("Invalid file number {} head {}", fileNumber, headFileNumber);
@@ -297,6 +550,22 @@ public class LogReadStreamImpl implements LogReadStream {
         fileLog.scheduleOp(this::doRead);
     }
 
+    private static final class FileRead {
+        final BasicFile file;
+        final int readPos;
+        final int length;
+        final Buffer buff;
+        final CompletableFuture<Void> cf;
+
+        FileRead(BasicFile file, int readPos, int length) {
+            this.file = file;
+            this.readPos = readPos;
+            this.length = length;
+            this.buff = Buffer.buffer(length);
+            this.cf = file.read(buff, length, readPos);
+        }
+    }
+
     private static final class BufferedRecord {
         final long pos;
         final BsonObject bson;
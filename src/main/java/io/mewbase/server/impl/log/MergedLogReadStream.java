@@ -0,0 +1,59 @@
+package io.mewbase.server.impl.log;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.server.LogReadStream;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Merges the read streams of some of the partitions of a partitioned log into one stream. Positions handed to the
+ * handler include the partition.
+ * <p>
+ * The partition streams deliver independently, possibly at the same time on different threads, so the handler must
+ * be thread safe.
+ */
+public class MergedLogReadStream implements LogReadStream {
+
+    private final Map<Integer, LogReadStream> streams;
+
+    MergedLogReadStream(Map<Integer, LogReadStream> streams) {
+        this.streams = streams;
+    }
+
+    @Override
+    public void exceptionHandler(Consumer<Throwable> handler) {
+        for (LogReadStream stream : streams.values()) {
+            stream.exceptionHandler(handler);
+        }
+    }
+
+    @Override
+    public void handler(BiConsumer<Long, BsonObject> handler) {
+        for (Map.Entry<Integer, LogReadStream> entry : streams.entrySet()) {
+            int partition = entry.getKey();
+            entry.getValue().handler((pos, record) -> handler.accept(PartitionedLog.encodePos(partition, pos), record));
+        }
+    }
+
+    @Override
+    public void start() {
+        streams.values().forEach(LogReadStream::start);
+    }
+
+    @Override
+    public void pause() {
+        streams.values().forEach(LogReadStream::pause);
+    }
+
+    @Override
+    public void resume() {
+        streams.values().forEach(LogReadStream::resume);
+    }
+
+    @Override
+    public void close() {
+        streams.values().forEach(LogReadStream::close);
+    }
+}
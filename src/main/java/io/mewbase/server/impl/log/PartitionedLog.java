@@ -0,0 +1,224 @@
+package io.mewbase.server.impl.log;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.MewException;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Log;
+import io.mewbase.server.LogReadStream;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.FileAccess;
+import io.mewbase.server.impl.Protocol;
+import io.vertx.core.Vertx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A channel split into a number of partitions, each of which is a separate log, with its own directory and write
+ * head, so appends to different partitions don't contend with each other.
+ * <p>
+ * Records are routed to a partition by the hash of their partition key, so all the records with the same key are in
+ * the same partition, in order. Records without a key are spread round robin, a batch at a time.
+ * <p>
+ * Positions in a partitioned log include the partition number in the top bits, so the positions handed out are
+ * unique across the channel. Partition 0 positions are the same as the positions in an unpartitioned log.
+ * <p>
+ * Subscribing merges the partitions. Records are in order within a partition but there is no order between
+ * partitions. A start position other than 0 or -1 is for the partition it points into - the other partitions are read
+ * from the beginning.
+ */
+public class PartitionedLog implements Log {
+
+    public static final int MAX_PARTITIONS = 1 << 15;
+    private static final int PARTITION_SHIFT = 48;
+    private static final long LOCAL_POS_MASK = (1L << PARTITION_SHIFT) - 1;
+    private static final String PARTITIONS_DIR_TAIL = ".partitions";
+
+    private final File partitionsDir;
+    private final List<LogImpl> partitions = new ArrayList<>();
+    private final AtomicInteger nextPartition = new AtomicInteger();
+
+    public PartitionedLog(Vertx vertx, FileAccess faf, ServerOptions options, String channel, int numPartitions) {
+        if (numPartitions < 1 || numPartitions > MAX_PARTITIONS) {
+            throw new IllegalArgumentException("partitions must be between 1 and " + MAX_PARTITIONS);
+        }
+        this.partitionsDir = new File(options.getLogsDir(), channel + PARTITIONS_DIR_TAIL);
+        // The partitions share the channel's cache budgets, rather than each having the budget of a whole channel
+        int tailCacheSize = options.getTailCacheSize() / numPartitions;
+        int maxOpenChunkHandles = Math.max(1, options.getMaxOpenChunkHandles() / numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            partitions.add(new LogImpl(vertx, faf, options, new File(partitionsDir, String.valueOf(i)), channel,
+                    tailCacheSize, maxOpenChunkHandles));
+        }
+    }
+
+    public static long encodePos(int partition, long localPos) {
+        return ((long)partition << PARTITION_SHIFT) | localPos;
+    }
+
+    public static int partitionOf(long pos) {
+        return (int)(pos >>> PARTITION_SHIFT);
+    }
+
+    public static long localPos(long pos) {
+        return pos & LOCAL_POS_MASK;
+    }
+
+    public int getNumPartitions() {
+        return partitions.size();
+    }
+
+    public LogImpl getPartition(int partition) {
+        return partitions.get(partition);
+    }
+
+    /*
+    The position the given partition should be read from for a subscription to the whole channel from startPos. A
+    position in one partition says nothing about how far to read the others, so they're read from the beginning - a
+    subscriber wanting to resume every partition must give each one its own position
+     */
+    public long startPosFor(int partition, long startPos) {
+        if (startPos == SubDescriptor.DEFAULT_START_POS) {
+            return startPos;
+        }
+        return partitionOf(startPos) == partition ? localPos(startPos) : 0;
+    }
+
+    @Override
+    public LogReadStream subscribe(SubDescriptor subDescriptor) {
+        Map<Integer, Long> startPositions = new LinkedHashMap<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            startPositions.put(i, startPosFor(i, subDescriptor.getStartPos()));
+        }
+        return subscribe(subDescriptor, startPositions);
+    }
+
+    /*
+    Subscribe to just some of the partitions, each from its own (local) start position
+     */
+    public LogReadStream subscribe(SubDescriptor subDescriptor, Map<Integer, Long> startPositions) {
+        Map<Integer, LogReadStream> streams = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> entry : startPositions.entrySet()) {
+            SubDescriptor partitionDescriptor = new SubDescriptor().setChannel(subDescriptor.getChannel())
+                    .setStartPos(entry.getValue()).setStartTimestamp(subDescriptor.getStartTimestamp())
+                    .setMatcher(subDescriptor.getMatcher());
+            streams.put(entry.getKey(), partitions.get(entry.getKey()).subscribe(partitionDescriptor));
+        }
+        return new MergedLogReadStream(streams);
+    }
+
+    @Override
+    public CompletableFuture<Long> append(BsonObject obj) {
+        int partition = partitionFor(obj);
+        return partitions.get(partition).append(obj).thenApply(pos -> encodePos(partition, pos));
+    }
+
+    /*
+    Records for different partitions go in different logs so the batch is only atomic per partition. The records
+    without a key all go to the same partition, so a batch is atomic if its records all have the same key, or none
+     */
+    @Override
+    public CompletableFuture<List<Long>> appendBatch(List<BsonObject> objs) {
+        Map<Integer, List<Integer>> byPartition = new LinkedHashMap<>();
+        int keylessPartition = -1;
+        for (int i = 0; i < objs.size(); i++) {
+            String key = objs.get(i).getString(Protocol.RECEV_PARTITION_KEY);
+            int partition;
+            if (key != null) {
+                partition = partitionFor(key.hashCode());
+            } else {
+                if (keylessPartition == -1) {
+                    keylessPartition = partitionFor(nextPartition.getAndIncrement());
+                }
+                partition = keylessPartition;
+            }
+            byPartition.computeIfAbsent(partition, p -> new ArrayList<>()).add(i);
+        }
+        Long[] positions = new Long[objs.size()];
+        CompletableFuture[] cfs = new CompletableFuture[byPartition.size()];
+        int c = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : byPartition.entrySet()) {
+            int partition = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            List<BsonObject> partitionObjs = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                partitionObjs.add(objs.get(index));
+            }
+            cfs[c++] = partitions.get(partition).appendBatch(partitionObjs).thenAccept(localPositions -> {
+                for (int i = 0; i < indexes.size(); i++) {
+                    positions[indexes.get(i)] = encodePos(partition, localPositions.get(i));
+                }
+            });
+        }
+        return CompletableFuture.allOf(cfs).thenApply(v -> Arrays.asList(positions));
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        for (int i = 0; i < partitions.size(); i++) {
+            File dir = new File(partitionsDir, String.valueOf(i));
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new MewException("Failed to create directory " + dir);
+            }
+        }
+        return all(LogImpl::start);
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        return all(LogImpl::close);
+    }
+
+    @Override
+    public int getFileNumber() {
+        throw new UnsupportedOperationException("Each partition has its own files");
+    }
+
+    /*
+    Each partition has its own head, there's no single head position for the channel - see getHeadPositions
+     */
+    @Override
+    public long getHeadPos() {
+        throw new UnsupportedOperationException("Each partition has its own head");
+    }
+
+    @Override
+    public int getFilePos() {
+        throw new UnsupportedOperationException("Each partition has its own files");
+    }
+
+    /*
+    The head position of each partition, indexed by partition, encoded like any other position in the log
+     */
+    public long[] getHeadPositions() {
+        long[] headPositions = new long[partitions.size()];
+        for (int i = 0; i < headPositions.length; i++) {
+            headPositions[i] = encodePos(i, partitions.get(i).getHeadPos());
+        }
+        return headPositions;
+    }
+
+    private int partitionFor(BsonObject obj) {
+        String key = obj.getString(Protocol.RECEV_PARTITION_KEY);
+        return partitionFor(key != null ? key.hashCode() : nextPartition.getAndIncrement());
+    }
+
+    private int partitionFor(int hash) {
+        return (hash & 0x7fffffff) % partitions.size();
+    }
+
+    private CompletableFuture<Void> all(Function<LogImpl, CompletableFuture<Void>> action) {
+        CompletableFuture[] arr = new CompletableFuture[partitions.size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = action.apply(partitions.get(i));
+        }
+        return CompletableFuture.allOf(arr);
+    }
+}
@@ -0,0 +1,183 @@
+package io.mewbase.server.impl.log;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.common.SubDescriptor;
+import io.vertx.core.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads and decodes a region of the log once on behalf of several retro streams.
+ * <p>
+ * A retro stream attaches if its start position is within the window of the current read position - either a little
+ * ahead of it, in which case it skips records until its position is reached, or a little behind it, in which case it
+ * is first given the records from the history kept for the last window of records.
+ * <p>
+ * Each attached stream does its own flow control - records are buffered while it's paused. The reader only pauses
+ * when all attached streams are paused, and a stream that buffers more than the window is detached and carries on
+ * reading the log on its own. When the reader gets to the head all attached streams carry on from where they got to,
+ * going live as soon as they've caught up.
+ * <p>
+ * The reader's state is only used on its own context, so it needs no lock. Records are handed to each stream on the
+ * stream's own context, so one subscription's handler never runs on another's event loop.
+ */
+public class SharedCatchUpReader {
+
+    private final static Logger logger = LoggerFactory.getLogger(SharedCatchUpReader.class);
+
+    private final LogImpl fileLog;
+    private final Context context;
+    private final String channel;
+    private final long startPos;
+    private final int window;
+    private final List<LogReadStreamImpl> members = new ArrayList<>();
+    private final LinkedList<Record> history = new LinkedList<>();
+    private LogReadStreamImpl stream;
+    private volatile long lastPos;
+    private volatile long historyStartPos;
+    private volatile boolean finished;
+
+    SharedCatchUpReader(LogImpl fileLog, Context context, String channel, long startPos, int window) {
+        this.fileLog = fileLog;
+        this.context = context;
+        this.channel = channel;
+        this.startPos = startPos;
+        this.window = window;
+        this.lastPos = startPos;
+        this.historyStartPos = startPos;
+    }
+
+    /*
+    Called off our context, so can be out of date - attach checks again
+     */
+    boolean canAttach(long pos) {
+        return !finished && pos >= historyStartPos && pos <= lastPos + window;
+    }
+
+    void attach(LogReadStreamImpl member, long minPos) {
+        context.runOnContext(v -> {
+            if (finished || minPos < historyStartPos || minPos > lastPos + window) {
+                member.sharedReaderDetached(this);
+                return;
+            }
+            // Catch up from the history
+            for (Record record : history) {
+                if (record.pos >= minPos) {
+                    member.sharedRecord(this, record.pos, record.bson);
+                }
+            }
+            members.add(member);
+            if (stream == null) {
+                stream = fileLog.createReadStream(new SubDescriptor().setChannel(channel).setStartPos(startPos),
+                        false);
+                // The stream calls these on whichever thread it reads or is appended on
+                stream.handler((pos, bson) -> context.runOnContext(v2 -> handleRecord(pos, bson)));
+                stream.exceptionHandler(t -> context.runOnContext(v2 -> handleException(t)));
+                stream.headHandler(() -> context.runOnContext(v2 -> headReached()));
+                stream.start();
+            }
+            updateFlow();
+        });
+    }
+
+    void detach(LogReadStreamImpl member) {
+        context.runOnContext(v -> {
+            members.remove(member);
+            if (members.isEmpty()) {
+                finish();
+            } else {
+                updateFlow();
+            }
+        });
+    }
+
+    void memberFlowChanged() {
+        context.runOnContext(v -> updateFlow());
+    }
+
+    private void handleRecord(long pos, BsonObject bson) {
+        if (finished) {
+            return;
+        }
+        lastPos = pos;
+        history.add(new Record(pos, bson));
+        while (pos - history.peek().pos > window) {
+            history.poll();
+        }
+        historyStartPos = history.peek().pos;
+        for (LogReadStreamImpl member : members) {
+            member.sharedRecord(this, pos, bson);
+        }
+    }
+
+    /*
+    Records the stream buffered while it was paused are never handed on, so the members carry on from the last record
+    they were given rather than going straight to live
+     */
+    private void headReached() {
+        if (finished) {
+            return;
+        }
+        for (LogReadStreamImpl member : members) {
+            member.sharedReaderAtHead(this);
+        }
+        members.clear();
+        finish();
+    }
+
+    private void handleException(Throwable t) {
+        logger.error("Failed to read in shared reader", t);
+        if (finished) {
+            return;
+        }
+        // Let them read on their own
+        for (LogReadStreamImpl member : members) {
+            member.sharedReaderDetached(this);
+        }
+        members.clear();
+        finish();
+    }
+
+    private void updateFlow() {
+        if (stream == null) {
+            return;
+        }
+        boolean active = false;
+        for (LogReadStreamImpl member : members) {
+            if (!member.isPaused()) {
+                active = true;
+                break;
+            }
+        }
+        if (active) {
+            stream.resume();
+        } else {
+            stream.pause();
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        history.clear();
+        LogReadStreamImpl theStream = stream;
+        stream = null;
+        fileLog.removeSharedReader(this);
+        if (theStream != null && !theStream.isClosed()) {
+            theStream.close();
+        }
+    }
+
+    private static final class Record {
+        final long pos;
+        final BsonObject bson;
+
+        Record(long pos, BsonObject bson) {
+            this.pos = pos;
+            this.bson = bson;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.mewbase.server.impl.log;
+
+import io.mewbase.bson.BsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the most recently written records of a log, up to a maximum number of encoded bytes, so that streams which
+ * resume shortly after pausing can catch up from memory instead of going back to the log files.
+ * <p>
+ * The records held are always contiguous, and the last one is the last written record.
+ * <p>
+ * Not thread safe - always accessed with the log locked.
+ */
+public class TailCache {
+
+    private final int maxSize;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int size;
+
+    public TailCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    void add(long pos, int length, BsonObject bsonObject) {
+        if (length > maxSize) {
+            // Would evict everything - we can't hold the tail any more
+            entries.clear();
+            size = 0;
+            return;
+        }
+        entries.add(new Entry(pos, length, bsonObject));
+        size += length;
+        while (size > maxSize) {
+            size -= entries.poll().length;
+        }
+    }
+
+    /*
+    Returns the records from the record at pos to the end, or null if the record at pos is no longer held
+     */
+    List<Entry> getFrom(long pos) {
+        Entry first = entries.peek();
+        if (first == null || pos < first.pos) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        List<Entry> res = new ArrayList<>();
+        // Most streams will be near the end, so search backwards
+        Iterator<Entry> iter = entries.descendingIterator();
+        while (iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.pos < pos) {
+                break;
+            }
+            res.add(entry);
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    static final class Entry {
+        final long pos;
+        final int length;
+        final BsonObject bson;
+
+        Entry(long pos, int length, BsonObject bson) {
+            this.pos = pos;
+            this.length = length;
+            this.bson = bson;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package io.mewbase.server.impl.proj;
 
 import io.mewbase.bson.BsonObject;
 import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.impl.CreditWindow;
 import io.mewbase.server.impl.ServerImpl;
 import io.mewbase.server.impl.SubscriptionBase;
 
@@ -12,30 +13,26 @@ import java.util.function.BiConsumer;
  */
 public class ProjectionSubscription extends SubscriptionBase {
 
-    private static final int MAX_UNACKED_EVENTS = 1000; // TODO make configurable
-
     private final BiConsumer<Long, BsonObject> frameHandler;
-    private int unackedEvents;
+    private final CreditWindow window;
 
     public ProjectionSubscription(ServerImpl server, SubDescriptor subDescriptor,
                                   BiConsumer<Long, BsonObject> frameHandler) {
         super(server, subDescriptor);
         this.frameHandler = frameHandler;
+        this.window = new CreditWindow(server.getServerOptions().getProjectionWindow(), 0);
     }
 
     @Override
     protected void onReceiveFrame(long pos, BsonObject frame) {
-        unackedEvents++;
-        if (unackedEvents > MAX_UNACKED_EVENTS) {
+        if (!window.sent(0)) {
             readStream.pause();
         }
         frameHandler.accept(pos, frame);
     }
 
     void acknowledge(long pos) {
-        unackedEvents--;
-        // Low watermark to prevent thrashing
-        if (unackedEvents < MAX_UNACKED_EVENTS / 2) {
+        if (window.acked(1, 0)) {
             readStream.resume();
         }
         afterAcknowledge(pos);
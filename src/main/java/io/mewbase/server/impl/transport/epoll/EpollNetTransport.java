@@ -0,0 +1,75 @@
+package io.mewbase.server.impl.transport.epoll;
+
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.transport.net.NetTransport;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetServerOptions;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * TCP transport on Netty's native epoll channels, used instead of {@link NetTransport} when
+ * {@link ServerOptions#isNativeTransport()} is set.
+ * <p>
+ * Each acceptor binds its own listening socket to the port with SO_REUSEPORT, so the kernel spreads new connections
+ * across the acceptors' event loops rather than them all being accepted on one. TCP_NODELAY, keep alive, the socket
+ * buffer sizes and the accept backlog are taken from {@link ServerOptions#getNetServerOptions()}. SSL isn't supported.
+ */
+public class EpollNetTransport extends EpollTransport {
+
+    public EpollNetTransport(Vertx vertx, ServerOptions options) {
+        super(vertx, options);
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        if (serverOptions.getNetServerOptions().isSsl()) {
+            CompletableFuture<Void> cf = new CompletableFuture<>();
+            cf.completeExceptionally(new IllegalStateException("SSL isn't supported by the native transport"));
+            return cf;
+        }
+        return super.start();
+    }
+
+    @Override
+    protected Class<? extends ServerChannel> channelClass() {
+        return EpollServerSocketChannel.class;
+    }
+
+    @Override
+    protected SocketAddress address() {
+        NetServerOptions netServerOptions = serverOptions.getNetServerOptions();
+        return new InetSocketAddress(netServerOptions.getHost(), netServerOptions.getPort());
+    }
+
+    @Override
+    protected void configure(ServerBootstrap bootstrap) {
+        NetServerOptions netServerOptions = serverOptions.getNetServerOptions();
+        bootstrap.option(EpollChannelOption.SO_REUSEPORT, true)
+                .option(ChannelOption.SO_REUSEADDR, netServerOptions.isReuseAddress())
+                .childOption(ChannelOption.TCP_NODELAY, netServerOptions.isTcpNoDelay())
+                .childOption(ChannelOption.SO_KEEPALIVE, netServerOptions.isTcpKeepAlive());
+        // -1 leaves the OS default, as it does for a Vert.x net server
+        if (netServerOptions.getAcceptBacklog() != -1) {
+            bootstrap.option(ChannelOption.SO_BACKLOG, netServerOptions.getAcceptBacklog());
+        }
+        if (netServerOptions.getSendBufferSize() != -1) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, netServerOptions.getSendBufferSize());
+        }
+        if (netServerOptions.getReceiveBufferSize() != -1) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, netServerOptions.getReceiveBufferSize());
+        }
+    }
+
+    @Override
+    protected int listeners() {
+        return serverOptions.getAcceptors();
+    }
+}
@@ -0,0 +1,175 @@
+package io.mewbase.server.impl.transport.epoll;
+
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.Transport;
+import io.mewbase.server.impl.TransportConnection;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ConcurrentHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Base of the transports that use Netty's native epoll channels directly, for what Vert.x 3.3 can't do itself. They're
+ * only available on Linux.
+ * <p>
+ * The channels run on the transport's own event loops, one per acceptor. Each connection is handed to a Vert.x
+ * context, so the server handles it just like a Vert.x socket.
+ */
+public abstract class EpollTransport implements Transport {
+
+    private final static Logger logger = LoggerFactory.getLogger(EpollTransport.class);
+
+    protected final ServerOptions serverOptions;
+    private final Vertx vertx;
+    private final Set<Channel> serverChannels = new ConcurrentHashSet<>();
+    private final Set<Channel> connectionChannels = new ConcurrentHashSet<>();
+    private volatile Consumer<TransportConnection> connectHandler;
+    private EventLoopGroup eventLoopGroup;
+
+    protected EpollTransport(Vertx vertx, ServerOptions options) {
+        this.vertx = vertx;
+        this.serverOptions = options;
+    }
+
+    /**
+     * Create the event loops epoll channels run on
+     *
+     * @param threads the number of event loop threads
+     * @return the event loops
+     * @throws IllegalStateException if the native transport isn't available on this platform
+     */
+    public static EventLoopGroup createEventLoopGroup(int threads) {
+        if (!Epoll.isAvailable()) {
+            throw new IllegalStateException("The native transport isn't available on this platform",
+                    Epoll.unavailabilityCause());
+        }
+        return new EpollEventLoopGroup(threads);
+    }
+
+    protected abstract Class<? extends ServerChannel> channelClass();
+
+    protected abstract SocketAddress address();
+
+    /*
+    Set any options of the transport on the bootstrap
+     */
+    protected void configure(ServerBootstrap bootstrap) {
+    }
+
+    /*
+    The number of times the address is bound, each on the next event loop
+     */
+    protected int listeners() {
+        return 1;
+    }
+
+    protected void beforeBind() {
+    }
+
+    protected void afterStop() {
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        try {
+            eventLoopGroup = createEventLoopGroup(serverOptions.getAcceptors());
+        } catch (IllegalStateException e) {
+            CompletableFuture<Void> cf = new CompletableFuture<>();
+            cf.completeExceptionally(e);
+            return cf;
+        }
+        beforeBind();
+        int highWaterMark = serverOptions.getWriteQueueMaxSize();
+        ServerBootstrap bootstrap = new ServerBootstrap().group(eventLoopGroup).channel(channelClass())
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(highWaterMark / 2, highWaterMark))
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        accept(channel);
+                    }
+                });
+        configure(bootstrap);
+        int numListeners = listeners();
+        CompletableFuture[] all = new CompletableFuture[numListeners];
+        for (int i = 0; i < numListeners; i++) {
+            CompletableFuture<Void> cf = new CompletableFuture<>();
+            bootstrap.bind(address()).addListener((ChannelFutureListener)future -> {
+                if (future.isSuccess()) {
+                    serverChannels.add(future.channel());
+                    logger.trace("Mewbase listening on " + address());
+                    cf.complete(null);
+                } else {
+                    cf.completeExceptionally(future.cause());
+                }
+            });
+            all[i] = cf;
+        }
+        return CompletableFuture.allOf(all);
+    }
+
+    @Override
+    public CompletableFuture<Void> stop() {
+        if (eventLoopGroup == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // The event loops are only shut down once every channel has closed, otherwise the close notifications can't
+        // be run on them
+        List<Channel> channels = new ArrayList<>(serverChannels);
+        channels.addAll(connectionChannels);
+        serverChannels.clear();
+        EventLoopGroup group = eventLoopGroup;
+        eventLoopGroup = null;
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(channels.size() + 1);
+        Runnable closed = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).addListener(future -> {
+                    afterStop();
+                    cf.complete(null);
+                });
+            }
+        };
+        for (Channel channel : channels) {
+            channel.close().addListener(future -> closed.run());
+        }
+        closed.run();
+        return cf;
+    }
+
+    @Override
+    public void connectHandler(Consumer<TransportConnection> connectionHandler) {
+        this.connectHandler = connectionHandler;
+    }
+
+    /*
+    Anything the channel reads is passed on to the connection's context after this, so the server's end of the
+    connection is set up before it's handled
+     */
+    private void accept(Channel channel) {
+        EpollTransportConnection connection = new EpollTransportConnection(channel, vertx.getOrCreateContext());
+        connectionChannels.add(channel);
+        channel.closeFuture().addListener(future -> connectionChannels.remove(channel));
+        channel.pipeline().addLast(connection);
+        connection.context().runOnContext(v -> connectHandler.accept(connection));
+    }
+}
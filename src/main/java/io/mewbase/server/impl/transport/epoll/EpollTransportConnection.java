@@ -0,0 +1,143 @@
+package io.mewbase.server.impl.transport.epoll;
+
+import io.mewbase.server.impl.TransportConnection;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A connection on one of Netty's native epoll channels - a Unix domain socket, or a TCP socket accepted by
+ * {@link EpollNetTransport}.
+ * <p>
+ * The channel runs on a Netty event loop, not a Vert.x one, so everything it receives is handed over to the
+ * connection's Vert.x context, and the handlers are only ever called there - just as they are for a Vert.x socket.
+ * Writes can come from any thread, Netty passes them on to the channel's event loop in order.
+ * <p>
+ * The channel stops reading while more than MAX_PENDING_READ_BYTES are waiting to be handled on the context, so a
+ * busy context backs up into the socket, as it does for a Vert.x socket whose context is also its event loop.
+ */
+public class EpollTransportConnection extends ChannelInboundHandlerAdapter implements TransportConnection {
+
+    private final static Logger logger = LoggerFactory.getLogger(EpollTransportConnection.class);
+
+    private static final int MAX_PENDING_READ_BYTES = 64 * 1024;
+
+    private final Channel channel;
+    private final Context context;
+    private final AtomicInteger pendingReadBytes = new AtomicInteger();
+    private Consumer<Buffer> handler;
+    private Runnable drainHandler;
+    private Runnable closeHandler;
+
+    public EpollTransportConnection(Channel channel, Context context) {
+        this.channel = channel;
+        this.context = context;
+    }
+
+    public Context context() {
+        return context;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        channel.writeAndFlush(buffer.getByteBuf());
+    }
+
+    /*
+    The channel stops being writable once more than its high water mark is waiting to be written
+     */
+    @Override
+    public boolean writeQueueFull() {
+        return !channel.isWritable();
+    }
+
+    @Override
+    public void drainHandler(Runnable handler) {
+        this.drainHandler = handler;
+    }
+
+    @Override
+    public void handler(Consumer<Buffer> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void close() {
+        // The close handler closes the connection too, by which time the event loop can have been shut down
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void closeHandler(Runnable handler) {
+        this.closeHandler = handler;
+    }
+
+    // Called on the channel's event loop
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        ByteBuf buf = (ByteBuf)msg;
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        buf.release();
+        if (pendingReadBytes.addAndGet(bytes.length) > MAX_PENDING_READ_BYTES) {
+            channel.config().setAutoRead(false);
+        }
+        context.runOnContext(v -> {
+            if (handler != null) {
+                handler.accept(Buffer.buffer(bytes));
+            }
+            readHandled(bytes.length);
+        });
+    }
+
+    /*
+    Called on the context. Reading is only ever turned on and off on the channel's event loop, so it can't be turned
+    off again after it's been turned back on here for the last read
+     */
+    private void readHandled(int bytes) {
+        if (pendingReadBytes.addAndGet(-bytes) <= MAX_PENDING_READ_BYTES / 2 && !channel.config().isAutoRead()) {
+            channel.eventLoop().execute(() -> {
+                if (pendingReadBytes.get() <= MAX_PENDING_READ_BYTES / 2) {
+                    channel.config().setAutoRead(true);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (channel.isWritable()) {
+            context.runOnContext(v -> {
+                if (drainHandler != null) {
+                    drainHandler.run();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        context.runOnContext(v -> {
+            if (closeHandler != null) {
+                closeHandler.run();
+            }
+        });
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.error("Connection failed", cause);
+        channel.close();
+    }
+}
@@ -0,0 +1,100 @@
+package io.mewbase.server.impl.transport.invm;
+
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.Transport;
+import io.mewbase.server.impl.TransportConnection;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ConcurrentHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * In-VM transport, for clients in the same JVM as the server, e.g. embedded applications and Mewblets. Frames are
+ * handed across as they are, without being encoded or copied.
+ * <p>
+ * The transport is registered under the name from {@link ServerOptions#getInVMName()} while it's started, and
+ * clients find it by that name.
+ */
+public class InVMTransport implements Transport {
+
+    private final static Logger logger = LoggerFactory.getLogger(InVMTransport.class);
+
+    private static final ConcurrentMap<String, InVMTransport> transports = new ConcurrentHashMap<>();
+
+    private final Vertx vertx;
+    private final ServerOptions serverOptions;
+    private final Set<InVMTransportConnection> connections = new ConcurrentHashSet<>();
+    private volatile Consumer<TransportConnection> connectHandler;
+
+    public InVMTransport(Vertx vertx, ServerOptions options) {
+        this.vertx = vertx;
+        this.serverOptions = options;
+    }
+
+    /**
+     * Find a started transport
+     *
+     * @param name the in-VM name of the server
+     * @return the transport, or null if there isn't one of that name
+     */
+    public static InVMTransport lookup(String name) {
+        return transports.get(name);
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        String name = serverOptions.getInVMName();
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        if (transports.putIfAbsent(name, this) != null) {
+            cf.completeExceptionally(new IllegalStateException("In-VM name " + name + " is already in use"));
+        } else {
+            logger.trace("Mewbase listening in-VM as " + name);
+            cf.complete(null);
+        }
+        return cf;
+    }
+
+    @Override
+    public CompletableFuture<Void> stop() {
+        transports.remove(serverOptions.getInVMName(), this);
+        for (InVMTransportConnection connection : connections) {
+            connection.close();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void connectHandler(Consumer<TransportConnection> connectionHandler) {
+        this.connectHandler = connectionHandler;
+    }
+
+    /**
+     * Connect to the server. The connection is complete once the server has set up its end, so frames can be written
+     * straight away.
+     *
+     * @param clientContext the context the client's handlers are called on
+     * @return the client's end of the connection
+     */
+    public CompletableFuture<InVMTransportConnection> connect(Context clientContext) {
+        Context serverContext = vertx.getOrCreateContext();
+        InVMTransportConnection serverEnd = new InVMTransportConnection(serverContext,
+                serverOptions.getWriteQueueMaxSize(), connections::remove);
+        // Nothing on the client side pauses for backpressure
+        InVMTransportConnection clientEnd = new InVMTransportConnection(clientContext, Integer.MAX_VALUE, null);
+        InVMTransportConnection.connect(serverEnd, clientEnd);
+        connections.add(serverEnd);
+        CompletableFuture<InVMTransportConnection> cf = new CompletableFuture<>();
+        serverContext.runOnContext(v -> {
+            connectHandler.accept(serverEnd);
+            cf.complete(clientEnd);
+        });
+        return cf;
+    }
+}
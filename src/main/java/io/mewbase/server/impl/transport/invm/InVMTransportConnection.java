@@ -0,0 +1,167 @@
+package io.mewbase.server.impl.transport.invm;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.server.impl.FrameTransportConnection;
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One end of an in-VM connection.
+ * <p>
+ * Frames written at one end are added to a lock free queue at the other, which is drained by a task on the other
+ * end's context - only one drain task is scheduled at a time, so frames are handled in the order they were written,
+ * and many frames written together are handled by one task.
+ * <p>
+ * The write queue is the frames written that the other end hasn't handled yet, counted in the sizes the frames were
+ * written with, so a peer that can't keep up applies backpressure just like a slow socket does.
+ */
+public class InVMTransportConnection implements FrameTransportConnection {
+
+    private final Context context;
+    private final int writeQueueMaxSize;
+    private final Consumer<InVMTransportConnection> onClose;
+    private final Queue<InVMFrame> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean drainWanted = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private InVMTransportConnection peer;
+    private volatile FrameReceiver frameHandler;
+    private volatile Runnable drainHandler;
+    private volatile Runnable closeHandler;
+
+    /**
+     * @param context the context the handlers of this end are called on
+     * @param writeQueueMaxSize the high water mark of the write queue, in bytes
+     * @param onClose called with this end when the connection is closed, from either end
+     */
+    InVMTransportConnection(Context context, int writeQueueMaxSize, Consumer<InVMTransportConnection> onClose) {
+        this.context = context;
+        this.writeQueueMaxSize = writeQueueMaxSize;
+        this.onClose = onClose;
+    }
+
+    static void connect(InVMTransportConnection end1, InVMTransportConnection end2) {
+        end1.peer = end2;
+        end2.peer = end1;
+    }
+
+    @Override
+    public void writeFrame(String frameType, BsonObject frame, int size) {
+        if (closed.get()) {
+            return;
+        }
+        queuedBytes.addAndGet(size);
+        peer.receive(new InVMFrame(frameType, frame, size));
+    }
+
+    @Override
+    public void frameHandler(FrameReceiver handler) {
+        this.frameHandler = handler;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        if (queuedBytes.get() <= writeQueueMaxSize) {
+            return false;
+        }
+        drainWanted.set(true);
+        // The peer may have caught up before we set the flag
+        checkDrained();
+        return true;
+    }
+
+    @Override
+    public void drainHandler(Runnable handler) {
+        this.drainHandler = handler;
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        throw new UnsupportedOperationException("Frames aren't encoded on an in-VM connection");
+    }
+
+    @Override
+    public void handler(Consumer<Buffer> handler) {
+        throw new UnsupportedOperationException("Frames aren't encoded on an in-VM connection");
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (onClose != null) {
+                onClose.accept(this);
+            }
+            Runnable handler = closeHandler;
+            if (handler != null) {
+                context.runOnContext(v -> handler.run());
+            }
+            peer.close();
+        }
+    }
+
+    @Override
+    public void closeHandler(Runnable handler) {
+        this.closeHandler = handler;
+    }
+
+    private void receive(InVMFrame frame) {
+        inbound.add(frame);
+        if (drainScheduled.compareAndSet(false, true)) {
+            context.runOnContext(v -> drain());
+        }
+    }
+
+    /*
+    Anything received after we clear the flag schedules another drain, so nothing is left behind
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        while (true) {
+            InVMFrame frame = inbound.poll();
+            if (frame == null) {
+                break;
+            }
+            FrameReceiver handler = frameHandler;
+            if (handler != null && !closed.get()) {
+                handler.handleFrame(frame.frameType, frame.size, frame.frame);
+            }
+            peer.handled(frame.size);
+        }
+    }
+
+    private void handled(int size) {
+        queuedBytes.addAndGet(-size);
+        checkDrained();
+    }
+
+    /*
+    Like a socket, the drain handler is called once the queue is down to half the high water mark
+     */
+    private void checkDrained() {
+        if (queuedBytes.get() <= writeQueueMaxSize / 2 && drainWanted.compareAndSet(true, false)) {
+            Runnable handler = drainHandler;
+            if (handler != null) {
+                context.runOnContext(v -> handler.run());
+            }
+        }
+    }
+
+    private static final class InVMFrame {
+        final String frameType;
+        final BsonObject frame;
+        final int size;
+
+        InVMFrame(String frameType, BsonObject frame, int size) {
+            this.frameType = frameType;
+            this.frame = frame;
+            this.size = size;
+        }
+    }
+}
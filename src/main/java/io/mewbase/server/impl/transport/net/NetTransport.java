@@ -34,7 +34,8 @@ public class NetTransport implements Transport {
     }
 
     public CompletableFuture<Void> start() {
-        int numServers = Runtime.getRuntime().availableProcessors(); // TODO make this configurable
+        // Each net server gets its own event loop, so this is how many threads accept and handle connections
+        int numServers = serverOptions.getAcceptors();
         logger.trace("Starting " + numServers + " net servers");
         CompletableFuture[] all = new CompletableFuture[numServers];
         for (int i = 0; i < numServers; i++) {
@@ -80,6 +81,8 @@ public class NetTransport implements Transport {
     }
 
     private void connectHandler(NetSocket socket) {
+        // The high water mark above which the connection stops sending events until the socket has drained
+        socket.setWriteQueueMaxSize(serverOptions.getWriteQueueMaxSize());
         connectHandler.accept(new NetTransportConnection(socket));
     }
 }
@@ -22,6 +22,16 @@ public class NetTransportConnection implements TransportConnection {
         netSocket.write(buffer);
     }
 
+    @Override
+    public boolean writeQueueFull() {
+        return netSocket.writeQueueFull();
+    }
+
+    @Override
+    public void drainHandler(Runnable handler) {
+        netSocket.drainHandler(v -> handler.run());
+    }
+
     @Override
     public void handler(Consumer<Buffer> handler) {
         netSocket.handler(handler::accept);
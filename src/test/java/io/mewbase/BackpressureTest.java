@@ -0,0 +1,91 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Producer;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ConnectionImpl;
+import io.mewbase.server.impl.Protocol;
+import io.mewbase.server.impl.ServerImpl;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetSocket;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(VertxUnitRunner.class)
+public class BackpressureTest extends ServerTestBase {
+
+    private static final int NUM_EVENTS = 4000;
+    private static final int EVENT_SIZE = 10 * 1024;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        // Credit windows won't stop anything so it's all down to the socket
+        return super.createServerOptions().setMaxWindowBytes(Integer.MAX_VALUE).setWriteQueueMaxSize(64 * 1024);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testSlowClientPausesConnection(TestContext context) throws Exception {
+        publish();
+        Set<ConnectionImpl> existing = new HashSet<>(((ServerImpl)server).getConnections());
+        NetClient netClient = vertx.createNetClient();
+        CompletableFuture<NetSocket> cf = new CompletableFuture<>();
+        netClient.connect(ServerOptions.DEFAULT_PORT, ServerOptions.DEFAULT_HOST, ar -> {
+            if (ar.succeeded()) {
+                cf.complete(ar.result());
+            } else {
+                cf.completeExceptionally(ar.cause());
+            }
+        });
+        NetSocket socket = cf.get();
+        AtomicLong bytesRead = new AtomicLong();
+        socket.handler(buff -> bytesRead.addAndGet(buff.length()));
+        // Don't read anything the server sends
+        socket.pause();
+        socket.write(Protocol.encodeFrame(Protocol.CONNECT_FRAME, new BsonObject()));
+        socket.write(Protocol.encodeFrame(Protocol.SUBSCRIBE_FRAME, new BsonObject()
+                .put(Protocol.REQUEST_REQUEST_ID, 0).put(Protocol.SUBSCRIBE_CHANNEL, TEST_CHANNEL_1)
+                .put(Protocol.SUBSCRIBE_STARTPOS, 0L).put(Protocol.SUBSCRIBE_STARTTIMESTAMP, 0L)
+                .put(Protocol.SUBSCRIBE_WINDOW_BYTES, Integer.MAX_VALUE)));
+
+        ConnectionImpl connection = waitForNonNull(() -> ((ServerImpl)server).getConnections().stream()
+                .filter(c -> !existing.contains(c)).findFirst().orElse(null));
+        waitUntil(connection::isWritesPaused);
+        Thread.sleep(100);
+        // The events left in the log aren't read while the client isn't reading
+        long written = connection.getFramesWritten();
+        context.assertTrue(written < NUM_EVENTS);
+        Thread.sleep(100);
+        context.assertEquals(written, connection.getFramesWritten());
+
+        socket.resume();
+        // Connect response, subscribe response and the events
+        waitUntil(() -> connection.getFramesWritten() == NUM_EVENTS + 2, 30000);
+        waitUntil(() -> bytesRead.get() >= (long)NUM_EVENTS * EVENT_SIZE, 30000);
+        context.assertFalse(connection.isWritesPaused());
+        netClient.close();
+    }
+
+    private void publish() throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        String padding = new String(new char[EVENT_SIZE]).replace('\0', 'x');
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i).put("padding", padding)));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+    }
+}
@@ -4,7 +4,11 @@ import io.mewbase.bson.BsonArray;
 import io.mewbase.bson.BsonObject;
 import io.mewbase.client.*;
 import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Binder;
 import io.mewbase.server.CommandHandler;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ServerImpl;
+import io.mewbase.server.impl.cqrs.CommandIDCache;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
@@ -14,10 +18,14 @@ import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -34,6 +42,13 @@ public class CQRSTest extends ServerTestBase {
 
     private final static Logger logger = LoggerFactory.getLogger(CQRSTest.class);
 
+    private static final long COMMAND_TIMEOUT_MS = 500;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setCommandTimeoutMs(COMMAND_TIMEOUT_MS);
+    }
+
     @Override
     protected void setupChannelsAndBinders() throws Exception {
         server.createChannel(TEST_CHANNEL_1).get();
@@ -72,4 +87,197 @@ public class CQRSTest extends ServerTestBase {
 
     }
 
+    @Test
+    public void testCommandTimesOut(TestContext testContext) throws Exception {
+        String commandName = "testcommand";
+        server.buildCommandHandler(commandName)
+                .emittingTo(TEST_CHANNEL_1)
+                .aggregateKey(command -> command.getString("key"))
+                .as((command, context) -> {
+                    // The first command never completes
+                    if (command.getInteger("num") > 0) {
+                        context.publishEvent(new BsonObject().put("num", command.getInteger("num")));
+                        context.complete();
+                    }
+                })
+                .create();
+        BsonObject command = new BsonObject().put("key", "agg1");
+        CompletableFuture<Void> cf1 = client.sendCommand(commandName, command.copy().put("num", 0));
+        CompletableFuture<Void> cf2 = client.sendCommand(commandName, command.copy().put("num", 1));
+        try {
+            cf1.get();
+            fail("Should throw exception");
+        } catch (ExecutionException e) {
+            testContext.assertTrue(e.getCause() instanceof MewException);
+        }
+        // The next command for the aggregate isn't held up for ever
+        cf2.get();
+    }
+
+    @Test
+    public void testCommandPublishingMultipleEvents(TestContext testContext) throws Exception {
+
+        String commandName = "testcommand";
+        int numEvents = 5;
+
+        server.buildCommandHandler(commandName)
+                .emittingTo(TEST_CHANNEL_1)
+                .as((command, context) -> {
+                    for (int i = 0; i < numEvents; i++) {
+                        context.publishEvent(new BsonObject().put("num", i));
+                    }
+                    context.complete();
+                })
+                .create();
+
+        Async async = testContext.async();
+        List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+            received.add(del);
+            if (received.size() == numEvents) {
+                async.complete();
+            }
+        }).get();
+
+        client.sendCommand(commandName, new BsonObject()).get();
+        async.await();
+
+        // Published together, so they're contiguous in the log and have the same timestamp
+        for (int i = 0; i < numEvents; i++) {
+            ClientDelivery del = received.get(i);
+            testContext.assertEquals(i, del.event().getInteger("num"));
+            testContext.assertEquals(received.get(0).timeStamp(), del.timeStamp());
+            if (i > 0) {
+                testContext.assertTrue(del.channelPos() > received.get(i - 1).channelPos());
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicateCommandIDNotRerun(TestContext testContext) throws Exception {
+
+        String commandName = "testcommand";
+        AtomicInteger calls = new AtomicInteger();
+        registerCountingHandler(commandName, calls);
+
+        client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+        client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+        testContext.assertEquals(1, calls.get());
+
+        client.sendCommand(commandName, new BsonObject(), "cmd2").get();
+        testContext.assertEquals(2, calls.get());
+
+        // Commands without an ID are always run
+        client.sendCommand(commandName, new BsonObject()).get();
+        client.sendCommand(commandName, new BsonObject()).get();
+        testContext.assertEquals(4, calls.get());
+
+        // Still deduplicated after a restart
+        restart();
+        registerCountingHandler(commandName, calls);
+        client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+        testContext.assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testExpiredCommandIDsSwept(TestContext testContext) throws Exception {
+
+        String commandName = "testcommand";
+        AtomicInteger calls = new AtomicInteger();
+        registerCountingHandler(commandName, calls);
+        client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+
+        // An ID which expired while it wasn't in memory, e.g. before a restart
+        Binder binder = ((ServerImpl)server).getCommandIDsBinder();
+        binder.put(commandName + ".cmd2", new BsonObject().put("completed", 0L)).get();
+
+        CommandIDCache cache = new CommandIDCache(() -> binder, 10, 60 * 1000);
+        testContext.assertEquals(1, cache.sweep().get());
+        testContext.assertNull(binder.get(commandName + ".cmd2").get());
+        testContext.assertNotNull(binder.get(commandName + ".cmd1").get());
+    }
+
+    @Test
+    public void testFailedCommandCanBeRetried(TestContext testContext) throws Exception {
+
+        String commandName = "testcommand";
+        AtomicInteger calls = new AtomicInteger();
+        server.buildCommandHandler(commandName)
+                .emittingTo(TEST_CHANNEL_1)
+                .as((command, context) -> {
+                    if (calls.incrementAndGet() == 1) {
+                        context.completeExceptionally(new Exception("oops"));
+                    } else {
+                        context.complete();
+                    }
+                })
+                .create();
+
+        try {
+            client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+            fail("Should throw exception");
+        } catch (ExecutionException e) {
+            MewException me = (MewException)e.getCause();
+            testContext.assertEquals(Client.ERR_COMMAND_FAILED, me.getErrorCode());
+        }
+        client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+        client.sendCommand(commandName, new BsonObject(), "cmd1").get();
+        testContext.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testCommandsForSameAggregateAreOrdered(TestContext testContext) throws Exception {
+
+        String commandName = "testcommand";
+        int numKeys = 3;
+        int numCommands = 30;
+
+        Set<String> running = ConcurrentHashMap.newKeySet();
+        server.buildCommandHandler(commandName)
+                .emittingTo(TEST_CHANNEL_1)
+                .aggregateKey(command -> command.getString("key"))
+                .as((command, context) -> {
+                    String key = command.getString("key");
+                    // Commands for the same aggregate never run concurrently
+                    testContext.assertTrue(running.add(key));
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ignore) {
+                    }
+                    running.remove(key);
+                    context.publishEvent(new BsonObject().put("key", key).put("num", command.getInteger("num")));
+                    context.complete();
+                })
+                .create();
+
+        Async async = testContext.async();
+        Map<String, Integer> lastPerKey = new ConcurrentHashMap<>();
+        AtomicInteger cnt = new AtomicInteger();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+            Integer last = lastPerKey.put(del.event().getString("key"), del.event().getInteger("num"));
+            int num = del.event().getInteger("num");
+            testContext.assertTrue(last == null || last < num);
+            if (cnt.incrementAndGet() == numCommands) {
+                async.complete();
+            }
+        }).get();
+
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numCommands; i++) {
+            cfs.add(client.sendCommand(commandName, new BsonObject().put("key", "agg" + (i % numKeys)).put("num", i)));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+        async.await();
+    }
+
+    private void registerCountingHandler(String commandName, AtomicInteger calls) {
+        server.buildCommandHandler(commandName)
+                .emittingTo(TEST_CHANNEL_1)
+                .as((command, context) -> {
+                    calls.incrementAndGet();
+                    context.publishEvent(new BsonObject().put("foo", "bar"));
+                    context.complete();
+                })
+                .create();
+    }
 }
@@ -0,0 +1,132 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.Producer;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Mewbase;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(VertxUnitRunner.class)
+public class ClientPoolTest extends ServerTestBase {
+
+    private static final int POOL_SIZE = 4;
+    private static final int NUM_THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 250;
+
+    @Override
+    protected ClientOptions createClientOptions() {
+        return super.createClientOptions().setConnectionPoolSize(POOL_SIZE);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        Mewbase admin = server;
+        admin.createChannel(TEST_CHANNEL_1).get();
+        admin.createChannel(TEST_CHANNEL_2).get();
+    }
+
+    @Test
+    public void testPublishFromManyThreads(TestContext context) throws Exception {
+        publishFromManyThreads(context, client);
+    }
+
+    @Test
+    public void testPublishFromManyThreadsWithChannelAffinity(TestContext context) throws Exception {
+        Client affinityClient = Client.newClient(vertx, createClientOptions().setChannelAffinity(true));
+        try {
+            publishFromManyThreads(context, affinityClient);
+        } finally {
+            affinityClient.close().get();
+        }
+    }
+
+    @Test
+    public void testInvalidPoolSize(TestContext context) throws Exception {
+        try {
+            Client.newClient(vertx, createClientOptions().setConnectionPoolSize(0));
+            context.fail("Should throw exception");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testQueuedWritesFailWithConnect(TestContext context) throws Exception {
+        // Nothing's listening on this port
+        Client badClient = Client.newClient(vertx, createClientOptions().setConnectionPoolSize(1).setPort(7452));
+        try {
+            List<CompletableFuture<Void>> cfs = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                cfs.add(badClient.publish(TEST_CHANNEL_1, new BsonObject().put("count", i)));
+            }
+            for (CompletableFuture<Void> cf : cfs) {
+                try {
+                    cf.get(10, TimeUnit.SECONDS);
+                    context.fail("Should throw exception");
+                } catch (ExecutionException e) {
+                    // OK
+                }
+            }
+        } finally {
+            badClient.close().get();
+        }
+    }
+
+    private void publishFromManyThreads(TestContext context, Client client) throws Exception {
+        int total = NUM_THREADS * EVENTS_PER_THREAD;
+        Async async = context.async(2);
+        // Each channel gets its own subscription, which may well be on a different connection
+        for (String channel : new String[]{TEST_CHANNEL_1, TEST_CHANNEL_2}) {
+            Map<String, Integer> lastCounts = new ConcurrentHashMap<>();
+            AtomicInteger received = new AtomicInteger();
+            client.subscribe(new SubDescriptor().setChannel(channel), re -> {
+                // Events from each producer arrive in the order they were published
+                String thread = re.event().getString("thread");
+                int count = re.event().getInteger("count");
+                Integer last = lastCounts.put(thread, count);
+                context.assertEquals(last == null ? 0 : last + 1, count);
+                if (received.incrementAndGet() == total / 2) {
+                    async.countDown();
+                }
+            }).get();
+        }
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            String channel = i % 2 == 0 ? TEST_CHANNEL_1 : TEST_CHANNEL_2;
+            String name = "thread-" + i;
+            CompletableFuture<Void> cf = new CompletableFuture<>();
+            cfs.add(cf);
+            Thread thread = new Thread(() -> {
+                try {
+                    Producer prod = client.createProducer(channel);
+                    List<CompletableFuture<Void>> pcfs = new ArrayList<>();
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        pcfs.add(prod.publish(new BsonObject().put("thread", name).put("count", j)));
+                    }
+                    CompletableFuture.allOf(pcfs.toArray(new CompletableFuture[pcfs.size()])).get();
+                    cf.complete(null);
+                } catch (Throwable t) {
+                    cf.completeExceptionally(t);
+                }
+            });
+            thread.start();
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+        async.await();
+    }
+}
@@ -0,0 +1,156 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Subscription;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Mewbase;
+import io.mewbase.server.ServerOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+@RunWith(VertxUnitRunner.class)
+public class ConsumerGroupTest extends ServerTestBase {
+
+    private static final String TEST_GROUP = "testgroup";
+    private static final int NUM_KEYS = 10;
+    private static final int NUM_EVENTS = 100;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setGroupPartitions(4);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        Mewbase admin = server;
+        admin.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testMembersGetDisjointPartitions(TestContext context) throws Exception {
+        Map<String, Integer> keyOwners = new ConcurrentHashMap<>();
+        Set<Integer> received = new CopyOnWriteArraySet<>();
+        Async async = context.async();
+        for (int i = 0; i < 2; i++) {
+            int member = i;
+            Map<String, Integer> lastPerKey = new ConcurrentHashMap<>();
+            client.subscribe(groupDescriptor(), re -> {
+                int cnt = re.event().getInteger("count");
+                String key = re.event().getString("key");
+                // All the events for a key go to the same member, in order
+                Integer owner = keyOwners.putIfAbsent(key, member);
+                context.assertEquals(owner == null ? member : owner, member);
+                Integer last = lastPerKey.put(key, cnt);
+                context.assertTrue(last == null || last < cnt);
+                context.assertTrue(received.add(cnt));
+                re.acknowledge();
+                if (received.size() == NUM_EVENTS) {
+                    async.complete();
+                }
+            }).get();
+        }
+        // Let the group rebalance
+        Thread.sleep(100);
+        publishEvents(0, NUM_EVENTS);
+        async.await();
+        context.assertEquals(2, new CopyOnWriteArraySet<>(keyOwners.values()).size());
+    }
+
+    @Test
+    public void testRebalanceWhenMemberLeaves(TestContext context) throws Exception {
+        Set<Integer> received1 = new CopyOnWriteArraySet<>();
+        Set<Integer> received2 = new CopyOnWriteArraySet<>();
+        Set<Integer> afterLeave = new CopyOnWriteArraySet<>();
+        Async async1 = context.async();
+        Async async2 = context.async();
+        client.subscribe(groupDescriptor(), re -> {
+            int cnt = re.event().getInteger("count");
+            if (cnt < NUM_EVENTS) {
+                received1.add(cnt);
+                if (received1.size() + received2.size() == NUM_EVENTS) {
+                    async1.complete();
+                }
+            } else {
+                // Once the other member has left we get every partition
+                afterLeave.add(cnt);
+                if (afterLeave.size() == NUM_EVENTS) {
+                    async2.complete();
+                }
+            }
+            re.acknowledge();
+        }).get();
+        Subscription sub2 = client.subscribe(groupDescriptor(), re -> {
+            int cnt = re.event().getInteger("count");
+            context.assertTrue(cnt < NUM_EVENTS);
+            received2.add(cnt);
+            re.acknowledge();
+            if (received1.size() + received2.size() == NUM_EVENTS) {
+                async1.complete();
+            }
+        }).get();
+        Thread.sleep(100);
+        publishEvents(0, NUM_EVENTS);
+        async1.await();
+        context.assertFalse(received1.isEmpty());
+        context.assertFalse(received2.isEmpty());
+
+        // Wait a little bit so the acks make it back to the server
+        Thread.sleep(100);
+        sub2.close();
+        Thread.sleep(100);
+        publishEvents(NUM_EVENTS, NUM_EVENTS);
+        async2.await();
+    }
+
+    @Test
+    public void testGroupResumesFromAckedOffsets(TestContext context) throws Exception {
+        publishEvents(0, NUM_EVENTS);
+
+        Async async1 = context.async();
+        Subscription sub = client.subscribe(groupDescriptor().setStartPos(0), re -> {
+            int cnt = re.event().getInteger("count");
+            if (cnt < NUM_EVENTS / 2) {
+                re.acknowledge();
+            } else if (cnt == NUM_EVENTS / 2) {
+                async1.complete();
+            }
+        }).get();
+        async1.await();
+
+        // Wait a little bit so the acks make it back to the server
+        Thread.sleep(100);
+        sub.close();
+
+        Set<Integer> received = new CopyOnWriteArraySet<>();
+        Async async2 = context.async();
+        client.subscribe(groupDescriptor().setStartPos(0), re -> {
+            int cnt = re.event().getInteger("count");
+            context.assertTrue(cnt >= NUM_EVENTS / 2);
+            received.add(cnt);
+            re.acknowledge();
+            if (received.size() == NUM_EVENTS / 2) {
+                async2.complete();
+            }
+        }).get();
+        async2.await();
+    }
+
+    private SubDescriptor groupDescriptor() {
+        return new SubDescriptor().setChannel(TEST_CHANNEL_1).setGroup(TEST_GROUP);
+    }
+
+    private void publishEvents(int start, int num) throws Exception {
+        for (int i = start; i < start + num; i++) {
+            BsonObject event = new BsonObject().put("count", i).put("key", "key" + (i % NUM_KEYS));
+            client.publish(TEST_CHANNEL_1, event, ev -> ev.getString("key")).get();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.Producer;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ConnectionImpl;
+import io.mewbase.server.impl.ServerImpl;
+import io.netty.channel.epoll.Epoll;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(VertxUnitRunner.class)
+public class DomainSocketTransportTest extends ServerTestBase {
+
+    private static final int NUM_EVENTS = 100;
+    // Enough to fill the socket's buffers
+    private static final int SLOW_CONSUMER_EVENTS = 5000;
+
+    private int writeQueueMaxSize = ServerOptions.DEFAULT_WRITE_QUEUE_MAX_SIZE;
+
+    @Override
+    protected void setup(TestContext context) throws Exception {
+        // Needs the native transport, which is Linux only
+        Assume.assumeTrue(Epoll.isAvailable());
+        super.setup(context);
+    }
+
+    @Override
+    protected void tearDown(TestContext context) throws Exception {
+        if (vertx != null) {
+            super.tearDown(context);
+        }
+    }
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setDomainSocketPath(socketPath()).setWriteQueueMaxSize(writeQueueMaxSize);
+    }
+
+    @Override
+    protected ClientOptions createClientOptions() {
+        return super.createClientOptions().setDomainSocketPath(socketPath());
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testPublishAndSubscribe(TestContext context) throws Exception {
+        List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+            received.add(del);
+            del.acknowledge();
+        }).get();
+        publish(NUM_EVENTS);
+        waitUntil(() -> received.size() == NUM_EVENTS);
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            context.assertEquals(i, received.get(i).event().getInteger("count"));
+        }
+        context.assertTrue(client.listChannels().get().contains(TEST_CHANNEL_1));
+        // Encoded and written to the socket, unlike in-VM
+        ConnectionImpl connection = ((ServerImpl)server).getConnections().iterator().next();
+        context.assertTrue(connection.getBatchesWritten() > 0);
+    }
+
+    @Test
+    public void testSlowConsumerPausesConnection(TestContext context) throws Exception {
+        writeQueueMaxSize = 1000;
+        stopServerAndClient();
+        startServerAndClient();
+        publish(SLOW_CONSUMER_EVENTS);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), del -> {
+            try {
+                // Hold up the client's context, so nothing more is read from the socket
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            received.add(del);
+            del.acknowledge();
+        }).get();
+        ConnectionImpl connection = ((ServerImpl)server).getConnections().iterator().next();
+        waitUntil(connection::isWritesPaused);
+        blocked.countDown();
+        waitUntil(() -> received.size() == SLOW_CONSUMER_EVENTS);
+        for (int i = 0; i < SLOW_CONSUMER_EVENTS; i++) {
+            context.assertEquals(i, received.get(i).event().getInteger("count"));
+        }
+        waitUntil(() -> !connection.isWritesPaused());
+    }
+
+    @Test
+    public void testNoSuchSocket(TestContext context) throws Exception {
+        Client noServerClient = Client.newClient(vertx, createClientOptions()
+                .setDomainSocketPath(new File(logsDir, "nosuchsocket").getPath()));
+        try {
+            noServerClient.listChannels().get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            // OK
+        } finally {
+            noServerClient.close().get();
+        }
+    }
+
+    private String socketPath() {
+        return new File(logsDir, "mewbase.sock").getPath();
+    }
+
+    private void publish(int numEvents) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i).put("padding", "0123456789012345678901234567")));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+    }
+}
@@ -0,0 +1,106 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Server;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ConnectionImpl;
+import io.mewbase.server.impl.ServerImpl;
+import io.netty.channel.epoll.Epoll;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+@RunWith(VertxUnitRunner.class)
+public class EpollNetTransportTest extends ServerTestBase {
+
+    private static final int NUM_ACCEPTORS = 4;
+    private static final int NUM_CLIENTS = 20;
+    private static final int NUM_EVENTS = 100;
+
+    @Override
+    protected void setup(TestContext context) throws Exception {
+        // Needs the native transport, which is Linux only
+        Assume.assumeTrue(Epoll.isAvailable());
+        super.setup(context);
+    }
+
+    @Override
+    protected void tearDown(TestContext context) throws Exception {
+        if (vertx != null) {
+            super.tearDown(context);
+        }
+    }
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setNativeTransport(true).setAcceptors(NUM_ACCEPTORS);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testPublishAndSubscribe(TestContext context) throws Exception {
+        List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+            received.add(del);
+            del.acknowledge();
+        }).get();
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            client.publish(TEST_CHANNEL_1, new BsonObject().put("count", i)).get();
+        }
+        waitUntil(() -> received.size() == NUM_EVENTS);
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            context.assertEquals(i, received.get(i).event().getInteger("count"));
+        }
+    }
+
+    @Test
+    public void testManyClients(TestContext context) throws Exception {
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < NUM_CLIENTS; i++) {
+                Client cl = Client.newClient(vertx, createClientOptions());
+                clients.add(cl);
+                context.assertTrue(cl.listChannels().get().contains(TEST_CHANNEL_1));
+            }
+            // Plus the test's own client, if it's connected
+            context.assertTrue(((ServerImpl)server).getConnections().size() >= NUM_CLIENTS);
+            for (ConnectionImpl connection : ((ServerImpl)server).getConnections()) {
+                context.assertTrue(connection.getBatchesWritten() > 0);
+            }
+        } finally {
+            for (Client cl : clients) {
+                cl.close().get();
+            }
+        }
+    }
+
+    @Test
+    public void testSSLNotSupported(TestContext context) throws Exception {
+        Server sslServer = Server.newServer(vertx, new ServerOptions().setNativeTransport(true)
+                .setLogsDir(testFolder.newFolder().getPath()).setDocsDir(testFolder.newFolder().getPath())
+                .setNetServerOptions(new NetServerOptions().setPort(ServerOptions.DEFAULT_PORT + 1).setSsl(true)));
+        try {
+            sslServer.start().get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            sslServer.stop().get();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.client.Producer;
+import io.mewbase.client.impl.SubscriptionImpl;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.CreditWindow;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(VertxUnitRunner.class)
+public class FlowControlTest extends ServerTestBase {
+
+    private static final int DEFAULT_WINDOW_BYTES = 100 * 1024;
+    private static final int MAX_WINDOW_BYTES = 1024 * 1024;
+    private static final int NUM_EVENTS = 100;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setDefaultWindowBytes(DEFAULT_WINDOW_BYTES)
+                .setMaxWindowBytes(MAX_WINDOW_BYTES);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testCreditWindow(TestContext context) {
+        CreditWindow window = new CreditWindow(4, 100);
+        context.assertTrue(window.sent(10));
+        context.assertTrue(window.sent(10));
+        context.assertTrue(window.sent(10));
+        // Out of messages
+        context.assertFalse(window.sent(10));
+        // Need half the window back before carrying on
+        context.assertFalse(window.acked(1, 10));
+        context.assertTrue(window.acked(1, 10));
+        context.assertTrue(window.hasCredit());
+        // Out of bytes
+        context.assertFalse(window.sent(90));
+        context.assertTrue(window.acked(2, 100));
+    }
+
+    @Test
+    public void testDefaultWindow(TestContext context) throws Exception {
+        SubscriptionImpl sub = (SubscriptionImpl)client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1),
+                del -> {
+                }).get();
+        context.assertEquals(DEFAULT_WINDOW_BYTES, sub.getWindowBytes());
+        context.assertEquals(0, sub.getWindow());
+    }
+
+    @Test
+    public void testRequestedWindowLimitedToMax(TestContext context) throws Exception {
+        Client bigWindowClient = Client.newClient(vertx,
+                createClientOptions().setSubscriptionWindowBytes(10 * MAX_WINDOW_BYTES));
+        try {
+            SubscriptionImpl sub = (SubscriptionImpl)bigWindowClient.subscribe(
+                    new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+                    }).get();
+            context.assertEquals(MAX_WINDOW_BYTES, sub.getWindowBytes());
+        } finally {
+            bigWindowClient.close().get();
+        }
+    }
+
+    @Test
+    public void testSmallWindowThrottles(TestContext context) throws Exception {
+        int windowBytes = 1000;
+        Client smallWindowClient = Client.newClient(vertx,
+                createClientOptions().setSubscriptionWindowBytes(windowBytes));
+        try {
+            List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+            SubscriptionImpl sub = (SubscriptionImpl)smallWindowClient.subscribe(
+                    new SubDescriptor().setChannel(TEST_CHANNEL_1), received::add).get();
+            context.assertEquals(windowBytes, sub.getWindowBytes());
+            publish(NUM_EVENTS);
+            waitUntil(() -> !received.isEmpty());
+            Thread.sleep(100);
+            // Nothing more is sent until we give back some credit
+            int firstBatch = received.size();
+            context.assertTrue(firstBatch < NUM_EVENTS);
+            int acked = 0;
+            while (received.size() < NUM_EVENTS) {
+                int size = received.size();
+                for (; acked < size; acked++) {
+                    received.get(acked).acknowledge();
+                }
+                waitUntil(() -> received.size() > size || received.size() == NUM_EVENTS);
+            }
+            for (int i = 0; i < NUM_EVENTS; i++) {
+                context.assertEquals(i, received.get(i).event().getInteger("count"));
+            }
+        } finally {
+            smallWindowClient.close().get();
+        }
+    }
+
+    private void publish(int numEvents) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i).put("padding", "0123456789012345678901234567")));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+    }
+}
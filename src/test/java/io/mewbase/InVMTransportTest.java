@@ -0,0 +1,149 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.MewException;
+import io.mewbase.client.Producer;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ConnectionImpl;
+import io.mewbase.server.impl.ServerImpl;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(VertxUnitRunner.class)
+public class InVMTransportTest extends ServerTestBase {
+
+    private static final String IN_VM_NAME = "mewbase-test";
+    private static final int NUM_EVENTS = 100;
+
+    private int writeQueueMaxSize = ServerOptions.DEFAULT_WRITE_QUEUE_MAX_SIZE;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setInVMName(IN_VM_NAME).setWriteQueueMaxSize(writeQueueMaxSize);
+    }
+
+    @Override
+    protected ClientOptions createClientOptions() {
+        return super.createClientOptions().setInVMName(IN_VM_NAME);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testPublishAndSubscribe(TestContext context) throws Exception {
+        List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+            received.add(del);
+            del.acknowledge();
+        }).get();
+        publish(NUM_EVENTS);
+        waitUntil(() -> received.size() == NUM_EVENTS);
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            context.assertEquals(i, received.get(i).event().getInteger("count"));
+        }
+        context.assertTrue(client.listChannels().get().contains(TEST_CHANNEL_1));
+        // Nothing was encoded and written to a socket
+        ConnectionImpl connection = ((ServerImpl)server).getConnections().iterator().next();
+        context.assertTrue(connection.getFramesWritten() > NUM_EVENTS);
+        context.assertEquals(0L, connection.getBatchesWritten());
+    }
+
+    @Test
+    public void testSmallWindowThrottles(TestContext context) throws Exception {
+        Client smallWindowClient = Client.newClient(vertx, createClientOptions().setSubscriptionWindowBytes(1000));
+        try {
+            List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+            smallWindowClient.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), received::add).get();
+            publish(NUM_EVENTS);
+            waitUntil(() -> !received.isEmpty());
+            Thread.sleep(100);
+            // Nothing more is sent until we give back some credit
+            context.assertTrue(received.size() < NUM_EVENTS);
+            int acked = 0;
+            while (received.size() < NUM_EVENTS) {
+                int size = received.size();
+                for (; acked < size; acked++) {
+                    received.get(acked).acknowledge();
+                }
+                waitUntil(() -> received.size() > size || received.size() == NUM_EVENTS);
+            }
+            for (int i = 0; i < NUM_EVENTS; i++) {
+                context.assertEquals(i, received.get(i).event().getInteger("count"));
+            }
+        } finally {
+            smallWindowClient.close().get();
+        }
+    }
+
+    @Test
+    public void testSlowConsumerPausesConnection(TestContext context) throws Exception {
+        writeQueueMaxSize = 1000;
+        stopServerAndClient();
+        startServerAndClient();
+        publish(NUM_EVENTS);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<ClientDelivery> received = new CopyOnWriteArrayList<>();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), del -> {
+            try {
+                // Hold up the client's context, so nothing more is taken off the connection
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            received.add(del);
+            del.acknowledge();
+        }).get();
+        ConnectionImpl connection = ((ServerImpl)server).getConnections().iterator().next();
+        waitUntil(connection::isWritesPaused);
+        context.assertTrue(connection.getFramesWritten() < NUM_EVENTS);
+        blocked.countDown();
+        waitUntil(() -> received.size() == NUM_EVENTS);
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            context.assertEquals(i, received.get(i).event().getInteger("count"));
+        }
+        waitUntil(() -> !connection.isWritesPaused());
+    }
+
+    @Test
+    public void testNoSuchServer(TestContext context) throws Exception {
+        Client noServerClient = Client.newClient(vertx, createClientOptions().setInVMName("nosuchserver"));
+        try {
+            noServerClient.listChannels().get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof MewException);
+        } finally {
+            noServerClient.close().get();
+        }
+    }
+
+    private void publish(int numEvents) throws Exception {
+        publish(client, numEvents);
+    }
+
+    private void publish(Client client, int numEvents) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i).put("padding", "0123456789012345678901234567")));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+    }
+}
@@ -31,6 +31,18 @@ public class OptionsTest extends MewbaseTestBase {
         assertEquals(new NetClientOptions(), options.getNetClientOptions());
         assertEquals(ClientOptions.DEFAULT_PORT, options.getPort());
         assertEquals(ClientOptions.DEFAULT_HOST, options.getHost());
+        assertEquals(ClientOptions.DEFAULT_MAX_PUBLISHES_IN_FLIGHT, options.getMaxPublishesInFlight());
+        assertEquals(ClientOptions.DEFAULT_MAX_PUBLISH_BYTES_IN_FLIGHT, options.getMaxPublishBytesInFlight());
+        assertEquals(ClientOptions.DEFAULT_PUBLISH_LINGER_MS, options.getPublishLingerMs());
+        assertEquals(ClientOptions.DEFAULT_MAX_PUBLISH_BATCH_BYTES, options.getMaxPublishBatchBytes());
+        assertEquals(ClientOptions.DEFAULT_CONNECTION_POOL_SIZE, options.getConnectionPoolSize());
+        assertEquals(ClientOptions.DEFAULT_CHANNEL_AFFINITY, options.isChannelAffinity());
+        assertEquals(ClientOptions.DEFAULT_PREFETCH_SIZE, options.getPrefetchSize());
+        assertEquals(ClientOptions.DEFAULT_SUBSCRIPTION_WINDOW_BYTES, options.getSubscriptionWindowBytes());
+        assertEquals(ClientOptions.DEFAULT_QUERY_WINDOW_BYTES, options.getQueryWindowBytes());
+        assertEquals(ClientOptions.DEFAULT_PROTOCOL_VERSION, options.getProtocolVersion());
+        assertEquals(ClientOptions.DEFAULT_IN_VM_NAME, options.getInVMName());
+        assertEquals(ClientOptions.DEFAULT_DOMAIN_SOCKET_PATH, options.getDomainSocketPath());
 
         NetClientOptions netClientOptions2 = new NetClientOptions();
         options.setNetClientOptions(netClientOptions2);
@@ -41,6 +53,42 @@ public class OptionsTest extends MewbaseTestBase {
 
         options.setHost("somehost");
         assertEquals("somehost", options.getHost());
+
+        options.setMaxPublishesInFlight(123);
+        assertEquals(123, options.getMaxPublishesInFlight());
+
+        options.setMaxPublishBytesInFlight(123456);
+        assertEquals(123456, options.getMaxPublishBytesInFlight());
+
+        options.setPublishLingerMs(5);
+        assertEquals(5, options.getPublishLingerMs());
+
+        options.setMaxPublishBatchBytes(1024);
+        assertEquals(1024, options.getMaxPublishBatchBytes());
+
+        options.setConnectionPoolSize(8);
+        assertEquals(8, options.getConnectionPoolSize());
+
+        options.setChannelAffinity(true);
+        assertEquals(true, options.isChannelAffinity());
+
+        options.setPrefetchSize(50);
+        assertEquals(50, options.getPrefetchSize());
+
+        options.setSubscriptionWindowBytes(300000);
+        assertEquals(300000, options.getSubscriptionWindowBytes());
+
+        options.setQueryWindowBytes(400000);
+        assertEquals(400000, options.getQueryWindowBytes());
+
+        options.setProtocolVersion("0.1");
+        assertEquals("0.1", options.getProtocolVersion());
+
+        options.setInVMName("mewbase");
+        assertEquals("mewbase", options.getInVMName());
+
+        options.setDomainSocketPath("/tmp/mewbase.sock");
+        assertEquals("/tmp/mewbase.sock", options.getDomainSocketPath());
     }
 
     @Test
@@ -77,8 +125,35 @@ public class OptionsTest extends MewbaseTestBase {
         assertEquals(ServerOptions.DEFAULT_LOGS_DIR, options.getLogsDir());
         assertEquals(ServerOptions.DEFAULT_MAX_LOG_CHUNK_SIZE, options.getMaxLogChunkSize());
         assertEquals(ServerOptions.DEFAULT_MAX_RECORD_SIZE, options.getMaxRecordSize());
+        assertEquals(ServerOptions.DEFAULT_MAX_TRANSACTION_BYTES, options.getMaxTransactionBytes());
         assertEquals(ServerOptions.DEFAULT_PREALLOCATE_SIZE, options.getPreallocateSize());
         assertEquals(ServerOptions.DEFAULT_READ_BUFFER_SIZE, options.getReadBufferSize());
+        assertEquals(ServerOptions.DEFAULT_MAX_READ_BUFFER_SIZE, options.getMaxReadBufferSize());
+        assertEquals(ServerOptions.DEFAULT_SHARED_READ_WINDOW, options.getSharedReadWindow());
+        assertEquals(ServerOptions.DEFAULT_TAIL_CACHE_SIZE, options.getTailCacheSize());
+        assertEquals(ServerOptions.DEFAULT_MAX_OPEN_CHUNK_HANDLES, options.getMaxOpenChunkHandles());
+        assertEquals(ServerOptions.DEFAULT_COMPRESS_SEALED_CHUNKS, options.isCompressSealedChunks());
+        assertEquals(ServerOptions.DEFAULT_COMPRESSION_BLOCK_SIZE, options.getCompressionBlockSize());
+        assertEquals(ServerOptions.DEFAULT_GROUP_PARTITIONS, options.getGroupPartitions());
+        assertEquals(ServerOptions.DEFAULT_COMMAND_EXECUTOR_THREADS, options.getCommandExecutorThreads());
+        assertEquals(ServerOptions.DEFAULT_COMMAND_EXECUTOR_STRIPES, options.getCommandExecutorStripes());
+        assertEquals(ServerOptions.DEFAULT_MAX_QUEUED_COMMANDS_PER_STRIPE, options.getMaxQueuedCommandsPerStripe());
+        assertEquals(ServerOptions.DEFAULT_COMMAND_TIMEOUT_MS, options.getCommandTimeoutMs());
+        assertEquals(ServerOptions.DEFAULT_MAX_CACHED_COMMAND_IDS, options.getMaxCachedCommandIDs());
+        assertEquals(ServerOptions.DEFAULT_COMMAND_ID_RETENTION_MS, options.getCommandIDRetentionMs());
+        assertEquals(ServerOptions.DEFAULT_COMMAND_ID_SWEEP_INTERVAL_MS, options.getCommandIDSweepIntervalMs());
+        assertEquals(ServerOptions.DEFAULT_QUERY_CURSOR_TIMEOUT_MS, options.getQueryCursorTimeoutMs());
+        assertEquals(ServerOptions.DEFAULT_WINDOW_BYTES, options.getDefaultWindowBytes());
+        assertEquals(ServerOptions.DEFAULT_MAX_WINDOW_BYTES, options.getMaxWindowBytes());
+        assertEquals(ServerOptions.DEFAULT_PROJECTION_WINDOW, options.getProjectionWindow());
+        assertEquals(ServerOptions.DEFAULT_MAX_WRITE_BATCH_BYTES, options.getMaxWriteBatchBytes());
+        assertEquals(ServerOptions.DEFAULT_WRITE_QUEUE_MAX_SIZE, options.getWriteQueueMaxSize());
+        assertEquals(ServerOptions.DEFAULT_ACCEPTORS, options.getAcceptors());
+        assertEquals(ServerOptions.DEFAULT_NATIVE_TRANSPORT, options.isNativeTransport());
+        assertEquals(ServerOptions.DEFAULT_EVENT_LOOP_POOL_SIZE, options.getEventLoopPoolSize());
+        assertEquals(ServerOptions.DEFAULT_WORKER_POOL_SIZE, options.getWorkerPoolSize());
+        assertEquals(ServerOptions.DEFAULT_IN_VM_NAME, options.getInVMName());
+        assertEquals(ServerOptions.DEFAULT_DOMAIN_SOCKET_PATH, options.getDomainSocketPath());
         assertEquals(new NetServerOptions(), options.getNetServerOptions());
     }
 
@@ -89,8 +164,35 @@ public class OptionsTest extends MewbaseTestBase {
         json.put("logsDir", "/testlogsdir");
         json.put("maxLogChunkSize", 12345);
         json.put("maxRecordSize", 1234);
+        json.put("maxTransactionBytes", 54321);
         json.put("preallocateSize", 123456);
         json.put("readBufferSize", 321);
+        json.put("maxReadBufferSize", 654321);
+        json.put("sharedReadWindow", 7654321);
+        json.put("tailCacheSize", 87654321);
+        json.put("maxOpenChunkHandles", 17);
+        json.put("compressSealedChunks", true);
+        json.put("compressionBlockSize", 4321);
+        json.put("groupPartitions", 23);
+        json.put("commandExecutorThreads", 7);
+        json.put("commandExecutorStripes", 17);
+        json.put("maxQueuedCommandsPerStripe", 123);
+        json.put("commandTimeoutMs", 23456);
+        json.put("maxCachedCommandIDs", 4321);
+        json.put("commandIDRetentionMs", 65432);
+        json.put("commandIDSweepIntervalMs", 76543);
+        json.put("queryCursorTimeoutMs", 45678);
+        json.put("defaultWindowBytes", 100000);
+        json.put("maxWindowBytes", 200000);
+        json.put("projectionWindow", 77);
+        json.put("maxWriteBatchBytes", 4321);
+        json.put("writeQueueMaxSize", 2345);
+        json.put("acceptors", 3);
+        json.put("nativeTransport", true);
+        json.put("eventLoopPoolSize", 5);
+        json.put("workerPoolSize", 7);
+        json.put("inVMName", "mewbase");
+        json.put("domainSocketPath", "/tmp/mewbase.sock");
         NetServerOptions nso = new NetServerOptions().setHost("somehost");
         JsonObject jnso = new JsonObject();
         NetServerOptionsConverter.toJson(nso, jnso);
@@ -100,8 +202,35 @@ public class OptionsTest extends MewbaseTestBase {
         assertEquals("/testlogsdir", options.getLogsDir());
         assertEquals(12345, options.getMaxLogChunkSize());
         assertEquals(1234, options.getMaxRecordSize());
+        assertEquals(54321, options.getMaxTransactionBytes());
         assertEquals(123456, options.getPreallocateSize());
         assertEquals(321, options.getReadBufferSize());
+        assertEquals(654321, options.getMaxReadBufferSize());
+        assertEquals(7654321, options.getSharedReadWindow());
+        assertEquals(87654321, options.getTailCacheSize());
+        assertEquals(17, options.getMaxOpenChunkHandles());
+        assertEquals(true, options.isCompressSealedChunks());
+        assertEquals(4321, options.getCompressionBlockSize());
+        assertEquals(23, options.getGroupPartitions());
+        assertEquals(7, options.getCommandExecutorThreads());
+        assertEquals(17, options.getCommandExecutorStripes());
+        assertEquals(123, options.getMaxQueuedCommandsPerStripe());
+        assertEquals(23456, options.getCommandTimeoutMs());
+        assertEquals(4321, options.getMaxCachedCommandIDs());
+        assertEquals(65432, options.getCommandIDRetentionMs());
+        assertEquals(76543, options.getCommandIDSweepIntervalMs());
+        assertEquals(45678, options.getQueryCursorTimeoutMs());
+        assertEquals(100000, options.getDefaultWindowBytes());
+        assertEquals(200000, options.getMaxWindowBytes());
+        assertEquals(77, options.getProjectionWindow());
+        assertEquals(4321, options.getMaxWriteBatchBytes());
+        assertEquals(2345, options.getWriteQueueMaxSize());
+        assertEquals(3, options.getAcceptors());
+        assertEquals(true, options.isNativeTransport());
+        assertEquals(5, options.getEventLoopPoolSize());
+        assertEquals(7, options.getWorkerPoolSize());
+        assertEquals("mewbase", options.getInVMName());
+        assertEquals("/tmp/mewbase.sock", options.getDomainSocketPath());
 
         assertEquals(nso, options.getNetServerOptions());
     }
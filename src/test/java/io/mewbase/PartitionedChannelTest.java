@@ -0,0 +1,182 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Producer;
+import io.mewbase.client.Subscription;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.impl.ServerImpl;
+import io.mewbase.server.impl.log.PartitionedLog;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(VertxUnitRunner.class)
+public class PartitionedChannelTest extends ServerTestBase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_KEYS = 10;
+    private static final int NUM_EVENTS = 100;
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1, NUM_PARTITIONS).get();
+    }
+
+    @Test
+    public void testSubscribeMergesPartitions(TestContext context) throws Exception {
+        publishEvents(NUM_EVENTS);
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            context.assertTrue(new File(logsDir, TEST_CHANNEL_1 + ".partitions/" + i).isDirectory());
+        }
+        receiveAll(context);
+    }
+
+    @Test
+    public void testPartitionsReloadedOnRestart(TestContext context) throws Exception {
+        publishEvents(NUM_EVENTS);
+        restart();
+        receiveAll(context);
+    }
+
+    @Test
+    public void testDurableSubResumesEachPartition(TestContext context) throws Exception {
+        publishEvents(NUM_EVENTS);
+        SubDescriptor descriptor = new SubDescriptor().setChannel(TEST_CHANNEL_1).setDurableID("testdurable")
+                .setStartPos(0);
+
+        // Ack the first half of the events
+        Async async1 = context.async();
+        AtomicInteger acked = new AtomicInteger();
+        Subscription sub = client.subscribe(descriptor, re -> {
+            if (re.event().getInteger("count") < NUM_EVENTS / 2) {
+                re.acknowledge();
+                if (acked.incrementAndGet() == NUM_EVENTS / 2) {
+                    async1.complete();
+                }
+            }
+        }).get();
+        async1.await();
+        // Wait a little bit so the acks make it back to the server
+        Thread.sleep(100);
+        sub.close();
+
+        Async async2 = context.async();
+        Set<Integer> received = new CopyOnWriteArraySet<>();
+        client.subscribe(descriptor, re -> {
+            int cnt = re.event().getInteger("count");
+            context.assertTrue(cnt >= NUM_EVENTS / 2);
+            received.add(cnt);
+            re.acknowledge();
+            if (received.size() == NUM_EVENTS / 2) {
+                async2.complete();
+            }
+        }).get();
+        async2.await();
+    }
+
+    @Test
+    public void testGroupMembersReadDisjointPartitions(TestContext context) throws Exception {
+        Map<Integer, Integer> partitionOwners = new ConcurrentHashMap<>();
+        Set<Integer> received = new CopyOnWriteArraySet<>();
+        Async async = context.async();
+        for (int i = 0; i < 2; i++) {
+            int member = i;
+            SubDescriptor descriptor = new SubDescriptor().setChannel(TEST_CHANNEL_1).setGroup("testgroup");
+            client.subscribe(descriptor, re -> {
+                int partition = PartitionedLog.partitionOf(re.channelPos());
+                Integer owner = partitionOwners.putIfAbsent(partition, member);
+                context.assertEquals(owner == null ? member : owner, member);
+                received.add(re.event().getInteger("count"));
+                re.acknowledge();
+                if (received.size() == NUM_EVENTS) {
+                    async.complete();
+                }
+            }).get();
+        }
+        // Let the group rebalance
+        Thread.sleep(100);
+        publishEvents(NUM_EVENTS);
+        async.await();
+        context.assertEquals(NUM_PARTITIONS, partitionOwners.size());
+    }
+
+    @Test
+    public void testTransactionInOnePartition(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        context.assertTrue(prod.startTx());
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            prod.publish(new BsonObject().put("count", i));
+        }
+        context.assertTrue(prod.commitTx().get());
+        Async async = context.async();
+        Set<Integer> partitions = new CopyOnWriteArraySet<>();
+        AtomicInteger cnt = new AtomicInteger();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), re -> {
+            partitions.add(PartitionedLog.partitionOf(re.channelPos()));
+            context.assertEquals(cnt.get(), re.event().getInteger("count"));
+            if (cnt.incrementAndGet() == NUM_EVENTS) {
+                async.complete();
+            }
+        }).get();
+        async.await();
+        // The whole transaction was appended to one partition in one go
+        context.assertEquals(1, partitions.size());
+    }
+
+    @Test
+    public void testHeadPositionPerPartition(TestContext context) throws Exception {
+        publishEvents(NUM_EVENTS);
+        PartitionedLog log = (PartitionedLog)((ServerImpl)server).getLog(TEST_CHANNEL_1);
+        long[] headPositions = log.getHeadPositions();
+        context.assertEquals(NUM_PARTITIONS, headPositions.length);
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            context.assertEquals(i, PartitionedLog.partitionOf(headPositions[i]));
+            context.assertEquals(log.getPartition(i).getHeadPos(), PartitionedLog.localPos(headPositions[i]));
+        }
+        try {
+            log.getHeadPos();
+            context.fail("Should throw exception");
+        } catch (UnsupportedOperationException e) {
+            // OK
+        }
+    }
+
+    private void receiveAll(TestContext context) throws Exception {
+        Async async = context.async();
+        Map<String, Integer> lastPerKey = new ConcurrentHashMap<>();
+        Map<String, Integer> keyPartitions = new ConcurrentHashMap<>();
+        AtomicInteger cnt = new AtomicInteger();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), re -> {
+            int count = re.event().getInteger("count");
+            String key = re.event().getString("key");
+            // Events for the same key are in the same partition, in order
+            int partition = PartitionedLog.partitionOf(re.channelPos());
+            context.assertTrue(partition < NUM_PARTITIONS);
+            Integer prevPartition = keyPartitions.putIfAbsent(key, partition);
+            context.assertEquals(prevPartition == null ? partition : prevPartition, partition);
+            Integer last = lastPerKey.put(key, count);
+            context.assertTrue(last == null || last < count);
+            if (cnt.incrementAndGet() == NUM_EVENTS) {
+                async.complete();
+            }
+        }).get();
+        async.await();
+        context.assertTrue(new CopyOnWriteArraySet<>(keyPartitions.values()).size() > 1);
+    }
+
+    private void publishEvents(int num) throws Exception {
+        for (int i = 0; i < num; i++) {
+            BsonObject event = new BsonObject().put("count", i).put("key", "key" + (i % NUM_KEYS));
+            client.publish(TEST_CHANNEL_1, event, ev -> ev.getString("key")).get();
+        }
+    }
+}
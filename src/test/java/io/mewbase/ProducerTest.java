@@ -0,0 +1,245 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.MewException;
+import io.mewbase.client.Producer;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Mewbase;
+import io.mewbase.server.ServerOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(VertxUnitRunner.class)
+public class ProducerTest extends ServerTestBase {
+
+    private static final int NUM_EVENTS = 1000;
+    private static final int MAX_IN_FLIGHT = 10;
+    private static final int TX_SIZE = 5;
+    private static final int MAX_RECORD_SIZE = 1024;
+    private static final int MAX_TRANSACTION_BYTES = 10 * 1024;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setMaxRecordSize(MAX_RECORD_SIZE)
+                .setMaxTransactionBytes(MAX_TRANSACTION_BYTES);
+    }
+
+    @Override
+    protected ClientOptions createClientOptions() {
+        return super.createClientOptions().setMaxPublishesInFlight(MAX_IN_FLIGHT);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        Mewbase admin = server;
+        admin.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testPipelinedPublish(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i)));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+        receiveAll(context);
+    }
+
+    @Test
+    public void testWindowFull(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        for (int i = 0; i < MAX_IN_FLIGHT - 1; i++) {
+            prod.publish(new BsonObject().put("count", i));
+            context.assertFalse(prod.publishQueueFull());
+        }
+        Async async = context.async();
+        prod.drainHandler(async::complete);
+        prod.publish(new BsonObject().put("count", MAX_IN_FLIGHT - 1));
+        context.assertTrue(prod.publishQueueFull());
+        async.await();
+        context.assertFalse(prod.publishQueueFull());
+    }
+
+    @Test
+    public void testPublishFromDrainHandler(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        AtomicInteger sent = new AtomicInteger();
+        Runnable publisher = () -> {
+            while (!prod.publishQueueFull() && sent.get() < NUM_EVENTS) {
+                prod.publish(new BsonObject().put("count", sent.getAndIncrement()));
+            }
+        };
+        prod.drainHandler(publisher);
+        publisher.run();
+        receiveAll(context);
+    }
+
+    @Test
+    public void testBatchedPublish(TestContext context) throws Exception {
+        ClientOptions options = createClientOptions().setPublishLingerMs(10).setMaxPublishBatchBytes(1024);
+        Client batchingClient = Client.newClient(vertx, options);
+        try {
+            Producer prod = batchingClient.createProducer(TEST_CHANNEL_1);
+            List<CompletableFuture<Void>> cfs = new ArrayList<>();
+            for (int i = 0; i < NUM_EVENTS; i++) {
+                cfs.add(prod.publish(new BsonObject().put("count", i)));
+            }
+            CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+            receiveAll(context);
+        } finally {
+            batchingClient.close().get();
+        }
+    }
+
+    @Test
+    public void testRecordTooLong(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        String padding = new String(new char[MAX_RECORD_SIZE]).replace('\0', 'x');
+        try {
+            prod.publish(new BsonObject().put("count", 0).put("padding", padding)).get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof MewException);
+        }
+        // The producer carries on after the failure
+        prod.publish(new BsonObject().put("count", 1)).get();
+    }
+
+    @Test
+    public void testCommitTx(TestContext context) throws Exception {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        Async async = context.async();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), re -> {
+            received.add(re.event().getInteger("count"));
+            if (received.size() == TX_SIZE) {
+                async.complete();
+            }
+        }).get();
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        context.assertTrue(prod.startTx());
+        context.assertFalse(prod.startTx());
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < TX_SIZE; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i)));
+        }
+        // Nothing is persisted until the commit
+        Thread.sleep(100);
+        context.assertTrue(received.isEmpty());
+        for (CompletableFuture<Void> cf : cfs) {
+            context.assertFalse(cf.isDone());
+        }
+        context.assertTrue(prod.commitTx().get());
+        for (CompletableFuture<Void> cf : cfs) {
+            context.assertTrue(cf.isDone() && !cf.isCompletedExceptionally());
+        }
+        async.await();
+        for (int i = 0; i < TX_SIZE; i++) {
+            context.assertEquals(i, received.get(i));
+        }
+    }
+
+    @Test
+    public void testTxTooLarge(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        context.assertTrue(prod.startTx());
+        String padding = new String(new char[MAX_RECORD_SIZE / 2]).replace('\0', 'x');
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < 2 * MAX_TRANSACTION_BYTES / padding.length(); i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i).put("padding", padding)));
+        }
+        try {
+            prod.commitTx().get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof MewException);
+        }
+        // The whole transaction was abandoned
+        for (CompletableFuture<Void> cf : cfs) {
+            context.assertTrue(cf.isCompletedExceptionally());
+        }
+        prod.publish(new BsonObject().put("count", 0)).get();
+    }
+
+    @Test
+    public void testPublishAfterRejectedTxEvent(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        context.assertTrue(prod.startTx());
+        String padding = new String(new char[MAX_RECORD_SIZE / 2]).replace('\0', 'x');
+        int numEvents = 2 * MAX_TRANSACTION_BYTES / padding.length();
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i).put("padding", padding)));
+        }
+        // Published after the transaction has gone over its size
+        CompletableFuture<Void> after = prod.publish(new BsonObject().put("count", numEvents));
+        try {
+            after.get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof MewException);
+        }
+        try {
+            prod.commitTx().get();
+            context.fail("Should throw exception");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof MewException);
+        }
+        prod.publish(new BsonObject().put("count", -1)).get();
+        Async async = context.async();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), re -> {
+            // None of the transaction reached the log
+            context.assertEquals(-1, re.event().getInteger("count"));
+            async.complete();
+        }).get();
+        async.await();
+    }
+
+    @Test
+    public void testAbortTx(TestContext context) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        context.assertFalse(prod.commitTx().get());
+        context.assertFalse(prod.abortTx().get());
+        context.assertTrue(prod.startTx());
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < TX_SIZE; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i)));
+        }
+        context.assertTrue(prod.abortTx().get());
+        for (CompletableFuture<Void> cf : cfs) {
+            context.assertTrue(cf.isCompletedExceptionally());
+        }
+        prod.publish(new BsonObject().put("count", TX_SIZE)).get();
+        Async async = context.async();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), re -> {
+            // Only the event published after the abort was persisted
+            context.assertEquals(TX_SIZE, re.event().getInteger("count"));
+            async.complete();
+        }).get();
+        async.await();
+    }
+
+    private void receiveAll(TestContext context) throws Exception {
+        Async async = context.async();
+        AtomicInteger cnt = new AtomicInteger();
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0), re -> {
+            context.assertEquals(cnt.get(), re.event().getInteger("count"));
+            if (cnt.incrementAndGet() == NUM_EVENTS) {
+                async.complete();
+            }
+        }).get();
+        async.await();
+    }
+}
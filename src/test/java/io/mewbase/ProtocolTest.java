@@ -0,0 +1,102 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.common.FrameHandler;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.impl.Protocol;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(VertxUnitRunner.class)
+public class ProtocolTest extends ServerTestBase {
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testVersion2Frame(TestContext context) {
+        BsonObject frame = new BsonObject().put(Protocol.REQUEST_REQUEST_ID, 23).put(Protocol.SUBSCRIBE_CHANNEL, "foo");
+        Buffer buff = Protocol.encodeFrameV2(Protocol.SUBSCRIBE_FRAME, frame);
+        // The frame is left as it was
+        context.assertEquals(23, frame.getInteger(Protocol.REQUEST_REQUEST_ID));
+        context.assertEquals(Protocol.REQUEST_REQUEST_ID, frame.getMap().keySet().iterator().next());
+        context.assertEquals(buff.length(), buff.getIntLE(0));
+        context.assertEquals(Protocol.FLAG_REQUEST_ID, buff.getByte(5));
+        context.assertEquals(23, buff.getIntLE(6));
+
+        List<Object[]> handled = new ArrayList<>();
+        Protocol protocol = new Protocol(recordingHandler(handled));
+        protocol.useVersion2();
+        protocol.recordParser().handle(buff);
+        context.assertEquals(1, handled.size());
+        context.assertEquals("handleSubscribe", handled.get(0)[0]);
+        context.assertEquals(frame, handled.get(0)[1]);
+    }
+
+    @Test
+    public void testVersion2FrameWithNoBody(TestContext context) {
+        Buffer buff = Protocol.encodeFrameV2(Protocol.PING_FRAME, new BsonObject());
+        context.assertEquals(Protocol.HEADER_SIZE, buff.length());
+        context.assertEquals(Protocol.FLAG_NO_FRAME, buff.getByte(5));
+
+        List<Object[]> handled = new ArrayList<>();
+        Protocol protocol = new Protocol(recordingHandler(handled));
+        protocol.useVersion2();
+        // Split across reads
+        protocol.recordParser().handle(buff.getBuffer(0, 3));
+        protocol.recordParser().handle(buff.getBuffer(3, buff.length()));
+        context.assertEquals(1, handled.size());
+        context.assertEquals("handlePing", handled.get(0)[0]);
+        context.assertEquals(new BsonObject(), handled.get(0)[1]);
+    }
+
+    @Test
+    public void testVersion1Client(TestContext context) throws Exception {
+        Client v1Client = Client.newClient(vertx, createClientOptions().setProtocolVersion(Protocol.VERSION_1));
+        try {
+            publishAndReceive(context, v1Client);
+        } finally {
+            v1Client.close().get();
+        }
+    }
+
+    @Test
+    public void testVersion2Client(TestContext context) throws Exception {
+        publishAndReceive(context, client);
+    }
+
+    private void publishAndReceive(TestContext context, Client client) throws Exception {
+        int numEvents = 10;
+        Async async = context.async(numEvents);
+        client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), (ClientDelivery del) -> {
+            context.assertEquals(numEvents - async.count(), del.event().getInteger("count"));
+            del.acknowledge();
+            async.countDown();
+        }).get();
+        for (int i = 0; i < numEvents; i++) {
+            client.publish(TEST_CHANNEL_1, new BsonObject().put("count", i)).get();
+        }
+        async.await();
+        context.assertTrue(client.listChannels().get().contains(TEST_CHANNEL_1));
+    }
+
+    private FrameHandler recordingHandler(List<Object[]> handled) {
+        return (FrameHandler)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{FrameHandler.class},
+                (proxy, method, args) -> {
+                    handled.add(new Object[]{method.getName(), args[args.length - 1]});
+                    return null;
+                });
+    }
+}
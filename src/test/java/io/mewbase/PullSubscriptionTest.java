@@ -0,0 +1,118 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.Producer;
+import io.mewbase.client.Subscription;
+import io.mewbase.client.impl.SubscriptionImpl;
+import io.mewbase.common.SubDescriptor;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@RunWith(VertxUnitRunner.class)
+public class PullSubscriptionTest extends ServerTestBase {
+
+    private static final int PREFETCH_SIZE = 10;
+    private static final int NUM_EVENTS = 100;
+    private static final long TIMEOUT = 10000;
+
+    @Override
+    protected ClientOptions createClientOptions() {
+        return super.createClientOptions().setPrefetchSize(PREFETCH_SIZE);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testReceive(TestContext context) throws Exception {
+        Subscription sub = client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1)).get();
+        publish(NUM_EVENTS);
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            ClientDelivery del = sub.receive(TIMEOUT);
+            context.assertNotNull(del);
+            context.assertEquals(i, del.event().getInteger("count"));
+            del.acknowledge();
+        }
+        context.assertNull(sub.receive(100));
+    }
+
+    @Test
+    public void testReceiveBatch(TestContext context) throws Exception {
+        Subscription sub = client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1)).get();
+        publish(NUM_EVENTS);
+        int received = 0;
+        while (received < NUM_EVENTS) {
+            List<ClientDelivery> batch = sub.receiveBatch(7, TIMEOUT);
+            context.assertFalse(batch.isEmpty());
+            context.assertTrue(batch.size() <= 7);
+            for (ClientDelivery del : batch) {
+                context.assertEquals(received++, del.event().getInteger("count"));
+                del.acknowledge();
+            }
+        }
+        context.assertTrue(sub.receiveBatch(7, 100).isEmpty());
+    }
+
+    @Test
+    public void testPrefetchIsBounded(TestContext context) throws Exception {
+        Subscription sub = client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1)).get();
+        publish(NUM_EVENTS);
+        waitUntil(() -> ((SubscriptionImpl)sub).getPrefetchedCount() == PREFETCH_SIZE);
+        // Nothing more arrives until some are received
+        Thread.sleep(100);
+        context.assertEquals(PREFETCH_SIZE, ((SubscriptionImpl)sub).getPrefetchedCount());
+        for (int i = 0; i < NUM_EVENTS; i++) {
+            ClientDelivery del = sub.receive(TIMEOUT);
+            context.assertEquals(i, del.event().getInteger("count"));
+            del.acknowledge();
+            context.assertTrue(((SubscriptionImpl)sub).getPrefetchedCount() <= PREFETCH_SIZE);
+        }
+    }
+
+    @Test
+    public void testUnacknowledgedEventsHoldBackMore(TestContext context) throws Exception {
+        Subscription sub = client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1)).get();
+        publish(NUM_EVENTS);
+        List<ClientDelivery> unacked = new ArrayList<>();
+        for (int i = 0; i < PREFETCH_SIZE; i++) {
+            unacked.add(sub.receive(TIMEOUT));
+        }
+        // Received isn't acknowledged, so the server doesn't send any more
+        context.assertNull(sub.receive(100));
+        for (ClientDelivery del : unacked) {
+            del.acknowledge();
+        }
+        context.assertEquals(PREFETCH_SIZE, sub.receive(TIMEOUT).event().getInteger("count"));
+    }
+
+    @Test
+    public void testReceiveOnHandlerSubscription(TestContext context) throws Exception {
+        Subscription sub = client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+        }).get();
+        try {
+            sub.receive(100);
+            context.fail("Should throw exception");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+    }
+
+    private void publish(int numEvents) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i)));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+    }
+}
@@ -1,8 +1,12 @@
 package io.mewbase;
 
 import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
 import io.mewbase.client.MewException;
 import io.mewbase.client.Producer;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.cqrs.QueryImpl;
+import io.mewbase.server.impl.cqrs.QueryResultCache;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
@@ -11,6 +15,9 @@ import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -25,6 +32,8 @@ public class QueryTest extends ServerTestBase {
 
     private final static Logger logger = LoggerFactory.getLogger(QueryTest.class);
 
+    private static final long CURSOR_TIMEOUT = 500;
+
     protected Producer prod;
 
     @Override
@@ -34,6 +43,11 @@ public class QueryTest extends ServerTestBase {
         prod = client.createProducer(TEST_CHANNEL_1);
     }
 
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setQueryCursorTimeoutMs(CURSOR_TIMEOUT);
+    }
+
     @Override
     protected void setupChannelsAndBinders() throws Exception {
         server.createChannel(TEST_CHANNEL_1).get();
@@ -95,6 +109,201 @@ public class QueryTest extends ServerTestBase {
     }
 
 
+    @Test
+    public void testLastResultFlaggedWhenLastDocFiltered(TestContext context) throws Exception {
+        int numDocs = 10;
+        publishDocs(numDocs);
+
+        server.buildQuery("testQuery").documentFilter((doc, ctx) -> {
+            return !doc.getString("id").equals(getID(numDocs - 1));
+        }).from(TEST_BINDER1).create();
+
+        List<BsonObject> results = runQuery("testQuery", new BsonObject());
+        context.assertEquals(numDocs - 1, results.size());
+    }
+
+    @Test
+    public void testNoResults(TestContext context) throws Exception {
+        publishDocs(10);
+
+        server.buildQuery("testQuery").documentFilter((doc, ctx) -> false).from(TEST_BINDER1).create();
+
+        List<BsonObject> results = runQuery("testQuery", new BsonObject());
+        context.assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testCachedQuery(TestContext context) throws Exception {
+        int numDocs = 10;
+        publishDocs(numDocs);
+
+        AtomicInteger filterCalls = new AtomicInteger();
+        QueryImpl query = (QueryImpl)server.buildQuery("testQuery").documentFilter((doc, ctx) -> {
+            filterCalls.incrementAndGet();
+            return doc.getString("foo").equals(ctx.getParams().getString("foo"));
+        }).from(TEST_BINDER1).cacheResults(10).create();
+        QueryResultCache cache = query.getResultCache();
+
+        BsonObject params = new BsonObject().put("foo", "bar");
+        context.assertEquals(numDocs, runQuery("testQuery", params).size());
+        context.assertEquals(numDocs, filterCalls.get());
+
+        // Served from the cache
+        context.assertEquals(numDocs, runQuery("testQuery", params).size());
+        context.assertEquals(numDocs, filterCalls.get());
+        context.assertEquals(1L, cache.getHits());
+
+        // Different params aren't
+        context.assertEquals(0, runQuery("testQuery", new BsonObject().put("foo", "quux")).size());
+        context.assertEquals(2 * numDocs, filterCalls.get());
+        context.assertEquals(2L, cache.getMisses());
+
+        // Writing to the binder invalidates the results
+        prod.publish(new BsonObject().put("id", getID(numDocs)).put("foo", "bar")).get();
+        waitForDoc(numDocs);
+        context.assertEquals(numDocs + 1, runQuery("testQuery", params).size());
+        context.assertEquals(3L, cache.getMisses());
+        context.assertEquals(0.25d, cache.getHitRate());
+    }
+
+
+    @Test
+    public void testCachedQueryDocBudget(TestContext context) throws Exception {
+        int numDocs = 10;
+        publishDocs(numDocs);
+
+        QueryImpl query = (QueryImpl)server.buildQuery("testQuery").documentFilter((doc, ctx) ->
+                doc.getString("foo").equals(ctx.getParams().getString("foo")))
+                .from(TEST_BINDER1).cacheResults(10, numDocs + numDocs / 2).create();
+        QueryResultCache cache = query.getResultCache();
+
+        BsonObject params1 = new BsonObject().put("foo", "bar");
+        BsonObject params2 = new BsonObject().put("foo", "bar").put("other", 1);
+        context.assertEquals(numDocs, runQuery("testQuery", params1).size());
+        context.assertEquals(1, cache.getSize());
+        context.assertEquals(numDocs, cache.getNumDocs());
+
+        // Both sets of results don't fit, so the least recently used is evicted
+        context.assertEquals(numDocs, runQuery("testQuery", params2).size());
+        context.assertEquals(1, cache.getSize());
+        context.assertEquals(numDocs, runQuery("testQuery", params2).size());
+        context.assertEquals(1L, cache.getHits());
+        context.assertEquals(numDocs, runQuery("testQuery", params1).size());
+        context.assertEquals(1L, cache.getHits());
+    }
+
+    @Test
+    public void testResultsTooBigToCache(TestContext context) throws Exception {
+        int numDocs = 10;
+        publishDocs(numDocs);
+
+        QueryImpl query = (QueryImpl)server.buildQuery("testQuery").documentFilter((doc, ctx) -> true)
+                .from(TEST_BINDER1).cacheResults(10, numDocs - 1).create();
+        QueryResultCache cache = query.getResultCache();
+
+        context.assertEquals(numDocs, runQuery("testQuery", new BsonObject()).size());
+        context.assertEquals(numDocs, runQuery("testQuery", new BsonObject()).size());
+        context.assertEquals(0, cache.getSize());
+        context.assertEquals(0L, cache.getHits());
+    }
+
+    @Test
+    public void testPagedQuery(TestContext context) throws Exception {
+        int numDocs = 25;
+        int pageSize = 10;
+        publishDocs(numDocs);
+
+        server.buildQuery("testQuery").documentFilter((doc, ctx) -> true).from(TEST_BINDER1).create();
+
+        List<String> cursors = new ArrayList<>();
+        List<BsonObject> all = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page page = runPagedQuery("testQuery", pageSize, cursor);
+            context.assertTrue(page.results.size() <= pageSize);
+            all.addAll(page.results);
+            cursor = page.cursor;
+            if (cursor != null) {
+                cursors.add(cursor);
+            }
+        } while (cursor != null);
+
+        context.assertEquals(numDocs, all.size());
+        for (int i = 0; i < numDocs; i++) {
+            context.assertEquals(getID(i), all.get(i).getString("id"));
+        }
+        context.assertEquals(2, cursors.size());
+
+        // A page can be fetched again
+        Page page = runPagedQuery("testQuery", pageSize, cursors.get(0));
+        context.assertEquals(getID(pageSize), page.results.get(0).getString("id"));
+    }
+
+    @Test
+    public void testPagedQueryExactMultiple(TestContext context) throws Exception {
+        int pageSize = 10;
+        publishDocs(2 * pageSize);
+
+        server.buildQuery("testQuery").documentFilter((doc, ctx) -> true).from(TEST_BINDER1).create();
+
+        Page page1 = runPagedQuery("testQuery", pageSize, null);
+        Page page2 = runPagedQuery("testQuery", pageSize, page1.cursor);
+        context.assertEquals(pageSize, page2.results.size());
+        // We only find out there are no more when we look
+        if (page2.cursor != null) {
+            context.assertTrue(runPagedQuery("testQuery", pageSize, page2.cursor).results.isEmpty());
+        }
+    }
+
+    @Test
+    public void testExpiredCursor(TestContext context) throws Exception {
+        publishDocs(10);
+
+        server.buildQuery("testQuery").documentFilter((doc, ctx) -> true).from(TEST_BINDER1).create();
+
+        Page page = runPagedQuery("testQuery", 5, null);
+        Thread.sleep(CURSOR_TIMEOUT + 100);
+        try {
+            runPagedQuery("testQuery", 5, page.cursor);
+            fail("Should throw exception");
+        } catch (ExecutionException e) {
+            MewException me = (MewException)e.getCause();
+            assertEquals(Client.ERR_NO_SUCH_CURSOR, me.getErrorCode());
+        }
+    }
+
+
+    @Test
+    public void testIdSelectorQuery(TestContext context) throws Exception {
+        publishDocs(10);
+
+        server.buildQuery("testQuery").idSelector(params -> params.getString("id")).from(TEST_BINDER1).create();
+
+        List<BsonObject> results = runQuery("testQuery", new BsonObject().put("id", getID(7)));
+        context.assertEquals(1, results.size());
+        context.assertEquals(getID(7), results.get(0).getString("id"));
+
+        context.assertTrue(runQuery("testQuery", new BsonObject().put("id", "nosuchdoc")).isEmpty());
+        context.assertTrue(runQuery("testQuery", new BsonObject()).isEmpty());
+    }
+
+    @Test
+    public void testFailedQueryReturnsError(TestContext context) throws Exception {
+        publishDocs(10);
+
+        server.buildQuery("testQuery").idSelector(params -> params.getString("id")).from(TEST_BINDER1).create();
+
+        // The binder can't look up an empty id
+        try {
+            runQuery("testQuery", new BsonObject().put("id", ""));
+            fail("Should throw exception");
+        } catch (ExecutionException e) {
+            MewException me = (MewException)e.getCause();
+            context.assertEquals(Client.ERR_SERVER_ERROR, me.getErrorCode());
+        }
+    }
+
+
     // TODO more query tests
 
     @Test
@@ -103,6 +312,43 @@ public class QueryTest extends ServerTestBase {
         assertEquals(null, doc);
     }
 
+    protected void publishDocs(int numDocs) throws Exception {
+        for (int i = 0; i < numDocs; i++) {
+            BsonObject doc = new BsonObject().put("id", getID(i)).put("foo", "bar");
+            prod.publish(doc).get();
+        }
+        waitForDoc(numDocs - 1);
+    }
+
+    protected List<BsonObject> runQuery(String queryName, BsonObject params) throws Exception {
+        List<BsonObject> results = new ArrayList<>();
+        CompletableFuture<List<BsonObject>> cf = new CompletableFuture<>();
+        client.executeQuery(queryName, params, qr -> {
+            if (qr.document() != null) {
+                results.add(qr.document());
+            }
+            if (qr.isLast()) {
+                cf.complete(results);
+            }
+        }, cf::completeExceptionally);
+        return cf.get();
+    }
+
+    protected Page runPagedQuery(String queryName, int limit, String cursor) throws Exception {
+        Page page = new Page();
+        CompletableFuture<Page> cf = new CompletableFuture<>();
+        client.executeQuery(queryName, new BsonObject(), limit, cursor, qr -> {
+            if (qr.document() != null) {
+                page.results.add(qr.document());
+            }
+            if (qr.isLast()) {
+                page.cursor = qr.cursor();
+                cf.complete(page);
+            }
+        }, cf::completeExceptionally);
+        return cf.get();
+    }
+
     protected BsonObject waitForDoc(int docID) {
         // Wait until docs are inserted
         return waitForNonNull(() -> {
@@ -125,4 +371,8 @@ public class QueryTest extends ServerTestBase {
         return String.format("id-%05d", id);
     }
 
+    private static class Page {
+        final List<BsonObject> results = new ArrayList<>();
+        String cursor;
+    }
 }
@@ -20,6 +20,8 @@ import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URLEncoder;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import static junit.framework.TestCase.fail;
@@ -131,6 +133,52 @@ public class RESTAdaptorTest extends ServerTestBase {
 
     }
 
+    @Test
+    public void testPagedQuery(TestContext testContext) throws Exception {
+
+        String queryName = "testQuery";
+
+        int numDocs = 25;
+        int pageSize = 10;
+        for (int i = 0; i < numDocs; i++) {
+            prod.publish(new BsonObject().put("id", getID(i)).put("foo", "bar")).get();
+        }
+
+        waitForDoc(numDocs - 1);
+
+        server.buildQuery(queryName).documentFilter((doc, ctx) -> true).from(TEST_BINDER1).create();
+        server.exposeQuery(queryName, "/orders/");
+
+        HttpClient httpClient = vertx.createHttpClient();
+        int received = 0;
+        String cursor = null;
+        do {
+            String uri = "/orders/?limit=" + pageSize;
+            if (cursor != null) {
+                uri += "&cursor=" + URLEncoder.encode(cursor, "UTF-8");
+            }
+            JsonObject page = getPage(httpClient, uri).get();
+            JsonArray results = page.getJsonArray("results");
+            for (int i = 0; i < results.size(); i++) {
+                testContext.assertEquals(getID(received++), results.getJsonObject(i).getString("id"));
+            }
+            cursor = page.getString("cursor");
+        } while (cursor != null);
+        testContext.assertEquals(numDocs, received);
+    }
+
+    private CompletableFuture<JsonObject> getPage(HttpClient httpClient, String uri) {
+        CompletableFuture<JsonObject> cf = new CompletableFuture<>();
+        HttpClientRequest req = httpClient.request(HttpMethod.GET, 8080, "localhost", uri, resp -> {
+            assertEquals(200, resp.statusCode());
+            resp.bodyHandler(body -> cf.complete(new JsonObject(body.toString())));
+            resp.exceptionHandler(cf::completeExceptionally);
+        });
+        req.exceptionHandler(cf::completeExceptionally);
+        req.end();
+        return cf;
+    }
+
     @Test
     public void testFindByID(TestContext testContext) throws Exception {
 
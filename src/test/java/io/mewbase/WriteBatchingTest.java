@@ -0,0 +1,93 @@
+package io.mewbase;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientDelivery;
+import io.mewbase.client.Producer;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ConnectionImpl;
+import io.mewbase.server.impl.ServerImpl;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(VertxUnitRunner.class)
+public class WriteBatchingTest extends ServerTestBase {
+
+    private static final int NUM_SUBS = 100;
+    private static final int NUM_EVENTS = 50;
+
+    private int maxWriteBatchBytes = ServerOptions.DEFAULT_MAX_WRITE_BATCH_BYTES;
+
+    @Override
+    protected ServerOptions createServerOptions() {
+        return super.createServerOptions().setMaxWriteBatchBytes(maxWriteBatchBytes);
+    }
+
+    @Override
+    protected void setupChannelsAndBinders() throws Exception {
+        server.createChannel(TEST_CHANNEL_1).get();
+    }
+
+    @Test
+    public void testFanOutIsBatched(TestContext context) throws Exception {
+        List<List<ClientDelivery>> received = subscribe(client);
+        publish(NUM_EVENTS);
+        waitUntil(() -> received.stream().allMatch(l -> l.size() == NUM_EVENTS));
+        checkReceived(context, received);
+        ConnectionImpl connection = ((ServerImpl)server).getConnections().iterator().next();
+        context.assertTrue(connection.getFramesWritten() >= NUM_SUBS * NUM_EVENTS);
+        context.assertTrue(connection.getBatchesWritten() < connection.getFramesWritten() / 10);
+    }
+
+    @Test
+    public void testSmallBatches(TestContext context) throws Exception {
+        maxWriteBatchBytes = 1;
+        stopServerAndClient();
+        startServerAndClient();
+        List<List<ClientDelivery>> received = subscribe(client);
+        publish(NUM_EVENTS);
+        waitUntil(() -> received.stream().allMatch(l -> l.size() == NUM_EVENTS));
+        checkReceived(context, received);
+        ConnectionImpl connection = ((ServerImpl)server).getConnections().iterator().next();
+        // Every frame fills a batch so goes out on its own
+        context.assertTrue(connection.getBatchesWritten() >= NUM_SUBS * NUM_EVENTS);
+    }
+
+    private List<List<ClientDelivery>> subscribe(Client client) throws Exception {
+        List<List<ClientDelivery>> received = new ArrayList<>();
+        for (int i = 0; i < NUM_SUBS; i++) {
+            List<ClientDelivery> list = new CopyOnWriteArrayList<>();
+            received.add(list);
+            client.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1), del -> {
+                list.add(del);
+                del.acknowledge();
+            }).get();
+        }
+        return received;
+    }
+
+    private void checkReceived(TestContext context, List<List<ClientDelivery>> received) {
+        for (List<ClientDelivery> list : received) {
+            for (int i = 0; i < NUM_EVENTS; i++) {
+                context.assertEquals(i, list.get(i).event().getInteger("count"));
+            }
+        }
+    }
+
+    private void publish(int numEvents) throws Exception {
+        Producer prod = client.createProducer(TEST_CHANNEL_1);
+        List<CompletableFuture<Void>> cfs = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            cfs.add(prod.publish(new BsonObject().put("count", i)));
+        }
+        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[cfs.size()])).get();
+    }
+}
@@ -0,0 +1,206 @@
+package io.mewbase.bench;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.Producer;
+import io.mewbase.server.Server;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.Protocol;
+import io.netty.channel.epoll.Epoll;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the server copes with lots of connections, with different numbers of acceptors and event loops, on
+ * the default NIO transport and the native epoll one. Idle connections are opened first, then active clients each
+ * publish events while they're all still open.
+ * <p>
+ * The server runs in its own JVM, started by the benchmark, so the two ends of the connections count against separate
+ * open files limits. Each process needs ulimit -n well above the number of connections.
+ */
+public class ConnectionScalingBenchmark {
+
+    private final static Logger logger = LoggerFactory.getLogger(ConnectionScalingBenchmark.class);
+
+    public static void main(String[] args) {
+        try {
+            if (args.length == 3 && args[0].equals(SERVER_ARG)) {
+                runServer(Integer.parseInt(args[1]), Boolean.parseBoolean(args[2]));
+            } else {
+                new ConnectionScalingBenchmark().start();
+            }
+        } catch (Throwable t) {
+            logger.error("Failed to run benchmark", t);
+        }
+    }
+
+    private static final String CHANNEL = "orders";
+    private static final int NUM_IDLE = 10_000;
+    private static final int NUM_ACTIVE = 1_000;
+    private static final int EVENTS_PER_CLIENT = 200;
+    private static final int MAX_CONNECTS_IN_FLIGHT = 500;
+    private static final int[] ACCEPTORS = {1, 4, Runtime.getRuntime().availableProcessors()};
+    private static final String SERVER_ARG = "server";
+    private static final String SERVER_STARTED = "Benchmark server started";
+    private static final String HEAP_REQUEST = "heap";
+
+    public void start() throws Exception {
+        for (boolean nativeTransport : new boolean[] {false, true}) {
+            if (nativeTransport && !Epoll.isAvailable()) {
+                logger.info("Native transport not available, skipping it");
+                continue;
+            }
+            for (int acceptors : ACCEPTORS) {
+                runBenchmark(acceptors, nativeTransport);
+            }
+        }
+    }
+
+    /*
+    Run in the server's JVM until the benchmark closes our stdin
+     */
+    private static void runServer(int acceptors, boolean nativeTransport) throws Exception {
+        File dir = Files.createTempDirectory("mewbase-connections").toFile();
+        ServerOptions options = new ServerOptions().setLogsDir(new File(dir, "logs").getPath())
+                .setDocsDir(new File(dir, "docs").getPath()).setAcceptors(acceptors)
+                .setNativeTransport(nativeTransport)
+                .setEventLoopPoolSize(Math.max(acceptors, ServerOptions.DEFAULT_EVENT_LOOP_POOL_SIZE));
+        options.getNetServerOptions().setTcpNoDelay(true).setAcceptBacklog(NUM_IDLE);
+        Server server = Server.newServer(options);
+        server.start().get();
+        server.createChannel(CHANNEL).get();
+        System.out.println(SERVER_STARTED);
+        System.out.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(HEAP_REQUEST)) {
+                System.gc();
+                Runtime rt = Runtime.getRuntime();
+                logger.info("Server heap used: {} MB", (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024));
+            }
+        }
+        server.stop().get();
+        System.exit(0);
+    }
+
+    private Process startServer(int acceptors, boolean nativeTransport) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ConnectionScalingBenchmark.class.getName(), SERVER_ARG, String.valueOf(acceptors),
+                String.valueOf(nativeTransport)).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = out.readLine()) != null) {
+            System.out.println(line);
+            if (line.equals(SERVER_STARTED)) {
+                // Keep echoing its output so it never blocks writing it
+                Thread echo = new Thread(() -> out.lines().forEach(System.out::println));
+                echo.setDaemon(true);
+                echo.start();
+                return process;
+            }
+        }
+        throw new IllegalStateException("Benchmark server failed to start");
+    }
+
+    private void runBenchmark(int acceptors, boolean nativeTransport) throws Exception {
+        Process serverProcess = startServer(acceptors, nativeTransport);
+        String transport = nativeTransport ? "native" : "nio";
+        PrintStream serverIn = new PrintStream(serverProcess.getOutputStream(), true);
+
+        Vertx vertx = Vertx.vertx();
+        NetClient netClient = vertx.createNetClient(new NetClientOptions().setTcpNoDelay(true));
+        long start = System.currentTimeMillis();
+        openIdleConnections(netClient);
+        long idleTime = System.currentTimeMillis() - start;
+        logger.info("Opened {} idle connections in {} ms, acceptors: {}, transport: {}", NUM_IDLE, idleTime,
+                acceptors, transport);
+        serverIn.println(HEAP_REQUEST);
+
+        List<Client> clients = new ArrayList<>(NUM_ACTIVE);
+        for (int i = 0; i < NUM_ACTIVE; i++) {
+            clients.add(Client.newClient(vertx, new ClientOptions()));
+        }
+        BsonObject event = new BsonObject().put("customerID", "cust12345").put("productID", "prod98765")
+                .put("quantity", 3);
+        AtomicLong totalLatency = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(NUM_ACTIVE);
+        start = System.currentTimeMillis();
+        for (Client client : clients) {
+            Producer prod = client.createProducer(CHANNEL);
+            publishNext(prod, event, 0, totalLatency, latch);
+        }
+        latch.await();
+        long time = System.currentTimeMillis() - start;
+        long total = (long)NUM_ACTIVE * EVENTS_PER_CLIENT;
+        logger.info("{} active connections published {} events in {} ms, {} events/sec, mean latency {} us, " +
+                "acceptors: {}, transport: {}", NUM_ACTIVE, total, time, 1000 * total / Math.max(time, 1),
+                totalLatency.get() / total / 1000, acceptors, transport);
+
+        for (Client client : clients) {
+            client.close().get();
+        }
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        vertx.close(ar -> cf.complete(null));
+        cf.get();
+        serverIn.close();
+        serverProcess.waitFor();
+    }
+
+    /*
+    Open the idle connections, a few hundred at a time so we don't overflow the accept backlog
+     */
+    private void openIdleConnections(NetClient netClient) throws Exception {
+        Semaphore inFlight = new Semaphore(MAX_CONNECTS_IN_FLIGHT);
+        CountDownLatch latch = new CountDownLatch(NUM_IDLE);
+        for (int i = 0; i < NUM_IDLE; i++) {
+            inFlight.acquire();
+            netClient.connect(ServerOptions.DEFAULT_PORT, "localhost", ar -> {
+                if (ar.succeeded()) {
+                    ar.result().write(Protocol.encodeFrame(Protocol.CONNECT_FRAME, new BsonObject()));
+                } else {
+                    logger.error("Failed to connect", ar.cause());
+                }
+                inFlight.release();
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    /*
+    Each client publishes one event at a time so the latency of each publish can be measured
+     */
+    private void publishNext(Producer prod, BsonObject event, int num, AtomicLong totalLatency,
+                             CountDownLatch latch) {
+        if (num == EVENTS_PER_CLIENT) {
+            latch.countDown();
+            return;
+        }
+        long start = System.nanoTime();
+        prod.publish(event.copy().put("num", num)).whenComplete((v, t) -> {
+            if (t != null) {
+                logger.error("Failed to publish", t);
+            }
+            totalLatency.addAndGet(System.nanoTime() - start);
+            publishNext(prod, event, num + 1, totalLatency, latch);
+        });
+    }
+}
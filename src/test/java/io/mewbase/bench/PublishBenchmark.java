@@ -0,0 +1,92 @@
+package io.mewbase.bench;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.Producer;
+import io.mewbase.server.Server;
+import io.mewbase.server.ServerOptions;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures publish throughput from many threads sharing one client, with different sizes of connection pool.
+ */
+public class PublishBenchmark {
+
+    private final static Logger logger = LoggerFactory.getLogger(PublishBenchmark.class);
+
+    public static void main(String[] args) {
+        try {
+            new PublishBenchmark().start();
+        } catch (Throwable t) {
+            logger.error("Failed to run benchmark", t);
+        }
+    }
+
+    private static final int NUM_CHANNELS = 8;
+    private static final int NUM_THREADS = 32;
+    private static final int EVENTS_PER_THREAD = 20_000;
+    private static final int BATCH_SIZE = 500;
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+
+    public void start() throws Exception {
+        File dir = Files.createTempDirectory("mewbase-publish").toFile();
+        Vertx vertx = Vertx.vertx();
+        ServerOptions options = new ServerOptions().setLogsDir(new File(dir, "logs").getPath())
+                .setDocsDir(new File(dir, "docs").getPath());
+        Server server = Server.newServer(vertx, options);
+        server.start().get();
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            server.createChannel("channel" + i).get();
+        }
+        for (int poolSize : POOL_SIZES) {
+            runBenchmark(poolSize, false);
+            runBenchmark(poolSize, true);
+        }
+        server.stop().get();
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        vertx.close(ar -> cf.complete(null));
+        cf.get();
+    }
+
+    private void runBenchmark(int poolSize, boolean channelAffinity) throws Exception {
+        Client client = Client.newClient(new ClientOptions().setConnectionPoolSize(poolSize)
+                .setChannelAffinity(channelAffinity).setMaxPublishesInFlight(BATCH_SIZE));
+        BsonObject event = new BsonObject().put("customerID", "cust12345").put("productID", "prod98765")
+                .put("quantity", 3).put("warehouse", "north-east");
+        CountDownLatch latch = new CountDownLatch(NUM_THREADS);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            Producer prod = client.createProducer("channel" + (i % NUM_CHANNELS));
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < EVENTS_PER_THREAD; j += BATCH_SIZE) {
+                        List<CompletableFuture<Void>> cfs = new ArrayList<>(BATCH_SIZE);
+                        for (int k = 0; k < BATCH_SIZE; k++) {
+                            cfs.add(prod.publish(event.copy().put("num", j + k)));
+                        }
+                        CompletableFuture.allOf(cfs.toArray(new CompletableFuture[BATCH_SIZE])).get();
+                    }
+                } catch (Throwable t) {
+                    logger.error("Failed to publish", t);
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        long time = System.currentTimeMillis() - start;
+        long total = (long)NUM_THREADS * EVENTS_PER_THREAD;
+        logger.info("Published {} events from {} threads in {} ms, {} events/sec, pool size: {}, channel affinity: {}",
+                total, NUM_THREADS, time, 1000 * total / Math.max(time, 1), poolSize, channelAffinity);
+        client.close().get();
+    }
+}
@@ -0,0 +1,98 @@
+package io.mewbase.bench;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.Client;
+import io.mewbase.client.ClientOptions;
+import io.mewbase.client.Producer;
+import io.mewbase.server.Server;
+import io.mewbase.server.ServerOptions;
+import io.netty.channel.epoll.Epoll;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClientOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the latency of a publish from a client on the same host as the server, or in the same JVM - one publish at
+ * a time, so each one is a full round trip.
+ * <p>
+ * The domain socket run is skipped where the native transport isn't available.
+ */
+public class PublishLatencyBenchmark {
+
+    private final static Logger logger = LoggerFactory.getLogger(PublishLatencyBenchmark.class);
+
+    public static void main(String[] args) {
+        try {
+            new PublishLatencyBenchmark().start();
+        } catch (Throwable t) {
+            logger.error("Failed to run benchmark", t);
+        }
+    }
+
+    private static final String CHANNEL = "orders";
+    private static final String IN_VM_NAME = "latency";
+    private static final int WARMUP_EVENTS = 20_000;
+    private static final int NUM_EVENTS = 50_000;
+
+    public void start() throws Exception {
+        File dir = Files.createTempDirectory("mewbase-latency").toFile();
+        Vertx vertx = Vertx.vertx();
+        String socketPath = new File(dir, "mewbase.sock").getPath();
+        boolean domainSockets = Epoll.isAvailable();
+        ServerOptions options = new ServerOptions().setLogsDir(new File(dir, "logs").getPath())
+                .setDocsDir(new File(dir, "docs").getPath()).setInVMName(IN_VM_NAME);
+        if (domainSockets) {
+            options.setDomainSocketPath(socketPath);
+        }
+        Server server = Server.newServer(vertx, options);
+        server.start().get();
+        server.createChannel(CHANNEL).get();
+        runBenchmark("tcp loopback", new ClientOptions().setHost("localhost")
+                .setNetClientOptions(new NetClientOptions().setTcpNoDelay(true)));
+        runBenchmark("tcp loopback, nagle", new ClientOptions().setHost("localhost")
+                .setNetClientOptions(new NetClientOptions().setTcpNoDelay(false)));
+        if (domainSockets) {
+            runBenchmark("domain socket", new ClientOptions().setDomainSocketPath(socketPath));
+        }
+        runBenchmark("in-VM",new ClientOptions().setInVMName(IN_VM_NAME));
+        server.stop().get();
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        vertx.close(ar -> cf.complete(null));
+        cf.get();
+    }
+
+    private void runBenchmark(String name, ClientOptions clientOptions) throws Exception {
+        Client client = Client.newClient(clientOptions);
+        Producer prod = client.createProducer(CHANNEL);
+        BsonObject event = new BsonObject().put("customerID", "cust12345").put("productID", "prod98765")
+                .put("quantity", 3);
+        publish(prod, event, new long[WARMUP_EVENTS]);
+        long[] latencies = new long[NUM_EVENTS];
+        long start = System.nanoTime();
+        publish(prod, event, latencies);
+        long time = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        logger.info("{}: {} publishes, mean {} us, p50 {} us, p99 {} us, p99.9 {} us", name, NUM_EVENTS,
+                time / NUM_EVENTS / 1000, percentile(latencies, 0.5), percentile(latencies, 0.99),
+                percentile(latencies, 0.999));
+        client.close().get();
+    }
+
+    private void publish(Producer prod, BsonObject event, long[] latencies) throws Exception {
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            prod.publish(event.copy().put("num", i)).get();
+            latencies[i] = System.nanoTime() - start;
+        }
+    }
+
+    private long percentile(long[] sorted, double percentile) {
+        return sorted[(int)(percentile * (sorted.length - 1))] / 1000;
+    }
+}
@@ -0,0 +1,138 @@
+package io.mewbase.bench;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.client.MewException;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.Log;
+import io.mewbase.server.LogReadStream;
+import io.mewbase.server.Server;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ServerImpl;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the throughput of replaying a channel from the start when its sealed chunks are stored raw and when they
+ * are compressed with LZ4.
+ */
+public class ReplayBenchmark {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReplayBenchmark.class);
+
+    public static void main(String[] args) {
+        try {
+            new ReplayBenchmark().start();
+        } catch (Throwable t) {
+            logger.error("Failed to run benchmark", t);
+        }
+    }
+
+    private static final String CHANNEL = "replaychannel";
+    private static final int NUM_EVENTS = 2_000_000;
+    private static final int MAX_LOG_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int BATCH_SIZE = 1000;
+    private static final int ITERATIONS = 5;
+
+    public void start() throws Exception {
+        runBenchmark(false);
+        runBenchmark(true);
+    }
+
+    private void runBenchmark(boolean compressed) throws Exception {
+        File dir = Files.createTempDirectory("mewbase-replay").toFile();
+        Vertx vertx = Vertx.vertx();
+        ServerOptions options = new ServerOptions().setLogsDir(new File(dir, "logs").getPath())
+                .setDocsDir(new File(dir, "docs").getPath()).setMaxLogChunkSize(MAX_LOG_CHUNK_SIZE)
+                .setCompressSealedChunks(compressed);
+        Server server = Server.newServer(vertx, options);
+        server.start().get();
+        server.createChannel(CHANNEL).get();
+        Log log = ((ServerImpl)server).getLog(CHANNEL);
+
+        BsonObject event = new BsonObject().put("customerID", "cust12345").put("productID", "prod98765")
+                .put("quantity", 3).put("warehouse", "north-east");
+        for (int i = 0; i < NUM_EVENTS; i += BATCH_SIZE) {
+            List<CompletableFuture<Long>> cfs = new ArrayList<>(BATCH_SIZE);
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                cfs.add(log.append(event.copy().put("num", i + j)));
+            }
+            CompletableFuture.allOf(cfs.toArray(new CompletableFuture[BATCH_SIZE])).get();
+        }
+        // Restart so the chunks are sealed, and compressed if enabled, before reading
+        server.stop().get();
+        server = Server.newServer(vertx, options);
+        server.start().get();
+        log = ((ServerImpl)server).getLog(CHANNEL);
+        if (compressed) {
+            waitForCompression(new File(options.getLogsDir()));
+        }
+        logger.info("Log size on disk {} bytes, compressed: {}", dirSize(new File(options.getLogsDir())), compressed);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.currentTimeMillis();
+            replay(log);
+            long time = System.currentTimeMillis() - start;
+            logger.info("Replayed {} events in {} ms, {} events/sec, compressed: {}", NUM_EVENTS, time,
+                    1000 * (long)NUM_EVENTS / Math.max(time, 1), compressed);
+        }
+
+        server.stop().get();
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        vertx.close(ar -> cf.complete(null));
+        cf.get();
+    }
+
+    private void replay(Log log) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger cnt = new AtomicInteger();
+        LogReadStream rs = log.subscribe(new SubDescriptor().setChannel(CHANNEL).setStartPos(0));
+        rs.handler((pos, record) -> {
+            if (cnt.incrementAndGet() == NUM_EVENTS) {
+                rs.close();
+                latch.countDown();
+            }
+        });
+        rs.start();
+        latch.await();
+    }
+
+    private void waitForCompression(File logsDir) throws Exception {
+        while (true) {
+            File[] files = logsDir.listFiles();
+            if (files == null) {
+                throw new MewException("Cannot list " + logsDir);
+            }
+            int raw = 0;
+            for (File f : files) {
+                if (f.getName().endsWith(".log")) {
+                    raw++;
+                }
+            }
+            // Only the head file and the preallocated next file remain uncompressed
+            if (raw <= 2) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private long dirSize(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+}
@@ -9,6 +9,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 
@@ -87,6 +89,56 @@ public class AppendTest extends LogTestBase {
         });
     }
 
+    @Test
+    public void testAppendBatch() throws Exception {
+        BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
+        int length = obj.encode().length();
+        int numObjects = 100;
+        int batchSize = 10;
+        serverOptions = origServerOptions().setMaxLogChunkSize(length * (numObjects + 1)).setMaxRecordSize(length + 1);
+        startLog();
+        for (int i = 0; i < numObjects; i += batchSize) {
+            List<BsonObject> batch = new ArrayList<>();
+            for (int j = i; j < i + batchSize; j++) {
+                batch.add(obj.copy().put("num", j));
+            }
+            List<Long> positions = log.appendBatch(batch).get();
+            assertEquals(batchSize, positions.size());
+            for (int j = 0; j < batchSize; j++) {
+                assertEquals((long)(i + j) * length, (long)positions.get(j));
+            }
+        }
+        assertExists(0);
+        assertLogChunkLength(0, length * numObjects);
+        assertObjects(0, (cnt, record) -> {
+            assertTrue(cnt < numObjects);
+            BsonObject expected = obj.copy().put("num", cnt);
+            assertTrue(expected.equals(record));
+        });
+    }
+
+    @Test
+    public void testAppendBatchNextFile() throws Exception {
+        BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
+        int length = obj.encode().length();
+        serverOptions = origServerOptions().setMaxLogChunkSize(length * 5).setMaxRecordSize(length + 1);
+        startLog();
+        appendObjectsSequentially(3, i -> obj.copy().put("num", i));
+        // Doesn't fit in what's left of the first file so the whole batch goes in the next one
+        List<BsonObject> batch = new ArrayList<>();
+        for (int i = 3; i < 6; i++) {
+            batch.add(obj.copy().put("num", i));
+        }
+        List<Long> positions = log.appendBatch(batch).get();
+        assertEquals(5L * length, (long)positions.get(0));
+        assertExists(1);
+        assertLogChunkLength(1, length * 3);
+        assertObjects(1, (cnt, record) -> {
+            assertTrue(cnt < 3);
+            assertTrue(obj.copy().put("num", cnt + 3).equals(record));
+        });
+    }
+
     @Test
     public void testPrealloc() throws Exception {
         BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
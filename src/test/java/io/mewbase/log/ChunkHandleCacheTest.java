@@ -0,0 +1,72 @@
+package io.mewbase.log;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.LogReadStream;
+import io.mewbase.server.impl.log.ChunkHandleCache;
+import io.mewbase.server.impl.log.LogImpl;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class ChunkHandleCacheTest extends LogTestBase {
+
+    private BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
+    private int objLen = obj.encode().length();
+    private int numObjects = 500;
+    private int fileSize = objLen * 100;
+
+    @Test
+    public void test_handles_shared_between_streams(TestContext testContext) throws Exception {
+        startAndAppend(32);
+        replay(testContext, 5);
+        ChunkHandleCache cache = ((LogImpl)log).getChunkHandleCache();
+        // Each chunk is only opened once
+        assertEquals(5, cache.getOpens());
+        assertEquals(5, cache.getOpenHandles());
+    }
+
+    @Test
+    public void test_unreferenced_handles_evicted(TestContext testContext) throws Exception {
+        startAndAppend(2);
+        replay(testContext, 5);
+        ChunkHandleCache cache = ((LogImpl)log).getChunkHandleCache();
+        waitUntil(() -> cache.getOpenHandles() <= 2);
+        assertTrue(cache.getOpens() >= 5);
+    }
+
+    private void startAndAppend(int maxOpenChunkHandles) throws Exception {
+        // Don't share readers so each stream opens every chunk
+        serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).setMaxRecordSize(objLen)
+                .setSharedReadWindow(0).setMaxOpenChunkHandles(maxOpenChunkHandles);
+        startLog();
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+    }
+
+    private void replay(TestContext testContext, int numStreams) throws Exception {
+        CountDownLatch latch = new CountDownLatch(numStreams);
+        for (int i = 0; i < numStreams; i++) {
+            AtomicInteger cnt = new AtomicInteger();
+            LogReadStream rs = log.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0));
+            rs.handler((pos, record) -> {
+                testContext.assertEquals(cnt.get(), record.getInteger("num"));
+                testContext.assertEquals((long)cnt.get() * objLen, (long)pos);
+                if (cnt.incrementAndGet() == numObjects) {
+                    rs.close();
+                    latch.countDown();
+                }
+            });
+            rs.start();
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,173 @@
+package io.mewbase.log;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.LogReadStream;
+import io.mewbase.server.ServerOptions;
+import io.mewbase.server.impl.ServerImpl;
+import io.mewbase.server.impl.file.lz4.LZ4ChunkCompressor;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class CompressedChunksTest extends LogTestBase {
+
+    private BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
+    private int objLen = obj.encode().length();
+    private int numObjects = 100;
+    private int fileSize = objLen * (numObjects / 5) + (objLen / 2);
+
+    @Test
+    public void test_sealed_chunks_are_compressed() throws Exception {
+        startCompressedLog(true);
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        waitForCompressedChunks(4);
+        for (int i = 0; i < 4; i++) {
+            assertFalse(new File(logsDir, getLogFileName(TEST_CHANNEL_1, i)).exists());
+        }
+        // The head file is never compressed
+        assertExists(4);
+        assertFalse(getCompressedFile(4).exists());
+    }
+
+    @Test
+    public void test_sealed_chunks_are_not_compressed_by_default() throws Exception {
+        serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).setMaxRecordSize(objLen);
+        startLog();
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        stopServerAndClient();
+        server = null;
+        for (int i = 0; i < 5; i++) {
+            assertExists(i);
+            assertFalse(getCompressedFile(i).exists());
+        }
+    }
+
+    @Test
+    public void test_stream_from_compressed_chunks(TestContext testContext) throws Exception {
+        startCompressedLog(true);
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        waitForCompressedChunks(4);
+        streamAndVerify(testContext, 0);
+    }
+
+    @Test
+    public void test_stream_from_non_zero_position_in_compressed_chunk(TestContext testContext) throws Exception {
+        startCompressedLog(true);
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        waitForCompressedChunks(4);
+        streamAndVerify(testContext, 33);
+    }
+
+    @Test
+    public void test_stream_compressed_chunks_small_read_buffer(TestContext testContext) throws Exception {
+        serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).setCompressSealedChunks(true)
+                .setCompressionBlockSize(objLen * 3).setReadBufferSize(objLen - 1).setMaxRecordSize(objLen);
+        startLog();
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        waitForCompressedChunks(4);
+        streamAndVerify(testContext, 0);
+    }
+
+    @Test
+    public void test_restart_with_compressed_chunks(TestContext testContext) throws Exception {
+        startCompressedLog(true);
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        waitForCompressedChunks(4);
+        restart();
+        log = ((ServerImpl)server).getLog(TEST_CHANNEL_1);
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i + numObjects));
+        numObjects *= 2;
+        waitForCompressedChunks(9);
+        streamAndVerify(testContext, 0);
+    }
+
+    @Test
+    public void test_existing_sealed_chunks_compressed_on_start(TestContext testContext) throws Exception {
+        startCompressedLog(false);
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+        stopServerAndClient();
+        for (int i = 0; i < 4; i++) {
+            assertExists(i);
+        }
+        startCompressedLog(true);
+        waitForCompressedChunks(4);
+        streamAndVerify(testContext, 0);
+    }
+
+    @Test
+    public void test_only_own_temporary_files_deleted_on_start() throws Exception {
+        startCompressedLog(false);
+        stopServerAndClient();
+        File ownTmp = new File(logsDir, TEST_CHANNEL_1 + "-0.lz4" + LZ4ChunkCompressor.TMP_FILE_TAIL);
+        File otherTmp = new File(logsDir, TEST_CHANNEL_1 + "-other-0.lz4" + LZ4ChunkCompressor.TMP_FILE_TAIL);
+        assertTrue(ownTmp.createNewFile());
+        assertTrue(otherTmp.createNewFile());
+        startCompressedLog(true);
+        assertFalse(ownTmp.exists());
+        assertTrue(otherTmp.exists());
+    }
+
+    private void startCompressedLog(boolean compress) throws Exception {
+        serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).setCompressSealedChunks(compress)
+                .setCompressionBlockSize(objLen * 3).setMaxRecordSize(objLen);
+        startLog();
+    }
+
+    private void streamAndVerify(TestContext testContext, int startObject) {
+        Async async = testContext.async();
+        AtomicInteger cnt = new AtomicInteger(startObject);
+        long startPos = calcPos(startObject, fileSize, objLen);
+        LogReadStream rs = log.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(startPos));
+        rs.handler((pos, record) -> {
+            testContext.assertEquals("bar", record.getString("foo"));
+            testContext.assertEquals(cnt.get(), record.getInteger("num"));
+            testContext.assertEquals(calcPos(cnt.get(), fileSize, objLen), (long)pos);
+            if (cnt.incrementAndGet() == numObjects) {
+                rs.close();
+                async.complete();
+            }
+        });
+        rs.start();
+    }
+
+    private void waitForCompressedChunks(int num) {
+        waitUntil(() -> {
+            for (int i = 0; i < num; i++) {
+                if (!getCompressedFile(i).exists() || new File(logsDir, getLogFileName(TEST_CHANNEL_1, i)).exists()) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        assertTrue(getCompressedFile(num - 1).length() < fileSize);
+    }
+
+    private File getCompressedFile(int fileNumber) {
+        return new File(logsDir, TEST_CHANNEL_1 + "-" + fileNumber + ".lz4");
+    }
+
+    private long calcPos(int nth, int maxLogChunkSize, int objLen) {
+        int pos = 0;
+        int filePos = 0;
+        for (int i = 0; i < nth; i++) {
+            pos += objLen;
+            filePos += objLen;
+            int remainingSpace = maxLogChunkSize - filePos;
+            if (remainingSpace < objLen) {
+                pos += remainingSpace;
+                filePos = 0;
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,163 @@
+package io.mewbase.log;
+
+import io.mewbase.bson.BsonObject;
+import io.mewbase.common.SubDescriptor;
+import io.mewbase.server.LogReadStream;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class SharedReaderTest extends LogTestBase {
+
+    private BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
+    private int objLen = obj.encode().length();
+    private int numObjects = 1000;
+    private int fileSize = objLen * 100 + objLen / 2;
+
+    @Test
+    public void test_streams_from_same_position(TestContext testContext) throws Exception {
+        startAndAppend(objLen * 50);
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            subscribe(testContext, latch, 0, null);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_streams_from_nearby_positions(TestContext testContext) throws Exception {
+        startAndAppend(objLen * 50);
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            subscribe(testContext, latch, i * 7, null);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_streams_from_distant_positions(TestContext testContext) throws Exception {
+        startAndAppend(objLen * 10);
+        CountDownLatch latch = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            subscribe(testContext, latch, i * 200, null);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_slow_stream_detaches(TestContext testContext) throws Exception {
+        startAndAppend(objLen * 10);
+        CountDownLatch latch = new CountDownLatch(3);
+        subscribe(testContext, latch, 0, null);
+        subscribe(testContext, latch, 0, null);
+        // Pauses for a while every 100 records so falls behind the others
+        subscribe(testContext, latch, 0, 100);
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_no_shared_reader(TestContext testContext) throws Exception {
+        startAndAppend(0);
+        CountDownLatch latch = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            subscribe(testContext, latch, 0, null);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_streams_go_live_after_catching_up(TestContext testContext) throws Exception {
+        startAndAppend(objLen * 50);
+        int numStreams = 5;
+        CountDownLatch latch = new CountDownLatch(numStreams);
+        numObjects *= 2;
+        for (int i = 0; i < numStreams; i++) {
+            subscribe(testContext, latch, 0, null);
+        }
+        appendObjectsSequentially(numObjects / 2, i -> obj.copy().put("num", i + numObjects / 2));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_records_delivered_on_stream_context(TestContext testContext) throws Exception {
+        startAndAppend(objLen * 50);
+        int numStreams = 5;
+        CountDownLatch latch = new CountDownLatch(numStreams);
+        for (int i = 0; i < numStreams; i++) {
+            Context ctx = vertx.getOrCreateContext();
+            ctx.runOnContext(v -> {
+                AtomicInteger cnt = new AtomicInteger();
+                LogReadStream rs = log.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1).setStartPos(0));
+                rs.handler((pos, record) -> {
+                    // Streams read on their own off any context, but never on another stream's
+                    Context current = Vertx.currentContext();
+                    testContext.assertTrue(current == null || current == ctx);
+                    if (cnt.incrementAndGet() == numObjects) {
+                        rs.close();
+                        latch.countDown();
+                    }
+                });
+                rs.start();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    private void startAndAppend(int sharedReadWindow) throws Exception {
+        serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).setMaxRecordSize(objLen)
+                .setReadBufferSize(objLen * 3).setSharedReadWindow(sharedReadWindow);
+        startLog();
+        appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
+    }
+
+    private void subscribe(TestContext testContext, CountDownLatch latch, int startObject, Integer pauseEvery) {
+        AtomicInteger cnt = new AtomicInteger(startObject);
+        AtomicBoolean paused = new AtomicBoolean();
+        LogReadStream rs = log.subscribe(new SubDescriptor().setChannel(TEST_CHANNEL_1)
+                .setStartPos(calcPos(startObject, fileSize, objLen)));
+        rs.handler((pos, record) -> {
+            testContext.assertFalse(paused.get());
+            testContext.assertEquals("bar", record.getString("foo"));
+            testContext.assertEquals(cnt.get(), record.getInteger("num"));
+            testContext.assertEquals(calcPos(cnt.get(), fileSize, objLen), (long)pos);
+            if (cnt.incrementAndGet() == numObjects) {
+                rs.close();
+                latch.countDown();
+            } else if (pauseEvery != null && cnt.get() % pauseEvery == 0) {
+                rs.pause();
+                paused.set(true);
+                vertx.setTimer(50, tid -> {
+                    paused.set(false);
+                    rs.resume();
+                });
+            }
+        });
+        rs.start();
+    }
+
+    private long calcPos(int nth, int maxLogChunkSize, int objLen) {
+        int pos = 0;
+        int filePos = 0;
+        for (int i = 0; i < nth; i++) {
+            pos += objLen;
+            filePos += objLen;
+            int remainingSpace = maxLogChunkSize - filePos;
+            if (remainingSpace < objLen) {
+                pos += remainingSpace;
+                filePos = 0;
+            }
+        }
+        return pos;
+    }
+}
@@ -141,7 +141,7 @@ public class StreamTest extends LogTestBase {
                                int maxRecordSize, int expectedEndFile, int expectedEndFileLength, int objLen,
                                long startPos)
             throws Exception {
-        serverOptions = origServerOptions().setMaxLogChunkSize(maxLogChunkSize).
+        serverOptions = serverOptions.setMaxLogChunkSize(maxLogChunkSize).
                 setReadBufferSize(readBuffersize).setMaxRecordSize(maxRecordSize);
         startLog();
 
@@ -181,9 +181,25 @@ public class StreamTest extends LogTestBase {
     @Test
     //@Repeat(value = 1000)
     public void test_pause_resume_in_retro(TestContext testContext) throws Exception {
-        int fileSize = objLen * 20;
+        test_pause_resume_in_retro(testContext, objLen * 20, ServerOptions.DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    @Test
+    public void test_pause_resume_in_retro_small_rb(TestContext testContext) throws Exception {
+        test_pause_resume_in_retro(testContext, objLen * 50, objLen - 1);
+    }
+
+    @Test
+    public void test_stream_read_size_grows(TestContext testContext) throws Exception {
+        numObjects = 1000;
+        int fileSize = objLen * 300 + objLen / 2;
+        serverOptions = origServerOptions().setMaxReadBufferSize(objLen * 64);
+        test_stream(testContext, numObjects, fileSize, 16, objLen, 3, objLen * 100, objLen);
+    }
+
+    private void test_pause_resume_in_retro(TestContext testContext, int fileSize, int readBufferSize) throws Exception {
         serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).
-                setReadBufferSize(ServerOptions.DEFAULT_READ_BUFFER_SIZE).setMaxRecordSize(objLen);
+                setReadBufferSize(readBufferSize).setMaxRecordSize(objLen);
         startLog();
         BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
         appendObjectsSequentially(numObjects, i -> obj.copy().put("num", i));
@@ -327,9 +343,20 @@ public class StreamTest extends LogTestBase {
     @Test
     //@Repeat(value=10000)
     public void test_pause_resume_active_retro_active(TestContext testContext) throws Exception {
+        test_pause_resume_active_retro_active(testContext, false);
+    }
+
+    @Test
+    public void test_pause_resume_active_tail_cache_active(TestContext testContext) throws Exception {
+        test_pause_resume_active_retro_active(testContext, true);
+        testContext.assertTrue(((LogImpl)log).getTailCacheHits() > 0);
+    }
+
+    private void test_pause_resume_active_retro_active(TestContext testContext, boolean tailCache) throws Exception {
         int fileSize = objLen * numObjects + 10;
         serverOptions = origServerOptions().setMaxLogChunkSize(fileSize).
-                setReadBufferSize(ServerOptions.DEFAULT_READ_BUFFER_SIZE).setMaxRecordSize(objLen);
+                setReadBufferSize(ServerOptions.DEFAULT_READ_BUFFER_SIZE).setMaxRecordSize(objLen)
+                .setTailCacheSize(tailCache ? ServerOptions.DEFAULT_TAIL_CACHE_SIZE : 0);
         startLog();
         BsonObject obj = new BsonObject().put("foo", "bar").put("num", 0);
 
@@ -349,7 +376,8 @@ public class StreamTest extends LogTestBase {
                 rs.pause();
                 vertx.setTimer(10, tid -> {
                     rs.resume();
-                    testContext.assertTrue(rs.isRetro());
+                    // Caught up from the tail cache if enabled, otherwise from file
+                    testContext.assertEquals(!tailCache, rs.isRetro());
                 });
             }
             testContext.assertEquals(currCount, record.getInteger("num"));